@@ -0,0 +1,272 @@
+/*
+ * XMLCandidateProfile.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package f2xutils;
+
+import org.xml.sax.*;
+import org.xml.sax.helpers.*;
+import org.xml.sax.ext.LexicalHandler;
+
+import java.io.*;
+import java.util.*;
+import java.nio.charset.*;
+
+/**
+ * An XMLCandidateProfile records which element and attribute paths contain
+ * translatable text in a family of XML documents that share a schema (the
+ * same DITA, DocBook or product-catalog vocabulary, for example). A profile
+ * is learned from sample documents--an element path is a candidate if the
+ * element had text of its own in any sample, and an attribute path if the
+ * attribute had a value that XMLCandidateTuXPathGenerator would consider
+ * translatable--and can be saved to a file and loaded again.
+ * <p>Paths consist of the (qualified) names of the elements from the root,
+ * without subscripts: "/catalog/product/desc" for an element and
+ * "/catalog/product/@title" for an attribute. The saved form is a UTF-8 text
+ * file with one path per line. (Lines that begin with # are comments.)
+ * <p>Given a profile, the XMLImporter can tell whether an element is a
+ * candidate TU as soon as the element starts, so it needn't run the
+ * XMLCandidateTuXPathGenerator over the document first. (Since the
+ * profile decides by path, an element whose path is a candidate becomes a
+ * TU even where its only text is in child elements--which the generator
+ * would have made TUs instead.)
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+public class XMLCandidateProfile {
+
+    /** Element paths that contain translatable text */
+    private HashSet<String> elementPaths = new HashSet<String>();
+
+    /** Attribute paths ("element-path/@name") that do */
+    private HashSet<String> attributePaths = new HashSet<String>();
+
+    /** Profiles loaded from files, keyed by canonical file name */
+    private static HashMap<String,CachedProfile> profileCache
+        = new HashMap<String,CachedProfile>();
+
+    /**
+     * Create an empty profile (to which sample documents can be added with
+     * the learn method).
+     */
+    public XMLCandidateProfile() {
+    }
+
+    /**
+     * Return the profile saved in the named file. Profiles are cached: the
+     * file is read again only if it has been modified since it was last
+     * read.
+     * @param fileName The name of the profile file
+     * @return The profile
+     * @throws java.io.IOException
+     *         If the file can't be read.
+     */
+    public static XMLCandidateProfile forFile(String fileName) throws IOException {
+        File profileFile = new File(fileName);
+        String key = profileFile.getCanonicalPath();
+        long lastModified = profileFile.lastModified();
+
+        synchronized (profileCache) {
+            CachedProfile cached = profileCache.get(key);
+            if ((cached != null) && (cached.lastModified == lastModified)) {
+                return cached.profile;
+            }
+        }
+
+        InputStream profileIn = new FileInputStream(profileFile);
+        XMLCandidateProfile profile = null;
+        try {
+            profile = load(profileIn);
+        }
+        finally {
+            profileIn.close();
+        }
+
+        synchronized (profileCache) {
+            profileCache.put(key, new CachedProfile(profile, lastModified));
+        }
+        return profile;
+    }
+
+    /**
+     * Read a profile written by the save method.
+     * @param profileIn The stream from which to read the profile
+     * @return The profile
+     * @throws java.io.IOException
+     *         If the profile can't be read.
+     */
+    public static XMLCandidateProfile load(InputStream profileIn) throws IOException {
+        XMLCandidateProfile profile = new XMLCandidateProfile();
+        BufferedReader rdr = new BufferedReader(new InputStreamReader(profileIn,
+            Charset.forName("UTF-8")));
+        String line;
+        while ((line = rdr.readLine()) != null) {
+            line = line.trim();
+            if ((line.length() == 0) || line.startsWith("#")) {
+                continue;
+            }
+            if (line.indexOf("/@") >= 0) {
+                profile.attributePaths.add(line);
+            }
+            else {
+                profile.elementPaths.add(line);
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * Write the profile (one path per line, sorted) to a stream.
+     * @param profileOut The stream to which to write the profile
+     * @throws java.io.IOException
+     *         If the profile can't be written.
+     */
+    public synchronized void save(OutputStream profileOut) throws IOException {
+        BufferedWriter wtr = new BufferedWriter(new OutputStreamWriter(profileOut,
+            Charset.forName("UTF-8")));
+        wtr.write("# XML candidate TU profile\n");
+        TreeSet<String> paths = new TreeSet<String>(elementPaths);
+        paths.addAll(attributePaths);
+        for (String path : paths) {
+            wtr.write(path + "\n");
+        }
+        wtr.flush();
+    }
+
+    /**
+     * Add the candidate elements and attributes of a sample document to the
+     * profile.
+     * @param xmlIn The stream from which to read the sample XML document
+     * @throws java.io.IOException
+     *         If the document can't be read.
+     * @throws org.xml.sax.SAXException
+     *         If the document can't be parsed.
+     */
+    public synchronized void learn(InputStream xmlIn) throws IOException, SAXException {
+        XMLReader parser = XMLReaderFactory.createXMLReader();
+        SampleHandler handler = new SampleHandler();
+        parser.setContentHandler(handler);
+        parser.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+
+        // Name elements the same way that the XMLImporter's parser does
+        parser.setFeature("http://xml.org/sax/features/namespaces", true);
+        parser.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+
+        parser.parse(new InputSource(xmlIn));
+    }
+
+    /**
+     * Is the element at the specified path a candidate TU?
+     * @param elementPath The path of the element (e.g. "/catalog/product/desc")
+     * @return true if it is a candidate, else false
+     */
+    public synchronized boolean isCandidateElement(String elementPath) {
+        return elementPaths.contains(elementPath);
+    }
+
+    /**
+     * Is the named attribute of the element at the specified path a
+     * candidate TU?
+     * @param elementPath The path of the element
+     * @param attrName The (qualified) name of the attribute
+     * @return true if it is a candidate, else false
+     */
+    public synchronized boolean isCandidateAttribute(String elementPath, String attrName) {
+        return attributePaths.contains(elementPath + "/@" + attrName);
+    }
+
+    /**
+     * Return the number of element and attribute paths in the profile.
+     * @return The number of paths
+     */
+    public synchronized int size() {
+        return elementPaths.size() + attributePaths.size();
+    }
+
+    /**
+     * SAX handler that adds the paths of a sample document's candidate
+     * elements and attributes to the profile.
+     */
+    private class SampleHandler extends DefaultHandler implements LexicalHandler {
+
+        // Rules that decide whether text/attributes are translatable
+        private XMLCandidateTuXPathGenerator rules = new XMLCandidateTuXPathGenerator();
+
+        // Paths of the elements that have started but not ended
+        private Stack<String> pathStack = new Stack<String>();
+
+        private boolean inCdata = false;
+
+        public void startElement(String namespaceURI, String localName,
+                String qualifiedName, Attributes atts) throws SAXException {
+            String elementName = qualifiedName;
+            if ((elementName == null) || (elementName.length() == 0)) {
+                elementName = localName;
+            }
+
+            String path = (pathStack.isEmpty() ? "" : pathStack.peek())
+                + "/" + elementName;
+            pathStack.push(path);
+
+            for (int i = 0; i < atts.getLength(); i++) {
+                if (rules.isCandidateAttribute(atts.getQName(i), atts.getValue(i))) {
+                    attributePaths.add(path + "/@" + atts.getQName(i));
+                }
+            }
+        }
+
+        public void endElement(String namespaceURI, String localName,
+                String qualifiedName) throws SAXException {
+            pathStack.pop();
+        }
+
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (inCdata || pathStack.isEmpty()
+                    || elementPaths.contains(pathStack.peek())) {
+                return;
+            }
+            if (!rules.isIgnorableText(new String(ch, start, length))) {
+                elementPaths.add(pathStack.peek());
+            }
+        }
+
+        public void startCDATA() throws SAXException { inCdata = true; }
+        public void endCDATA() throws SAXException { inCdata = false; }
+        public void startEntity(String name) throws SAXException {}
+        public void endEntity(String name) throws SAXException {}
+        public void startDTD(String name, String publicId, String systemId)
+            throws SAXException {}
+        public void endDTD() throws SAXException {}
+        public void comment(char[] text, int start, int length) throws SAXException {}
+    }
+
+    /**
+     * A profile read from a file, and when the file was last modified.
+     */
+    private static class CachedProfile {
+        private XMLCandidateProfile profile;
+        private long lastModified;
+
+        private CachedProfile(XMLCandidateProfile profile, long lastModified) {
+            this.profile = profile;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -70,9 +70,14 @@ public class XMLCandidateTuXPathGenerator extends DefaultHandler implements Lexi
     private int streamStatus = 0; 
     
     /**
-     * A bag to hold XPaths
+     * Root of the trie of (subscript-free) element paths
      */
-    private XPathBag xPathBag;
+    private PathNode pathTrie;
+
+    /**
+     * Serial number of the most recently started element
+     */
+    private long elementSerial = 0;
    
     /**
      * White-space from TuPreener (file2xliff4j) 
@@ -231,7 +236,8 @@ public class XMLCandidateTuXPathGenerator extends DefaultHandler implements Lexi
             segmentXPaths = new HashSet<XMLTuXPath>();        
         }
         elementStack = new Stack<ElementStackEntry>();    
-        xPathBag = new XPathBag();
+        pathTrie = new PathNode("");
+        elementSerial = 0;
         
         try {
             // Let's parse with the an XML Reader
@@ -266,7 +272,7 @@ public class XMLCandidateTuXPathGenerator extends DefaultHandler implements Lexi
         // Try to encourage garbage collection by removing references to memory ...
         this.elementStack.setSize(0); this.elementStack = null;
         this.outWriter = null;   // Wrapper for possible output stream.
-        this.xPathBag.clear(); this.xPathBag = null;
+        this.pathTrie = null;
         
         return segmentXPaths;    // Could be null, if we are writing to output stream.
     }
@@ -330,15 +336,16 @@ public class XMLCandidateTuXPathGenerator extends DefaultHandler implements Lexi
             return;
         }
 
-        // Get the full XPath of this element (without a final subscript
-        // following this element).
-        String xPath = getXPathPrefix() + "/" + elementName;
-        
-        // Add this XPath (without the trailing square-bracket-delimited
-        // subscript) to the XPath bag.
-        xPathBag.add(xPath);
+        // Move to this element's node in the path trie, and count this
+        // element among its parent's children with the same name. (The count
+        // is the subscript that follows this element in its full XPath.)
+        ElementStackEntry parent = elementStack.isEmpty() ? null : elementStack.peek();
+        PathNode node = ((parent == null) ? pathTrie : parent.getPathNode())
+            .getChild(elementName);
+        int subscript = node.visit((parent == null) ? 0 : parent.getSerial());
 
-        this.elementStack.push(new ElementStackEntry(elementName,
+        this.elementStack.push(new ElementStackEntry(node, subscript,
+                                   ++elementSerial,
                                    locator.getLineNumber(), 
                                    locator.getColumnNumber()));
         
@@ -347,20 +354,13 @@ public class XMLCandidateTuXPathGenerator extends DefaultHandler implements Lexi
         // If there are some, examine them.
         if (numAtts > 0) {
 
-            // Get the cardinality of my XPath (in case I need it for a subscript
-            // in creating a attribute's full XPath)
-            int myXPathCardinality = xPathBag.cardinality(xPath);
-            
             // Check for potentially translatable attributes
             for (int i = 0; i < atts.getLength(); i++) {
                 String attrName = atts.getQName(i);     // Attr name
-                ignAttrNameM.reset(attrName);           // Attr name matcher
-
                 String attrVal = atts.getValue(i);      // Attr value
-                ignAttrValueM.reset(attrVal);           // Attr value matcher
 
                 // Do either of the "ignore lists match?"
-                if (ignAttrNameM.matches() || ignAttrValueM.matches()) {
+                if (!isCandidateAttribute(attrName, attrVal)) {
                     // If so, skip this attribute
                     continue;
                 }
@@ -377,7 +377,7 @@ public class XMLCandidateTuXPathGenerator extends DefaultHandler implements Lexi
                 // value probably has translatable text of three or more words.?
 //                segmentXPaths.add(new XMLTuXPath(xPath + "[" + myXPathCardinality +"]/@" + attrName, 
 //                    locator.getLineNumber(), locator.getColumnNumber(), attrName));
-                this.addXPath(xPath + "[" + myXPathCardinality +"]/@" + attrName, 
+                this.addXPath(getXPathPrefix() + "/@" + attrName, 
                     locator.getLineNumber(), locator.getColumnNumber(), attrName);
                 
 //                System.err.println("Currently " + segmentXPaths.size() + " segment XPaths.");
@@ -403,16 +403,13 @@ public class XMLCandidateTuXPathGenerator extends DefaultHandler implements Lexi
             return;
         }
 
-        // See if the string doesn't consist exclusively of ignorable characters
-        ignM.reset(theString);
-        
         // If the string doesn't consist exclusively of ignorable characters
         // (such as bullets, dashes, etc.--not to mention spaces, etc.), then
         // Mark this element as having meaningful characters.
         // 4/27/2007 WLW: Add CDATA sequences to the set of ignorable characters
         // (I.e., if the string consists of CDATA Sections, bullets, dashes (etc.)--
         // only--then it is ignorable.
-        if (!ignM.matches()) {
+        if (!isIgnorableText(theString)) {
             if (this.elementStack.size() > 0) {
                 this.elementStack.peek().setHasMeaningfulChars();
             }
@@ -439,9 +436,11 @@ public class XMLCandidateTuXPathGenerator extends DefaultHandler implements Lexi
             return;
         }
 
-        String xPath = getXPathPrefix();
-       
-        ElementStackEntry entry = elementStack.pop();
+        // (Build the element's full XPath only if it will be reported.)
+        ElementStackEntry entry = elementStack.peek();
+        String xPath = entry.isIgnorable() ? null : getXPathPrefix();
+        elementStack.pop();
+
         String elementString = entry.getName();
         
         // Compare the element name from the stack to the local/qualified name(s)
@@ -539,6 +538,32 @@ public class XMLCandidateTuXPathGenerator extends DefaultHandler implements Lexi
      */
     public void comment (char[] text, int start, int length) throws SAXException {}
     
+    /**
+     * Does the text (of an element) consist exclusively of ignorable
+     * characters--white space, bullets, dashes (etc.) and CDATA sections?
+     * (An element whose text isn't ignorable is a candidate TU.)
+     * @param text The characters to check
+     * @return true if the text is ignorable, else false
+     */
+    public boolean isIgnorableText(String text) {
+        ignM.reset(text);
+        return ignM.matches();
+    }
+
+    /**
+     * Does the attribute likely contain translatable text? (It doesn't if its
+     * name is one of the IGNORABLE_ATTR_NAMES or its value is one of the
+     * IGNORABLE_ATTR_VALUES.)
+     * @param attrName The (qualified) name of the attribute
+     * @param attrVal The value of the attribute
+     * @return true if the attribute is a candidate TU, else false
+     */
+    public boolean isCandidateAttribute(String attrName, String attrVal) {
+        ignAttrNameM.reset(attrName);
+        ignAttrValueM.reset(attrVal);
+        return !(ignAttrNameM.matches() || ignAttrValueM.matches());
+    }
+    
     /**
      * Passed XPath information, add the path to the appropriate output medium--
      * either to the segmentXPaths hash set or write it to the output stream--
@@ -576,79 +601,88 @@ public class XMLCandidateTuXPathGenerator extends DefaultHandler implements Lexi
     }
     
     /**
-     * Return the XPath of the element at the top of the element stack.
-     * (The XPath does not include a bracketed [n] subscript.)
+     * Return the full XPath of the element at the top of the element stack.
+     * (Each element in the XPath--including the last--is followed by its
+     * bracketed [n] subscript.) XPath strings are built only for the
+     * elements and attributes that are reported as candidates.
      * @return String representing the XPath of the current element
      */ 
     private String getXPathPrefix() {
-        String xPath = "";
-        
-        if (this.elementStack.size() < 1) {
-            return xPath;                      // Nothing to return.
-        }
+        StringBuilder xPath = new StringBuilder();
         
         for (int i = 0; i < elementStack.size(); i++) {
-            String elementName = elementStack.get(i).getName();
-            xPath += ("/" + elementName + "[" + 
-                    xPathBag.cardinality(xPath + "/" + elementName) + "]");
+            ElementStackEntry entry = elementStack.get(i);
+            xPath.append('/').append(entry.getName())
+                .append('[').append(entry.getSubscript()).append(']');
         }
         
-        return xPath;
+        return xPath.toString();
     }
 
     
     /**
-     * A class to represent a bag of XPaths. 
+     * A node in a trie of element paths (without subscripts). Each node
+     * represents one path--the path of its parent node plus one element
+     * name--so the name strings are shared by all the elements on that
+     * path, and finding the node of a child element moves one pointer.
      */
-    class XPathBag {
-        private HashMap<String,Integer> theBag = new HashMap<String,Integer>(20000);
-        
-        /** Create a new XPathBag */
-        public XPathBag() {}
-        
+    static class PathNode {
+        private String name;            // Element name (shared)
+        private HashMap<String,PathNode> children = null;
+
+        // Serial number of the element whose children were most recently
+        // counted, and the count so far
+        private long countedParent = -1;
+        private int count = 0;
+
         /**
-         * Add a new XPath to the bag
-         * @param xPath The XPath to add to the bag.
+         * Create a path node
+         * @param name The name of the last element in the path
          */
-        public void add(String xPath) {
-            if ((xPath == null) || (xPath.trim().length() == 0)) {
-                System.err.println("Tried to add empty XPath to the XPathBag.");
-                return;
-            }
-            
-            // If this is a dupe, just increment its count
-            if (theBag.containsKey(xPath)) {
-                theBag.put(xPath, Integer.valueOf(theBag.get(xPath).intValue() + 1));
+        PathNode(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Return the node of the path that extends this one by the named
+         * element, creating it the first time it is needed.
+         * @param elementName The name of the child element
+         * @return The child node
+         */
+        PathNode getChild(String elementName) {
+            if (children == null) {
+                children = new HashMap<String,PathNode>();
             }
-            else {
-                // Otherwise, add it as a new singleton XPath
-                theBag.put(xPath, Integer.valueOf(1));
+            PathNode child = children.get(elementName);
+            if (child == null) {
+                child = new PathNode(elementName);
+                children.put(elementName, child);
             }
-            
-//            System.err.println("Currently " + theBag.size() + " bag entries.");
+            return child;
         }
-        
+
         /**
-         * How many occurrences of the specified XPath are in the bag?
-         * @param xPath The XPath whose cardinality is being tested
-         * @return The number of occurrences of the spceified XPath in
-         *         the bag.
+         * Count an element on this path, returning its subscript--the number
+         * of elements on this path under the same parent element so far.
+         * (Only one element on the parent path can be open at a time, so a
+         * single counter that restarts for each new parent suffices.)
+         * @param parentSerial The serial number of the parent element
+         * @return The element's subscript (1, 2, ...)
          */
-        public int cardinality(String xPath) {
-            Integer num = theBag.get(xPath);
-            if (num == null) {
-                return 0;
-            }
-            else {
-                return num.intValue();
+        int visit(long parentSerial) {
+            if (parentSerial != countedParent) {
+                countedParent = parentSerial;
+                count = 0;
             }
+            return ++count;
         }
-        
+
         /**
-         * Remove all the mappings from the bag.
+         * Return the name of the last element in the path.
+         * @return The element name
          */
-        public void clear() {
-            this.theBag.clear();
+        String getName() {
+            return name;
         }
     }
     
@@ -657,21 +691,27 @@ public class XMLCandidateTuXPathGenerator extends DefaultHandler implements Lexi
      * file) of an element. Instances of this class are stored in an  element stack.
      */
     class ElementStackEntry {
-        private String name;    // The element's name
+        private PathNode node;  // The element's node in the path trie
+        private int subscript;  // Its subscript in its full XPath
+        private long serial;    // Its serial number (unique in the document)
         private int line;       // The line number where it occurs
         private int column;     // Its column number
         private boolean hasMeaningfulChars; // Chars that aren't preened out by TU Preeners
         
         /**
-         * The constructor takes three arguments
-         * @param name The element name
+         * The constructor takes five arguments
+         * @param node The element's node in the path trie
+         * @param subscript The number of XPath instances that
+         *        are the same as me (so far), including me.
+         * @param serial The element's serial number
          * @param line The number of the line where it occurs
          * @param column The number of the column where it occurs
-         * @param cardinality The number of XPath instances that
-         *        are the same as me (so far).
          */
-        public ElementStackEntry(String name, int line, int column) {
-            this.name = name;
+        public ElementStackEntry(PathNode node, int subscript, long serial,
+                int line, int column) {
+            this.node = node;
+            this.subscript = subscript;
+            this.serial = serial;
             this.line = line;
             this.column = column;
         }
@@ -697,7 +737,31 @@ public class XMLCandidateTuXPathGenerator extends DefaultHandler implements Lexi
          * @return The element's name
          */
         public String getName() {
-            return this.name;
+            return this.node.getName();
+        }
+
+        /**
+         * Return the element's node in the path trie.
+         * @return The path node
+         */
+        public PathNode getPathNode() {
+            return this.node;
+        }
+
+        /**
+         * Return the element's subscript.
+         * @return The subscript that follows the element in its XPath
+         */
+        public int getSubscript() {
+            return this.subscript;
+        }
+
+        /**
+         * Return the element's serial number.
+         * @return The serial number
+         */
+        public long getSerial() {
+            return this.serial;
         }
         
         /**
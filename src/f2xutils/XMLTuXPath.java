@@ -77,10 +77,12 @@ public class XMLTuXPath {
         this.columnNum = columnNum;
         this.attribute = attribute;  // Might be null
 
-        // Compute the hash code:
-        this.hashCode = (lineNum << 16) | columnNum;
+        // Compute the hash code. (Not (lineNum << 16) | columnNum, which
+        // collides when columns exceed 65535--as they do in minified XML.)
+        long h = (lineNum * 0x9e3779b97f4a7c15L) + columnNum;
+        this.hashCode = (int)(h ^ (h >>> 32));
         if (attribute != null) {
-            this.hashCode += 1;
+            this.hashCode = (31 * this.hashCode) + attribute.hashCode();
         }
     }
     
@@ -100,6 +102,14 @@ public class XMLTuXPath {
         return this.columnNum;
     }
 
+    /** 
+     * Return the name of the attribute (at the end of the XPath).
+     * @return The attribute's name, or null if the XPath is to an element.
+     */
+    public String getAttribute() {
+        return this.attribute;
+    }
+
     /** 
      * Return the element's XPath
      * @return The element's XPath
@@ -145,6 +155,6 @@ public class XMLTuXPath {
             lineNum == ((XMLTuXPath)o).lineNum &&
             columnNum == ((XMLTuXPath)o).columnNum &&
             ((attribute == null && ((XMLTuXPath)o).attribute == null) ||
-                attribute.equals(((XMLTuXPath)o).attribute));
+                (attribute != null && attribute.equals(((XMLTuXPath)o).attribute)));
     }
 }
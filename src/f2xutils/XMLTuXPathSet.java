@@ -0,0 +1,237 @@
+/*
+ * XMLTuXPathSet.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package f2xutils;
+
+import java.util.*;
+
+/**
+ * A set of XMLTuXPath locations--the line and column where an element
+ * starts, plus (optionally) the name of one of its attributes--used by the
+ * XMLImporter to look up whether each element/attribute it encounters is a
+ * candidate TU (or one to skip).
+ * <p>Each location is packed into a single long (24 bits of line number,
+ * 28 bits of column number and a 12-bit ordinal for the attribute name),
+ * and the longs are kept in an open-addressing hash table. Looking up a
+ * location therefore creates no objects, and locations on very long lines
+ * (in minified XML, for example) don't collide. The rare location that
+ * doesn't fit (beyond line 16777215 or column 268435455, or with more than
+ * 4095 distinct attribute names) is kept in an ordinary HashSet instead.
+ * <p>Like XMLTuXPath's equals method, the set ignores the XPath strings, and
+ * never contains a location whose line or column number is 0.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+public class XMLTuXPathSet {
+
+    private static final int LINE_BITS = 24;
+    private static final int COLUMN_BITS = 28;
+    private static final int ATTR_BITS = 12;
+
+    private static final int MAX_LINE = (1 << LINE_BITS) - 1;
+    private static final int MAX_COLUMN = (1 << COLUMN_BITS) - 1;
+    private static final int MAX_ATTR = (1 << ATTR_BITS) - 1;
+
+    // Open-addressing hash table of packed locations (0 means empty)
+    private long[] keys = new long[256];
+    private int numKeys = 0;
+
+    // Ordinals (1 ... MAX_ATTR) of the attribute names seen so far. (An
+    // element's location has ordinal 0.)
+    private HashMap<String,Integer> attrOrdinals = new HashMap<String,Integer>();
+
+    // Locations that can't be packed (usually null)
+    private HashSet<XMLTuXPath> overflow = null;
+
+    /**
+     * Create an empty set.
+     */
+    public XMLTuXPathSet() {
+    }
+
+    /**
+     * Create a set that contains the locations of a collection of XMLTuXPaths.
+     * @param xPaths The XMLTuXPaths to add
+     */
+    public XMLTuXPathSet(Collection<XMLTuXPath> xPaths) {
+        for (XMLTuXPath xPath : xPaths) {
+            add(xPath);
+        }
+    }
+
+    /**
+     * Add the location of an XMLTuXPath to the set.
+     * @param xPath The XMLTuXPath to add
+     */
+    public void add(XMLTuXPath xPath) {
+        add(xPath.getLineNumber(), xPath.getColumnNumber(), xPath.getAttribute());
+    }
+
+    /**
+     * Add the location of an element or attribute to the set.
+     * @param line The number of the line where the element starts
+     * @param column The number of the column where it starts
+     * @param attrName The name of the attribute, or null (for the element)
+     */
+    public void add(int line, int column, String attrName) {
+        if ((line <= 0) || (column <= 0)) {
+            return;
+        }
+
+        int ordinal = 0;
+        if (attrName != null) {
+            Integer ord = attrOrdinals.get(attrName);
+            if (ord != null) {
+                ordinal = ord.intValue();
+            }
+            else if (attrOrdinals.size() < MAX_ATTR) {
+                ordinal = attrOrdinals.size() + 1;
+                attrOrdinals.put(attrName, Integer.valueOf(ordinal));
+            }
+            else {
+                ordinal = -1;     // Out of ordinals
+            }
+        }
+
+        if ((ordinal < 0) || (line > MAX_LINE) || (column > MAX_COLUMN)) {
+            if (overflow == null) {
+                overflow = new HashSet<XMLTuXPath>();
+            }
+            overflow.add(new XMLTuXPath("", line, column, attrName));
+            return;
+        }
+
+        long key = pack(line, column, ordinal);
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return;           // Already present
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        numKeys++;
+
+        // Keep the table at most half full
+        if (numKeys * 2 > keys.length) {
+            rehash();
+        }
+    }
+
+    /**
+     * Does the set contain the location of the specified XMLTuXPath?
+     * @param xPath The XMLTuXPath to look up
+     * @return true if the set contains its location, else false
+     */
+    public boolean contains(XMLTuXPath xPath) {
+        return contains(xPath.getLineNumber(), xPath.getColumnNumber(),
+            xPath.getAttribute());
+    }
+
+    /**
+     * Does the set contain the location of the specified element or
+     * attribute?
+     * @param line The number of the line where the element starts
+     * @param column The number of the column where it starts
+     * @param attrName The name of the attribute, or null (for the element)
+     * @return true if the set contains the location, else false
+     */
+    public boolean contains(int line, int column, String attrName) {
+        if ((line <= 0) || (column <= 0)) {
+            return false;
+        }
+
+        int ordinal = 0;
+        if (attrName != null) {
+            Integer ord = attrOrdinals.get(attrName);
+            if (ord == null) {
+                return (overflow != null)
+                    && overflow.contains(new XMLTuXPath("", line, column, attrName));
+            }
+            ordinal = ord.intValue();
+        }
+
+        if ((line > MAX_LINE) || (column > MAX_COLUMN)) {
+            return (overflow != null)
+                && overflow.contains(new XMLTuXPath("", line, column, attrName));
+        }
+
+        long key = pack(line, column, ordinal);
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Return the number of locations in the set.
+     * @return The size of the set
+     */
+    public int size() {
+        return numKeys + ((overflow == null) ? 0 : overflow.size());
+    }
+
+    /**
+     * Remove all the locations from the set.
+     */
+    public void clear() {
+        keys = new long[256];
+        numKeys = 0;
+        attrOrdinals.clear();
+        overflow = null;
+    }
+
+    /** Pack a location into a (non-zero) long */
+    private static long pack(int line, int column, int ordinal) {
+        return ((long)line << (COLUMN_BITS + ATTR_BITS))
+            | ((long)column << ATTR_BITS)
+            | ordinal;
+    }
+
+    /** Return the table slot at which to start looking for a key */
+    private static int slot(long key, int mask) {
+        long h = key * 0x9e3779b97f4a7c15L;     // Spread the bits
+        return (int)(h >>> 32) & mask;
+    }
+
+    /** Double the size of the hash table */
+    private void rehash() {
+        long[] oldKeys = keys;
+        keys = new long[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != 0) {
+                int slot = slot(key, mask);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+}
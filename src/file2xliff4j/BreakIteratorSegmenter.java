@@ -0,0 +1,110 @@
+/**
+ * BreakIteratorSegmenter.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import java.text.BreakIterator;
+//import com.ibm.icu.text.BreakIterator;
+import java.util.*;
+
+/**
+ * Sentence segmentation engine based on java.text.BreakIterator. (This is
+ * the engine used for SENTENCE segment boundaries.)
+ * <p>BreakIterator.getSentenceInstance creates a new iterator (cloning the
+ * locale's rule data) each time it is called--which, when called for each
+ * paragraph of a document, costs far more than the segmentation itself.
+ * This class keeps one sentence iterator per locale per thread, and hands
+ * the same iterator out again for every paragraph (of every document) the
+ * thread segments.
+ * <p>Because the iterator is shared (within the thread), the caller must
+ * finish with it before it calls getSentenceInstance again for the same
+ * locale, and must not hold onto it.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+public class BreakIteratorSegmenter implements Segmenter {
+
+    private static final BreakIteratorSegmenter instance 
+        = new BreakIteratorSegmenter();
+
+    // Each thread's sentence iterators, keyed by locale
+    private static final ThreadLocal<HashMap<Locale,BreakIterator>> sentenceIterators
+        = new ThreadLocal<HashMap<Locale,BreakIterator>>() {
+            protected HashMap<Locale,BreakIterator> initialValue() {
+                return new HashMap<Locale,BreakIterator>();
+            }
+        };
+
+    /** Use getInstance */
+    private BreakIteratorSegmenter() { }
+
+    /**
+     * Return the (shared) BreakIterator segmentation engine.
+     * @return The segmenter
+     */
+    public static BreakIteratorSegmenter getInstance() {
+        return instance;
+    }
+
+    /**
+     * Return this thread's sentence break iterator for the specified locale,
+     * creating it the first time it is requested. The caller needs to set
+     * the iterator's text before using it.
+     * @param locale The locale whose sentence boundary rules to use
+     * @return The sentence iterator
+     */
+    public static BreakIterator getSentenceInstance(Locale locale) {
+        HashMap<Locale,BreakIterator> iterators = sentenceIterators.get();
+        BreakIterator sBoundary = iterators.get(locale);
+        if (sBoundary == null) {
+            sBoundary = BreakIterator.getSentenceInstance(locale);
+            iterators.put(locale, sBoundary);
+        }
+
+        return sBoundary;
+    }
+
+    /**
+     * Passed the text of a paragraph and its locale, return the offsets
+     * of the ends of its sentences, as determined by the locale's sentence
+     * BreakIterator.
+     * @param text The text to segment
+     * @param locale The language of the text
+     * @return The ends of the sentences
+     */
+    public int[] getSegmentEnds(String text, Locale locale) {
+        BreakIterator sBoundary = getSentenceInstance(locale);
+        sBoundary.setText(text);
+        
+        int[] ends = new int[8];
+        int numEnds = 0;
+        sBoundary.first();
+        for (int sEnd = sBoundary.next(); sEnd != BreakIterator.DONE; 
+             sEnd = sBoundary.next()) {
+            if (numEnds == ends.length) {
+                ends = Arrays.copyOf(ends, numEnds * 2);
+            }
+            ends[numEnds++] = sEnd;
+        }
+
+        return Arrays.copyOf(ends, numEnds);
+    }
+}
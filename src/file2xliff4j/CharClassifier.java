@@ -0,0 +1,280 @@
+/**
+ * CharClassifier.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import java.util.*;
+
+/**
+ * Character classes used when preening translation units and joining lines
+ * of text--the classes that TuPreener.WHITE_SPACE_CLASS,
+ * SECONDARY_WHITE_SPACE_CLASS and HTML_TAGS_AS_ENTITIES describe as regular
+ * expressions. The classes are looked up in tables (one bit per BMP
+ * character) built once when the class is loaded, so the importers don't
+ * need to compile (or match against) patterns built from those strings.
+ * <p>The tables are never modified after they are built; all methods are
+ * safe to call from several threads at once.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+public final class CharClassifier {
+
+    // The characters of TuPreener.WHITE_SPACE_CLASS other than the regex \s
+    // (See the comments there for what each one is.)
+    private static final String PREENABLE_SPACE_CHARS
+        = "\u0009 \u00a0\u00b7\u2002\u2003\u2022\u2023"
+        + "\u2043\u204c\u204d\u2219\u25c9\u25d8\u25e6_"
+        + "\u2381\u2382\u0332\u0333\u2017\ufeff\u2751\u2752"
+        + "\u0085";
+
+    // The characters that the regex \s matches
+    private static final String REGEX_SPACE_CHARS = " \t\n\u000b\f\r";
+
+    // Space characters that might appear at the end of a line. (We omit
+    // non-breaking spaces, etc., since by definition, they won't appear
+    // at the end of a line.) When these (or DASH_HYPHEN_CHARS) appear at the
+    // end of a line, PlaintextImporter doesn't add a space when joining it
+    // to the next line.
+    private static final String SPACE_CHARS
+        = " "  // "Standard" space
+        + "\u2003"  // Em space
+        + "\u3000"  // Ideographic space
+        + "\u2002"  // En space
+        + "\u2007"  // Figure space
+        + "\u2004"  // Three-per-em space
+        + "\u2005"  // Four-per-em space
+        + "\u2006"  // Six-per-em space
+        + "\u2009"  // Thin space
+        + "\u205f"  // Medium mathematical space
+        + "\u2008"  // Punctuation space
+        + "\u200a"  // Hair space
+        + "\u200b"; // Zero width space
+
+    // Dashes and hyphens (ditto)
+    private static final String DASH_HYPHEN_CHARS
+        = "-"  // Hyphen-minus
+        + "\u2010"  // Hyphen
+        + "\u2013"  // En dash
+        + "\u2012"  // Figure dash
+        + "\u2212"  // Minus sign
+        + "\u2014"  // Em dash
+        + "\u2015"  // Horizontal bar
+        + "\u058a"  // Armenian hyphen
+        + "\u301c"  // Wave dash (Japanese)
+        + "\u3030"; // Wavy dash (Japanese)
+
+    // TuPreener.WHITE_SPACE_CLASS
+    private static final BitSet preenableSpace
+        = toBitSet(PREENABLE_SPACE_CHARS + REGEX_SPACE_CHARS);
+
+    // SPACE_CHARS and DASH_HYPHEN_CHARS
+    private static final BitSet spaceOrDash
+        = toBitSet(SPACE_CHARS + DASH_HYPHEN_CHARS);
+
+    /** All methods are static */
+    private CharClassifier() { }
+
+    /** Return a bit set with the bits of the characters of chars set */
+    private static BitSet toBitSet(String chars) {
+        BitSet bits = new BitSet(0x10000);
+        for (int i = 0; i < chars.length(); i++) {
+            bits.set(chars.charAt(i));
+        }
+        return bits;
+    }
+
+    /**
+     * Is c a character that TuPreener moves out of the core of a TU when it
+     * appears at its beginning or end? (Is it in WHITE_SPACE_CLASS?)
+     * @param c The character to check
+     * @return true if c is preenable white space, else false
+     */
+    public static boolean isPreenableSpace(char c) {
+        return preenableSpace.get(c);
+    }
+
+    /**
+     * Is c in SECONDARY_WHITE_SPACE_CLASS (a hyphen), which doesn't count
+     * as meaningful text, though TuPreener doesn't move it out of the core?
+     * @param c The character to check
+     * @return true if c is secondary white space, else false
+     */
+    public static boolean isSecondarySpace(char c) {
+        return c == '-';
+    }
+
+    /**
+     * Is c a space or a dash/hyphen--after which two lines of text can be
+     * joined without inserting a space?
+     * @param c The character to check
+     * @return true if c is a space, dash or hyphen; else false
+     */
+    public static boolean isSpaceOrDash(char c) {
+        return spaceOrDash.get(c);
+    }
+
+    /**
+     * Does the TU text contain anything besides white space, hyphens, bx/ex/x
+     * tags and (optionally) HTML tags represented as entities? (Text that
+     * doesn't has no core for TuPreener to mark.)
+     * @param text The text to check
+     * @param htmlTagsAsEntities If true, HTML_TAGS_AS_ENTITIES (such as
+     *        "&amp;lt;b&amp;gt;") aren't meaningful text either.
+     * @return true if the text has meaningful text, else false
+     */
+    public static boolean hasMeaningfulText(CharSequence text,
+            boolean htmlTagsAsEntities) {
+        return hasMeaningfulText(text, 0, text.length(), htmlTagsAsEntities);
+    }
+
+    /**
+     * Does the TU text between start and end contain anything besides white
+     * space, hyphens, bx/ex/x tags and (optionally) HTML tags represented as
+     * entities? (This is the complement of what TuPreener's
+     * noCoreTextPattern/noCoreTextOrHtmlPattern match--including their
+     * willingness to ignore one final line terminator.)
+     * @param text The text to check
+     * @param start The offset of the first character to check
+     * @param end The offset just past the last character to check
+     * @param htmlTagsAsEntities If true, HTML tags represented as entities
+     *        aren't meaningful text either.
+     * @return true if the text has meaningful text, else false
+     */
+    public static boolean hasMeaningfulText(CharSequence text, int start, int end,
+            boolean htmlTagsAsEntities) {
+        int k = start;
+        while (k < end) {
+            char c = text.charAt(k);
+            if (isPreenableSpace(c) || isSecondarySpace(c)) {
+                k++;
+            }
+            else if (c == '<') {
+                int nameEnd;
+                if ((k + 2 < end) && ((text.charAt(k + 1) == 'b') || (text.charAt(k + 1) == 'e'))
+                    && (text.charAt(k + 2) == 'x')) {
+                    nameEnd = k + 3;
+                }
+                else if ((k + 1 < end) && (text.charAt(k + 1) == 'x')) {
+                    nameEnd = k + 2;
+                }
+                else {
+                    break;
+                }
+                int gt = indexOf(text, '>', nameEnd, end);
+                if (gt < 0) {
+                    break;
+                }
+                k = gt + 1;
+            }
+            else if (htmlTagsAsEntities && (c == '&')) {
+                int next = entityTagEnd(text, k, end, false);
+                if (next < 0) {
+                    break;
+                }
+                k = next;
+            }
+            else {
+                break;
+            }
+        }
+
+        // Only a final line terminator may follow
+        if (k == end) {
+            return false;
+        }
+        if (k < end - 2) {
+            return true;
+        }
+        char c = text.charAt(k);
+        if (k == end - 2) {
+            return !((c == '\r') && (text.charAt(k + 1) == '\n'));
+        }
+        if (c == '\n') {
+            return (k > start) && (text.charAt(k - 1) == '\r');
+        }
+        return !((c == '\r') || (c == '\u0085') || ((c|1) == '\u2029'));
+    }
+
+    /**
+     * If an HTML tag represented as entities (HTML_TAGS_AS_ENTITIES, such as
+     * "&amp;lt;/b&amp;gt;") starts at offset i, return the offset just past
+     * its closing "&amp;gt;". Otherwise return -1.
+     * @param text The text to check
+     * @param i The offset to check
+     * @param end The offset beyond which the tag may not extend
+     * @param canonEq If true, match as the regex would with canonical
+     *        equivalence (which doesn't match a CR followed by LF inside the
+     *        tag).
+     * @return The end of the tag, or -1
+     */
+    static int entityTagEnd(CharSequence text, int i, int end, boolean canonEq) {
+        if ((i + 4 > end) || !startsWith(text, "&lt;", i)) {
+            return -1;
+        }
+        int k = i + 4;
+        if ((k < end) && (text.charAt(k) == '/')) {
+            k++;
+        }
+        if ((k >= end) || !isAsciiLetter(text.charAt(k))) {
+            return -1;
+        }
+        int amp = indexOf(text, '&', k + 1, end);
+        if ((amp < 0) || (amp + 4 > end) || !startsWith(text, "&gt;", amp)) {
+            return -1;
+        }
+        if (canonEq) {
+            for (int q = k + 1; q < amp - 1; q++) {
+                if ((text.charAt(q) == '\r') && (text.charAt(q + 1) == '\n')) {
+                    return -1;
+                }
+            }
+        }
+        return amp + 4;
+    }
+
+    /** Is c an ASCII letter? */
+    private static boolean isAsciiLetter(char c) {
+        return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'));
+    }
+
+    /** Return the offset of c in [from,end) of text, or -1 */
+    private static int indexOf(CharSequence text, char c, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Does text have prefix at offset i? */
+    private static boolean startsWith(CharSequence text, String prefix, int i) {
+        if (i + prefix.length() > text.length()) {
+            return false;
+        }
+        for (int j = 0; j < prefix.length(); j++) {
+            if (text.charAt(i + j) != prefix.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
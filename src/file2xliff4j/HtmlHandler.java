@@ -80,9 +80,9 @@ public class HtmlHandler extends DefaultHandler {
     private HashSet<String> tuAttrs = new HashSet<String>();
     
     private Set<String> tuDelims;           // Tags that signal TU break
-    private OutputStreamWriter outXliff;    // Where to write XLIFF
-    private OutputStreamWriter outSkeleton;   // Where to write Target file
-    private OutputStreamWriter outFormat;   // Where to write Format file
+    private Writer outXliff;    // Where to write XLIFF
+    private Writer outSkeleton;   // Where to write Target file
+    private Writer outFormat;   // Where to write Format file
     private Locale sourceLang;              // Natural language of original
     private String docType;                 // Should be HTML
     private String originalFileName;        // For <file>'s "original" attribute
@@ -125,6 +125,10 @@ public class HtmlHandler extends DefaultHandler {
   
     private int curTagNum = 1;              // Fos skeleton
     
+    // Where each tag written to the skeleton ends in the HTML (indexed by
+    // its seq number), as (line << 32) | column. (0 if unknown)
+    private long[] tagPositions = new long[1024];
+    
     private String tuAttrName = "";         // If tu is an attr value (e.g. alt ...)
                                             //   this holds its name.
     
@@ -133,45 +137,14 @@ public class HtmlHandler extends DefaultHandler {
 
     private HashSet<String> tableTags = new HashSet<String>();
 
-    // Regex for bx-bx-text-ex-ex block
-    String bxExPattern = "^(.*?)"
-        // Match the first of two adjacent bx tags
-        // Group 5 is 1st ctype; group 7 is 1st rid
-        + "(<bx id=(['\"])\\d+\\3[^>]+?ctype=(['\"])([^'\"]*)\\4[^>]+?rid=(['\"])(\\d+)\\6[^/>]*/>\\s*"
-        // Then the second immediately adjoining bx tag. Capture its ctype--it is the more
-        // important of the two ctypes
-        // 2nd ctype is group 10
-        // 2nd rid is group 12
-        + "<bx id=(['\"])\\d+\\8[^>]+?ctype=(['\"])([^'\"]*)\\9[^>]+?rid=(['\"])(\\d+)\\11[^/>]*/>)" 
-        // Then stuff between the above bxes and the closing exes
-        + "([^<].*?)"                            // At least 1 character long, group 13
-        // Then the first ex (with rid matching the second bx above)
-        +  "(<ex id=(['\"])\\d+\\15[^>]+?rid=(['\"])\\12\\16 */>\\s*"
-        // And the second ex (with rid matching the first bx above)
-        +  "<ex id=(['\"])\\d+\\17[^>]+?rid=(['\"])\\7\\18 */>)"
-        // Text that follows the span:
-        +  "(.*)$";  // What follows
-
-    Matcher bxExMatcher = Pattern.compile(bxExPattern,Pattern.CASE_INSENSITIVE).matcher("");
-
-    // Regex for bx-bx-ex-ex block (no intervening text) to map to x tag.
-    String bxExToXPattern = "^(.*?)"
-        // Match the first of two adjacent bx tags
-        // Group 5 is 1st ctype; group 7 is 1st rid
-        + "(<bx id=(['\"])\\d+\\3[^>]+?ctype=(['\"])([^'\"]*)\\4[^>]+?rid=(['\"])(\\d+)\\6[^/>]*/>\\s*"
-        // Then the second immediately adjoining bx tag. Capture its ctype--it is the more
-        // important of the two ctypes
-        // 2nd ctype is group 10
-        // 2nd rid is group 12
-        + "<bx id=(['\"])\\d+\\8[^>]+?ctype=(['\"])([^'\"]*)\\9[^>]+?rid=(['\"])(\\d+)\\11[^/>]*/>" 
-        // Then the first ex (with rid matching the second bx above)
-        +  "<ex id=(['\"])\\d+\\13[^>]+?rid=(['\"])\\12\\14 */>\\s*"
-        // And the second ex (with rid matching the first bx above)
-        +  "<ex id=(['\"])\\d+\\15[^>]+?rid=(['\"])\\7\\16 */>)"
-        // Text that follows the span:
-        +  "(.*)$";  // What follows
-
-    Matcher bxExToXMatcher = Pattern.compile(bxExToXPattern,Pattern.CASE_INSENSITIVE).matcher("");
+    // If non-null, the index in which to look up repeated segments
+    private RepetitionIndex repetitions = null;
+
+    // If non-null, the segmenter to use for SRX segment boundaries
+    private SrxSegmenter srxSegmenter = null;
+    
+    // If non-null, the statistics to which to add each TU written
+    private ImportStatistics statistics = null;
     
     /** For testing only */
     public HtmlHandler() {}
@@ -190,8 +163,8 @@ public class HtmlHandler extends DefaultHandler {
      * @param originalFileName The original file's name (required as an attribute
      *        in the "file" element)
      */
-    public HtmlHandler(Set<String> tuTags, OutputStreamWriter outXliff, 
-            OutputStreamWriter outSkeleton, OutputStreamWriter outFormat,
+    public HtmlHandler(Set<String> tuTags, Writer outXliff, 
+            Writer outSkeleton, Writer outFormat,
             Locale sourceLang, String docType, String originalFileName,
             SegmentBoundary boundary) {
         
@@ -210,6 +183,64 @@ public class HtmlHandler extends DefaultHandler {
         initHashes();                       // Hashes tell what to skip and not.
     }
 
+    /**
+     * Set the index in which to look up the core text of each TU written,
+     * so that repeated segments are marked as such. (If null, they aren't.)
+     * @param repetitions The repetition index
+     */
+    public void setRepetitionIndex(RepetitionIndex repetitions) {
+        this.repetitions = repetitions;
+    }
+
+    /**
+     * Set the segmenter to use for SRX segment boundaries. (If null, the
+     * default SRX segmenter is used.)
+     * @param srxSegmenter The SRX segmenter
+     */
+    public void setSrxSegmenter(SrxSegmenter srxSegmenter) {
+        this.srxSegmenter = srxSegmenter;
+    }
+
+    /**
+     * Set the statistics to which to add the core text of each TU written.
+     * (If null, no statistics are kept.)
+     * @param statistics The statistics
+     */
+    public void setStatistics(ImportStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Return where each of the tags written to the intermediate skeleton ends
+     * in the HTML, as reported by the parser's locator. The position of the
+     * tag with seq number <i>n</i> is element <i>n</i> of the returned array,
+     * packed into a long as (line &lt;&lt; 32) | column. (Elements for tags
+     * whose position is unknown--those that the handler supplied to close
+     * table tags implicitly, for example--are 0.) The HtmlSkeletonMerger uses
+     * these to find the tags in the original HTML without searching for them.
+     * @return The tag positions
+     */
+    public long[] getTagPositions() {
+        return Arrays.copyOf(tagPositions, curTagNum);
+    }
+
+    /**
+     * Record that the tag with the specified seq number ends at the locator's
+     * current position.
+     * @param seq The tag's sequence number in the skeleton
+     */
+    private void recordTagPosition(int seq) {
+        if (locator == null) {
+            return;
+        }
+        if (seq >= tagPositions.length) {
+            tagPositions = Arrays.copyOf(tagPositions, 
+                Math.max(seq + 1, tagPositions.length * 2));
+        }
+        tagPositions[seq] = ((long)locator.getLineNumber() << 32)
+            | (locator.getColumnNumber() & 0xffffffffL);
+    }
+
     /**
      * Method (inherited from Default Handler or one if its ancestors)
      * that sets the "locator"--in this case the org.xml.sax.helpers.LocatorImpl
@@ -249,7 +280,6 @@ public class HtmlHandler extends DefaultHandler {
             }
             
             outXliff.write(">\r\n" + indent('0') + "</header>\r\n" + indent('0') + "<body>\r\n");
-            outXliff.flush();
 
         }
         catch(IOException e) {
@@ -261,7 +291,6 @@ public class HtmlHandler extends DefaultHandler {
         try {
             outFormat.write("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\r\n");
             outFormat.write("<tags formatting='&lt;'>\r\n");
-            outFormat.flush();
         }
         catch(IOException e) {
             System.err.println("Error writing format file's declaration and preliminaries.");
@@ -307,7 +336,6 @@ public class HtmlHandler extends DefaultHandler {
                     for (int i = 0; i < implicit.length; i++) {
                         outSkeleton.write("</" + implicit[i] + " seq='" + curTagNum++ + "'>\r\n");
                     }
-                    outSkeleton.flush();
                 }
                 catch(IOException e) {
                     System.err.println("Error while writing skeleton file.");
@@ -325,8 +353,8 @@ public class HtmlHandler extends DefaultHandler {
         // the tags that become bx/ex/x tags.
         if (!formatCtype.containsKey(elementName.toLowerCase())) {
             try {
+                recordTagPosition(curTagNum);
                 outSkeleton.write("<" + elementName + " seq='" + curTagNum++ + "'>\r\n");
-                outSkeleton.flush();
             }
             catch(IOException e) {
                 System.err.println("Error while writing skeleton file.");
@@ -420,7 +448,6 @@ public class HtmlHandler extends DefaultHandler {
                 
                 // Then close the tag
                 outFormat.write("></tag>\r\n");
-                outFormat.flush();
             }
             catch(IOException e) {
                 System.err.println("Error writing " + elementName + " start tag (id "
@@ -578,7 +605,6 @@ public class HtmlHandler extends DefaultHandler {
                     for (int i = 0; i < implicit.length; i++) {
                         outSkeleton.write("</" + implicit[i] + " seq='" + curTagNum++ + "'>\r\n");
                     }
-                    outSkeleton.flush();
                 }
                 catch(IOException e) {
                     System.err.println("Error while writing skeleton file.");
@@ -597,8 +623,8 @@ public class HtmlHandler extends DefaultHandler {
         // the tags that become bx/ex tags.
         if (!formatCtype.containsKey(elementName.toLowerCase())) {
             try {
+                recordTagPosition(curTagNum);
                 outSkeleton.write("</" + elementName + " seq='" + curTagNum++ + "'>\r\n");
-                outSkeleton.flush();
             }
             catch(IOException e) {
                 System.err.println("Error while writing skeleton file.");
@@ -635,7 +661,6 @@ public class HtmlHandler extends DefaultHandler {
                 try {
                     outFormat.write("  <tag id='" + bxExId + "'>/"
                             + elementName + "></tag>\r\n");
-                    outFormat.flush();
                 }
                 catch(IOException e) {
                     System.err.println("Error writing " + elementName + " start tag (id "
@@ -706,221 +731,87 @@ public class HtmlHandler extends DefaultHandler {
     }
 
     /**
-     * Passed the full text of a Translation Unit source, check for nested
+     * Passed the tokens of a Translation Unit source, check for nested
      * bx and ex tags. Replace multiply nested bx/ex tags with a single pair
      * of bx/ex tags, adding a format file entry to map the single bx tag to the
      * bx tags it replaces and the single ex tag to the ex tags it replaces.
-     * <p>If the nested bx-bx-ex-ex tags have no intervening spaces, replace them
+     * <p>If the nested bx-bx-ex-ex tags have no intervening text, replace them
      * with a single x tag.
-     * @param in The full text of the Translation Unit source 
-     * @return The modified text of the Translation Unit.
+     * @param tu The tokens of the Translation Unit source (which this method
+     *        modifies in place)
      */
-    private String collapseNestedBxEx (String in) {
-        // First of all, if the string is null or zero-length already, just return a
-        // zero-length string.
-        if ((in == null) || (in.length() == 0)
-            || (in.trim().length() == 0)) {  // Nothing meaningful.
-            return "";                       // Return zero-length string
-        }
-
-        // If the input string doesn't include at least one bx tag, return the
-        // input string unchanged.
-        if (in.indexOf("<bx") == -1) {
-            return in;
-        }
-
-        // Loop through the text looking for a bx-bx-text-ex-ex sequence. Replace
-        // it with bx-text-ex.
-        
-//        // Regex for span-tab-endspan block
-//        String bxExPattern = "^(.*?)"
-//            // Match the first of two adjacent bx tags
-//            // Group 5 is 1st ctype; group 7 is 1st rid
-//            + "(<bx id=(['\"])\\d+\\3[^>]+?ctype=(['\"])([^'\"]*)\\4[^>]+?rid=(['\"])(\\d+)\\6[^/>]*/>"
-//            // Then the second immediately adjoining bx tag. Capture its ctype--it is the more
-//            // important of the two ctypes
-//            // 2nd ctype is group 10
-//            // 2nd rid is group 12
-//            + "<bx id=(['\"])\\d+\\8[^>]+?ctype=(['\"])([^'\"]*)\\9[^>]+?rid=(['\"])(\\d+)\\11[^/>]*/>)" 
-//            // Then stuff between the above bxes and the closing exes
-//            + "([^<].*?)"                            // At least 1 character long, group 13
-//            // Then the first ex (with rid matching the second bx above)
-//            +  "(<ex id=(['\"])\\d+\\15[^>]+?rid=(['\"])\\12\\16 */>"
-//            // And the second ex (with rid matching the first bx above)
-//            +  "<ex id=(['\"])\\d+\\17[^>]+?rid=(['\"])\\7\\18 */>)"
-//            // Text that follows the span:
-//            +  "(.*)$";  // What follows
-//
-//        Matcher bxExMatcher = Pattern.compile(bxExPattern,Pattern.CASE_INSENSITIVE).matcher("");
-
-        String curTuState = in;   // Start with what was passed in.
-        
+    private void collapseNestedBxEx (TuTokens tu) {
         // Two conditions might exist:
         // 1. 3+ levels of adjacent nesting might occur
         // 2. Nesting at the beginning of the TU might be followed by more
         //    nesting later on in the TU.
-        boolean done = false;
-        
-        while (! done) {
-            // Search on the remainder of the text
-            // Start by checking the next nested tag.
-            bxExMatcher.reset(curTuState);   // Search what's left of the TU
-            if (bxExMatcher.find()) {
-                String prefix = bxExMatcher.group(1);  // Before the first bx
-                String bxBx   = bxExMatcher.group(2);  // First two adjacent bxes
-                String enclosed = bxExMatcher.group(13); // Enclosed by bxbx exex 
-                String exEx   = bxExMatcher.group(14); // Matching adjacent exes
-                String suffix = bxExMatcher.group(19); // AFter last ex
-                String outerCtype = bxExMatcher.group(5);  // Outer ctype
-                String innerCtype = bxExMatcher.group(10); // Inner ctype
-                
-                int bxID = bxExId++;
-                int exID = bxExId++;
-                try {
-                    
-                    // Write adjacent bxes to format file
-                    outFormat.write("  <tag id='" + bxID + "'>" 
-                            + bxBx.substring(1));
-                    // Then close the tag
-                    outFormat.write("</tag>\r\n");
-
-                    //Then write adjacent exes
-                    outFormat.write("  <tag id='" + exID + "'>" 
-                            + exEx.substring(1));
-                    // Then close the tag
-                    outFormat.write("</tag>\r\n");
-
-                    
-                    outFormat.flush();
-                }
-                catch(IOException e) {
-                    System.err.println("Error writing nested bx/ex tags to format file");
-                    System.err.println(e.getMessage());
-                }
-                
-                // Select a ctype that will make most sense to the translator
-                // If both start with "x-", use the inner
-                // If one starts with "x-", use the other one
-                // If neither starts with "x-", prefer "link", else inner ctype
-                String preferredCtype = "";
-                if (outerCtype.equals("link") || innerCtype.equals("link")) {
-                    preferredCtype = "link";
-                }
-                else if (outerCtype.startsWith("x-")) {
-                    preferredCtype = innerCtype;
-                }
-                else { // outer *doesn't* start with "x-"
-                    if (innerCtype.startsWith("x-")) {
-                        preferredCtype = outerCtype;
-                    }
-                    else {  // Neither starts with "x-"; prefer inner
-                        preferredCtype = innerCtype;
-                    }
-                }
-                
-                // Reconstruct the string with fewer bx/ex elements.
-                curTuState = prefix + "<bx id='" + bxID + "' ctype='" + preferredCtype
-                        + "' rid='" + nextAvailRid + "'/>"
-                        + enclosed
-                        + "<ex id='" + exID + "' rid='" + nextAvailRid + "'/>"
-                        + suffix;
+        // Find a bx-bx-text-ex-ex sequence, and replace it with bx-text-ex.
+        // (Keep looking from just before the new bx, in case it is nested
+        // directly within yet another bx/ex pair.)
+        int[] nest;
+        int from = 0;
+        while ((nest = tu.findNestedBxEx(from, true, true)) != null) {
+            int bxID = bxExId++;
+            int exID = bxExId++;
+            try {
+                // Write adjacent bxes to format file
+                outFormat.write("  <tag id='" + bxID + "'>" 
+                        + tu.getText(nest[0], nest[1] + 1).substring(1));
+                // Then close the tag
+                outFormat.write("</tag>\r\n");
 
-                // Increment nextAvailRid
-                nextAvailRid++;                   // Increment our local copy
+                //Then write adjacent exes
+                outFormat.write("  <tag id='" + exID + "'>" 
+                        + tu.getText(nest[2], nest[3] + 1).substring(1));
+                // Then close the tag
+                outFormat.write("</tag>\r\n");
             }
-            else {  // We're done!
-                break;
+            catch(IOException e) {
+                System.err.println("Error writing nested bx/ex tags to format file");
+                System.err.println(e.getMessage());
             }
-        }
 
-//    // Regex for bx-bx-ex-ex block (no intervening text) to map to x tag.
-//    String bxExToXPattern = "^(.*?)"
-//        // Match the first of two adjacent bx tags
-//        // Group 5 is 1st ctype; group 7 is 1st rid
-//        + "(<bx id=(['\"])\\d+\\3[^>]+?ctype=(['\"])([^'\"]*)\\4[^>]+?rid=(['\"])(\\d+)\\6[^/>]*/>"
-//        // Then the second immediately adjoining bx tag. Capture its ctype--it is the more
-//        // important of the two ctypes
-//        // 2nd ctype is group 10
-//        // 2nd rid is group 12
-//        + "<bx id=(['\"])\\d+\\8[^>]+?ctype=(['\"])([^'\"]*)\\9[^>]+?rid=(['\"])(\\d+)\\11[^/>]*/>" 
-//        // Then the first ex (with rid matching the second bx above)
-//        +  "<ex id=(['\"])\\d+\\13[^>]+?rid=(['\"])\\12\\14 */>"
-//        // And the second ex (with rid matching the first bx above)
-//        +  "<ex id=(['\"])\\d+\\15[^>]+?rid=(['\"])\\7\\16 */>)"
-//        // Text that follows the span:
-//        +  "(.*)$";  // What follows
-//
-//    Matcher bxExToXMatcher = Pattern.compile(bxExPattern,Pattern.CASE_INSENSITIVE).matcher("");
-        
-        // 4/12/2007: Convert <bx/><bx/><ex/><ex/> (with no intervening text) to a single x.
-        done = false;
-        
-        while (! done) {
-            // Search on the remainder of the text
-            // Start by checking the next nested tag.
-            bxExToXMatcher.reset(curTuState);   // Search what's left of the TU
-            if (bxExToXMatcher.find()) {
-                String prefix = bxExToXMatcher.group(1);     // Before the first bx
-                String bxBxExEx = bxExToXMatcher.group(2);   // All four adjacent bx/bx/ex/ex
-                String suffix = bxExToXMatcher.group(17);    // After last ex
-                String outerCtype = bxExToXMatcher.group(5);  // Outer ctype
-                String innerCtype = bxExToXMatcher.group(10); // Inner ctype
+            String preferredCtype = TuTokens.preferredCtype(
+                tu.get(nest[0]).getAttribute("ctype"), tu.get(nest[1]).getAttribute("ctype"));
 
-                
-//                // Write adjacent bxes to format file
-//                writeFormatLiteral(bxBxExEx,bxExXId);
-//                // and increment the id
-                int bxBxExExId = bxExId++;
-                
-                try {
-                    
-                    // Write adjacent bxes to format file
-                    outFormat.write("  <tag id='" + bxBxExExId + "'>" 
-                            + bxBxExEx.substring(1));
-                    // Then close the tag
-                    outFormat.write("</tag>\r\n");
-                    
-                    outFormat.flush();
-                }
-                catch(IOException e) {
-                    System.err.println("Error writing nested bx/ex tags to format file");
-                    System.err.println(e.getMessage());
-                }
-                
-                // Select a ctype that will make most sense to the translator
-                // If both start with "x-", use the inner
-                // If one starts with "x-", use the other one
-                // If neither starts with "x-", prefer "link", else inner ctype
-                String preferredCtype = "";
-                if (outerCtype.equals("link") || innerCtype.equals("link")) {
-                    preferredCtype = "link";
-                }
-                else if (outerCtype.startsWith("x-")) {
-                    preferredCtype = innerCtype;
-                }
-                else { // outer *doesn't* start with "x-"
-                    if (innerCtype.startsWith("x-")) {
-                        preferredCtype = outerCtype;
-                    }
-                    else {  // Neither starts with "x-"; prefer inner
-                        preferredCtype = innerCtype;
-                    }
-                }
-                
-                // Reconstruct the string with fewer bx/ex elements.
-                curTuState = prefix + "<x id='" + bxBxExExId + "' ctype='" + preferredCtype
-                        + "'/>"
-                        + suffix;
+            // Replace the exes first, so that the bxes stay where they are.
+            tu.replace(nest[2], nest[3] + 1, 
+                "<ex id='" + exID + "' rid='" + nextAvailRid + "'/>");
+            tu.replace(nest[0], nest[1] + 1, "<bx id='" + bxID + "' ctype='" + preferredCtype
+                + "' rid='" + nextAvailRid + "'/>");
+
+            // Increment nextAvailRid
+            nextAvailRid++;                   // Increment our local copy
+            from = Math.max(0, nest[0] - 2);
+        }
 
-                // Increment nextAvailRid
-                nextAvailRid++;                   // Increment our local copy
+        // 4/12/2007: Convert <bx/><bx/><ex/><ex/> (with no intervening text) to a single x.
+        from = 0;
+        while ((nest = tu.findNestedBxEx(from, false, true)) != null) {
+            int bxBxExExId = bxExId++;
+            try {
+                // Write adjacent bxes to format file
+                outFormat.write("  <tag id='" + bxBxExExId + "'>" 
+                        + tu.getText(nest[0], nest[3] + 1).substring(1));
+                // Then close the tag
+                outFormat.write("</tag>\r\n");
             }
-            else {  // We're done!
-                break;
+            catch(IOException e) {
+                System.err.println("Error writing nested bx/ex tags to format file");
+                System.err.println(e.getMessage());
             }
+
+            String preferredCtype = TuTokens.preferredCtype(
+                tu.get(nest[0]).getAttribute("ctype"), tu.get(nest[1]).getAttribute("ctype"));
+
+            // Replace all four with a single x
+            tu.replace(nest[0], nest[3] + 1, "<x id='" + bxBxExExId + "' ctype='" 
+                + preferredCtype + "'/>");
+
+            // Increment nextAvailRid
+            nextAvailRid++;                   // Increment our local copy
+            from = nest[0];
         }
-        
-        return (curTuState);  // Return the collapsed TU
     }
     
     /**
@@ -1688,13 +1579,20 @@ public class HtmlHandler extends DefaultHandler {
         }
         
         // Identify any nested bx-bx ex-ex pairs and collapse them to fewer tags.
-        candidateTuStr = this.collapseNestedBxEx(candidateTuStr);
+        if (candidateTuStr.trim().length() == 0) {
+            candidateTuStr = "";             // Nothing meaningful.
+        }
+        else if (candidateTuStr.indexOf("<bx") != -1) {
+            TuTokens tuTokens = new TuTokens(candidateTuStr);
+            this.collapseNestedBxEx(tuTokens);
+            candidateTuStr = tuTokens.toString();
+        }
         
         // Get the core segments:
 //        SegmentInfo[] coreTus = TuPreener.getCoreSegments(new String(candidateTu), 
 //                this.boundaryType, this.sourceLang);
         SegmentInfo[] coreTus = TuPreener.getCoreSegments(candidateTuStr, 
-                this.boundaryType, this.sourceLang);
+                this.boundaryType, this.sourceLang, false, false, srxSegmenter);
         
         // UUID for the first (or possibly *only*) segment:
         UUID curTuID = UUID.randomUUID();
@@ -1707,8 +1605,6 @@ public class HtmlHandler extends DefaultHandler {
         // skeleton that references the segment in the format file.
         for (int i = 0; i < coreTus.length; i++) {
             if (coreTus[i].translatable()) { 
-                String coreSeg = coreTus[i].getSegmentStr();
-            
                 // See if this segment has a translatable successor. It it does,
                 // then it is mergeable.
                 boolean hasSuccessor = false;
@@ -1723,16 +1619,15 @@ public class HtmlHandler extends DefaultHandler {
                 }
                 
 //                UUID curTuId = 
-                writeTuString(coreSeg, hasSuccessor, curTuID, paraID);
+                writeTuString(coreTus[i], hasSuccessor, curTuID, paraID);
 
 //                if (curTuId != null) {  // It *should* never be null!!
 
                 // Write to the intermediate skeleton file
                 try {
                     outSkeleton.write("<tu id='" + curTuID.toString() + "' length='" 
-                        + (coreSeg.length() - (TuPreener.CORE_START_MRK + TuPreener.CORE_END_MRK).length()) 
+                        + (coreTus[i].length() - (TuPreener.CORE_START_MRK + TuPreener.CORE_END_MRK).length()) 
                         + "' " + "no='" + (i+1) + "' of='" + coreTus.length + "'>\r\n");
-                    outSkeleton.flush();
                 }
                 catch(IOException e) {
                     System.err.println("Error while writing skeleton file.");
@@ -1745,13 +1640,11 @@ public class HtmlHandler extends DefaultHandler {
                     outFormat.write("  <tag id='" + bxExId + "'>");
                     outFormat.write(coreTus[i].getSegmentStr());
                     outFormat.write("</tag>\r\n");
-                    outFormat.flush();
 
                     // and a reference to it in tskeleton
                     outSkeleton.write("<format id='" + bxExId + "' length='" 
                         + (coreTus[i].getSegmentStr().length()) + "' "
                         + "no='" + (i+1) + "' of='" + coreTus.length + "'>\r\n");
-                    outSkeleton.flush();
                     bxExId++;
                 }
                 catch(IOException e) {
@@ -1791,7 +1684,7 @@ public class HtmlHandler extends DefaultHandler {
         
         // Get the core segments:
         SegmentInfo[] coreTus = TuPreener.getCoreSegments(candidateTuStr, 
-                this.boundaryType, this.sourceLang);
+                this.boundaryType, this.sourceLang, false, false, srxSegmenter);
 
         // UUID for the first (or possibly *only*) segment:
         UUID xid = UUID.randomUUID();
@@ -1804,7 +1697,6 @@ public class HtmlHandler extends DefaultHandler {
                 try {
                     outSkeleton.write("<attr name='" + attrName + "' tag='" 
                         + parentElement + "'>\r\n");
-                    outSkeleton.flush();
                 }
                 catch(IOException e) {
                     System.err.println("Error while writing skeleton file.");
@@ -1823,8 +1715,6 @@ public class HtmlHandler extends DefaultHandler {
         // skeleton that references the segment in the format file.
         for (int i = 0; i < coreTus.length; i++) {
             if (coreTus[i].translatable()) { 
-                String coreSeg = coreTus[i].getSegmentStr();
-
                 // See if this segment has a translatable successor. It it does,
                 // then it is mergeable.
                 boolean hasSuccessor = false;
@@ -1839,19 +1729,17 @@ public class HtmlHandler extends DefaultHandler {
                 }
                 
 //                UUID xid = 
-                writeTuString(coreSeg, hasSuccessor, xid, paraID);
+                writeTuString(coreTus[i], hasSuccessor, xid, paraID);
 
 //                if (xid != null) {  // It *should* never be null!!
                 // Write to the intermediate skeleton file
                 try {
                     // Write placeholder in format file. (No need for anything in skel)
                     outFormat.write("<lt:tu id='" + xid.toString() + "'/>\"");
-                    outFormat.flush();
 
                     outSkeleton.write("<tu id='" + xid.toString() + "' length='" 
-                        + (coreSeg.length() - (TuPreener.CORE_START_MRK + TuPreener.CORE_END_MRK).length()) 
+                        + (coreTus[i].length() - (TuPreener.CORE_START_MRK + TuPreener.CORE_END_MRK).length()) 
                         + "' " + "no='" + (i+1) + "' of='" + coreTus.length + "'>\r\n");
-                    outSkeleton.flush();
                 }
                 catch(IOException e) {
                     System.err.println("Error while writing skeleton file.");
@@ -1869,16 +1757,17 @@ public class HtmlHandler extends DefaultHandler {
     }
     
     /**
-     * Passed a string, create a TU entry in the XLIFF, returning the UUID of
-     * the new TU just written. This doesn't write anything to the temporary
-     * skeleton.
-     * @param tuStr A string to write to the <source> element of a new TU
+     * Passed a segment (whose core is already marked), create a TU entry in
+     * the XLIFF. The segment is written directly to the XLIFF, without 
+     * building the marked segment string. This doesn't write anything to 
+     * the temporary skeleton.
+     * @param seg The segment to write to the <source> element of a new TU
      * @param mergeable If true, this TU can be merged with its successor; if
      *                  false, it can't
      * @param tuID The UUID for this trans-unit
      * @param paraID The UUID of the paragraph that contains this trans-unig.
      */
-    private void writeTuString(String tuStr, boolean mergeable,
+    private void writeTuString(SegmentInfo seg, boolean mergeable,
             UUID tuID, UUID paraID) {
         if (tuID == null) {
             System.err.println("HtmlHandler.writeTuString: tuID is null!");
@@ -1887,44 +1776,38 @@ public class HtmlHandler extends DefaultHandler {
             System.err.println("HtmlHandler.writeTuString: paraID is null!");
         }
         
-        // Get the core(ed) Tu:
-        String coreTu = TuPreener.markCoreTu(tuStr); // Complete TU now has core marks
-//        UUID curTuId = null;
-        
-        if (coreTu.length() > 0) {
-//            curTuId = UUID.randomUUID();    // Get a TU ID for this one
-            try {
-                // Open the trans-unit element (No offset attribute in the following (yet?))
-                outXliff.write(indent('0') 
-                    + "<trans-unit id='" + tuID.toString() + "'"
-                    + " lt:paraID='" + paraID.toString() + "'");
-                
-                if (mergeable) {
-                    outXliff.write(" lt:mergeable='true'");
-                }
-                
-                outXliff.write(">\r\n");
-                
-                // Open the source tag
-                outXliff.write(indent('+') + "<source xml:lang='" + sourceLang.toString() + "'>");
-                
-                // Write the actual text of the TU:
-                outXliff.write(coreTu);
-                
-                // Close the source element
-                outXliff.write("</source>\r\n");
-                
-                // Close the trans-unit element
-                outXliff.write(indent('-') + "</trans-unit>\r\n");
-                
-                outXliff.flush();  // For debugging ... at least.
-            }
-            catch(IOException e) {
-                System.err.println("Error writing translation-unit characters to the XLIFF file.");
-                System.err.println(e.getMessage());
+        try {
+            // Open the trans-unit element (No offset attribute in the following (yet?))
+            outXliff.write(indent('0') 
+                + "<trans-unit id='" + tuID.toString() + "'"
+                + " lt:paraID='" + paraID.toString() + "'");
+
+            if (mergeable) {
+                outXliff.write(" lt:mergeable='true'");
             }
-        }
+            
+            outXliff.write(ImportStatistics.recordTu(tuID, seg.getCoreText(),
+                repetitions, statistics));
+
+            outXliff.write(">\r\n");
+
+            // Open the source tag
+            outXliff.write(indent('+') + "<source xml:lang='" + sourceLang.toString() + "'>");
 
-        return /* curTuId */;
+            // Write the actual text of the TU (prefix, core start mark, core,
+            // core end mark and suffix):
+            seg.writeTo(outXliff);
+
+            // Close the source element
+            outXliff.write("</source>\r\n");
+
+            // Close the trans-unit element
+            outXliff.write(indent('-') + "</trans-unit>\r\n");
+
+        }
+        catch(IOException e) {
+            System.err.println("Error writing translation-unit characters to the XLIFF file.");
+            System.err.println(e.getMessage());
+        }
     }
 }
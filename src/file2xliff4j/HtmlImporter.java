@@ -42,6 +42,18 @@ public class HtmlImporter extends AbstractSAXParser implements Converter {
 
     final static int HEAD_LINES = 1024;  // Number of lines to read for encoding detecting
     
+    // If non-null, the index in which to look up repeated segments
+    private RepetitionIndex repetitions = null;
+
+    // If non-null, the segmenter to use for SRX segment boundaries (instead
+    // of the default)
+    private SrxSegmenter srxSegmenter = null;
+    
+    // Set by ImportStatistics.PROPERTY: whether to keep statistics of the
+    // TUs written (in statistics, which getConversionProperty returns)
+    private boolean keepStatistics = false;
+    private ImportStatistics statistics = null;
+    
     
     // Initial set of tags that can cause a <trans-unit> break. 
     private Set<String> tuBreakTags = new HashSet<String>(
@@ -117,6 +129,9 @@ public class HtmlImporter extends AbstractSAXParser implements Converter {
      * @return An Object that represents the property's value.
      */
     public Object getConversionProperty(String property) {
+        if (property.equals(ImportStatistics.PROPERTY)) {
+            return statistics;
+        }
         return null;
     }
 
@@ -210,88 +225,64 @@ public class HtmlImporter extends AbstractSAXParser implements Converter {
         }
         
         // Create output stream writers for the SAX handler to write to.
-        OutputStreamWriter xliffOut = null;
-        OutputStreamWriter tskeletonOut = null;
-        OutputStreamWriter formatOut = null;
+        OutputSink xliffOut = null;
+        OutputSink tskeletonOut = null;
+        OutputSink formatOut = null;
         
         if ((nativeFileType == null) || (! nativeFileType.equals(FileType.HTML))) {
             nativeFileType = FileType.HTML;
         }
         
         try {
-            xliffOut  = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + nativeFileName + Converter.xliffSuffix),
-                    "UTF8");
-            tskeletonOut = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + nativeFileName + Converter.tSkeletonSuffix),
-                    "UTF8");
-            formatOut = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + nativeFileName + Converter.formatSuffix),
-                    "UTF8");
-        }
-        catch (UnsupportedEncodingException e) {
-            System.err.println("Unable to write XLIFF as UTF-8!!");
-            System.err.println(e.getMessage());
-            throw new ConversionException("Unable to write XLIFF as UTF-8: " + e.getMessage());
+            xliffOut  = new OutputSink(
+                    baseDir + File.separator + nativeFileName + Converter.xliffSuffix);
+            tskeletonOut = new OutputSink(
+                    baseDir + File.separator + nativeFileName + Converter.tSkeletonSuffix);
+            formatOut = new OutputSink(
+                    baseDir + File.separator + nativeFileName + Converter.formatSuffix);
         }
         catch (FileNotFoundException e) {
             System.err.println(e.getMessage());
             throw new ConversionException(e.getMessage());
         }
         
+        // If requested, keep statistics of the TUs as they are written
+        statistics = ImportStatistics.forImport(keepStatistics, baseDir, nativeFileName);
+        
         XMLReader parser = null;
         Charset headerEncoding = null;
+        HtmlHandler handler = null;
+        String html = null;         // The decoded HTML document
         
         try {
             // Let's parse with the NekoHTML parser
-            parser = XMLReaderFactory.createXMLReader("org.cyberneko.html.parsers.SAXParser");
+            parser = SAXParserPool.acquire(SAXParserPool.Config.HTML);
             
-            parser.setContentHandler(new HtmlHandler(tuBreakTags, xliffOut, 
+            handler = new HtmlHandler(tuBreakTags, xliffOut, 
                     tskeletonOut, formatOut, language, 
-                    nativeFileType.toString(), nativeFileName, boundary));
-            // Maintain the case (upper/lower) of tags (elements) and attributes 
-            // found in the input document.
-            parser.setProperty("http://cyberneko.org/html/properties/names/elems", "match");
-            parser.setProperty("http://cyberneko.org/html/properties/names/attrs", "match");
-  
-            // "In order to process HTML documents as XML, this feature should *not* be turned
-            // off" (Note: "true" is the default value.)
-            parser.setFeature("http://cyberneko.org/html/features/balance-tags", true);
-            
-            // Include namespaces in the StartElement() attlist:
-            parser.setFeature("http://xml.org/sax/features/namespaces", true);
+                    nativeFileType.toString(), nativeFileName, boundary);
+            handler.setRepetitionIndex(repetitions);
+            handler.setSrxSegmenter(srxSegmenter);
+            handler.setStatistics(statistics);
+            parser.setContentHandler(handler);
             
-            // Also include namespace-prefixes:
-            parser.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
-            
-            // WWhipple 11/16/2006. When Neki parses XHTML documents in UTF8 that 
-            // begin with a byte order mark and DOCTYPE, it fails to notice the
-            // immediately following opening html and head tags, instead inserting
-            // what it assumes to be missing parent tags. This should fix that
-            // problem:
-            //   "With this feature set, the tag balancer will not attempt to 
-            //   insert a missing body elements around content and markup. 
-            //   However, proper parents for elements contained within the 
-            //   <body> element will still be inserted."
-            parser.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment", true);
+            // Read the HTML file (just once). The parser and the skeleton
+            // merger (below) both work from the copy in memory.
+            byte[] htmlBytes = readFile(baseDir + File.separator + nativeFileName);
             
             // See if the HTML indicates its encoding.
-            headerEncoding = guessEncoding(baseDir + File.separator 
-                    + nativeFileName);
-            
-            Reader inReader = null;   // What the neko sax parser will read from
+            headerEncoding = guessEncoding(new ByteArrayInputStream(htmlBytes));
             
             if (headerEncoding != null) {   // Use what the input file says
                                             //   if available
-                inReader = new InputStreamReader(new FileInputStream(
-                    baseDir + File.separator + nativeFileName), headerEncoding);
+                html = new String(htmlBytes, headerEncoding);
             }
             else {                          // Otherwise use specified encoding
-                inReader = new InputStreamReader(new FileInputStream(
-                    baseDir + File.separator + nativeFileName), nativeEncoding);
+                html = new String(htmlBytes, nativeEncoding);
             }
+            htmlBytes = null;
             
-            InputSource htmlIn = new InputSource(inReader);
+            InputSource htmlIn = new InputSource(new StringReader(html));
             parser.parse(htmlIn);
         }
         catch(SAXException e) {
@@ -304,44 +295,44 @@ public class HtmlImporter extends AbstractSAXParser implements Converter {
             System.err.println(e.getMessage());
             throw new ConversionException("I/O error reading HTML input: " + e.getMessage());
         }
+        finally {
+            SAXParserPool.release(SAXParserPool.Config.HTML, parser);
+        }
         
         try {
             /* Close the files we created above */
             xliffOut.close();
+            if (statistics != null) {
+                statistics.close();
+            }
             tskeletonOut.close();
             formatOut.close();
 
             /* We have created a temp skeleton file (an intermediate skeleton file).
-             * We now need to merge the temporary skeleton with the original input file to
-             * yield a "real" skeleton */
+             * We now need to merge the temporary skeleton with the original input 
+             * (which we still have in memory) to yield a "real" skeleton */
             
             // We'll read from the temporary skeleton
             FileInputStream tSkeletonIn = new FileInputStream(baseDir + File.separator 
                     + nativeFileName + Converter.tSkeletonSuffix);
             
-            // We'll also read from the original input file
-            FileInputStream nativeIn = new FileInputStream(baseDir + File.separator 
-                    + nativeFileName);
-
             // We'll write to the (final) skeleton file
             FileOutputStream skeletonOut = new FileOutputStream(baseDir + File.separator 
                     + nativeFileName + Converter.skeletonSuffix);
 
             // The HtmlSkeletonMerger will do the deed.
-            SkeletonMerger merger = new HtmlSkeletonMerger();
+            HtmlSkeletonMerger merger = new HtmlSkeletonMerger();
 
-            if (merger != null) {
-                // Before merging, pass the SkeletonMerger the list of TU break
-                // tags
-                merger.setProperty("http://www.lingotek.com/converters/properties/breaktags",
-                        this.getTuDelimiterList());
-                
-                merger.merge(tSkeletonIn, nativeIn, skeletonOut, 
-                    ((headerEncoding != null) ? headerEncoding : nativeEncoding));
-            }
+            // Before merging, pass the SkeletonMerger the list of TU break
+            // tags
+            merger.setProperty("http://www.lingotek.com/converters/properties/breaktags",
+                    this.getTuDelimiterList());
+            
+            // The handler recorded where the tags end in the HTML, so the
+            // merger can go straight to them.
+            merger.merge(tSkeletonIn, html, handler.getTagPositions(), skeletonOut);
 
             tSkeletonIn.close();
-            nativeIn.close();
             skeletonOut.close();
         }
         catch(java.io.FileNotFoundException e) {
@@ -478,6 +469,25 @@ public class HtmlImporter extends AbstractSAXParser implements Converter {
         return tuBreakTags.remove(tag);
     }
 
+    /**
+     * Read the entire content of a file.
+     * @param fileName The name of the file
+     * @return The file's content
+     * @throws java.io.IOException
+     *         If the file can't be read.
+     */
+    private static byte[] readFile(String fileName) throws IOException {
+        FileInputStream in = new FileInputStream(fileName);
+        ByteArrayOutputStream content = new ByteArrayOutputStream(BLKSIZE);
+        byte[] byteBuf = new byte[BLKSIZE];
+        int numRead;
+        while ((numRead = in.read(byteBuf)) != -1) {  
+            content.write(byteBuf, 0, numRead);
+        }
+        in.close();
+        return content.toByteArray();
+    }
+    
     /**
      * Passed the name of an HTML file, look for a meta tag that indicates
      * what encoding the file uses. Return that encoding (or null) as a
@@ -489,6 +499,27 @@ public class HtmlImporter extends AbstractSAXParser implements Converter {
      */
     public static Charset guessEncoding(String htmlFileName) 
             throws ConversionException {
+        try {
+            return guessEncoding(new FileInputStream(htmlFileName));
+        }
+        catch (FileNotFoundException e) {
+            System.err.println("Error reading XLIFF file: " + e.getMessage());
+            throw new ConversionException("Error reading XLIFF file: " 
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Read the beginning of an HTML stream, looking for a meta tag that
+     * indicates what encoding the HTML uses. Return that encoding (or null)
+     * as a Charset object. (The stream is closed before returning.)
+     * @param htmlStream A stream from which to read the HTML
+     * @return The encoding the HTML uses (or null if not apparent).
+     * @throws file2xliff4j.ConversionException
+     *         if an error is encountered.
+     */
+    private static Charset guessEncoding(InputStream htmlStream) 
+            throws ConversionException {
         Charset encoding = null;      // Holds what we will return.
         String charsetStr = "";       // Holds what we read from meta tag
         
@@ -505,8 +536,7 @@ public class HtmlImporter extends AbstractSAXParser implements Converter {
         
         BufferedReader htmlIn = null;
         try {
-            htmlIn = new BufferedReader(new InputStreamReader(new FileInputStream(
-                htmlFileName)));
+            htmlIn = new BufferedReader(new InputStreamReader(htmlStream));
             String line = "";
             StringBuilder head = new StringBuilder(); // Buffer to hold input lines
 
@@ -558,8 +588,10 @@ public class HtmlImporter extends AbstractSAXParser implements Converter {
     /**
      * Set a format-specific property that might affect the way that the
      * conversion occurs.
-     * <p><i>Note:</i> This converter needs no format-specific properties.
-     * If any are passed, they will be silently ignored.
+     * <p>The properties recognized are RepetitionIndex.PROPERTY (to mark
+     * repeated segments), ImportStatistics.PROPERTY (to keep statistics
+     * of the TUs written) and SrxSegmenter.PROPERTY (to segment with the
+     * rules of an SRX file). Others will be silently ignored.
      * @param property The name of the property
      * @param value The value of the property
      * @throws file2xliff4j.ConversionException
@@ -567,6 +599,15 @@ public class HtmlImporter extends AbstractSAXParser implements Converter {
      */
     public void setConversionProperty(String property, Object value)
             throws ConversionException {
+        if (property.equals(RepetitionIndex.PROPERTY)) {
+            repetitions = RepetitionIndex.forProperty(value);
+        }
+        else if (property.equals(ImportStatistics.PROPERTY)) {
+            keepStatistics = ImportStatistics.isEnabled(value);
+        }
+        else if (property.equals(SrxSegmenter.PROPERTY)) {
+            srxSegmenter = SrxSegmenter.forProperty(value);
+        }
         return;
     }
     
@@ -85,14 +85,22 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
     // This matcher looks for possible opening tags in a text string
 //    Matcher breakTagMatcher = Pattern.compile("<([^/].*?)(\\b.*)$",Pattern.DOTALL).matcher("");
     Matcher breakTagMatcher = Pattern.compile("<(\\w+)(.+)$",Pattern.DOTALL).matcher("");
-        
-    // This matcher matches complete strings consisting exclusively of whitespace.
-    Matcher spaceMatcher = Pattern.compile("^(?:&nbsp;|" + TuPreener.SECONDARY_WHITE_SPACE_CLASS
-          + "|" + TuPreener.WHITE_SPACE_CLASS + ")*$",Pattern.DOTALL).matcher("");
     
     // Does this HTML file have any (actual) </br> tags?
     private boolean hasEndBr = false;     // Assume not
     
+    // Where (if known) each tag in the tskeleton ends in the original HTML,
+    // indexed by the tag's seq number: the offset of the character after
+    // its closing ">", or -1 if unknown. (Null if the importer didn't record
+    // tag positions.)
+    private int[] tagEnds = null;
+    
+    // The net number of characters inserted into (+) or deleted from (-) the
+    // skelBuf so far. Adding this to an offset in the original HTML yields
+    // the corresponding offset in the skelBuf (provided all the edits were
+    // to its left).
+    private int editDelta = 0;
+    
     /**
      * Constructor for the skeleton merger object
      */
@@ -146,9 +154,7 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
             throw (new IllegalArgumentException());
         }
 
-        BufferedReader tSkel = new BufferedReader(new InputStreamReader(tSkelInStream, Charset.forName("UTF-8")));
         BufferedReader html =  new BufferedReader(new InputStreamReader(htmlInStream, encoding));
-        BufferedWriter skel  = new BufferedWriter(new OutputStreamWriter(skeletonOutStream, Charset.forName("UTF-8")));
         
         // Read the HTML stream into a buffer for easy manipulation
         skelBuf = new StringBuilder();
@@ -158,6 +164,62 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
             skelBuf.append(buf,0,i);
         }
         
+        mergeSkeleton(tSkelInStream, skeletonOutStream);
+    }
+
+    /**
+     * Create a skeleton file from the pseudo skeleton and the original html,
+     * which the caller has already read (and parsed). This spares the merger
+     * a second read of the HTML file. If the caller also passes the positions
+     * where the tags written to the pseudo skeleton end in the HTML (as
+     * recorded by the HtmlHandler while parsing), the merger goes straight to
+     * those tags rather than searching for them. (It still searches for any
+     * tag whose recorded position doesn't pan out--such as a tag that NekoHTML
+     * supplied, but that doesn't actually appear in the HTML.)
+     * @param tSkelInStream The intermediate skeleton we will read from
+     * @param html The original HTML to merge with
+     * @param tagPositions The line and column (packed into a long as
+     *        (line &lt;&lt; 32) | column) just past the end of each tag,
+     *        indexed by the tag's seq number in the intermediate skeleton.
+     *        An element of 0 means the position is unknown. (This argument
+     *        may be null.)
+     * @param skeletonOutStream Where I write the new skeleton
+     * @throws java.util.IllegalArgumentException
+     *         if an argument is bogus or non-existent
+     * @throws java.io.IOException
+     *         if an I/O error occurs.
+     */
+    public void merge(InputStream tSkelInStream,
+            CharSequence html,
+            long[] tagPositions,
+            OutputStream skeletonOutStream) throws IllegalArgumentException, IOException {
+
+        if (tSkelInStream == null || html == null || skeletonOutStream == null) {
+            throw (new IllegalArgumentException());
+        }
+
+        skelBuf = new StringBuilder(html);
+        if (tagPositions != null) {
+            tagEnds = toOffsets(tagPositions);
+        }
+        
+        mergeSkeleton(tSkelInStream, skeletonOutStream);
+    }
+
+    /**
+     * Merge the pseudo skeleton with the HTML in the skelBuf, writing the
+     * result to the skeleton stream.
+     * @param tSkelInStream The intermediate skeleton we will read from
+     * @param skeletonOutStream Where I write the new skeleton
+     * @throws java.io.IOException
+     *         if an I/O error occurs.
+     */
+    private void mergeSkeleton(InputStream tSkelInStream,
+            OutputStream skeletonOutStream) throws IOException {
+        
+        BufferedReader tSkel = new BufferedReader(new InputStreamReader(tSkelInStream, Charset.forName("UTF-8")));
+        BufferedWriter skel  = new BufferedWriter(new OutputStreamWriter(skeletonOutStream, Charset.forName("UTF-8")));
+        
         // See if there are any end br tags (actually, physically in the file)
         int endBrPos = skelBuf.indexOf("</br");
         if (endBrPos > -1) {
@@ -428,17 +490,6 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
         Object saveStack = null;
 //        Stack<Integer> saveStack = null;
         
-        // Skip over HTML comments-- if there are any more.
-        int commentStart = -1;
-        if (!noMoreComments) {
-            // Find where next comment begins (so that we can compare it to the position
-            // of the next tag and skip over the comments if necesary.
-            commentStart = skelBuf.indexOf("<!--",skelPosStack.peek().intValue());
-            if (commentStart == -1) {
-                noMoreComments = true;
-            }
-        }
-        
         // Find more about this tag from the intermediate skeleton file
         String tagPrefix = null;
         // When I wrote this comment, the tagMatcher looked something like:
@@ -448,6 +499,20 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
             tagPrefix = tagMatcher.group(1);
             curTagSeq = Integer.parseInt(tagMatcher.group(2));
         }
+        
+        // If we know where the tag is, we needn't search for it.
+        int knownTagPos = locateTag(tagPrefix, curTagSeq);
+        
+        // Skip over HTML comments-- if there are any more.
+        int commentStart = -1;
+        if ((!noMoreComments) && (knownTagPos == -1)) {
+            // Find where next comment begins (so that we can compare it to the position
+            // of the next tag and skip over the comments if necesary.
+            commentStart = skelBuf.indexOf("<!--",skelPosStack.peek().intValue());
+            if (commentStart == -1) {
+                noMoreComments = true;
+            }
+        }
 
         // Now find the next occurrence of tag in the skeleton buffer--an occurrence
         // that isn't inside a comment
@@ -465,12 +530,16 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
         }
         
         while (! foundTag) {
-            int pos = skelBuf.indexOf(tagPrefix, skelPosStack.peek().intValue());
+            int pos = knownTagPos;
+            if (pos == -1) {
+                pos = skelBuf.indexOf(tagPrefix, skelPosStack.peek().intValue());
+            }
             if (pos > -1) {   // We found the tag
                
                 tagStartPos = pos;     // Where the tag starts
                 // Find the tag end:
-                int endOfTag = skelBuf.indexOf(">", pos + tagPrefix.length());
+                int endOfTag = (pos == knownTagPos) ? knownTagEnd(curTagSeq) - 1
+                    : skelBuf.indexOf(">", pos + tagPrefix.length());
                 if (endOfTag > -1) {
                     /* 1/4/7 Ticket 687. Fix absurd condition where HTML page had
                      * nested (!!) <form> tags, and neko dutifully closed the
@@ -521,7 +590,10 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
             int endComment = Integer.MAX_VALUE;
             // Note: We found the *first* comment Start value at the top of this
             // method.
-            if ((!noMoreComments) && (commentStart < pos)) {
+            if (pos == knownTagPos) {
+                foundTag = true;        // (The parser saw it outside any comment.)
+            }
+            else if ((!noMoreComments) && (commentStart < pos)) {
                 // Skip comment(s) that start before the index ("pos") of the tag
                 // that we found in the skeleton buffer
                 endComment = skipComment(commentStart,pos);
@@ -568,6 +640,7 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
         
         // Now delete everything we were asked to delete
         skelBuf.delete(deleteStartPos, tagStartPos);
+        editDelta -= (tagStartPos - deleteStartPos);
         // Decrement the tag end position by the number of characters we deleted
         tagEndPos-= (tagStartPos-deleteStartPos);
         
@@ -814,6 +887,7 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
 
         // Insert a TU placeholder tag into the skeleton
         skelBuf.insert(skelPosStack.peek().intValue(), placeHolder);
+        editDelta += placeHolder.length();
         
         // Adjust the stack as necessary.
         
@@ -988,9 +1062,11 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
 
                 // Well, since we're still, here, let's delete the attribute value
                 skelBuf.delete(valPos,valPos + attVal.length());
+                editDelta -= attVal.length();
                 if (quoteLess) {
                     // Add two quotes
                     skelBuf.insert(valPos, "\"\"");
+                    editDelta += 2;
                     skelPosStack.push(Integer.valueOf(valPos + 1)); // Add 1 for opening quote
                 }
                 else {
@@ -1080,6 +1156,7 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
                     // If we can identify the start and end of the attribute's value ...
                     if ((valEnd != -1) && (valEnd < parentTagEnd)) {
                         skelBuf.delete(valStart,valEnd); // Now value is empty
+                        editDelta -= (valEnd - valStart);
                         skelPosStack.push(Integer.valueOf(valStart));     // Where to insert tag ... later
                         return +1;
                     }
@@ -1100,6 +1177,7 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
                     valEnd = Math.min(Math.min(Math.min(nextSpace,nextCR),nextLF),nextLT);
                     skelBuf.delete(valStart,valEnd);  // We deleted the value
                     skelBuf.insert(valStart,"\"\"");  // We added two double quotes
+                    editDelta += 2 - (valEnd - valStart);
                     // Add 1 to the valStart value we push on the stack (for the opening quote)
                     skelPosStack.push(Integer.valueOf(valStart+1));     // Where to insert tag ... later
                     return +1;
@@ -1184,9 +1262,12 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
             }
         }
 
+        // If we know where the tag is, we needn't search for it.
+        int knownTagPos = locateTag(tagPrefix, curTagSeq);
+
         // Skip over HTML comments-- if there are any more.
         int commentStart = -1;
-        if (!noMoreComments) {
+        if ((!noMoreComments) && (knownTagPos == -1)) {
             // Find where next comment begins (so that we can compare it to the position
             // of the next tag and skip over the comments if necesary.
             commentStart = skelBuf.indexOf("<!--",skelPosStack.peek().intValue());
@@ -1203,10 +1284,14 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
         int prev = skelPosStack.get(skelPosStack.size() - 2);  // This, too.
         
         while (! foundTag) {
-            int pos = skelBuf.indexOf(tagPrefix, skelPosStack.peek().intValue());
+            int pos = knownTagPos;
+            if (pos == -1) {
+                pos = skelBuf.indexOf(tagPrefix, skelPosStack.peek().intValue());
+            }
             if (pos > -1) {   // We found the tag
                 // Find the tag end:
-                int endOfTag = skelBuf.indexOf(">", pos + tagPrefix.length());
+                int endOfTag = (pos == knownTagPos) ? knownTagEnd(curTagSeq) - 1
+                    : skelBuf.indexOf(">", pos + tagPrefix.length());
                 if (endOfTag > -1) {
                     // Add one to the position, so that it will be one position
                     // to the right of the end of the tag.
@@ -1246,7 +1331,10 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
             int endComment = Integer.MAX_VALUE;
             // Note: We found the *first* comment Start value at the top of this
             // method.
-            if ((!noMoreComments) && (commentStart < pos)) {
+            if (pos == knownTagPos) {
+                foundTag = true;        // (The parser saw it outside any comment.)
+            }
+            else if ((!noMoreComments) && (commentStart < pos)) {
                 // Skip comment(s) that start before the index ("pos") of the tag
                 // that we found in the skeleton buffer
                 endComment = skipComment(commentStart,pos);
@@ -1339,6 +1427,106 @@ public class HtmlSkeletonMerger /* extends Thread */ implements SkeletonMerger {
         return false;        // Not a phantom start tag
     }
 
+    /**
+     * If the HtmlHandler recorded where the specified tag ends in the original
+     * HTML, return where the tag starts in the skelBuf--provided that a tag
+     * that begins with the specified prefix really ends there, and that it
+     * doesn't start before the position on the top of the skelPosStack.
+     * Otherwise return -1, and let the caller search for the tag. (Recorded
+     * positions don't pan out for tags that NekoHTML supplied on its own--
+     * it reports them where the tag that implied them ends--nor for tags
+     * preceded by an edit we made farther to the right.)
+     * @param tagPrefix The start of the tag ("&lt;p" or "&lt;/p", for example)
+     * @param seq The tag's sequence number in the intermediate skeleton
+     * @return The offset of the tag's "&lt;" in the skelBuf, or -1
+     */
+    private int locateTag(String tagPrefix, int seq) {
+        if ((tagEnds == null) || (tagPrefix == null) || (seq < 0)
+                || (seq >= tagEnds.length) || (tagEnds[seq] == -1)) {
+            return -1;
+        }
+        
+        int end = knownTagEnd(seq);      // One past the ">"
+        if ((end < 1) || (end > skelBuf.length()) || (skelBuf.charAt(end - 1) != '>')) {
+            return -1;
+        }
+        
+        int start = skelBuf.lastIndexOf("<", end - 1);
+        int afterPrefix = start + tagPrefix.length();
+        if ((start < 0) || (start < skelPosStack.peek().intValue())
+                || (afterPrefix >= end)) {
+            return -1;
+        }
+        for (int i = 0; i < tagPrefix.length(); i++) {
+            if (skelBuf.charAt(start + i) != tagPrefix.charAt(i)) {
+                return -1;
+            }
+        }
+        
+        // The name must end where the prefix does (so that "<b" doesn't
+        // match "<br>")
+        char c = skelBuf.charAt(afterPrefix);
+        if ((c != '>') && (c != '/') && !Character.isWhitespace(c)) {
+            return -1;
+        }
+        
+        return start;
+    }
+
+    /**
+     * Return the offset in the skelBuf one past the end of the tag with the
+     * specified sequence number, according to the position recorded by the
+     * HtmlHandler. (Call only after locateTag has found the tag.)
+     * @param seq The tag's sequence number in the intermediate skeleton
+     * @return The offset following the tag's "&gt;"
+     */
+    private int knownTagEnd(int seq) {
+        return tagEnds[seq] + editDelta;
+    }
+    
+    /**
+     * Convert the line/column positions recorded by the HtmlHandler into
+     * offsets in the (as yet unedited) skelBuf. Like NekoHTML, count CR, LF
+     * and CRLF each as a line end.
+     * @param tagPositions Positions packed as (line &lt;&lt; 32) | column,
+     *        or 0 if unknown
+     * @return The corresponding offsets (or -1 if unknown)
+     */
+    private int[] toOffsets(long[] tagPositions) {
+        // Find where each line starts
+        int[] lineStarts = new int[1024];
+        int numLines = 1;            // lineStarts[1] is the start of line 1
+        lineStarts[1] = 0;
+        int len = skelBuf.length();
+        for (int i = 0; i < len; i++) {
+            char c = skelBuf.charAt(i);
+            if ((c == '\r') || (c == '\n')) {
+                if ((c == '\r') && (i + 1 < len) && (skelBuf.charAt(i + 1) == '\n')) {
+                    i++;
+                }
+                numLines++;
+                if (numLines == lineStarts.length) {
+                    lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+                }
+                lineStarts[numLines] = i + 1;
+            }
+        }
+        
+        int[] offsets = new int[tagPositions.length];
+        for (int i = 0; i < tagPositions.length; i++) {
+            int line = (int)(tagPositions[i] >>> 32);
+            int column = (int)tagPositions[i];
+            if ((line < 1) || (line > numLines) || (column < 1)) {
+                offsets[i] = -1;
+            }
+            else {
+                offsets[i] = lineStarts[line] + column - 1;
+            }
+        }
+        
+        return offsets;
+    }
+
     /**
      * Passed the position of the start of a known comment, skip
      * comments until we have skipped all comments that begin before
@@ -0,0 +1,403 @@
+/**
+ * ImportStatistics.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Word, character, segment, inline-code and repetition counts of the
+ * trans-units an importer writes, computed from the core text of each TU as
+ * the importer writes it (so that getting the counts doesn't require reading
+ * and segmenting the XLIFF again).
+ * <p>If created with the name of a statistics file, the counts of each TU are
+ * written to it (one line per TU) as the TUs are added, followed (when the
+ * statistics are closed) by the totals for the file. The lines are
+ * tab-separated:
+ * <pre>
+ * tu  &lt;tu-id&gt;  &lt;words&gt;  &lt;characters&gt;  &lt;inline-codes&gt;  &lt;repetition (1 or 0)&gt;
+ * ...
+ * total  segments=&lt;n&gt;  words=&lt;n&gt;  characters=&lt;n&gt;  inline-codes=&lt;n&gt;  repetitions=&lt;n&gt;  repeated-words=&lt;n&gt;
+ * </pre>
+ * <p>Counts are of the core text only (the text outside the core isn't
+ * translated). Words are runs of letters and digits (which may include
+ * apostrophes, hyphens, periods and the like between letters or digits);
+ * each Han, Hiragana and Katakana character counts as a word. Characters
+ * are the Unicode characters of the text, not counting inline codes (an
+ * entity counts as one character). Inline codes are bx, ex and x (etc.)
+ * tags.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+public class ImportStatistics {
+
+    /**
+     * The conversion property that enables statistics. If set to Boolean.TRUE
+     * (or "true") before an import, the importer writes a statistics file
+     * (named like the XLIFF file, with the statsSuffix) and, after the
+     * import, getConversionProperty(PROPERTY) returns the ImportStatistics.
+     */
+    public static final String PROPERTY
+        = "http://www.lingotek.com/converters/properties/statistics";
+
+    /** The suffix of the statistics file (which otherwise has the same name
+     * as the XLIFF file, without its suffix) */
+    public static final String statsSuffix = ".stats";
+
+    private long numSegments = 0;
+    private long numWords = 0;
+    private long numChars = 0;
+    private long numInlineCodes = 0;
+    private long numRepetitions = 0;
+    private long numRepeatedWords = 0;
+
+    private Writer statsOut = null;     // The statistics file (if any)
+
+    // Used to find repetitions if the importer has no RepetitionIndex
+    private RepetitionIndex ownIndex = null;
+
+    /**
+     * Create statistics that aren't written to a file.
+     */
+    public ImportStatistics() {
+    }
+
+    /**
+     * Create statistics that are written to the specified file.
+     * @param statsFileName The name of the statistics file
+     * @throws file2xliff4j.ConversionException
+     *         If the file can't be created.
+     */
+    public ImportStatistics(String statsFileName) throws ConversionException {
+        try {
+            statsOut = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(statsFileName), "UTF-8"), Converter.BLKSIZE);
+        }
+        catch (IOException e) {
+            System.err.println("Unable to create statistics file " + statsFileName);
+            throw new ConversionException("Unable to create statistics file "
+                + statsFileName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Passed the value of the statistics conversion property, return true if
+     * it enables statistics (if it is Boolean.TRUE or "true").
+     * @param value The value of the property
+     * @return true if statistics are enabled, else false
+     */
+    public static boolean isEnabled(Object value) {
+        return (value != null) && value.toString().equalsIgnoreCase("true");
+    }
+
+    /**
+     * Return the statistics of an import, written to a file in the base
+     * directory named after the file being imported (with the statsSuffix
+     * instead of the XLIFF suffix)--or null if statistics aren't enabled.
+     * @param enabled true if statistics are enabled
+     * @param baseDir The directory in which the XLIFF is written
+     * @param fileName The name of the file being imported
+     * @return The statistics, or null
+     * @throws file2xliff4j.ConversionException
+     *         If the statistics file can't be created.
+     */
+    public static ImportStatistics forImport(boolean enabled, String baseDir,
+            String fileName) throws ConversionException {
+        if (!enabled) {
+            return null;
+        }
+        return new ImportStatistics(baseDir + File.separator + fileName
+            + statsSuffix);
+    }
+
+    /**
+     * Record a TU that an importer is writing: add its core text to the
+     * repetition index and statistics, if the importer has them. Return the
+     * attributes (if any) to add to its trans-unit element to mark it as a
+     * repetition. (See RepetitionIndex.tuAttributes.)
+     * @param tuID The id of the TU
+     * @param coreText The core text of the TU's source
+     * @param repetitions The importer's repetition index, or null
+     * @param statistics The importer's statistics, or null
+     * @return The attributes, each preceded by a space (or the empty string)
+     */
+    public static String recordTu(UUID tuID, CharSequence coreText,
+            RepetitionIndex repetitions, ImportStatistics statistics) {
+        String attrs = "";
+        if (repetitions != null) {
+            attrs = repetitions.tuAttributes(tuID, coreText);
+        }
+        if (statistics != null) {
+            statistics.addTu(tuID, coreText, (repetitions != null)
+                ? (attrs.length() > 0) : statistics.isRepetition(tuID, coreText));
+        }
+        return attrs;
+    }
+
+    /**
+     * Is the core text a repetition of one added earlier? (For importers
+     * without a RepetitionIndex)
+     */
+    private synchronized boolean isRepetition(UUID tuID, CharSequence coreText) {
+        if (coreText.length() == 0) {
+            return false;
+        }
+        if (ownIndex == null) {
+            ownIndex = new RepetitionIndex();
+        }
+        return ownIndex.add(tuID, coreText) >= 0;
+    }
+
+    /**
+     * Count the core text of a TU (and write its counts to the statistics
+     * file, if there is one).
+     * @param tuID The id of the TU
+     * @param coreText The core text of the TU's source
+     * @param isRepetition true if the core text repeats an earlier TU's
+     */
+    public synchronized void addTu(UUID tuID, CharSequence coreText,
+            boolean isRepetition) {
+        int words = 0;
+        int chars = 0;
+        int codes = 0;
+        boolean inWord = false;         // Was the last character in a word?
+        int lastCp = 0;                 // The last character
+        int len = coreText.length();
+        int i = 0;
+        while (i < len) {
+            char c = coreText.charAt(i);
+            int cp = c;
+            int next = i + 1;
+            if (c == '<') {                         // An inline code
+                int gt = indexOf(coreText, '>', i, len);
+                if (gt > 0) {
+                    // (A code doesn't end a word: "<bx .../>bo<ex .../>ld"
+                    // is one word.)
+                    if ((i + 1 < len) && (coreText.charAt(i + 1) != '/')
+                        && !startsWith(coreText, "<mrk", i)) {
+                        codes++;
+                    }
+                    i = gt + 1;
+                    continue;
+                }
+            }
+            else if (c == '&') {                    // An entity
+                int semi = indexOf(coreText, ';', i, Math.min(len, i + 11));
+                if (semi > 0) {
+                    cp = entityChar(coreText, i, semi);
+                    next = semi + 1;
+                }
+            }
+            else if (Character.isHighSurrogate(c) && (i + 1 < len)
+                     && Character.isLowSurrogate(coreText.charAt(i + 1))) {
+                cp = Character.toCodePoint(c, coreText.charAt(i + 1));
+                next = i + 2;
+            }
+            chars++;
+
+            if (isIdeographic(cp)) {
+                words++;                            // A word by itself
+                inWord = false;
+            }
+            else if (Character.isLetterOrDigit(cp)) {
+                if (!inWord) {
+                    words++;
+                    inWord = true;
+                }
+            }
+            else if (inWord && (isMark(cp) || (isWordJoiner(cp, lastCp)
+                     && (next < len) && Character.isLetterOrDigit(coreText.charAt(next))))) {
+                // Still in the word
+            }
+            else {
+                inWord = false;
+            }
+            lastCp = cp;
+            i = next;
+        }
+
+        numSegments++;
+        numWords += words;
+        numChars += chars;
+        numInlineCodes += codes;
+        if (isRepetition) {
+            numRepetitions++;
+            numRepeatedWords += words;
+        }
+
+        if (statsOut != null) {
+            try {
+                statsOut.write("tu\t" + tuID + "\t" + words + "\t" + chars + "\t"
+                    + codes + "\t" + (isRepetition ? "1" : "0") + "\n");
+            }
+            catch (IOException e) {
+                System.err.println("Error writing to the statistics file: "
+                    + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write the totals to the statistics file (if there is one) and close it.
+     */
+    public synchronized void close() {
+        if (statsOut == null) {
+            return;
+        }
+        try {
+            statsOut.write("total\tsegments=" + numSegments + "\twords=" + numWords
+                + "\tcharacters=" + numChars + "\tinline-codes=" + numInlineCodes
+                + "\trepetitions=" + numRepetitions
+                + "\trepeated-words=" + numRepeatedWords + "\n");
+            statsOut.close();
+        }
+        catch (IOException e) {
+            System.err.println("Error writing to the statistics file: "
+                + e.getMessage());
+        }
+        statsOut = null;
+    }
+
+    /**
+     * Return the number of segments (TUs).
+     * @return The number of segments
+     */
+    public synchronized long getSegmentCount() {
+        return numSegments;
+    }
+
+    /**
+     * Return the number of words in the core texts of the TUs.
+     * @return The number of words
+     */
+    public synchronized long getWordCount() {
+        return numWords;
+    }
+
+    /**
+     * Return the number of characters in the core texts of the TUs.
+     * @return The number of characters
+     */
+    public synchronized long getCharacterCount() {
+        return numChars;
+    }
+
+    /**
+     * Return the number of inline codes in the core texts of the TUs.
+     * @return The number of inline codes
+     */
+    public synchronized long getInlineCodeCount() {
+        return numInlineCodes;
+    }
+
+    /**
+     * Return the number of TUs whose core texts repeat an earlier TU's.
+     * @return The number of repetitions
+     */
+    public synchronized long getRepetitionCount() {
+        return numRepetitions;
+    }
+
+    /**
+     * Return the number of words in the TUs that are repetitions.
+     * @return The number of repeated words
+     */
+    public synchronized long getRepeatedWordCount() {
+        return numRepeatedWords;
+    }
+
+    /**
+     * Return the character that the entity [amp,semi] represents (or, if it
+     * isn't a predefined entity or a character reference, '&amp;').
+     */
+    private static int entityChar(CharSequence text, int amp, int semi) {
+        if (text.charAt(amp + 1) == '#') {
+            try {
+                String num = text.subSequence(amp + 2, semi).toString();
+                int cp = (num.startsWith("x") || num.startsWith("X"))
+                    ? Integer.parseInt(num.substring(1), 16) : Integer.parseInt(num);
+                return Character.isValidCodePoint(cp) ? cp : '&';
+            }
+            catch (NumberFormatException e) {
+                return '&';
+            }
+        }
+        if (startsWith(text, "&apos;", amp)) {
+            return '\'';
+        }
+        return '&';           // (&amp; &lt; &gt; &quot; aren't word characters)
+    }
+
+    /** Does each character of cp's script count as a word? */
+    private static boolean isIdeographic(int cp) {
+        if (cp < 0x2e80) {
+            return false;         // (Quick check for the common case)
+        }
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return (script == Character.UnicodeScript.HAN)
+            || (script == Character.UnicodeScript.HIRAGANA)
+            || (script == Character.UnicodeScript.KATAKANA);
+    }
+
+    /** Is cp a combining mark (which continues a word)? */
+    private static boolean isMark(int cp) {
+        int type = Character.getType(cp);
+        return (type == Character.NON_SPACING_MARK)
+            || (type == Character.COMBINING_SPACING_MARK)
+            || (type == Character.ENCLOSING_MARK);
+    }
+
+    /**
+     * Can cp (which follows prev) join two parts of a word ("don't", "e-mail",
+     * "3.14", "1,000")?
+     */
+    private static boolean isWordJoiner(int cp, int prev) {
+        if ((cp == '.') || (cp == ',')) {
+            return Character.isDigit(prev);
+        }
+        return (cp == '\'') || (cp == '\u2019') || (cp == '-') || (cp == '\u2010')
+            || (cp == '_');
+    }
+
+    /** Return the offset of c in [from,to) of text, or -1 */
+    private static int indexOf(CharSequence text, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Does text have prefix at offset i? */
+    private static boolean startsWith(CharSequence text, String prefix, int i) {
+        if (i + prefix.length() > text.length()) {
+            return false;
+        }
+        for (int j = 0; j < prefix.length(); j++) {
+            if (text.charAt(i + j) != prefix.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -40,6 +40,15 @@ import org.xml.sax.helpers.XMLReaderFactory;
 public class JavaPropertiesImporter implements Converter {
 
     private int curIndent = 0;
+    
+    // If non-null, the index in which to look up repeated segments
+    private RepetitionIndex repetitions = null;
+    
+    // Set by ImportStatistics.PROPERTY: whether to keep statistics of the
+    // TUs written (in statistics, which getConversionProperty returns)
+    private boolean keepStatistics = false;
+    private ImportStatistics statistics = null;
+    
     /**
      * Create a JavaPropertiesImporter 
      */
@@ -101,7 +110,7 @@ public class JavaPropertiesImporter implements Converter {
         Charset encoding = Charset.forName("UTF-8");
         
         // Create output stream writer for the XLIFF
-        OutputStreamWriter xliffOut = null;
+        OutputSink xliffOut = null;
 
         if (nativeFileName == null || nativeFileName.trim().length() == 0) {
             System.err.println("Input properties file name omitted. Cannot proceed.");
@@ -113,20 +122,17 @@ public class JavaPropertiesImporter implements Converter {
             + Converter.skeletonSuffix;
         
         try {
-            xliffOut  = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + nativeFileName + Converter.xliffSuffix),
-                    "UTF8");
-        }
-        catch (UnsupportedEncodingException e) {
-            System.err.println("Unable to write XLIFF as UTF-8!!");
-            System.err.println(e.getMessage());
-            throw new ConversionException("Unable to write XLIFF as UTF-8: " + e.getMessage());
+            xliffOut  = new OutputSink(
+                    baseDir + File.separator + nativeFileName + Converter.xliffSuffix);
         }
         catch (FileNotFoundException e) {
             System.err.println(e.getMessage());
             throw new ConversionException(e.getMessage());
         }
 
+        // If requested, keep statistics of the TUs as they are written
+        statistics = ImportStatistics.forImport(keepStatistics, baseDir, nativeFileName);
+        
         Properties inProps = new Properties();
         String propFileName = baseDir + File.separator + nativeFileName;
         File pFile = new File(propFileName);
@@ -157,7 +163,6 @@ public class JavaPropertiesImporter implements Converter {
                 + "' datatype='javapropertyresourcebundle'>\r\n");
             xliffOut.write(indent() + "<header lt:segtype='sentence'");
             xliffOut.write(">\r\n" + indent('0') + "</header>\r\n" + indent('0') + "<body>\r\n");
-            xliffOut.flush();
         
             // Write all the TUs
             Enumeration<Object> keys = inProps.keys();
@@ -165,19 +170,22 @@ public class JavaPropertiesImporter implements Converter {
                 String curKey = (String)keys.nextElement();
                 String curVal = inProps.getProperty(curKey);
                 UUID curTuID = UUID.randomUUID();
+                String coreText = curVal.replace("&", "&amp;").replace("<", "&lt;").replace(">", 
+                        "&lt;").replace("'", "&apos;").replace("\"", "&quot;");
                 xliffOut.write(indent('0')
                     + "<trans-unit id='" + curTuID + "' "
-                    + "lt:paraID='" + curTuID + "'>\r\n");
+                    + "lt:paraID='" + curTuID + "'"
+                    + ImportStatistics.recordTu(curTuID, coreText,
+                            repetitions, statistics)
+                    + ">\r\n");
                 // Open the source tag
                 xliffOut.write(indent('+') + "<source xml:lang='" 
                     + language.toString() + "'><mrk mtype='x-coretext'>"
-                    + curVal.replace("&", "&amp;").replace("<", "&lt;").replace(">", 
-                        "&lt;").replace("'", "&apos;").replace("\"", "&quot;")
+                    + coreText
                     + "</mrk></source>\r\n");
 
                 // ... and the trans-unit element
                 xliffOut.write(indent('-') + "</trans-unit>\r\n");
-                xliffOut.flush();
                 
 //                // Store the skeleton mapping (key is UUID, value is property name)
 //                skelProps.setProperty(curTuID.toString(), curKey);
@@ -194,6 +202,9 @@ public class JavaPropertiesImporter implements Converter {
             
             /* Close the files we created above */
             xliffOut.close();     
+            if (statistics != null) {
+                statistics.close();
+            }
 
 //            // Write out the skeleton properties to a file.
 //            skelProps.store(new FileOutputStream(skelPropFileName), 
@@ -401,8 +412,7 @@ public class JavaPropertiesImporter implements Converter {
         try {
             BufferedReader propRdr = new BufferedReader(new InputStreamReader(
                 new FileInputStream(propFileName), Charset.forName("UTF-8")));
-            BufferedWriter skelWriter = new BufferedWriter(new OutputStreamWriter(
-                new FileOutputStream(skelPropFileName), Charset.forName("UTF-8")));
+            OutputSink skelWriter = new OutputSink(skelPropFileName);
             // Now read
 
             String curLine = "";
@@ -426,7 +436,6 @@ public class JavaPropertiesImporter implements Converter {
                 else {
                     skelWriter.write(curLine + "\n");
                 }
-                skelWriter.flush();
             }
             // Close before leaving.
             propRdr.close();
@@ -454,6 +463,9 @@ public class JavaPropertiesImporter implements Converter {
      * @return An Object that represents the property's value.
      */
     public Object getConversionProperty(String property) {
+        if (property.equals(ImportStatistics.PROPERTY)) {
+            return statistics;
+        }
         return null;
     }
 
@@ -525,8 +537,9 @@ public class JavaPropertiesImporter implements Converter {
     /**
      * Set a format-specific property that might affect the way that the
      * conversion occurs.
-     * <p><i>Note:</i> This converter needs no format-specific properties.
-     * If any are passed, they will be silently ignored.
+     * <p>The properties recognized are RepetitionIndex.PROPERTY (to mark
+     * repeated segments) and ImportStatistics.PROPERTY (to keep statistics
+     * of the TUs written). Others will be silently ignored.
      * @param property The name of the property
      * @param value The value of the property
      * @throws file2xliff4j.ConversionException
@@ -534,6 +547,12 @@ public class JavaPropertiesImporter implements Converter {
      */
     public void setConversionProperty(String property, Object value)
             throws ConversionException {
+        if (property.equals(RepetitionIndex.PROPERTY)) {
+            repetitions = RepetitionIndex.forProperty(value);
+        }
+        else if (property.equals(ImportStatistics.PROPERTY)) {
+            keepStatistics = ImportStatistics.isEnabled(value);
+        }
         return;
     }
 
@@ -54,9 +54,9 @@ import java.util.regex.*;
  */
 public class MifImporter extends DefaultHandler implements Converter {
 
-    private OutputStreamWriter xliffOut;
-    private OutputStreamWriter tskeletonOut;
-    private OutputStreamWriter formatOut;
+    private OutputSink xliffOut;
+    private OutputSink tskeletonOut;
+    private OutputSink formatOut;
     private Locale sourceLanguage;         // For the source-language attribute
     private String dataType = "mif";       // For the datatype attribute
     private String originalFileName;       // For the original attribute
@@ -105,6 +105,18 @@ public class MifImporter extends DefaultHandler implements Converter {
     
     private SegmentBoundary boundaryType;
     
+    // If non-null, the index in which to look up repeated segments
+    private RepetitionIndex repetitions = null;
+
+    // If non-null, the segmenter to use for SRX segment boundaries (instead
+    // of the default)
+    private SrxSegmenter srxSegmenter = null;
+    
+    // Set by ImportStatistics.PROPERTY: whether to keep statistics of the
+    // TUs written (in statistics, which getConversionProperty returns)
+    private boolean keepStatistics = false;
+    private ImportStatistics statistics = null;
+    
     /**
      * Constructor for the MIF importer. 
      */
@@ -247,26 +259,21 @@ public class MifImporter extends DefaultHandler implements Converter {
         // Create output stream writers for the SAX handler to write to.
         // We will store our output as UTF-8
         try {
-            xliffOut  = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + inputMifFileName + Converter.xliffSuffix),
-                    "UTF8");
-            tskeletonOut = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + inputMifFileName + Converter.tSkeletonSuffix),
-                    "UTF8");
-            formatOut = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + inputMifFileName + Converter.formatSuffix),
-                    "UTF8");
-        }
-        catch (UnsupportedEncodingException e) {
-            System.err.println("Unable to write XLIFF as UTF-8!!");
-            System.err.println(e.getMessage());
-            throw new ConversionException("Unable to write XLIFF as UTF-8: " + e.getMessage());
+            xliffOut  = new OutputSink(
+                    baseDir + File.separator + inputMifFileName + Converter.xliffSuffix);
+            tskeletonOut = new OutputSink(
+                    baseDir + File.separator + inputMifFileName + Converter.tSkeletonSuffix);
+            formatOut = new OutputSink(
+                    baseDir + File.separator + inputMifFileName + Converter.formatSuffix);
         }
         catch (FileNotFoundException e) {
             System.err.println(e.getMessage());
             throw new ConversionException(e.getMessage());
         }
 
+        // If requested, keep statistics of the TUs as they are written
+        statistics = ImportStatistics.forImport(keepStatistics, baseDir, inputMifFileName);
+        
         XMLReader parser = null;
         
         try {
@@ -305,6 +312,9 @@ public class MifImporter extends DefaultHandler implements Converter {
         try {
             /* Close the files we created above */
             xliffOut.close();
+            if (statistics != null) {
+                statistics.close();
+            }
             tskeletonOut.close();
             formatOut.close();
 
@@ -878,7 +888,8 @@ public class MifImporter extends DefaultHandler implements Converter {
 
                 // Get the core segments:
                 SegmentInfo[] coreTus = TuPreener.getCoreSegments(preenedPara,
-                    this.boundaryType, this.sourceLanguage);
+                    this.boundaryType, this.sourceLanguage, false, false,
+                    srxSegmenter);
                 
                 UUID paraId = null;
                 
@@ -909,6 +920,8 @@ public class MifImporter extends DefaultHandler implements Converter {
                         // Start a new new TU element 
                         candidateTu.append(indent(6) + "<trans-unit id='" + curTuId.toString() + "'"
                                 + " lt:paraID='" + paraId + "'");
+                        candidateTu.append(ImportStatistics.recordTu(curTuId,
+                            coreTus[i].getCoreText(), repetitions, statistics));
                         
                         // If this segment is mergeable, so note it:
                         if (hasSuccessor) {
@@ -981,7 +994,8 @@ public class MifImporter extends DefaultHandler implements Converter {
                 
                 // Get the core segments:
                 SegmentInfo[] coreTus = TuPreener.getCoreSegments(preenedString,
-                    this.boundaryType, this.sourceLanguage);
+                    this.boundaryType, this.sourceLanguage, false, false,
+                    srxSegmenter);
 
                 UUID paraId = null;
                 
@@ -1012,6 +1026,8 @@ public class MifImporter extends DefaultHandler implements Converter {
                         // Start a new new TU element 
                         candidateTu.append(indent(6) + "<trans-unit id='" + curTuId.toString() + "'"
                                 + " lt:paraID='" + paraId + "'");
+                        candidateTu.append(ImportStatistics.recordTu(curTuId,
+                            coreTus[i].getCoreText(), repetitions, statistics));
                         
                         // If this segment is mergeable, so note it:
                         if (hasSuccessor) {
@@ -1370,6 +1386,9 @@ public class MifImporter extends DefaultHandler implements Converter {
      * @return An Object that represents the property's value.
      */
     public Object getConversionProperty(String property) {
+        if (property.equals(ImportStatistics.PROPERTY)) {
+            return statistics;
+        }
         return null;
     }
 
@@ -1582,7 +1601,6 @@ public class MifImporter extends DefaultHandler implements Converter {
         if (text != null) {
             try {
                 formatOut.write(text);
-                formatOut.flush();   // For debugging only
             }
             catch(IOException e) {
                 System.err.println("Error writing format file.");
@@ -1601,7 +1619,6 @@ public class MifImporter extends DefaultHandler implements Converter {
         if (text != null) {
             try {
                 tskeletonOut.write(text);
-                tskeletonOut.flush();    // For debugging
             }
             catch(IOException e) {
                 System.err.println("Error writing tskeleton file.");
@@ -1622,7 +1639,6 @@ public class MifImporter extends DefaultHandler implements Converter {
 
         try {
             xliffOut.write(text);
-            xliffOut.flush();   // For debugging
         }
         catch(IOException e) {
             System.err.println("Error writing to XLIFF: " + e.getMessage());
@@ -1655,18 +1671,35 @@ public class MifImporter extends DefaultHandler implements Converter {
             return true;
         }
 
-        // Regex to match core TU strings consisting solely of system variables
-        // and whitespace.
-        String sysVarStr = "(&lt;\\$[A-Za-z0-9]+&gt;|" + TuPreener.WHITE_SPACE_CLASS +")+";
-        Pattern sysVarPat = Pattern.compile(sysVarStr,Pattern.DOTALL);
-        Matcher sysVarMatcher = sysVarPat.matcher("");
-        
-        sysVarMatcher.reset(buf);
-        if (sysVarMatcher.matches()) {
-            return false;         // No meaningful text
+        // Does the core TU string consist solely of system variables
+        // (&lt;$name&gt;) and whitespace?
+        int i = 0;
+        while (i < buf.length()) {
+            if (CharClassifier.isPreenableSpace(buf.charAt(i))) {
+                i++;
+                continue;
+            }
+            if (!buf.startsWith("&lt;$", i)) {
+                return true;      // Meaningful text
+            }
+            int nameEnd = i + 5;
+            while ((nameEnd < buf.length()) 
+                   && isAsciiLetterOrDigit(buf.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            if ((nameEnd == i + 5) || !buf.startsWith("&gt;", nameEnd)) {
+                return true;
+            }
+            i = nameEnd + 4;      // Past the system variable
         }
         
-        return true;
+        return false;             // No meaningful text
+    }
+    
+    /** Is c an ASCII letter or digit? */
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'))
+            || ((c >= '0') && (c <= '9'));
     }
     
 //    /**
@@ -1800,8 +1833,10 @@ public class MifImporter extends DefaultHandler implements Converter {
     /**
      * Set a format-specific property that might affect the way that the
      * conversion occurs.
-     * <p><i>Note:</i> This converter needs no format-specific properties.
-     * If any are passed, they will be silently ignored.
+     * <p>The properties recognized are RepetitionIndex.PROPERTY (to mark
+     * repeated segments), ImportStatistics.PROPERTY (to keep statistics
+     * of the TUs written) and SrxSegmenter.PROPERTY (to segment with the
+     * rules of an SRX file). Others will be silently ignored.
      * @param property The name of the property
      * @param value The value of the property
      * @throws file2xliff4j.ConversionException
@@ -1809,6 +1844,15 @@ public class MifImporter extends DefaultHandler implements Converter {
      */
     public void setConversionProperty(String property, Object value)
             throws ConversionException {
+        if (property.equals(RepetitionIndex.PROPERTY)) {
+            repetitions = RepetitionIndex.forProperty(value);
+        }
+        else if (property.equals(ImportStatistics.PROPERTY)) {
+            keepStatistics = ImportStatistics.isEnabled(value);
+        }
+        else if (property.equals(SrxSegmenter.PROPERTY)) {
+            srxSegmenter = SrxSegmenter.forProperty(value);
+        }
         return;
     }
 
@@ -36,6 +36,11 @@ import java.util.regex.*;
  * It outputs a final Skeleton file that can be used (in combination
  * with the format and XLIFF files) to generate a new MIF file in a
  * target language.
+ * <p>The original MIF is read a line at a time into a reusable character
+ * buffer, and the skeleton is assembled in a bounded output buffer that is
+ * written out in bulk whenever it fills (and once more at the end of the
+ * merge), so that multi-megabyte MIF files are merged without per-line
+ * string copies or flushes.
  *
  * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
  */
@@ -46,10 +51,28 @@ public class MifSkeletonMerger implements SkeletonMerger {
     private boolean hasMacros = false;          // Does this file have any macros?
 //    private static final int BLOCK_SIZE = 8192; // For reading stuff in.
 
-    private BufferedReader mif;
-    private BufferedWriter skel;
+    private static final int BLKSIZE = 8192;       // For reading the MIF
+    private static final int OUT_BUFSIZE = 65536;  // Skeleton output buffer
+    private static final char[] CRLF = {'\r', '\n'};
+
+    private Reader mif;                   // The original MIF
+    private char[] mifBuf;                // Block most recently read from mif
+    private int mifBufPos = 0;            // Next unread char in mifBuf
+    private int mifBufLen = 0;            // Number of valid chars in mifBuf
+    private boolean skipLF = false;       // Last line ended with \r; skip \n?
+    
+    private Writer skel;                  // Where the skeleton goes
+    private char[] outBuf;                // Skeleton output not yet written
+    private int outLen = 0;               // Number of chars in outBuf
+    
+    // The unconsumed part of the most recently read MIF line (with \r\n 
+    // appended) is line[linePos] through line[lineLen-1].
+    private char[] line = new char[256];
+    private int lineLen = 0;
+    private int linePos = 0;
     
-    private String partialMifLine;
+    // For building TU placeholders
+    private StringBuilder placeHolder = new StringBuilder();
 
     // Matcher for "tu" lines in the tskeleton file.
     String tagPatt = "^<(format|tu) id='([^\']+)' parent='([^\']+)'(?: unique='([^\']*)')? no='([^\']*)' of='([^\']*)'>";
@@ -111,8 +134,17 @@ public class MifSkeletonMerger implements SkeletonMerger {
         
         BufferedReader tSkel = new BufferedReader(new InputStreamReader(tSkelInStream, encoding));
 
-        mif =  new BufferedReader(new InputStreamReader(mifInStream, encoding));
-        skel  = new BufferedWriter(new OutputStreamWriter(skeletonOutStream, encoding));
+        mif =  new InputStreamReader(mifInStream, encoding);
+        mifBuf = new char[BLKSIZE];
+        mifBufPos = 0;
+        mifBufLen = 0;
+        skipLF = false;
+        lineLen = 0;
+        linePos = 0;
+
+        skel  = new OutputStreamWriter(skeletonOutStream, encoding);
+        outBuf = new char[OUT_BUFSIZE];
+        outLen = 0;
         
         // Does the MIF file contain macros?
 //        Pattern macrop = Pattern.compile("\\bde(?:fi|ﬁ)ne[(]", Pattern.DOTALL);
@@ -193,21 +225,20 @@ public class MifSkeletonMerger implements SkeletonMerger {
         }
         
         // Even if we've reached the end of the tskeleton, we need to copy the rest
-        // of mif to skel
-        for ( ; ; ) {
-            int tChar = -1;
-            tChar = mif.read();
-            if (tChar == -1) {
-                // We're done (EOF)
-                break;
-            }
-            skeletonOutStream.write(tChar);
+        // of mif to skel. (What remains of the current line isn't copied.)
+        if (skipLF && fillMifBuf() && mifBuf[mifBufPos] == '\n') {
+            mifBufPos++;
+        }
+        while (fillMifBuf()) {
+            emit(mifBuf, mifBufPos, mifBufLen - mifBufPos);
+            mifBufPos = mifBufLen;
         }
         
         // Let's close the input stream
         mif.close();
         
         // Flush as you leave
+        flushOut();
         skel.flush();
         skel.close();
     }
@@ -269,16 +300,14 @@ public class MifSkeletonMerger implements SkeletonMerger {
                             angleCount--;
                         }
                         if (angleCount < 0) {
-                            skel.write(curChar);
-                            skel.flush();
+                            emit((char)curChar);
                             break FORLOOP;  // We're done
                         }
                         break;   // End this case ...
                     default:
                         // Do nothing 
                 }
-                skel.write(curChar);
-                skel.flush();
+                emit((char)curChar);
                 prevChar = (char)curChar;
             }
         }
@@ -363,7 +392,7 @@ public class MifSkeletonMerger implements SkeletonMerger {
      *         of adjacent segments.
      */
     private int insertTu(String tuTagString) {
-        String placeHolder = "";
+        placeHolder.setLength(0);
         
         int numLeft = 0;
         String tuOrFormat = "";
@@ -392,35 +421,38 @@ public class MifSkeletonMerger implements SkeletonMerger {
         // Construct the placeholder we will insert
         if (parent.equals("String")) {
             if (curNum.equals("1")) {
-                placeHolder += "<String `";
+                placeHolder.append("<String `");
             }
 
-            placeHolder += "<lt:" + tuOrFormat + " id=\"" + curTuID + "\" parent=\""
-                    + parent + "\" no=\"" + curNum + "\" of=\"" + totNum + "\"/>";
+            placeHolder.append("<lt:").append(tuOrFormat).append(" id=\"")
+                    .append(curTuID).append("\" parent=\"").append(parent)
+                    .append("\" no=\"").append(curNum).append("\" of=\"")
+                    .append(totNum).append("\"/>");
 
             if (numLeft == 0) {
-                placeHolder += "'>";
+                placeHolder.append("'>");
             }
         }
         
         else {  // Parent is "Para"
             if (curNum.equals("1")) {
-                placeHolder += "<Para\r\n  ";
+                placeHolder.append("<Para\r\n  ");
             }
 
-            placeHolder += "<lt:" + tuOrFormat + " id=\"" + curTuID + "\" parent=\"" 
-                    + parent + "\" unique=\"" + uniqueID + "\" no=\"" + curNum 
-                    + "\" of=\"" + totNum + "\"/>";
+            placeHolder.append("<lt:").append(tuOrFormat).append(" id=\"")
+                    .append(curTuID).append("\" parent=\"").append(parent)
+                    .append("\" unique=\"").append(uniqueID).append("\" no=\"")
+                    .append(curNum).append("\" of=\"").append(totNum)
+                    .append("\"/>");
 
             if (numLeft == 0) {
-                placeHolder += "\r\n >";
+                placeHolder.append("\r\n >");
             }
             
         }
         
         try {
-            skel.write(placeHolder);  // Insert it now!
-            skel.flush();
+            emit(placeHolder);  // Insert it now!
         }
         catch(IOException e) {
             System.err.println("Unexpected IOException in MifSkeletonMerger.insertTu.");
@@ -435,7 +467,7 @@ public class MifSkeletonMerger implements SkeletonMerger {
      * until the next occurrence of that tag is found, copying what is read to
      * the skel output. If the tagString occurs int he middle of a line, leave
      * the remainder of the last line read (beginning with the tagString) in the
-     * partialMifLine variable for later reading by others (or myself).
+     * line buffer for later reading by others (or myself).
      * Upon return, the output skel should end at the last character before the
      * '<' that introduces the tagString.
      * <p>The tagString passed in should begin either &lt;Para or &lt;String
@@ -453,55 +485,47 @@ public class MifSkeletonMerger implements SkeletonMerger {
         }
 
         try {
-            // First check partialMifLine to see if it has any residue from the
-            // last read operation
-            if ((partialMifLine != null) && (partialMifLine.length() > 0)) {
-                int tagPos = partialMifLine.indexOf(tagPrefix);
+            // First check the current MIF line to see if it has any residue
+            // from the last read operation
+            if (linePos < lineLen) {
+                int tagPos = indexOfInLine(tagPrefix);
                 if (tagPos != -1) {
                     // We found our sought-after tag in the saved partial MIF line!
                     // (Highly unusual)
-                    skel.write(partialMifLine,0,tagPos);
-                    skel.flush();   // for DEBUGGING
-                    partialMifLine = partialMifLine.substring(tagPos);
-                    // Now the partialMifLine's 1st character should be the '<'
+                    emit(line, linePos, tagPos - linePos);
+                    linePos = tagPos;
+                    // Now the line's next character should be the '<'
                     // that introduces String or Para
                     return 0;       // Mission accomplished ... for now
                 }
                 else {
-                    // Write the entire partialMifLine to the skel
-                    skel.write(partialMifLine);
-                    skel.flush();
-                    partialMifLine = "";
+                    // Write the entire partial line to the skel
+                    emit(line, linePos, lineLen - linePos);
+                    linePos = lineLen;
                 }
             }
 
             // We're still here. We need to read through the mif file until we find
             // the sought after tagPrefix
-            String curMifLine = "";
             int tagPos = -1;
             for ( ; ; ) {
-                curMifLine = mif.readLine();
-                if (curMifLine == null) { // end of file?
+                if (!readMifLine()) {     // end of file?
                     return -1;            // Error--premature eof
                 }
-                curMifLine += "\r\n";
 
-                tagPos = curMifLine.indexOf(tagPrefix);
+                tagPos = indexOfInLine(tagPrefix);
                 if (tagPos != -1) {
-                    // We found our sought-after tag in the saved partial MIF line!
-                    // (Highly unusual)
-                    skel.write(curMifLine,0,tagPos);
-                    skel.flush();         // for DEBUGGING
-                    partialMifLine = curMifLine.substring(tagPos);
-                    // Now the partialMifLine's 1st character should be the '<'
+                    // We found our sought-after tag in this MIF line.
+                    emit(line, 0, tagPos);
+                    linePos = tagPos;
+                    // Now the line's next character should be the '<'
                     // that introduces String or Para
                     return 0;       // Mission accomplished ... for now
                 }
                 else {
-                    // Write the entire partialMifLine to the skel
-                    skel.write(curMifLine);
-                    skel.flush();
-                    curMifLine = "";
+                    // Write the entire line to the skel
+                    emit(line, 0, lineLen);
+                    linePos = lineLen;
                 }
             }
         }
@@ -517,29 +541,186 @@ public class MifSkeletonMerger implements SkeletonMerger {
      * @return The next character or -1 if EOF
      */
     private int nextMifChar() {
-        int nextChar = -1;
-
         try {
             // If our partial MIF line buffer is empty, fill it.
-            if ((partialMifLine != null) && (partialMifLine.length() == 0)) {
-                partialMifLine = mif.readLine();
-                if (partialMifLine == null) {
+            if (linePos >= lineLen) {
+                if (!readMifLine()) {
                     return -1;
                 }
-                else {
-                    partialMifLine += "\r\n";  // Readline strips newlines; add one back
-                }
             }
         }
         catch(IOException e) {
             System.err.println("Unexpected IOException in MifSkeletonMerger.nextMifChar.");
             return -1;
         }
-        // Now we should have *something* in partialMifLine. Return the first char.
-        nextChar = partialMifLine.charAt(0);
-        partialMifLine = partialMifLine.substring(1);
+        // Now we should have *something* in the line. Return the next char.
+        return line[linePos++];
+    }
+    
+    /**
+     * Make sure that there is at least one unread character in the MIF
+     * input buffer, reading the next block of the MIF if necessary.
+     * @return true if a character is available, else false (EOF)
+     * @throws java.io.IOException
+     *         if an I/O error occurs.
+     */
+    private boolean fillMifBuf() throws IOException {
+        while (mifBufPos >= mifBufLen) {
+            int numRead = mif.read(mifBuf, 0, mifBuf.length);
+            if (numRead == -1) {
+                return false;
+            }
+            mifBufPos = 0;
+            mifBufLen = numRead;
+        }
+        return true;
+    }
+    
+    /**
+     * Read the next line of the MIF into the line buffer, replacing its
+     * previous contents. As with BufferedReader.readLine, a line ends with
+     * \n, \r or \r\n. The terminator is replaced with \r\n.
+     * @return true if a line was read, else false (EOF)
+     * @throws java.io.IOException
+     *         if an I/O error occurs.
+     */
+    private boolean readMifLine() throws IOException {
+        lineLen = 0;
+        linePos = 0;
+        boolean gotChars = false;
+        
+        for (;;) {
+            if (!fillMifBuf()) {
+                break;
+            }
+            if (skipLF) {
+                skipLF = false;
+                if (mifBuf[mifBufPos] == '\n') {
+                    mifBufPos++;
+                    continue;
+                }
+            }
+            gotChars = true;
+            
+            // Look for the end of the line in what we have buffered
+            int start = mifBufPos;
+            int end = start;
+            while (end < mifBufLen && mifBuf[end] != '\n' && mifBuf[end] != '\r') {
+                end++;
+            }
+            appendToLine(mifBuf, start, end - start);
+            if (end < mifBufLen) {
+                skipLF = (mifBuf[end] == '\r');
+                mifBufPos = end + 1;
+                break;             // Found the line terminator
+            }
+            mifBufPos = end;       // Line continues in the next block
+        }
         
-        return nextChar;
+        if (!gotChars) {
+            return false;
+        }
+        appendToLine(CRLF, 0, 2);  // Add back the line terminator
+        return true;
+    }
+    
+    /**
+     * Append characters to the line buffer, growing it as necessary.
+     * @param src The characters to append
+     * @param off Where to start in src
+     * @param len How many characters to append
+     */
+    private void appendToLine(char[] src, int off, int len) {
+        if (lineLen + len > line.length) {
+            line = Arrays.copyOf(line, Math.max(2 * line.length, lineLen + len));
+        }
+        System.arraycopy(src, off, line, lineLen, len);
+        lineLen += len;
+    }
+    
+    /**
+     * Look for a string in the unconsumed part of the line buffer.
+     * @param str The string to look for
+     * @return The index in the line buffer where str starts, or -1.
+     */
+    private int indexOfInLine(String str) {
+        int strLen = str.length();
+        if (strLen == 0) {
+            return linePos;
+        }
+        char first = str.charAt(0);
+        int max = lineLen - strLen;
+        SEARCH:
+        for (int i = linePos; i <= max; i++) {
+            if (line[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < strLen; j++) {
+                if (line[i + j] != str.charAt(j)) {
+                    continue SEARCH;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+    
+    /**
+     * Append a character to the skeleton output buffer.
+     * @param c The character
+     * @throws java.io.IOException
+     *         if an I/O error occurs.
+     */
+    private void emit(char c) throws IOException {
+        if (outLen == outBuf.length) {
+            flushOut();
+        }
+        outBuf[outLen++] = c;
+    }
+    
+    /**
+     * Append characters to the skeleton output buffer.
+     * @param src The characters to append
+     * @param off Where to start in src
+     * @param len How many characters to append
+     * @throws java.io.IOException
+     *         if an I/O error occurs.
+     */
+    private void emit(char[] src, int off, int len) throws IOException {
+        if (len > outBuf.length - outLen) {
+            flushOut();
+            if (len > outBuf.length) {
+                skel.write(src, off, len);
+                return;
+            }
+        }
+        System.arraycopy(src, off, outBuf, outLen, len);
+        outLen += len;
+    }
+    
+    /**
+     * Append a character sequence to the skeleton output buffer.
+     * @param str The characters to append
+     * @throws java.io.IOException
+     *         if an I/O error occurs.
+     */
+    private void emit(CharSequence str) throws IOException {
+        for (int i = 0; i < str.length(); i++) {
+            emit(str.charAt(i));
+        }
+    }
+    
+    /**
+     * Write the contents of the skeleton output buffer to the skeleton
+     * writer.
+     * @throws java.io.IOException
+     *         if an I/O error occurs.
+     */
+    private void flushOut() throws IOException {
+        if (outLen > 0) {
+            skel.write(outBuf, 0, outLen);
+            outLen = 0;
+        }
     }
     
     /**
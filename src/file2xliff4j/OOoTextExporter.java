@@ -25,8 +25,6 @@ import f2xutils.*;
 import java.io.*;
 import java.util.*;
 import java.nio.charset.*;
-import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.util.regex.*;
 import java.util.zip.*;
 
@@ -42,6 +40,8 @@ public class OOoTextExporter extends OdfExporter implements Converter {
 
     private FileType myDataType = null;   // What kind of data do I convert?
     
+    private ZipFile odfZipFile = null;    // The original odt/s/p file
+    
     /** Creates a new instance of OdfExporter */
     public OOoTextExporter() { }
     
@@ -51,14 +51,12 @@ public class OOoTextExporter extends OdfExporter implements Converter {
      * (besides the XLIFF file) the skeleton and format files that were 
      * generated when the XLIFF file was created.
      * <p>Note: This conversion actually uses the convert method of its superclass 
-     * (OdfExporter) to generate a content.&lt;language&gt;.xml file--which is
-     * a special target-language-specific version of the "standard" content.xml 
-     * file that is found in ZIP-formated OpenOffice.org odt files. After the 
-     * superclass creates the content.&lt;language&gt;.xml file, this converter
-     * copies the original (used for import) odt file to one that inserts the
-     * target-language between the "stem" and the odt extension of the file
-     * name. It replaces the original content.xml (in the new odt copy) with
-     * the contents of the new content.&lt;language&gt;.xml file.
+     * (OdfExporter) to generate a target-language-specific version of the 
+     * "standard" content.xml file that is found in ZIP-formated OpenOffice.org
+     * odt files. This converter copies the original (used for import) odt file
+     * to one that inserts the target-language between the "stem" and the odt 
+     * extension of the file name. The superclass writes the new content.xml
+     * directly into the new odt copy, in place of the original content.xml.
      * @param mode The mode of conversion (FROM_XLIFF in this case).
      * @param language The language of the XLIFF target to use in constructing
      *        the ODF document. The language is used in constructing a unique
@@ -145,24 +143,20 @@ public class OOoTextExporter extends OdfExporter implements Converter {
             xliffOriginalFileName = nativeFileName;
         }
         
-        // Start by having our superclass (odfExporter) create a language-
-        // specific content.xml file that contains the new target strings. If
-        // our superclass throws a ConversionException, we will just pass it on
-        // to our caller.
-        status = super.convert(mode, language, phaseName, maxPhase, nativeEncoding, 
-            nativeFileType, xliffOriginalFileName, baseDir, notifier, boundary, null);
-        
         /********************************************************************
          * Copy the original odt file into a language-specific odt file,
-         * substituting the contents of the new contents.<language>.xml file
-         * (created by our superclass) in place of the original contents.xml
-         * file. (Note: as we copy the new contents.<language>.xml file into
-         * the odt file, we will name the file contents.xml, so that 
-         * OpenOffice.org will find it.)
+         * substituting a new content.xml (and styles.xml), generated by our
+         * superclass, for the original ones. Our superclass writes those
+         * directly to the new odt file (see odfPackageOut). The other files
+         * in the odt file are copied without being uncompressed and 
+         * recompressed--so the time to export depends on the size of the
+         * translated content, not on the size of the pictures (etc.) in the
+         * odt file.
          ********************************************************************/
         
         String oldOdtFileName = "";   // The one used during import to XLIFF
         String newOdtFileName = "";   // The one we will export to.
+        String newOdtName = "";       // ... without the directory
         
         if (xliffOriginalFileName.toLowerCase().endsWith(".odt")) { // Imported odt file!!
             oldOdtFileName = baseDir + File.separator + xliffOriginalFileName;
@@ -172,11 +166,8 @@ public class OOoTextExporter extends OdfExporter implements Converter {
             newOdtFileName = baseDir + File.separator
                     + xliffOriginalFileName.substring(0,extPos) + "."
                     + language.toString() + ".odt";
-            if (generatedFileName != null) {
-                // Tell caller the name of the output file (wo/directories)
-                generatedFileName.write(xliffOriginalFileName.substring(0,extPos) + "."
-                    + language.toString() + ".odt");
-            }
+            newOdtName = xliffOriginalFileName.substring(0,extPos) + "."
+                    + language.toString() + ".odt";
         }
         else if (xliffOriginalFileName.toLowerCase().endsWith(".ods")) { // Imported ods file!!
             oldOdtFileName = baseDir + File.separator + xliffOriginalFileName;
@@ -186,11 +177,8 @@ public class OOoTextExporter extends OdfExporter implements Converter {
             newOdtFileName = baseDir + File.separator
                     + xliffOriginalFileName.substring(0,extPos) + "."
                     + language.toString() + ".ods";
-            if (generatedFileName != null) {
-                // Tell caller the name of the output file (wo/directories)
-                generatedFileName.write(xliffOriginalFileName.substring(0,extPos) + "."
-                    + language.toString() + ".ods");
-            }
+            newOdtName = xliffOriginalFileName.substring(0,extPos) + "."
+                    + language.toString() + ".ods";
         }
         else if (xliffOriginalFileName.toLowerCase().endsWith(".odp")) { // Imported odp file!!
             oldOdtFileName = baseDir + File.separator + xliffOriginalFileName;
@@ -200,299 +188,144 @@ public class OOoTextExporter extends OdfExporter implements Converter {
             newOdtFileName = baseDir + File.separator
                     + xliffOriginalFileName.substring(0,extPos) + "."
                     + language.toString() + ".odp";
-            if (generatedFileName != null) {
-                // Tell caller the name of the output file (wo/directories)
-                generatedFileName.write(xliffOriginalFileName.substring(0,extPos) + "."
-                    + language.toString() + ".odp");
-            }
+            newOdtName = xliffOriginalFileName.substring(0,extPos) + "."
+                    + language.toString() + ".odp";
         }
         else if (xliffOriginalFileName.toLowerCase().endsWith(".ppt")) { // PowerPoint
             oldOdtFileName = baseDir + File.separator + xliffOriginalFileName
                     + ".odp";
             newOdtFileName = baseDir + File.separator + xliffOriginalFileName
                     + "." + language.toString() + ".odp";
-            if (generatedFileName != null) {
-                // Tell caller the name of the output file (wo/directories)
-                generatedFileName.write(xliffOriginalFileName
-                    + "." + language.toString() + ".odp");
-            }
+            newOdtName = xliffOriginalFileName
+                    + "." + language.toString() + ".odp";
         }
         else if (xliffOriginalFileName.toLowerCase().endsWith(".xls")) { // Excel
             oldOdtFileName = baseDir + File.separator + xliffOriginalFileName
                     + ".ods";
             newOdtFileName = baseDir + File.separator + xliffOriginalFileName
                     + "." + language.toString() + ".ods";
-            if (generatedFileName != null) {
-                // Tell caller the name of the output file (wo/directories)
-                generatedFileName.write(xliffOriginalFileName
-                    + "." + language.toString() + ".ods");
-            }
+            newOdtName = xliffOriginalFileName
+                    + "." + language.toString() + ".ods";
         }
         else if (xliffOriginalFileName.toLowerCase().endsWith(".doc")) { // Word
             oldOdtFileName = baseDir + File.separator + xliffOriginalFileName
                     + ".odt";
             newOdtFileName = baseDir + File.separator + xliffOriginalFileName
                     + "." + language.toString() + ".odt";
-            if (generatedFileName != null) {
-                // Tell caller the name of the output file (wo/directories)
-                generatedFileName.write(xliffOriginalFileName
-                    + "." + language.toString() + ".odt");
-            }
+            newOdtName = xliffOriginalFileName
+                    + "." + language.toString() + ".odt";
         }
         else if (xliffOriginalFileName.toLowerCase().endsWith(".rtf")) { // Rich Text Format
             oldOdtFileName = baseDir + File.separator + xliffOriginalFileName
                     + ".odt";
             newOdtFileName = baseDir + File.separator + xliffOriginalFileName
                     + "." + language.toString() + ".odt";
-            if (generatedFileName != null) {
-                // Tell caller the name of the output file (wo/directories)
-                generatedFileName.write(xliffOriginalFileName
-                    + "." + language.toString() + ".odt");
-            }
+            newOdtName = xliffOriginalFileName
+                    + "." + language.toString() + ".odt";
         }
         else { // Probably had no extension (!!)
             oldOdtFileName = baseDir + File.separator + xliffOriginalFileName;
 //                    + ".odt";
             newOdtFileName = baseDir + File.separator + xliffOriginalFileName
                     + "." + language.toString(); // + ".odt";
-            if (generatedFileName != null) {
-                // Tell caller the name of the output file (wo/directories)
-                generatedFileName.write(xliffOriginalFileName
-                    + "." + language.toString());
-            }
+            newOdtName = xliffOriginalFileName
+                    + "." + language.toString();
         }
         
         try {
-            byte[] byteBuf = new byte[BLKSIZE];
-            int numRead;    // To count number of characters read
-            
-            // We'll READ from the old (original) odt/p/s file (which is a ZIP file):
-            ZipFile odfZipFile = new ZipFile(oldOdtFileName);
+            // We'll READ (mimetype, meta.xml, etc.) from the old (original)
+            // odt/p/s file (which is a ZIP file):
+            odfZipFile = new ZipFile(oldOdtFileName);
             
             // We'll WRITE to the new odt/p/s file (also in ZIP format ...):
-            ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(newOdtFileName));
-//            ZipWriter zipWriter = new ZipWriter(zipOut);
-            
-            // Get an enumeration of the contents of the original input file.
-            Enumeration all = odfZipFile.entries();
-            
-            // Go through every element in the input zip file (i.e. original odt file)
-            while (all.hasMoreElements()) {
-                ZipEntry nextFile = (ZipEntry) all.nextElement();
-                
-                // If we're getting the ODF file, replace it in the new file
-                // with out new file
-                if (nextFile.getName().equals("content.xml")) {
-                    // Replace it with new content.xml
-                    zipOut.putNextEntry(new ZipEntry("content.xml"));
-                    
-                    // Read the new content.<language>.xml from where our superclass
-                    // put it.
-                    InputStream inOdt = new FileInputStream(baseDir 
-                        + File.separator + "content." + language.toString() + ".xml");
-                    
-                    // Read every byte and write it to the output ZIP file.
-//                    int b;
-//                    while ((b = inOdt.read()) != -1) {
-//                        zipOut.write(b);
-//                    }
-//
-                    while ((numRead = inOdt.read(byteBuf)) != -1) {  
-                        zipOut.write(byteBuf,0,numRead);     
-                    }
-                    
-//                    
-                    inOdt.close();
-                    zipOut.flush();
-                    // Close entry after else ... (belowl)
-                }
-                // New (1/2/2007) code to handle styles.xml (optionally)
-                else if (nextFile.getName().equals("styles.xml")) {
-                    // We will write a styles.xml file
-//                    zipOut.putNextEntry(new ZipEntry("styles.xml"));
-//
-//                    // See if a styles.ll_LL.xml file exists
-//                    File stylesLl = new File(baseDir + File.separator 
-//                        + "styles." + language.toString() + ".xml");
-//                    
-//                    InputStream inStyles = null;
-//                    
-//                    if (stylesLl.exists()) {
-//                        // Read the styles.<language>.xml from where our superclass
-//                        // put it.
-//                        inStyles = new FileInputStream(baseDir 
-//                            + File.separator + "styles." + language.toString() + ".xml");
-//                    }
-//                    else {
-//                        // Otherwise, just copy the existing styles.xml from the old 
-//                        // zip file.
-//                        inStyles = odfZipFile.getInputStream(nextFile);
-//                    }
-//                        
-//                    // Read every byte and write it to the output ZIP file.
-////                    int b;
-////                    while ((b = inStyles.read()) != -1) {
-////                        zipOut.write(b);
-////                    }
-//                    
-//                    while ((numRead = inStyles.read(byteBuf)) != -1) {  
-//                        zipOut.write(byteBuf,0,numRead);     
-//                    }
-//                    
-//                    inStyles.close();
-//                    zipOut.flush();
-//                    // Close entry after else ... (belowl)
-                    
-                    zipOut.putNextEntry(new ZipEntry("styles.xml"));
-
-                    StringBuilder stylesBuf = new StringBuilder();
+            odfPackageOut = new OdfPackageWriter(newOdtFileName, oldOdtFileName);
 
-                    // See if a styles.ll_LL.xml file exists
-                    File stylesLl = new File(baseDir + File.separator 
-                        + "styles." + language.toString() + ".xml");
-                    
-                    InputStreamReader inStyles = null;
-                    
-                    if (stylesLl.exists()) {
-                        // Read the styles.<language>.xml from where our superclass
-                        // put it.
-                        inStyles = new InputStreamReader(new FileInputStream(baseDir 
-                            + File.separator + "styles." + language.toString() + ".xml"), 
-                                Charset.forName("UTF-8"));
-                    }
-                    else {
-                        // Otherwise, just copy the existing styles.xml from the old 
-                        // zip file.
-                        inStyles = new InputStreamReader(odfZipFile.getInputStream(nextFile),
-                                Charset.forName("UTF-8"));
-                    }
-
-                    int b;
-                    char[] charBuf = new char[BLKSIZE];
-                    while ((numRead = inStyles.read(charBuf)) != -1) {
-                        stylesBuf.append(charBuf,0, numRead);
-                    }
-
-                    // Change all fo:language, number:language, style:language-complex
-                    // and style:language-asian attribute values to the target 
-                    // locale's language component.
-                    String stylesContent = stylesBuf.toString().replaceAll(
-                            "(?s)(fo:language|number:language|style:language-complex|style:language-asian)=(['\"])[^'\"]*\\2",
-                            "$1=$2" + language.getLanguage() + "$2");
-                    
-                    // Change all fo:country, number:country, style:country-complex
-                    // and style:country-asian attribute values to the target 
-                    // locale's country component.
-                    stylesContent = stylesContent.replaceAll(
-                            "(?s)(fo:country|number:country|style:country-complex|style:country-asian)=(['\"])[^'\"]*\\2",
-                            "$1=$2" + language.getCountry() + "$2");
-                    
-                    // We have been working with chars, but need to write bytes
-                    // to the ZIP file. A CharsetEncoder can convert from chars
-                    // to bytes.
-                    CharsetEncoder c2b = Charset.forName("UTF-8").newEncoder();
-                    ByteBuffer stylesInBytes 
-                        = c2b.encode(CharBuffer.wrap(stylesContent.subSequence(0, 
-                            stylesContent.length()), 0, stylesContent.length()));
-                    int numBytes = stylesInBytes.limit();
-                    zipOut.write(stylesInBytes.array(), 0, numBytes);
-//                    for (int i = 0; i < stylesContent.length(); i++) {
-//                        zipOut.write(stylesContent.charAt(i));     
-//                    }
-                    
-                    inStyles.close();
-                    zipOut.flush();
-                    // Close entry after else ... (belowl)
+            // The mimetype file is the first file. It is stored undeflated,
+            // per the OOo documentation
+            ZipEntry mimetype = odfZipFile.getEntry("mimetype");
+            if (mimetype != null) {
+                odfPackageOut.writeStoredEntry("mimetype", 
+                        readEntry(odfZipFile, mimetype));
+            }
+        }
+        catch(IOException e) {
+            closeOdfPackages(true);
+            System.err.println("Cannot create (ZIP format) OpenOffice Text file " 
+                    + newOdtFileName + ": " + e.getMessage());
+            throw new ConversionException("Cannot create (ZIP format) OpenOffice Text file " 
+                    + newOdtFileName + ": " + e.getMessage());
+        }
+        
+        // Now have our superclass (odfExporter) write a language-specific
+        // content.xml (and styles.xml) that contains the new target strings
+        // to the new package. If our superclass throws a ConversionException,
+        // we will just pass it on to our caller.
+        try {
+            status = super.convert(mode, language, phaseName, maxPhase, nativeEncoding, 
+                nativeFileType, xliffOriginalFileName, baseDir, notifier, boundary, null);
+        }
+        catch(ConversionException e) {
+            closeOdfPackages(true);
+            throw e;
+        }
+        
+        try {
+            // Go through every remaining element in the input zip file (i.e.
+            // original odt file)
+            for (String name : odfPackageOut.getOriginalEntryNames()) {
+                if (odfPackageOut.hasEntry(name)) {
+                    continue;      // mimetype, content.xml, (styles.xml)
                 }
-                else if (nextFile.getName().equals("mimetype")) {
-                    // The mimetype file is the first file. It is stored
-                    // undeflated, per the OOo documentation
-                    ZipEntry nextOutFile = new ZipEntry(nextFile.getName());
-                    nextOutFile.setMethod(ZipEntry.STORED);
-                    nextOutFile.setSize(nextFile.getSize());
-                    nextOutFile.setCrc(nextFile.getCrc());
-                    
-                    zipOut.putNextEntry(nextOutFile);
-                    
-                    // Create a ZIP input stream to read from the ZIP entry we
-                    // are copying to the new zip file.
-                    InputStream zin = odfZipFile.getInputStream(nextFile);
-//                    int b;
-//                    while ((b = zin.read()) != -1) {
-//                        zipOut.write(b);
-//                    }
-
-                    while ((numRead = zin.read(byteBuf)) != -1) {  
-                        zipOut.write(byteBuf,0,numRead);     
-                    }
-                    
-                    zipOut.flush();
-                    zin.close();              // Close the input zip entry
+                else if (name.equals("styles.xml")) {
+                    // Our superclass didn't write a styles.xml (no translatable
+                    // text in styles, or it generated a bogus one), so copy the
+                    // existing styles.xml from the old zip file, changing its
+                    // language and country attributes to the target's.
+                    String styles = new String(readEntry(odfZipFile, 
+                        odfZipFile.getEntry(name)), "UTF-8");
+                    Writer stylesOut = new OutputStreamWriter(
+                        odfPackageOut.openEntry(name), "UTF-8");
+                    stylesOut.write(localizeStyles(styles, language));
+                    stylesOut.close();
                 }
-                else if (nextFile.getName().equals("meta.xml")) {
+                else if (name.equals("meta.xml")) {
                     // The meta.xml file includes a cd:language element whose
                     // text is the ISO language code. We need to change the
                     // text of that element to indicate the language of the
                     // file we are exporting.
-                    zipOut.putNextEntry(new ZipEntry("meta.xml"));
-                    StringBuilder metaBuf = new StringBuilder();
-                    
-                    // Create a ZIP input stream to read the meta.xml file
-                    // from the existing odt|s|p file.
-                    InputStreamReader zin = new InputStreamReader(odfZipFile.getInputStream(nextFile));
-                    int b;
-                    char[] charBuf = new char[BLKSIZE];
-                    while ((numRead = zin.read(charBuf)) != -1) {
-                        metaBuf.append(charBuf,0, numRead);
-                    }
-
-                    String metaContent = metaBuf.toString().replaceFirst("(?s)^(.*?<dc:language>).*?(</dc:language>.*)$",
+                    String metaContent = new String(readEntry(odfZipFile, 
+                        odfZipFile.getEntry(name)), "UTF-8");
+                    metaContent = metaContent.replaceFirst("(?s)^(.*?<dc:language>).*?(</dc:language>.*)$",
                             "$1" + language.toString() + "$2");
                     
-                    for (int i = 0; i < metaContent.length(); i++) {
-                        zipOut.write(metaContent.charAt(i));     
-                    }
-                    
-                    zipOut.flush();
-                    zin.close();
-                    // Close entry after else ... (belowl)
+                    Writer metaOut = new OutputStreamWriter(
+                        odfPackageOut.openEntry(name), "UTF-8");
+                    metaOut.write(metaContent);
+                    metaOut.close();
                 }
                 else {
-                    // Just write the old ZIP entry to the new ZIP entry
-                    
-                    // Create a new zip entry for the out file, giving it the same
-                    // name as the nextFile we just read from the old file.
-                    ZipEntry nextOutFile = new ZipEntry(nextFile.getName());
-                    zipOut.putNextEntry(nextOutFile);
-                    
-                    // Create a ZIP input stream to read from the ZIP entry we
-                    // are copying to the new zip file.
-                    InputStream zin = odfZipFile.getInputStream(nextFile);
-//                    int b;
-//                    while ((b = zin.read()) != -1) {
-//                        zipOut.write(b);
-//                    }
-                    while ((numRead = zin.read(byteBuf)) != -1) {  
-                        zipOut.write(byteBuf,0,numRead);     
-                    }
-
-                    zipOut.flush();
-                    zin.close();              // Close the input zip entry
+                    // Just copy the old ZIP entry (still compressed) to the
+                    // new ZIP file.
+                    odfPackageOut.copyEntry(name);
                 }
-                zipOut.closeEntry();
             }
             
-            // Now close the input and the output ZIP streams
-            odfZipFile.close();
-            zipOut.close();
+            // Now close the input and the output ZIP files
+            closeOdfPackages(false);
         }
         catch(IOException e) {
+            closeOdfPackages(true);
             System.err.println("Cannot create (ZIP format) OpenOffice Text file " 
                     + newOdtFileName + ": " + e.getMessage());
             throw new ConversionException("Cannot create (ZIP format) OpenOffice Text file " 
                     + newOdtFileName + ": " + e.getMessage());
         }
         
+        if (generatedFileName != null) {
+            // Tell caller the name of the output file (wo/directories)
+            generatedFileName.write(newOdtName);
+        }
+        
         return status;
     }
 
@@ -502,14 +335,12 @@ public class OOoTextExporter extends OdfExporter implements Converter {
      * (besides the XLIFF file) the skeleton and format files that were 
      * generated when the XLIFF file was created.
      * <p>Note: This conversion actually uses the convert method of its superclass 
-     * (OdfExporter) to generate a content.&lt;language&gt;.xml file--which is
-     * a special target-language-specific version of the "standard" content.xml 
-     * file that is found in ZIP-formated OpenOffice.org odt files. After the 
-     * superclass creates the content.&lt;language&gt;.xml file, this converter
-     * copies the original (used for import) odt file to one that inserts the
-     * target-language between the "stem" and the odt extension of the file
-     * name. It replaces the original content.xml (in the new odt copy) with
-     * the contents of the new content.&lt;language&gt;.xml file.
+     * (OdfExporter) to generate a target-language-specific version of the 
+     * "standard" content.xml file that is found in ZIP-formated OpenOffice.org
+     * odt files. This converter copies the original (used for import) odt file
+     * to one that inserts the target-language between the "stem" and the odt 
+     * extension of the file name. The superclass writes the new content.xml
+     * directly into the new odt copy, in place of the original content.xml.
      * @param mode The mode of conversion (FROM_XLIFF in this case).
      * @param language The language of the XLIFF targets to use in constructing
      *        the ODF document. The language is used in constructing a unique
@@ -580,14 +411,12 @@ public class OOoTextExporter extends OdfExporter implements Converter {
      * (besides the XLIFF file) the skeleton and format files that were 
      * generated when the XLIFF file was created.
      * <p>Note: This conversion actually uses the convert method of its superclass 
-     * (OdfExporter) to generate a content.&lt;language&gt;.xml file--which is
-     * a special target-language-specific version of the "standard" content.xml 
-     * file that is found in ZIP-formated OpenOffice.org odt files. After the 
-     * superclass creates the content.&lt;language&gt;.xml file, this converter
-     * copies the original (used for import) odt file to one that inserts the
-     * target-language between the "stem" and the odt extension of the file
-     * name. It replaces the original content.xml (in the new odt copy) with
-     * the contents of the new content.&lt;language&gt;.xml file.
+     * (OdfExporter) to generate a target-language-specific version of the 
+     * "standard" content.xml file that is found in ZIP-formated OpenOffice.org
+     * odt files. This converter copies the original (used for import) odt file
+     * to one that inserts the target-language between the "stem" and the odt 
+     * extension of the file name. The superclass writes the new content.xml
+     * directly into the new odt copy, in place of the original content.xml.
      * @param mode The mode of conversion (FROM_XLIFF in this case).
      * @param language The language of the XLIFF targets to use in constructing
      *        the ODF document. The language is used in constructing a unique
@@ -642,6 +471,65 @@ public class OOoTextExporter extends OdfExporter implements Converter {
                 nativeFileType, nativeFileName, baseDir, notifier, null, null);
     }
     
+    /**
+     * Read the entire (uncompressed) content of an entry in a ZIP file.
+     * @param zipFile The ZIP file
+     * @param entry The entry to read
+     * @return The entry's content
+     * @throws java.io.IOException
+     *         If the entry can't be read.
+     */
+    private byte[] readEntry(ZipFile zipFile, ZipEntry entry) throws IOException {
+        InputStream zin = zipFile.getInputStream(entry);
+        ByteArrayOutputStream content = new ByteArrayOutputStream(BLKSIZE);
+        byte[] byteBuf = new byte[BLKSIZE];
+        int numRead;
+        while ((numRead = zin.read(byteBuf)) != -1) {  
+            content.write(byteBuf, 0, numRead);
+        }
+        zin.close();
+        return content.toByteArray();
+    }
+    
+    /**
+     * Close the original (odfZipFile) and new (odfPackageOut) ODF packages.
+     * @param failed If true, something went wrong, so delete the (incomplete)
+     *        new package.
+     * @throws file2xliff4j.ConversionException
+     *         If the new package can't be completed.
+     */
+    private void closeOdfPackages(boolean failed) throws ConversionException {
+        try {
+            if (odfZipFile != null) {
+                odfZipFile.close();
+            }
+        }
+        catch(IOException e) {
+            System.err.println("Error closing original ODF file: " + e.getMessage());
+        }
+        odfZipFile = null;
+        
+        if (odfPackageOut != null) {
+            OdfPackageWriter pkg = odfPackageOut;
+            odfPackageOut = null;
+            if (failed) {
+                pkg.abandon();
+            }
+            else {
+                try {
+                    pkg.close();
+                }
+                catch(IOException e) {
+                    pkg.abandon();
+                    System.err.println("Cannot create (ZIP format) OpenOffice Text file " 
+                            + pkg.getName() + ": " + e.getMessage());
+                    throw new ConversionException("Cannot create (ZIP format) OpenOffice Text file " 
+                            + pkg.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
     /** 
      * Return an object representing a format-specific (and converter-specific) 
      * property.
@@ -670,8 +558,10 @@ public class OOoTextExporter extends OdfExporter implements Converter {
     /**
      * Set a format-specific property that might affect the way that the
      * conversion occurs.
-     * <p><i>Note:</i> This converter needs no format-specific properties.
-     * If any are passed, they will be silently ignored.
+     * <p>The properties recognized are the datatype property (the type of
+     * document to export) and STRICT_VALIDATION_PROPERTY (to validate the
+     * exported content.xml and styles.xml by parsing them after they are
+     * written). Others will be silently ignored.
      * @param property The name of the property
      * @param value The value of the property
      * @throws file2xliff4j.ConversionException
@@ -685,6 +575,9 @@ public class OOoTextExporter extends OdfExporter implements Converter {
                 this.myDataType = (FileType)value;
             }
         }
+        else if (property.equals(STRICT_VALIDATION_PROPERTY)) {
+            strictValidation = (value != null) && value.toString().equalsIgnoreCase("true");
+        }
         
         return;
     }
@@ -47,9 +47,10 @@ public class OOoTextImporter extends OdfImporter implements Converter {
     /**
      * Convert an OpenOffice.org text (odt), spreadsheet (ods), or presentations
      * (odp) file to XLIFF, creating xliff, skeleton and format files as output.
-     * <p>In the present implementation, the OOoTextImporter extracts the
-     * content.xml file from the input ODT file, then calls upon its superclass
-     * (OdfImporter) to complete the conversion to XLIFF.
+     * <p>In the present implementation, the OOoTextImporter opens the input
+     * ODT file, then calls upon its superclass (OdfImporter) to complete the
+     * conversion to XLIFF, reading content.xml (and styles.xml) directly from
+     * the ODT file's entries.
      * @param mode The mode of conversion (to or from XLIFF).
      * @param language The language of the input file.
      * @param phaseName The target phase-name. This value is ignored.
@@ -110,70 +111,47 @@ public class OOoTextImporter extends OdfImporter implements Converter {
             xliffOriginalFileName = nativeFileName;
         }
 
-        // Extract the content.xml file from the odt file, so that we can call our
-        // superclass to convert that to XLIFF.
+        // Open the odt file, so that our superclass can read content.xml (and
+        // styles.xml--where things like page headers and footers are stored)
+        // directly from its entries. (Nothing is extracted to baseDir, and the
+        // odt file is neither renamed nor modified, so several conversions
+        // can share a directory.)
         try {
-            // Wordaround for WinDoze JDK's inability to handle Japanese kanji
-            // characters in ZIP file names:
-            File f = new File(baseDir + File.separator + nativeFileName);
-            f.renameTo(new File(baseDir + File.separator + "$$tszf$$.odt"));
-    
-//            ZipFile odtFile = new ZipFile(baseDir + File.separator + nativeFileName);
-            ZipFile odtFile = new ZipFile(baseDir + File.separator + "$$tszf$$.odt");
-            ZipEntry content = new ZipEntry("content.xml");
-            InputStream is = odtFile.getInputStream(content);
-            OutputStream contentXml = new FileOutputStream(baseDir + File.separator 
-                    + "content.xml");
-            int n = 0; byte[] b = new byte[this.BLKSIZE];
-            while ((n = is.read(b)) > 0) {
-                contentXml.write(b, 0, n);
-            }
-
-            is.close();
-            contentXml.flush();
-            contentXml.close();
-            
-            // WWhipple (12/22/06): Things like page headers and footers are
-            // stored in styles.xml. We need to extract styles.xml as well
-            ZipEntry styles = new ZipEntry("styles.xml");
-            InputStream sis = odtFile.getInputStream(styles);
-            OutputStream stylesXml = new FileOutputStream(baseDir + File.separator 
-                    + "styles.xml");
-            n = 0; 
-            while ((n = sis.read(b)) > 0) {
-                stylesXml.write(b, 0, n);
-            }
-
-            sis.close();
-            stylesXml.flush();
-            stylesXml.close();
-            
-            odtFile.close();
-
-            // Now rename the odt file back to its original name.
-            File ff = new File(baseDir + File.separator + "$$tszf$$.odt");
-            ff.renameTo(new File(baseDir + File.separator + nativeFileName));
+            odfZipFile = new ZipFile(baseDir + File.separator + nativeFileName);
         }
         catch(Exception ex) {
             ex.printStackTrace();
-            throw(new ConversionException("Unable to extract content.xml from"
-                      + " OpenOffice.org Text document."));
+            throw(new ConversionException("Unable to open OpenOffice.org"
+                      + " document " + nativeFileName + ": " + ex.getMessage()));
+        }
 
+        if (odfZipFile.getEntry("content.xml") == null) {
+            try { odfZipFile.close(); } catch(IOException e) {}
+            odfZipFile = null;
+            throw(new ConversionException("Unable to find content.xml in"
+                      + " OpenOffice.org document " + nativeFileName + "."));
         }
         
         // Now call superclass's convert method to complete the conversion.
         // Be optimistic that it will succeed ...
-        return super.convert(mode, language, null, 0, null,
+        try {
+            return super.convert(mode, language, null, 0, null,
                     nativeFileType, "content.xml", baseDir, notifier,
-                boundary, generatedFileName);
+                    boundary, generatedFileName);
+        }
+        finally {
+            try { odfZipFile.close(); } catch(IOException e) {}
+            odfZipFile = null;
+        }
     }
 
     /**
      * Convert an OpenOffice.org text (odt) file to XLIFF, creating xliff, 
      * skeleton and format files as output.
-     * <p>In the present implementation, the OOoTextImporter extracts the
-     * content.xml file from the input ODT file, then calls upon its superclass
-     * (OdfImporter) to complete the conversion to XLIFF.
+     * <p>In the present implementation, the OOoTextImporter opens the input
+     * ODT file, then calls upon its superclass (OdfImporter) to complete the
+     * conversion to XLIFF, reading content.xml (and styles.xml) directly from
+     * the ODT file's entries.
      * @param mode The mode of conversion (to or from XLIFF).
      * @param language The language of the input file.
      * @param phaseName The target phase-name. This value is ignored.
@@ -223,9 +201,10 @@ public class OOoTextImporter extends OdfImporter implements Converter {
     /**
      * Convert an OpenOffice.org text (odt) file to XLIFF, creating xliff, 
      * skeleton and format files as output.
-     * <p>In the present implementation, the OOoTextImporter extracts the
-     * content.xml file from the input ODT file, then calls upon its superclass
-     * (OdfImporter) to complete the conversion to XLIFF.
+     * <p>In the present implementation, the OOoTextImporter opens the input
+     * ODT file, then calls upon its superclass (OdfImporter) to complete the
+     * conversion to XLIFF, reading content.xml (and styles.xml) directly from
+     * the ODT file's entries.
      * @param mode The mode of conversion (to or from XLIFF).
      * @param language The language of the input file.
      * @param phaseName The target phase-name. This value is ignored.
@@ -270,6 +249,9 @@ public class OOoTextImporter extends OdfImporter implements Converter {
      * @return An Object that represents the property's value.
      */
     public Object getConversionProperty(String property) {
+        if (property.equals(ImportStatistics.PROPERTY)) {
+            return statistics;
+        }
         return null;
     }
 
@@ -291,8 +273,11 @@ public class OOoTextImporter extends OdfImporter implements Converter {
     /**
      * Set a format-specific property that might affect the way that the
      * conversion occurs.
-     * <p><i>Note:</i> This converter needs no format-specific properties.
-     * If any are passed, they will be silently ignored.
+     * <p>The properties recognized are the datatype property (the FileType
+     * of the original document), RepetitionIndex.PROPERTY (to mark
+     * repeated segments), ImportStatistics.PROPERTY (to keep statistics
+     * of the TUs written) and SrxSegmenter.PROPERTY (to segment with the
+     * rules of an SRX file). Others will be silently ignored.
      * @param property The name of the property
      * @param value The value of the property
      * @throws file2xliff4j.ConversionException
@@ -306,6 +291,15 @@ public class OOoTextImporter extends OdfImporter implements Converter {
                 this.myDataType = (FileType)value;
             }
         }
+        else if (property.equals(RepetitionIndex.PROPERTY)) {
+            repetitions = RepetitionIndex.forProperty(value);
+        }
+        else if (property.equals(ImportStatistics.PROPERTY)) {
+            keepStatistics = ImportStatistics.isEnabled(value);
+        }
+        else if (property.equals(SrxSegmenter.PROPERTY)) {
+            srxSegmenter = SrxSegmenter.forProperty(value);
+        }
         
         return;
     }
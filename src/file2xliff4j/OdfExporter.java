@@ -27,7 +27,6 @@ import java.util.*;
 import java.nio.charset.*;
 import java.util.regex.*;
 import org.xml.sax.*;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 /**
  * Class to export XLIFF to an OpenDocumentFormat document. If the ODF document
@@ -44,10 +43,43 @@ public abstract class OdfExporter implements Converter {
      */
     String xliffOriginalFileName = "";    
     
+    /** If non-null, the (target-language) ODF package to which content.xml 
+     * and styles.xml are written directly (as entries) instead of to 
+     * content.&lt;language&gt;.xml and styles.&lt;language&gt;.xml files in
+     * the base directory. (The most distant descendant sets this before 
+     * calling OdfExporter's convert method.) In this case the language and
+     * country attributes of the styles are also set to those of the target 
+     * language.
+     */
+    OdfPackageWriter odfPackageOut = null;
+    
+    /**
+     * The conversion property that selects strict validation of the
+     * exported content.xml and styles.xml. By default, the exporter checks
+     * that they are well-formed while writing them (see XMLCheckingWriter).
+     * If this property is set to Boolean.TRUE (or "true"), it instead reads
+     * them back in and parses them with a SAX parser, as it used to.
+     */
+    public static final String STRICT_VALIDATION_PROPERTY
+        = XMLExporter.STRICT_VALIDATION_PROPERTY;
+
+    /** Whether to reparse the exported files. (The most distant descendant
+     * sets this when it is passed STRICT_VALIDATION_PROPERTY.)
+     */
+    boolean strictValidation = false;
+    
+    // To set the language and country of styles to those of the target
+    private static Pattern stylesLanguagePattern = Pattern.compile(
+        "(?s)(fo:language|number:language|style:language-complex|style:language-asian)=(['\"])[^'\"]*\\2");
+    private static Pattern stylesCountryPattern = Pattern.compile(
+        "(?s)(fo:country|number:country|style:country-complex|style:country-asian)=(['\"])[^'\"]*\\2");
+    
     /** The following maps TU identifiers to target strings: */
     private TuStrings tuMap = new TuStrings();
     private Format format;             // Maps bx/ex etc. to original format characters.
     private BufferedWriter outWriter;  // To write exports to.
+    private XMLCheckingWriter contentChecker;  // Checks content.xml as it is written
+    private XMLCheckingWriter stylesChecker;   // Checks styles.xml as it is written
     
     /** Creates a new instance of OdfExporter */
     public OdfExporter() { }
@@ -149,6 +181,9 @@ public abstract class OdfExporter implements Converter {
 
         String outOdf = baseDir + File.separator + "content."
                 + language.toString() + ".xml";
+        if (odfPackageOut != null) {
+            outOdf = odfPackageOut.getName() + "(content.xml)";  // For messages
+        }
         if (generatedFileName != null) {
             // Tell caller the name of the output file (wo/directories)
             generatedFileName.write("content." + language.toString() + ".xml");
@@ -157,6 +192,9 @@ public abstract class OdfExporter implements Converter {
         // This next file is for the translated styles.xml file.
         String outStyles = baseDir + File.separator + "styles."
                 + language.toString() + ".xml";
+        if (odfPackageOut != null) {
+            outStyles = odfPackageOut.getName() + "(styles.xml)";
+        }
         
         // We created an empty map of TU strings when this class was loaded.
         // Make sure that actually happened.
@@ -188,11 +226,11 @@ public abstract class OdfExporter implements Converter {
             else {
                 Charset charset = Charset.defaultCharset();
         
-                try {
-                    XMLReader parser = XMLReaderFactory.createXMLReader();
+                XMLReader parser = null;
 
+                try {
                     // We don't care about namespaces at the moment.
-                    parser.setFeature("http://xml.org/sax/features/namespaces", false);
+                    parser = SAXParserPool.acquire(SAXParserPool.Config.XML);
 
                     Reader inReader = new InputStreamReader(new FileInputStream(skelFile), charset);
                     InputSource skelIn = new InputSource(inReader);
@@ -233,6 +271,9 @@ public abstract class OdfExporter implements Converter {
                     System.err.println(notice);
                     notifier.sendNotification("0005", "OdfExporter", Notifier.ERROR, notice);
                 }
+                finally {
+                    SAXParserPool.release(SAXParserPool.Config.XML, parser);
+                }
             }
         }
 
@@ -275,15 +316,18 @@ public abstract class OdfExporter implements Converter {
             System.err.println(e.getMessage());
         }
 
-        // Odf output file (content.<language>.xml)
+        // Odf output file (content.<language>.xml or the package's content.xml)
         try {
-            outWriter = new BufferedWriter(new OutputStreamWriter(
-                new FileOutputStream(outOdf), "UTF-8"));
-        }
-        catch(FileNotFoundException e ) {
-            System.err.println("Cannot write to the ODF file: " + e.getMessage());
-            throw new ConversionException("Cannot write to the ODF file: "
-                    + e.getMessage());
+            if (odfPackageOut != null) {
+                contentChecker = new XMLCheckingWriter(new OutputStreamWriter(
+                    odfPackageOut.openEntry("content.xml"), "UTF-8"));
+            }
+            else {
+                contentChecker = new XMLCheckingWriter(new OutputStreamWriter(
+                    new FileOutputStream(outOdf), "UTF-8"));
+            }
+            outWriter = new BufferedWriter(contentChecker);
+            stylesChecker = null;
         }
         catch(UnsupportedEncodingException e) {  // Way bogus!! (this is UTF-8!)
             System.err.println("Cannot write UTF-8 to the ODF file: "
@@ -291,6 +335,11 @@ public abstract class OdfExporter implements Converter {
             throw new ConversionException("Cannot write UTF-8 to the ODF file: "
                     + e.getMessage());
         }
+        catch(IOException e ) {
+            System.err.println("Cannot write to the ODF file: " + e.getMessage());
+            throw new ConversionException("Cannot write to the ODF file: "
+                    + e.getMessage());
+        }
 
         // WWhipple 1/2/2007: Add support for headers/footers (etc.) in the
         // styles.xml file (in the same odt [etc.] file as content.xml)
@@ -329,13 +378,17 @@ public abstract class OdfExporter implements Converter {
                     
                     // We need a styles file to write to.
                     try {
-                        outWriter = new BufferedWriter(new OutputStreamWriter(
+                        if (odfPackageOut != null) {
+                            stylesChecker = new XMLCheckingWriter(new OutputStreamWriter(
+                                odfPackageOut.openEntry("styles.xml"), "UTF-8"));
+                            outWriter = new BufferedWriter(new StylesLocaleWriter(
+                                stylesChecker, language));
+                        }
+                        else {
+                            stylesChecker = new XMLCheckingWriter(new OutputStreamWriter(
                                 new FileOutputStream(outStyles), "UTF-8"));
-                    }
-                    catch(FileNotFoundException e ) {
-                        System.err.println("Cannot write to the styles file: " + e.getMessage());
-                        throw new ConversionException("Cannot write to the styles file: "
-                                + e.getMessage());
+                            outWriter = new BufferedWriter(stylesChecker);
+                        }
                     }
                     catch(UnsupportedEncodingException e) {  // Way bogus!! (this is UTF-8!)
                         System.err.println("Cannot write UTF-8 to the styles file: "
@@ -343,6 +396,11 @@ public abstract class OdfExporter implements Converter {
                         throw new ConversionException("Cannot write UTF-8 to the styles file: "
                                 + e.getMessage());
                     }
+                    catch(IOException e ) {
+                        System.err.println("Cannot write to the styles file: " + e.getMessage());
+                        throw new ConversionException("Cannot write to the styles file: "
+                                + e.getMessage());
+                    }
 
                     continue;
                 }
@@ -396,57 +454,78 @@ public abstract class OdfExporter implements Converter {
         boolean contentOK = true;
         Charset charset = Charset.defaultCharset();
         
-        try {
-            XMLReader parser = XMLReaderFactory.createXMLReader();
+        if (strictValidation) {
+            // Parse the file we just wrote
+            XMLReader parser = null;
 
-            // We don't care about namespaces at the moment.
-            parser.setFeature("http://xml.org/sax/features/namespaces", false);
+            try {
+                // We don't care about namespaces at the moment.
+                parser = SAXParserPool.acquire(SAXParserPool.Config.XML);
 
-            Reader inReader = new InputStreamReader(new FileInputStream(outOdf), charset);
-            InputSource contentIn = new InputSource(inReader);
-            if (contentIn != null) {
-                parser.parse(contentIn); 
-                inReader.close();
+                Reader inReader = new InputStreamReader(openOutput("content.xml", outOdf), charset);
+                InputSource contentIn = new InputSource(inReader);
+                if (contentIn != null) {
+                    parser.parse(contentIn); 
+                    inReader.close();
+                }
+                else {
+                    contentOK = false;
+                    if (notifier != null) {
+                        String notice = "Unable to read generated content.xml file " 
+                                + outOdf;
+                        System.err.println(notice);
+                        notifier.sendNotification("0011", "OdfExporter", Notifier.ERROR, notice);
+                    }
+                }
             }
-            else {
+            catch(SAXParseException e) {
                 contentOK = false;
                 if (notifier != null) {
-                    String notice = "Unable to read generated content.xml file " 
-                            + outOdf;
+                    String notice = "Generated file " + outOdf
+                            + " is not well-formed at line "
+                            + e.getLineNumber() + ", column " + e.getColumnNumber()
+                            + "\n" + e.getMessage() + "\n" + this.getStackTrace(e);
                     System.err.println(notice);
-                    notifier.sendNotification("0011", "OdfExporter", Notifier.ERROR, notice);
+                    notifier.sendNotification("0012", "OdfExporter", Notifier.ERROR, notice);
                 }
             }
-        }
-        catch(SAXParseException e) {
-            contentOK = false;
-            if (notifier != null) {
-                String notice = "Generated file " + outOdf
-                        + " is not well-formed at line "
-                        + e.getLineNumber() + ", column " + e.getColumnNumber()
-                        + "\n" + e.getMessage() + "\n" + this.getStackTrace(e);
-                System.err.println(notice);
-                notifier.sendNotification("0012", "OdfExporter", Notifier.ERROR, notice);
+            catch(SAXException e) {
+                contentOK = false;
+                if (notifier != null) {
+                    String notice = "Generated file " + outOdf
+                            + " caused an XML parser error: " + e.getMessage()
+                            + "\n" + this.getStackTrace(e);
+                    System.err.println(notice);
+                    notifier.sendNotification("0013", "OdfExporter", Notifier.ERROR, notice);
+                }
             }
-        }
-        catch(SAXException e) {
-            contentOK = false;
-            if (notifier != null) {
-                String notice = "Generated file " + outOdf
-                        + " caused an XML parser error: " + e.getMessage()
-                        + "\n" + this.getStackTrace(e);
-                System.err.println(notice);
-                notifier.sendNotification("0013", "OdfExporter", Notifier.ERROR, notice);
+            catch(IOException e) {
+                contentOK = false;
+                if (notifier != null) {
+                    String notice = "The validator of generated file " + outOdf
+                            + " experienced an I/O error while reading input: " + e.getMessage()
+                            + "\n" + this.getStackTrace(e);
+                    System.err.println(notice);
+                    notifier.sendNotification("0014", "OdfExporter", Notifier.ERROR, notice);
+                }
+            }
+            finally {
+                SAXParserPool.release(SAXParserPool.Config.XML, parser);
             }
         }
-        catch(IOException e) {
-            contentOK = false;
-            if (notifier != null) {
-                String notice = "The validator of generated file " + outOdf
-                        + " experienced an I/O error while reading input: " + e.getMessage()
-                        + "\n" + this.getStackTrace(e);
-                System.err.println(notice);
-                notifier.sendNotification("0014", "OdfExporter", Notifier.ERROR, notice);
+        else {
+            // The checker looked at content.xml as we wrote it.
+            SAXParseException e = contentChecker.getError();
+            if (e != null) {
+                contentOK = false;
+                if (notifier != null) {
+                    String notice = "Generated file " + outOdf
+                            + " is not well-formed at line "
+                            + e.getLineNumber() + ", column " + e.getColumnNumber()
+                            + "\n" + e.getMessage();
+                    System.err.println(notice);
+                    notifier.sendNotification("0012", "OdfExporter", Notifier.ERROR, notice);
+                }
             }
         }
 
@@ -465,57 +544,88 @@ public abstract class OdfExporter implements Converter {
         if (newFormat) {
             boolean stylesOK = true;
 
-            try {
-                XMLReader parser = XMLReaderFactory.createXMLReader();
+            if (strictValidation) {
+                // Parse the file we just wrote
+                XMLReader parser = null;
 
-                // We don't care about namespaces at the moment.
-                parser.setFeature("http://xml.org/sax/features/namespaces", false);
+                try {
+                    // We don't care about namespaces at the moment.
+                    parser = SAXParserPool.acquire(SAXParserPool.Config.XML);
 
-                Reader inReader = new InputStreamReader(new FileInputStream(outStyles), charset);
-                InputSource contentIn = new InputSource(inReader);
-                if (contentIn != null) {
-                    parser.parse(contentIn); 
-                    inReader.close();
+                    Reader inReader = new InputStreamReader(openOutput("styles.xml", outStyles), charset);
+                    InputSource contentIn = new InputSource(inReader);
+                    if (contentIn != null) {
+                        parser.parse(contentIn); 
+                        inReader.close();
+                    }
+                    else {
+                        stylesOK = false;
+                        if (notifier != null) {
+                            String notice = "Unable to read generated styles.xml file " 
+                                    + outStyles;
+                            System.err.println(notice);
+                            notifier.sendNotification("0011", "OdfExporter", Notifier.ERROR, notice);
+                        }
+                    }
                 }
-                else {
+                catch(SAXParseException e) {
                     stylesOK = false;
                     if (notifier != null) {
-                        String notice = "Unable to read generated styles.xml file " 
-                                + outStyles;
+                        String notice = "Generated file " + outStyles
+                                + " is not well-formed at line "
+                                + e.getLineNumber() + ", column " + e.getColumnNumber()
+                                + "\n" + e.getMessage() + "\n" + this.getStackTrace(e);
                         System.err.println(notice);
-                        notifier.sendNotification("0011", "OdfExporter", Notifier.ERROR, notice);
+                        notifier.sendNotification("0012", "OdfExporter", Notifier.ERROR, notice);
                     }
                 }
-            }
-            catch(SAXParseException e) {
-                stylesOK = false;
-                if (notifier != null) {
-                    String notice = "Generated file " + outStyles
-                            + " is not well-formed at line "
-                            + e.getLineNumber() + ", column " + e.getColumnNumber()
-                            + "\n" + e.getMessage() + "\n" + this.getStackTrace(e);
-                    System.err.println(notice);
-                    notifier.sendNotification("0012", "OdfExporter", Notifier.ERROR, notice);
+                catch(SAXException e) {
+                    stylesOK = false;
+                    if (notifier != null) {
+                        String notice = "Generated file " + outStyles
+                                + " caused an XML parser error: " + e.getMessage()
+                                + "\n" + this.getStackTrace(e);
+                        System.err.println(notice);
+                        notifier.sendNotification("0013", "OdfExporter", Notifier.ERROR, notice);
+                    }
+                }
+                catch(IOException e) {
+                    stylesOK = false;
+                    if (notifier != null) {
+                        String notice = "The validator of generated file " + outStyles
+                                + " experienced an I/O error while reading input: " + e.getMessage()
+                                + "\n" + this.getStackTrace(e);
+                        System.err.println(notice);
+                        notifier.sendNotification("0014", "OdfExporter", Notifier.ERROR, notice);
+                    }
+                }
+                finally {
+                    SAXParserPool.release(SAXParserPool.Config.XML, parser);
                 }
             }
-            catch(SAXException e) {
+            else if (stylesChecker == null) {
+                // The skeleton had no styles.xml
                 stylesOK = false;
                 if (notifier != null) {
-                    String notice = "Generated file " + outStyles
-                            + " caused an XML parser error: " + e.getMessage()
-                            + "\n" + this.getStackTrace(e);
+                    String notice = "Unable to read generated styles.xml file " 
+                            + outStyles;
                     System.err.println(notice);
-                    notifier.sendNotification("0013", "OdfExporter", Notifier.ERROR, notice);
+                    notifier.sendNotification("0011", "OdfExporter", Notifier.ERROR, notice);
                 }
             }
-            catch(IOException e) {
-                stylesOK = false;
-                if (notifier != null) {
-                    String notice = "The validator of generated file " + outStyles
-                            + " experienced an I/O error while reading input: " + e.getMessage()
-                            + "\n" + this.getStackTrace(e);
-                    System.err.println(notice);
-                    notifier.sendNotification("0014", "OdfExporter", Notifier.ERROR, notice);
+            else {
+                // The checker looked at styles.xml as we wrote it.
+                SAXParseException e = stylesChecker.getError();
+                if (e != null) {
+                    stylesOK = false;
+                    if (notifier != null) {
+                        String notice = "Generated file " + outStyles
+                                + " is not well-formed at line "
+                                + e.getLineNumber() + ", column " + e.getColumnNumber()
+                                + "\n" + e.getMessage();
+                        System.err.println(notice);
+                        notifier.sendNotification("0012", "OdfExporter", Notifier.ERROR, notice);
+                    }
                 }
             }
 
@@ -530,10 +640,15 @@ public abstract class OdfExporter implements Converter {
                 // throw new ConversionException(message);
                 ///////////////////////////////////////////////////////////////
                 // Rather than bailing, let's remove the (empty or bogus)
-                // styles.ll_cc.xml file
-                File deleteStyleSkel = new File(outStyles);
-                if (deleteStyleSkel.exists()) {
-                    deleteStyleSkel.delete();
+                // styles.ll_cc.xml file (or styles.xml package entry)
+                if (odfPackageOut != null) {
+                    odfPackageOut.discardEntry("styles.xml");
+                }
+                else {
+                    File deleteStyleSkel = new File(outStyles);
+                    if (deleteStyleSkel.exists()) {
+                        deleteStyleSkel.delete();
+                    }
                 }
             }
         }
@@ -887,6 +1002,89 @@ public abstract class OdfExporter implements Converter {
         
         return newStr;       // The TU with all format codes expanded.
     }
+    /**
+     * Open a generated output file for reading--either the named entry of
+     * odfPackageOut or (if odfPackageOut is null) the named file.
+     * @param entryName The name of the entry in odfPackageOut
+     * @param fileName The name of the file in the base directory
+     * @return An input stream to read the output from
+     * @throws java.io.IOException
+     *         if the output can't be found or read.
+     */
+    private InputStream openOutput(String entryName, String fileName) 
+            throws IOException {
+        if (odfPackageOut != null) {
+            return odfPackageOut.getInputStream(entryName);
+        }
+        return new FileInputStream(fileName);
+    }
+    
+    /**
+     * Change all fo:language, number:language, style:language-complex and 
+     * style:language-asian attribute values in the specified (styles.xml) 
+     * text to the target locale's language component, and all fo:country, 
+     * number:country, style:country-complex and style:country-asian attribute
+     * values to its country component.
+     * @param styles Text from styles.xml
+     * @param language The target locale
+     * @return The text with its language and country attributes changed
+     */
+    static String localizeStyles(CharSequence styles, Locale language) {
+        String text = stylesLanguagePattern.matcher(styles).replaceAll(
+            "$1=$2" + language.getLanguage() + "$2");
+        return stylesCountryPattern.matcher(text).replaceAll(
+            "$1=$2" + language.getCountry() + "$2");
+    }
+    
+    /**
+     * Writer that applies localizeStyles to each line of styles.xml written
+     * through it. (Language and country attributes are never split across
+     * lines, so nothing is lost by not buffering the entire file.)
+     */
+    private static class StylesLocaleWriter extends FilterWriter {
+        private StringBuilder line = new StringBuilder();
+        private Locale language;
+        
+        StylesLocaleWriter(Writer out, Locale language) {
+            super(out);
+            this.language = language;
+        }
+        
+        public void write(int c) throws IOException {
+            line.append((char)c);
+            if (c == '\n') {
+                writeLines();
+            }
+        }
+        
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            line.append(cbuf, off, len);
+            writeLines();
+        }
+        
+        public void write(String str, int off, int len) throws IOException {
+            line.append(str, off, off + len);
+            writeLines();
+        }
+        
+        public void close() throws IOException {
+            if (line.length() > 0) {
+                out.write(localizeStyles(line, language));
+                line.setLength(0);
+            }
+            out.close();
+        }
+        
+        // Write (and remove from line) everything through the last newline.
+        private void writeLines() throws IOException {
+            int eol = line.lastIndexOf("\n");
+            if (eol >= 0) {
+                out.write(localizeStyles(line.subSequence(0, eol + 1), language));
+                line.delete(0, eol + 1);
+            }
+        }
+    }
+    
     /**
      * Convert a stack trace to a string.
      * @param t Throwable whose stack trace will be returned
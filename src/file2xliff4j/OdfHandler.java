@@ -180,9 +180,9 @@ public class OdfHandler extends DefaultHandler {
      */
     private Stack<String> textPStack = new Stack<String>();
     
-    private OutputStreamWriter outXliff;    // Where to write XLIFF
-    private OutputStreamWriter outSkeleton;   // Where to write Target file
-    private OutputStreamWriter outFormat;   // Where to write Format file
+    private Writer outXliff;    // Where to write XLIFF
+    private Writer outSkeleton;   // Where to write Target file
+    private Writer outFormat;   // Where to write Format file
     private Locale sourceLang;              // Natural language of original
     private String docType;                 // Should be ODF
     private String originalFileName;        // For <file>'s "original" attribute
@@ -191,6 +191,15 @@ public class OdfHandler extends DefaultHandler {
     
     private SegmentBoundary boundaryType;
     
+    // If non-null, the index in which to look up repeated segments
+    private RepetitionIndex repetitions = null;
+
+    // If non-null, the segmenter to use for SRX segment boundaries
+    private SrxSegmenter srxSegmenter = null;
+    
+    // If non-null, the statistics to which to add each TU written
+    private ImportStatistics statistics = null;
+    
     // All of the above share a common RID numbering space. The following is used each
     // time a new bx is encountered.
     private int nextAvailRid = 1;           // All of the above use the same numbering space
@@ -220,59 +229,10 @@ public class OdfHandler extends DefaultHandler {
     
     private OdfStateObject odfState;      // Preserve state across multiple calls
 
-    // Regex and Matcher for span-tab-endspan block
-    String tabPattern = "^(.*?)"
-        // Match the opening text:span tag
-        + "(<bx id=(['\"])\\d+\\3 +ctype=(['\"])x-odf-span\\4 +rid=(['\"])(\\d+)\\5 */>" // 1st rid is group 6
-        // Then match the tab tab
-        +  "<x id=(['\"])\\d+\\7 +ctype=(['\"])x-odf-tab\\8 */>"
-        // ... and close the text:span
-        +  "<ex id=(['\"])\\d+\\9 +rid=(['\"])\\6\\10 */>)"
-        // Text that follows the span:
-        +  "(.*)$";  // What follows
-
-    Matcher tabMatcher = Pattern.compile(tabPattern,Pattern.CASE_INSENSITIVE).matcher("");
-
-    // Regex for bx-bx-text-ex-ex block
-    String bxExPattern = "^(.*?)"
-        // Match the first of two adjacent bx tags
-        // Group 5 is 1st ctype; group 7 is 1st rid
-        + "(<bx id=(['\"])\\d+\\3[^>]+?ctype=(['\"])([^'\"]*)\\4[^>]+?rid=(['\"])(\\d+)\\6[^/>]*/>"
-        // Then the second immediately adjoining bx tag. Capture its ctype--it is the more
-        // important of the two ctypes
-        // 2nd ctype is group 10
-        // 2nd rid is group 12
-        + "<bx id=(['\"])\\d+\\8[^>]+?ctype=(['\"])([^'\"]*)\\9[^>]+?rid=(['\"])(\\d+)\\11[^/>]*/>)" 
-        // Then stuff between the above bxes and the closing exes
-        + "([^<].*?)"                            // At least 1 character long, group 13
-        // Then the first ex (with rid matching the second bx above)
-        +  "(<ex id=(['\"])\\d+\\15[^>]+?rid=(['\"])\\12\\16 */>"
-        // And the second ex (with rid matching the first bx above)
-        +  "<ex id=(['\"])\\d+\\17[^>]+?rid=(['\"])\\7\\18 */>)"
-        // Text that follows the span:
-        +  "(.*)$";  // What follows
-
-    Matcher bxExMatcher = Pattern.compile(bxExPattern,Pattern.CASE_INSENSITIVE).matcher("");
-
-    // Regex for bx-bx-ex-ex block (no intervening text) to map to x tag.
-    String bxExToXPattern = "^(.*?)"
-        // Match the first of two adjacent bx tags
-        // Group 5 is 1st ctype; group 7 is 1st rid
-        + "(<bx id=(['\"])\\d+\\3[^>]+?ctype=(['\"])([^'\"]*)\\4[^>]+?rid=(['\"])(\\d+)\\6[^/>]*/>"
-        // Then the second immediately adjoining bx tag. Capture its ctype--it is the more
-        // important of the two ctypes
-        // 2nd ctype is group 10
-        // 2nd rid is group 12
-        + "<bx id=(['\"])\\d+\\8[^>]+?ctype=(['\"])([^'\"]*)\\9[^>]+?rid=(['\"])(\\d+)\\11[^/>]*/>" 
-        // Then the first ex (with rid matching the second bx above)
-        +  "<ex id=(['\"])\\d+\\13[^>]+?rid=(['\"])\\12\\14 */>"
-        // And the second ex (with rid matching the first bx above)
-        +  "<ex id=(['\"])\\d+\\15[^>]+?rid=(['\"])\\7\\16 */>)"
-        // Text that follows the span:
-        +  "(.*)$";  // What follows
-
-    Matcher bxExToXMatcher = Pattern.compile(bxExToXPattern,Pattern.CASE_INSENSITIVE).matcher("");
-    
+    // The text of an office:annotation's dc:date element
+    private static final Pattern timestampPattern = Pattern.compile(
+        "\\d\\d\\d\\d-\\d\\d-\\d\\dT\\d\\d:\\d\\d:\\d\\d", Pattern.CASE_INSENSITIVE);
+
     // Map of Wingdings to Unicode characters
     private final char [] wingdings2char = {   
         // Treat 0-31 as undefined ...
@@ -555,8 +515,8 @@ public class OdfHandler extends DefaultHandler {
      * @param mode Whether this is being called to process content.xml or
      *        styles.xml.
      */
-    public OdfHandler(OutputStreamWriter outXliff, 
-            OutputStreamWriter outSkeleton, OutputStreamWriter outFormat,
+    public OdfHandler(Writer outXliff, 
+            Writer outSkeleton, Writer outFormat,
             Locale sourceLang, String docType, String originalFileName,
             SegmentBoundary boundary, OdfStateObject odfState,
             String mode) {
@@ -590,6 +550,47 @@ public class OdfHandler extends DefaultHandler {
         this.curTagNum = odfState.getCurSkelTagNum();
     }
 
+    /**
+     * Set the index in which to look up the core text of each TU written,
+     * so that repeated segments are marked as such. (If null, they aren't.)
+     * @param repetitions The repetition index
+     */
+    public void setRepetitionIndex(RepetitionIndex repetitions) {
+        this.repetitions = repetitions;
+    }
+
+    /**
+     * Set the segmenter to use for SRX segment boundaries. (If null, the
+     * default SRX segmenter is used.)
+     * @param srxSegmenter The SRX segmenter
+     */
+    public void setSrxSegmenter(SrxSegmenter srxSegmenter) {
+        this.srxSegmenter = srxSegmenter;
+    }
+
+    /**
+     * Set the statistics to which to add the core text of each TU written.
+     * (If null, no statistics are kept.)
+     * @param statistics The statistics
+     */
+    public void setStatistics(ImportStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Return the attributes (lt:repGroup and lt:firstTuID, each preceded by
+     * a space) that mark the TU of a segment as a repetition--or the empty
+     * string, if it isn't one (or repetitions aren't being marked). Add
+     * the segment to the statistics (if any).
+     */
+    private String repetitionAttributes(UUID tuID, SegmentInfo seg) {
+        if ((repetitions == null) && (statistics == null)) {
+            return "";
+        }
+        return ImportStatistics.recordTu(tuID, seg.getCoreText(), repetitions,
+            statistics);
+    }
+
     /**
      * Method called by SAX parser at the beginning of document parsing.
      */
@@ -617,7 +618,6 @@ public class OdfHandler extends DefaultHandler {
                         outXliff.write(" lt:segtype='sentence'");
                 }
                 outXliff.write(">\r\n" + indent('0') + "</header>\r\n" + indent('0') + "<body>\r\n");
-                outXliff.flush();
 
             }
             catch(IOException e) {
@@ -630,7 +630,6 @@ public class OdfHandler extends DefaultHandler {
                 outFormat.write("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\r\n");
                 outFormat.write("<lt:LT xmlns:lt=\"http://www.lingotek.com/\">\r\n");
                 outFormat.write("<tags formatting=''>\r\n");   // No value in formatting attr means CDATA
-                outFormat.flush();
             }
             catch(IOException e) {
                 System.err.println("Error writing format file's declaration and preliminaries.");
@@ -1124,7 +1123,6 @@ public class OdfHandler extends DefaultHandler {
                     if (tuList.get(tuList.size() - 1).hasChildren()) {
                         try {
                             outSkeleton.write("<format id='" + bxExXId + "' depth='" + (tuList.size()) + "'>\r\n");
-                            outSkeleton.flush();
                         }
                         catch(IOException e) {
                             System.err.println("Error while writing skeleton file.");
@@ -1154,7 +1152,6 @@ public class OdfHandler extends DefaultHandler {
                     // Put a placeholder in the tskeleton file.
                     try {
                         outSkeleton.write("<format id='" + bxExXId + "' depth='" + (tuList.size()) + "'>\r\n");
-                        outSkeleton.flush();
                     }
                     catch(IOException e) {
                         System.err.println("Error while writing skeleton file.");
@@ -1356,7 +1353,7 @@ public class OdfHandler extends DefaultHandler {
     }
 
     /**
-     * Passed the full text of an ODF Translation Unit source (including
+     * Passed the tokens of an ODF Translation Unit source (including
      * core start and end markers), check for bx/x/ex sequences that represent
      * office:annotation structures. Collapse them into a single x tag that
      * references the TU that contains the text of the annotation. Add a format
@@ -1379,92 +1376,58 @@ public class OdfHandler extends DefaultHandler {
      * with a different (and unique) id attribute).
      * <p>This assumes that the creator and date elements do not contain translatable
      * text.
-     * @param in The full text of the Translation Unit source 
-     * @return The modified text of the Translation Unit.
+     * @param tu The tokens of the Translation Unit source (which this method
+     *        modifies in place)
      */
-    private String collapseAnnotations (String in) {
-        // First of all, if the string is null or zero-length already, just return a
-        // zero-length string.
-        if ((in == null) || (in.length() == 0)
-            || (in.trim().length() == 0)) {  // Nothing meaningful.
-            return "";                       // Return zero-length string
-        }
-
-        // See if the input string includes the office-annotation ctype. If it
-        // doesn't, return the input string.
-        if (in.indexOf("x-odf-office-annotation") == -1) {
-            return in;
-        }
-
-        // Loop through core text looking for the office annotation sequence.
+    private void collapseAnnotations (TuTokens tu) {
+        // Loop through the tokens looking for the office annotation sequence.
         // When one is found, create a new x tag that maps to the sequence
-        
-        // Regex for office-annotation block
-        String oaRE = "^(.*?)"
-            // Match the opening text:span tag
-            + "(<bx id=(['\"])\\d+\\3 +ctype=(['\"])x-odf-span\\4 +rid=(['\"])(\\d+)\\5 */>" // 1st rid is group 6
-            // And the offication:annotation tag
-            +  "<bx id=(['\"])\\d+\\7 [^>/]*?ctype=(['\"])x-odf-office-annotation\\8.*?/>" 
-            // ... and the creator tag
-            +  "<bx id=(['\"])\\d+\\9 [^>/]*?ctype=(['\"])x-odf-dc-creator\\10.*?/>"
-            // Then the creator's name, etc.
-            +  ".*?"                                                             // Creator
-            // Closing creator tag
-            +  "<ex id=(['\"])\\d+\\11.*?/>"
-            // Match the date
-            +  "<bx id=(['\"])\\d+\\12 [^>/]*?ctype=(['\"])x-odf-dc-date\\13.*?/>"
-            +  "\\d\\d\\d\\d-\\d\\d-\\d\\dT\\d\\d:\\d\\d:\\d\\d"                 // Timestamp
-            +  "<ex id=(['\"])\\d+\\14.*?/>"
-            // Then match the reference to the TU that has the annotation text.
-            +  "(<x id=(['\"]))\\d+(\\16 +xid=(['\"])[^'\"]+\\18 +ctype=(['\"])x-odf-annotation-ref\\19.*?/>)"
-            // Close the office:annotation
-            +  "<ex id=(['\"])\\d+\\20 +rid=(['\"])\\d+\\21.*?/>"
-            // ... and the text:span
-            +  "<ex id=(['\"])\\d+\\22 +rid=(['\"])\\6\\23.*?/>)"
-            // Text that follows the annotation:
-            +  "(.*)$";  // What follows
-
-        Matcher oaM = Pattern.compile(oaRE,Pattern.CASE_INSENSITIVE).matcher("");
-
-        String newTu = "";           // pfxText + TuPreener.CORE_START_TAG;  // The beginnings of a new TU
-        String tuTail = in;          // We'll "eat" this as we loop through a matching TU
-        String oaBlock = "";         // The current block of oa tags, etc.
-        String xPrefix = "";         // Existing x tag up to the id value 
-        String xSuffix = "";         // Existing x tag after the id valud
-        
-        while (tuTail.length() > 0) {
-            // Search on the remainder of the core text
-            // Start by checking for leading tag.
-            oaM.reset(tuTail);   // Search what's left of the TU
-            if (oaM.find()) {
-                newTu += oaM.group(1);     // Append characters before the annotation block
-                oaBlock = oaM.group(2);    // The tags we will replace with a single x
-                xPrefix = oaM.group(15);   // Beginning of existing x tag
-                xSuffix = oaM.group(17);   // End of existing x tag
-                tuTail  = oaM.group(24);   // Remainder of core text ... for next iteration.
-
-                writeFormatLiteral(oaBlock,bxExXId);
-
-                // Substitute an x tag for the office:annotation block (in the new TU)
-                // Make it match the original except for the id attribute.
-                newTu += xPrefix + bxExXId + xSuffix;
-
-                // Increment the x/bx/ex id for the next format file writer
-                bxExXId++;                   // Increment our local copy
+        for (int i = 0; i < tu.size(); i++) {
+            // Match the opening text:span tag, the office:annotation tag and
+            // the creator tag
+            String spanRid = spanRid(tu.get(i));
+            if ((spanRid == null) 
+                    || !isBx(tu.get(i + 1), "x-odf-office-annotation")
+                    || !isBx(tu.get(i + 2), "x-odf-dc-creator")) {
+                continue;
             }
-            else {  // We're done!
-                break;
+
+            // Then the creator's name, etc., up to the closing creator tag
+            // that is followed by the rest of the sequence.
+            int end = -1;
+            int ref = -1;
+            for (int k = i + 3; (k < tu.size()) && (end == -1); k++) {
+                if (isEx(tu.get(k), null)
+                    // Match the date
+                    && isBx(tu.get(k + 1), "x-odf-dc-date")
+                    && isTimestamp(tu.get(k + 2))
+                    && isEx(tu.get(k + 3), null)
+                    // Then match the reference to the TU that has the annotation text.
+                    && isRef(tu.get(k + 4), "x-odf-annotation-ref")
+                    // Close the office:annotation ... and the text:span
+                    && isEx(tu.get(k + 5), "")
+                    && isEx(tu.get(k + 6), spanRid)) {
+                    ref = k + 4;
+                    end = k + 7;
+                }
+            }
+            if (end == -1) {
+                continue;
             }
+
+            writeFormatLiteral(tu.getText(i, end), bxExXId);
+
+            // Substitute an x tag for the office:annotation block (in the new TU)
+            // Make it match the original except for the id attribute.
+            tu.replace(i, end, TuTokens.withId(tu.get(ref).getText(), bxExXId));
+
+            // Increment the x/bx/ex id for the next format file writer
+            bxExXId++;                   // Increment our local copy
         }
-        
-        // If there are non-oa-matching characters in tuTail (highly probable), 
-        // append them to newTu, followed by the ending x-coretext mrk tag and the 
-        // core suffix
-        return (newTu + tuTail);   //  + TuPreener.CORE_END_MRK + sfxText);
     }
 
     /**
-     * Passed the full text of an ODF Translation Unit source (including
+     * Passed the tokens of an ODF Translation Unit source (including
      * core start and end markers), check for bx/x/ex sequences that represent
      * text:note structures. Collapse them into a single x tag that
      * references the TU that contains the text of the note. Add a format
@@ -1487,96 +1450,63 @@ public class OdfHandler extends DefaultHandler {
      * with a different (and unique) id attribute).
      * <p>This assumes that the citation (footnote number) doesn't include translatable
      * text.
-     * @param in The full text of the Translation Unit source 
-     * @return The modified text of the Translation Unit.
+     * @param tu The tokens of the Translation Unit source (which this method
+     *        modifies in place)
      */
-    private String collapseFootnotes (String in) {
-        // First of all, if the string is null or zero-length already, just return a
-        // zero-length string.
-        if ((in == null) || (in.length() == 0)
-            || (in.trim().length() == 0)) {  // Nothing meaningful.
-            return "";                       // Return zero-length string
-        }
-
-
-        // See if the input string includes the text:note ctype. If it
-        // doesn't, return the input string.
-        if (in.indexOf("x-odf-text-note") == -1) {
-            return in;
-        }
-
-        // Loop through core text looking for the text:note sequence.
+    private void collapseFootnotes (TuTokens tu) {
+        // Loop through the tokens looking for the text:note sequence.
         // When one is found, create a new x tag that maps to the sequence
-        
-        // Regex for text-note block
-        String noteRE = "^(.*?)"
-            // Match the opening text:span tag
-            + "((?:<bx id=(['\"])\\d+\\3 +ctype=(['\"])x-odf-span\\4 +rid=(['\"])(\\d+)\\5 */>)?" // 1st rid is group 6
-            // And the text:note tag
-            +  "<bx id=(['\"])\\d+\\7 [^>/]*?ctype=(['\"])x-odf-text-note\\8.*?/>" 
-            // ... footnote number (citation)
-            +  "<bx id=(['\"])\\d+\\9 [^>/]*?ctype=(['\"])x-odf-text-note-citation\\10.*?/>"
-            // Then the text of the "number""
-            +  ".*?"                                                             // Creator
-            // Closing citation tag:
-            +  "<ex id=(['\"])\\d+\\11.*?/>"
-            // Now the text-note body
-            +  "<bx id=(['\"])\\d+\\12 [^>/]*?ctype=(['\"])x-odf-text-note-body\\13.*?/>"
-            // Then match the reference to the TU that has the text of the note
-            +  "(<x id=(['\"]))\\d+(\\15 +xid=(['\"])[^'\"]+\\17 +ctype=(['\"])x-odf-note-ref\\18.*?/>)"
-            // Close the text-note-body:
-            +  "<ex id=(['\"])\\d+\\19 +rid=(['\"])\\d+\\20.*?/>"
-            // Close the text:note
-            +  "<ex id=(['\"])\\d+\\21 +rid=(['\"])\\d+\\22.*?/>"
-            // ... and the text:span
-            +  "(?:<ex id=(['\"])\\d+\\23 +rid=(['\"])\\6\\24.*?/>)?)"
-            // Text that follows the annotation:
-            +  "(.*)$";  // What follows
-
-        Matcher noteM = Pattern.compile(noteRE,Pattern.CASE_INSENSITIVE).matcher("");
-
-        String newTu = "";           // The beginnings of a new TU
-        String tuTail = in;          // We'll "eat" this as we loop through a matching TU
-        String noteBlock = "";       // The current block of note tags, etc.
-        String xPrefix = "";         // Existing x tag up to the id value 
-        String xSuffix = "";         // Existing x tag after the id valud
-        
-        while (tuTail.length() > 0) {
-            // Search on the remainder of the core text
-            // Start by checking for leading tag.
-            noteM.reset(tuTail);   // Search what's left of the TU
-            if (noteM.find()) {
-                newTu += noteM.group(1);     // Append characters before the note block
-                noteBlock = noteM.group(2);  // The tags we will replace with a single x
-                xPrefix = noteM.group(14);   // Beginning of existing x tag
-                xSuffix = noteM.group(16);   // End of existing x tag
-                tuTail  = noteM.group(25);   // Remainder of core text ... for next iteration.
-
-                writeFormatLiteral(noteBlock,bxExXId);
-
-                // Substitute an x tag for the text:note block (in the new TU)
-                // Make it match the original except for the id attribute.
-                newTu += xPrefix + bxExXId + xSuffix;
-
-                // Increment the x/bx/ex id for the next format file writer
-                bxExXId++;                   // Increment our local copy
+        for (int i = 0; i < tu.size(); i++) {
+            // Match the (optional) opening text:span tag, the text:note tag
+            // and the footnote number (citation) tag
+            String spanRid = spanRid(tu.get(i));
+            int note = (spanRid == null) ? i : i + 1;
+            if (!isBx(tu.get(note), "x-odf-text-note")
+                    || !isBx(tu.get(note + 1), "x-odf-text-note-citation")) {
+                continue;
             }
-            else {  // We're done!
-                break;
+
+            // Then the text of the "number," up to the closing citation tag
+            // that is followed by the rest of the sequence.
+            int end = -1;
+            int ref = -1;
+            for (int k = note + 2; (k < tu.size()) && (end == -1); k++) {
+                if (isEx(tu.get(k), null)
+                    // Now the text-note body
+                    && isBx(tu.get(k + 1), "x-odf-text-note-body")
+                    // Then match the reference to the TU that has the text of the note
+                    && isRef(tu.get(k + 2), "x-odf-note-ref")
+                    // Close the text-note-body and the text:note
+                    && isEx(tu.get(k + 3), "")
+                    && isEx(tu.get(k + 4), "")) {
+                    ref = k + 2;
+                    end = k + 5;
+                }
+            }
+            if (end == -1) {
+                continue;
             }
+            // ... and the text:span (if it opened the sequence)
+            if ((spanRid != null) && isEx(tu.get(end), spanRid)) {
+                end++;
+            }
+
+            writeFormatLiteral(tu.getText(i, end), bxExXId);
+
+            // Substitute an x tag for the text:note block (in the new TU)
+            // Make it match the original except for the id attribute.
+            tu.replace(i, end, TuTokens.withId(tu.get(ref).getText(), bxExXId));
+
+            // Increment the x/bx/ex id for the next format file writer
+            bxExXId++;                   // Increment our local copy
         }
-        
-        // If there are non-oa-matching characters in tuTail (highly probable), 
-        // append them to newTu, followed by the ending x-coretext mrk tag and the 
-        // core suffix
-        return (newTu + tuTail);      //ltlt + TuPreener.CORE_END_MRK + sfxText);
     }
 
 //////////////////////////////////////////////
     
     
     /**
-     * Passed the full text of an ODF Translation Unit source, check for nested
+     * Passed the tokens of an ODF Translation Unit source, check for nested
      * bx and ex tags. Replace multiply nested bx/ex tags with a single pair
      * of bx/ex tags, adding a format file entry to map the single bx tag to the
      * bx tags it replaces and the single ex tag to the ex tags it replaces.
@@ -1602,188 +1532,66 @@ public class OdfHandler extends DefaultHandler {
      * </pre>
      * where the double bx/ex tags around "107" are replaced by a single bx and
      * ex pair.
-     * @param in The full text of the Translation Unit source 
-     * @return The modified text of the Translation Unit.
+     * @param tu The tokens of the Translation Unit source (which this method
+     *        modifies in place)
      */
-    private String collapseNestedBxEx (String in) {
-        // First of all, if the string is null or zero-length already, just return a
-        // zero-length string.
-        if ((in == null) || (in.length() == 0)
-            || (in.trim().length() == 0)) {  // Nothing meaningful.
-            return "";                       // Return zero-length string
-        }
-
-        // If the input string doesn't include at least one bx tag, return the
-        // input string unchanged.
-        if (in.indexOf("<bx") == -1) {
-            return in;
-        }
-
-        // Loop through the text looking for the span-tab-endspan sequence.
-        // When one is found, create a new x-odf-tab tag that maps to the sequence
-        
-//        // Regex for span-tab-endspan block
-//        String bxExPattern = "^(.*?)"
-//            // Match the first of two adjacent bx tags
-//            // Group 5 is 1st ctype; group 7 is 1st rid
-//            + "(<bx id=(['\"])\\d+\\3[^>]+?ctype=(['\"])([^'\"]*)\\4[^>]+?rid=(['\"])(\\d+)\\6[^/>]*/>"
-//            // Then the second immediately adjoining bx tag. Capture its ctype--it is the more
-//            // important of the two ctypes
-//            // 2nd ctype is group 10
-//            // 2nd rid is group 12
-//            + "<bx id=(['\"])\\d+\\8[^>]+?ctype=(['\"])([^'\"]*)\\9[^>]+?rid=(['\"])(\\d+)\\11[^/>]*/>)" 
-//            // Then stuff between the above bxes and the closing exes
-//            + "([^<].*?)"                            // At least 1 character long, group 13
-//            // Then the first ex (with rid matching the second bx above)
-//            +  "(<ex id=(['\"])\\d+\\15[^>]+?rid=(['\"])\\12\\16 */>"
-//            // And the second ex (with rid matching the first bx above)
-//            +  "<ex id=(['\"])\\d+\\17[^>]+?rid=(['\"])\\7\\18 */>)"
-//            // Text that follows the span:
-//            +  "(.*)$";  // What follows
-//
-//        Matcher bxExMatcher = Pattern.compile(bxExPattern,Pattern.CASE_INSENSITIVE).matcher("");
-
-        String curTuState = in;   // Start with what was passed in.
-        
+    private void collapseNestedBxEx (TuTokens tu) {
         // Two conditions might exist:
         // 1. 3+ levels of adjacent nesting might occur
         // 2. Nesting at the beginning of the TU might be followed by more
         //    nesting later on in the TU.
-        boolean done = false;
-        
-        while (! done) {
-            // Search on the remainder of the text
-            // Start by checking the next nested tag.
-            bxExMatcher.reset(curTuState);   // Search what's left of the TU
-            if (bxExMatcher.find()) {
-                String prefix = bxExMatcher.group(1);  // Before the first bx
-                String bxBx   = bxExMatcher.group(2);  // First two adjacent bxes
-                String enclosed = bxExMatcher.group(13); // Enclosed by bxbx exex 
-                String exEx   = bxExMatcher.group(14); // Matching adjacent exes
-                String suffix = bxExMatcher.group(19); // AFter last ex
-                String outerCtype = bxExMatcher.group(5);  // Outer ctype
-                String innerCtype = bxExMatcher.group(10); // Inner ctype
-
-                // Write adjacent bxes to format file
-                writeFormatLiteral(bxBx,bxExXId);
-                // and increment the id
-                int bxId = bxExXId++;
-                
-                // Ditto for the adjacent exes:
-                writeFormatLiteral(exEx,bxExXId);
-                int exId = bxExXId++;
-
-                // Select a ctype that will make most sense to the translator
-                // If both start with "x-", use the inner
-                // If one starts with "x-", use the other one
-                // If neither starts with "x-", prefer "link", else inner ctype
-                String preferredCtype = "";
-                if (outerCtype.equals("link") || innerCtype.equals("link")) {
-                    preferredCtype = "link";
-                }
-                else if (outerCtype.startsWith("x-")) {
-                    preferredCtype = innerCtype;
-                }
-                else { // outer *doesn't* start with "x-"
-                    if (innerCtype.startsWith("x-")) {
-                        preferredCtype = outerCtype;
-                    }
-                    else {  // Neither starts with "x-"; prefer inner
-                        preferredCtype = innerCtype;
-                    }
-                }
-                
-                // Reconstruct the string with fewer bx/ex elements.
-                curTuState = prefix + "<bx id='" + bxId + "' ctype='" + preferredCtype
-                        + "' rid='" + nextAvailRid + "'/>"
-                        + enclosed
-                        + "<ex id='" + exId + "' rid='" + nextAvailRid + "'/>"
-                        + suffix;
-
-                // Increment nextAvailRid
-                nextAvailRid++;                   // Increment our local copy
-            }
-            else {  // We're done!
-                break;
-            }
+        // Find a bx-bx-text-ex-ex sequence, and replace it with bx-text-ex.
+        // (Keep looking from just before the new bx, in case it is nested
+        // directly within yet another bx/ex pair.)
+        int[] nest;
+        int from = 0;
+        while ((nest = tu.findNestedBxEx(from, true, false)) != null) {
+            // Write adjacent bxes to format file
+            writeFormatLiteral(tu.getText(nest[0], nest[1] + 1), bxExXId);
+            // and increment the id
+            int bxId = bxExXId++;
+            
+            // Ditto for the adjacent exes:
+            writeFormatLiteral(tu.getText(nest[2], nest[3] + 1), bxExXId);
+            int exId = bxExXId++;
+
+            String preferredCtype = TuTokens.preferredCtype(
+                tu.get(nest[0]).getAttribute("ctype"), tu.get(nest[1]).getAttribute("ctype"));
+
+            // Replace the exes first, so that the bxes stay where they are.
+            tu.replace(nest[2], nest[3] + 1, 
+                "<ex id='" + exId + "' rid='" + nextAvailRid + "'/>");
+            tu.replace(nest[0], nest[1] + 1, "<bx id='" + bxId + "' ctype='" + preferredCtype
+                + "' rid='" + nextAvailRid + "'/>");
+
+            // Increment nextAvailRid
+            nextAvailRid++;                   // Increment our local copy
+            from = Math.max(0, nest[0] - 1);
         }
 
-//    // Regex for bx-bx-ex-ex block (no intervening text) to map to x tag.
-//    String bxExToXPattern = "^(.*?)"
-//        // Match the first of two adjacent bx tags
-//        // Group 5 is 1st ctype; group 7 is 1st rid
-//        + "(<bx id=(['\"])\\d+\\3[^>]+?ctype=(['\"])([^'\"]*)\\4[^>]+?rid=(['\"])(\\d+)\\6[^/>]*/>"
-//        // Then the second immediately adjoining bx tag. Capture its ctype--it is the more
-//        // important of the two ctypes
-//        // 2nd ctype is group 10
-//        // 2nd rid is group 12
-//        + "<bx id=(['\"])\\d+\\8[^>]+?ctype=(['\"])([^'\"]*)\\9[^>]+?rid=(['\"])(\\d+)\\11[^/>]*/>" 
-//        // Then the first ex (with rid matching the second bx above)
-//        +  "<ex id=(['\"])\\d+\\13[^>]+?rid=(['\"])\\12\\14 */>"
-//        // And the second ex (with rid matching the first bx above)
-//        +  "<ex id=(['\"])\\d+\\15[^>]+?rid=(['\"])\\7\\16 */>)"
-//        // Text that follows the span:
-//        +  "(.*)$";  // What follows
-//
-//    Matcher bxExToXMatcher = Pattern.compile(bxExPattern,Pattern.CASE_INSENSITIVE).matcher("");
-        
         // 4/11/2007: Convert <bx/><bx/><ex/><ex/> (with no intervening text) to a single x.
-        done = false;
-        
-        while (! done) {
-            // Search on the remainder of the text
-            // Start by checking the next nested tag.
-            bxExToXMatcher.reset(curTuState);   // Search what's left of the TU
-            if (bxExToXMatcher.find()) {
-                String prefix = bxExToXMatcher.group(1);     // Before the first bx
-                String bxBxExEx = bxExToXMatcher.group(2);   // All four adjacent bx/bx/ex/ex
-                String suffix = bxExToXMatcher.group(17);    // After last ex
-                String outerCtype = bxExToXMatcher.group(5);  // Outer ctype
-                String innerCtype = bxExToXMatcher.group(10); // Inner ctype
-
-                // Write adjacent bxes to format file
-                writeFormatLiteral(bxBxExEx,bxExXId);
-                // and increment the id
-                int bxBxExExId = bxExXId++;
-                
-                // Select a ctype that will make most sense to the translator
-                // If both start with "x-", use the inner
-                // If one starts with "x-", use the other one
-                // If neither starts with "x-", prefer "link", else inner ctype
-                String preferredCtype = "";
-                if (outerCtype.equals("link") || innerCtype.equals("link")) {
-                    preferredCtype = "link";
-                }
-                else if (outerCtype.startsWith("x-")) {
-                    preferredCtype = innerCtype;
-                }
-                else { // outer *doesn't* start with "x-"
-                    if (innerCtype.startsWith("x-")) {
-                        preferredCtype = outerCtype;
-                    }
-                    else {  // Neither starts with "x-"; prefer inner
-                        preferredCtype = innerCtype;
-                    }
-                }
-                
-                // Reconstruct the string with fewer bx/ex elements.
-                curTuState = prefix + "<x id='" + bxBxExExId + "' ctype='" + preferredCtype
-                        + "'/>"
-                        + suffix;
+        from = 0;
+        while ((nest = tu.findNestedBxEx(from, false, false)) != null) {
+            // Write adjacent bxes to format file
+            writeFormatLiteral(tu.getText(nest[0], nest[3] + 1), bxExXId);
+            // and increment the id
+            int bxBxExExId = bxExXId++;
 
-                // Increment nextAvailRid
-                nextAvailRid++;                   // Increment our local copy
-            }
-            else {  // We're done!
-                break;
-            }
+            String preferredCtype = TuTokens.preferredCtype(
+                tu.get(nest[0]).getAttribute("ctype"), tu.get(nest[1]).getAttribute("ctype"));
+
+            // Replace all four with a single x
+            tu.replace(nest[0], nest[3] + 1, "<x id='" + bxBxExExId + "' ctype='" 
+                + preferredCtype + "'/>");
+
+            // Increment nextAvailRid
+            nextAvailRid++;                   // Increment our local copy
+            from = nest[0];
         }
-        
-        return (curTuState);  // Return the collapsed TU
     }
     
     /**
-     * Passed the full text of an ODF Translation Unit source (including
+     * Passed the tokens of an ODF Translation Unit source (including
      * core start and end markers), check for bx/x/ex sequences that represent
      * a tab surrounded by text:span begin and end tags. Replace the sequence
      * with a single x tag representing a tab. Add a format file entry that maps 
@@ -1796,69 +1604,115 @@ public class OdfHandler extends DefaultHandler {
      * </pre>
      * <p>This method will replace each such sequence with a single x element that
      * references the xid of the trans-unit that has the text of the annotation.
-     * @param in The full text of the Translation Unit source 
-     * @return The modified text of the Translation Unit.
+     * @param tu The tokens of the Translation Unit source (which this method
+     *        modifies in place)
      */
-    private String collapseTabSpans (String in) {
-        // First of all, if the string is null or zero-length already, just return a
-        // zero-length string.
-        if ((in == null) || (in.length() == 0)
-            || (in.trim().length() == 0)) {  // Nothing meaningful.
-            return "";                       // Return zero-length string
-        }
+    private void collapseTabSpans (TuTokens tu) {
+        // Loop through the tokens looking for the span-tab-endspan sequence.
+        // When one is found, create a new x-odf-tab tag that maps to the sequence
+        for (int i = 0; i < tu.size(); i++) {
+            // Match the opening text:span tag, then the tab, then the closing
+            // text:span
+            String spanRid = spanRid(tu.get(i));
+            if ((spanRid == null) || !isTab(tu.get(i + 1)) 
+                    || !isEx(tu.get(i + 2), spanRid) 
+                    || (tu.get(i + 2).getAttributeCount() != 2)) {
+                continue;
+            }
 
-        // See if the input string includes both the x-odf-span and x-odf-tab ctypes. 
-        // If it doesn't, return the input string.
-        if (in.indexOf("x-odf-span") == -1 || in.indexOf("x-odf-tab") == -1) {
-            return in;
-        }
+            writeFormatLiteral(tu.getText(i, i + 3), bxExXId);
 
-        // Loop through the text looking for the span-tab-endspan sequence.
-        // When one is found, create a new x-odf-tab tag that maps to the sequence
-        
-        // Regex for span-tab-endspan block
-//        String tabPattern = "^(.*?)"
-//            // Match the opening text:span tag
-//            + "(<bx id=(['\"])\\d+\\3 +ctype=(['\"])x-odf-span\\4 +rid=(['\"])(\\d+)\\5 */>" // 1st rid is group 6
-//            // Then match the tab tab
-//            +  "<x id=(['\"])\\d+\\7 +ctype=(['\"])x-odf-tab\\8 */>)"
-//            // ... and close the text:span
-//            +  "<ex id=(['\"])\\d+\\9 +rid=(['\"])\\6\\10 */>)"
-//            // Text that follows the span:
-//            +  "(.*)$";  // What follows
-//
-//        Matcher tabMatcher = Pattern.compile(tabPattern,Pattern.CASE_INSENSITIVE).matcher("");
-
-        StringBuilder newTu = new StringBuilder(); // The beginnings of a new TU
-        String tuTail = in;          // We'll "eat" this as we loop through a matching TU
-        String tabBlock = "";        // The current block of oa tags, etc.
-        
-        while (tuTail.length() > 0) {
-            // Search on the remainder of the core text
-            // Start by checking for leading tag.
-            tabMatcher.reset(tuTail);   // Search what's left of the TU
-            if (tabMatcher.find()) {
-                if (tabMatcher.group(1).length() > 0) {
-                    newTu.append(tabMatcher.group(1)); // Append characters before the annotation block
-                }
-                tabBlock = tabMatcher.group(2);    // The tags we will replace with a single x
-                tuTail   = tabMatcher.group(11);   // Remainder of core text ... for next iteration.
+            // Substitute an x tag for the span/tab/endspan block
+            tu.replace(i, i + 3, "<x id='" + bxExXId + "' ctype='x-odf-tab'/>");
+
+            // Increment the x/bx/ex id for the next format file writer
+            bxExXId++;                   // Increment our local copy
+        }
+    }
 
-                writeFormatLiteral(tabBlock,bxExXId);
+    /**
+     * If the token is the bx tag that opens a text:span without a ctype of
+     * its own--&lt;bx id='n' ctype='x-odf-span' rid='n'/&gt;--return its rid.
+     * @param t The token (or null)
+     * @return The rid, or null
+     */
+    private static String spanRid(TuTokens.Token t) {
+        if ((t == null) || !t.isTag("bx") || (t.getAttributeCount() != 3)
+                || !t.startsWithId() 
+                || !"ctype".equalsIgnoreCase(t.getAttributeName(1))
+                || !"x-odf-span".equalsIgnoreCase(t.getAttribute("ctype"))
+                || !"rid".equalsIgnoreCase(t.getAttributeName(2))) {
+            return null;
+        }
+        return t.getAttribute("rid");
+    }
 
-                // Substitute an x tag for the office:annotation block (in the new TU)
-                // Make it match the original except for the id attribute.
-                newTu.append("<x id='" + bxExXId + "' ctype='x-odf-tab'/>");
+    /**
+     * Is the token a bx tag (whose first attribute is its id) with the
+     * specified ctype?
+     * @param t The token (or null)
+     * @param ctype The ctype
+     * @return true if so, else false
+     */
+    private static boolean isBx(TuTokens.Token t, String ctype) {
+        return (t != null) && t.isTag("bx") && t.startsWithId()
+            && ctype.equalsIgnoreCase(t.getAttribute("ctype", 1));
+    }
 
-                // Increment the x/bx/ex id for the next format file writer
-                bxExXId++;                   // Increment our local copy
-            }
-            else {  // We're done!
-                break;
-            }
+    /**
+     * Is the token an ex tag (whose first attribute is its id)? If a rid is
+     * specified, the ex tag's second attribute must be that rid. (If rid is
+     * "", it must have a rid--any rid--as its second attribute.)
+     * @param t The token (or null)
+     * @param rid The rid, "" for any, or null if the ex needn't have one
+     * @return true if so, else false
+     */
+    private static boolean isEx(TuTokens.Token t, String rid) {
+        if ((t == null) || !t.isTag("ex") || !t.startsWithId()) {
+            return false;
         }
-        
-        return (newTu.toString() + tuTail);  // Return the collapsed TU
+        if (rid == null) {
+            return true;
+        }
+        return "rid".equalsIgnoreCase(t.getAttributeName(1))
+            && ((rid.length() == 0) || rid.equals(t.getAttribute("rid")));
+    }
+
+    /**
+     * Is the token an x tag that refers (with its xid) to the TU that has the
+     * text of an annotation or note--&lt;x id='n' xid='...' ctype='...'/&gt;?
+     * @param t The token (or null)
+     * @param ctype The x tag's ctype
+     * @return true if so, else false
+     */
+    private static boolean isRef(TuTokens.Token t, String ctype) {
+        return (t != null) && t.isTag("x") && t.startsWithId()
+            && "xid".equalsIgnoreCase(t.getAttributeName(1))
+            && "ctype".equalsIgnoreCase(t.getAttributeName(2))
+            && ctype.equalsIgnoreCase(t.getAttribute("ctype"));
+    }
+
+    /**
+     * Is the token an x tag for a tab--&lt;x id='n' ctype='x-odf-tab'/&gt;?
+     * @param t The token (or null)
+     * @return true if so, else false
+     */
+    private static boolean isTab(TuTokens.Token t) {
+        return (t != null) && t.isTag("x") && (t.getAttributeCount() == 2)
+            && t.startsWithId() 
+            && "ctype".equalsIgnoreCase(t.getAttributeName(1))
+            && "x-odf-tab".equalsIgnoreCase(t.getAttribute("ctype"));
+    }
+
+    /**
+     * Is the token the text of an annotation's timestamp (such as
+     * 2006-10-24T00:00:00)?
+     * @param t The token (or null)
+     * @return true if so, else false
+     */
+    private static boolean isTimestamp(TuTokens.Token t) {
+        return (t != null) && t.isText()
+            && timestampPattern.matcher(t.getText()).matches();
     }
     
     /**
@@ -2048,7 +1902,6 @@ public class OdfHandler extends DefaultHandler {
 
             // Then close the tag
             outFormat.write(">]]></tag>\r\n");
-            outFormat.flush();
         }
         catch (IOException io) {
             System.err.println("Unable to write to format output stream.");
@@ -2071,7 +1924,6 @@ public class OdfHandler extends DefaultHandler {
                 
             // Then close the tag
             outFormat.write("]]></tag>\r\n");  // End of CDATA, etc.
-            outFormat.flush();
         }
         catch (IOException io) {
             System.err.println("Unable to write to format output stream.");
@@ -2095,7 +1947,6 @@ public class OdfHandler extends DefaultHandler {
             outSkeleton.write("<" + (isEndTag?"/":"") + tag + " seq='" + seqNum + "'");
             outSkeleton.write(" depth='" + depth + "'");
             outSkeleton.write(">\r\n");
-            outSkeleton.flush();
         }
         catch(IOException e) {
             System.err.println("Error writing " + tag + " " + seqNum
@@ -2116,18 +1967,31 @@ public class OdfHandler extends DefaultHandler {
             TuListEntry candidateTu = tuList.remove(tuList.size() - 1);
 
             String theText = candidateTu.getTuText();
-            // If the segment includes an office:annotation "block," collapse it
-            theText = this.collapseAnnotations(theText);
-            // Ditto for a text:note block
-            theText = this.collapseFootnotes(theText);
-            // ... and for span/tag/endspan blocks
-            theText = this.collapseTabSpans(theText);
-            // ... and for confusing nested <bx/><bx/>text<ex/><ex/> tags
-            theText = this.collapseNestedBxEx(theText);
+            if (theText.trim().length() == 0) {
+                theText = "";                // Nothing meaningful.
+            }
+            else if (theText.indexOf("<bx") != -1) {
+                TuTokens tuTokens = new TuTokens(theText);
+                // If the segment includes an office:annotation "block," collapse it
+                if (theText.indexOf("x-odf-office-annotation") != -1) {
+                    this.collapseAnnotations(tuTokens);
+                }
+                // Ditto for a text:note block
+                if (theText.indexOf("x-odf-text-note") != -1) {
+                    this.collapseFootnotes(tuTokens);
+                }
+                // ... and for span/tag/endspan blocks
+                if (theText.indexOf("x-odf-tab") != -1) {
+                    this.collapseTabSpans(tuTokens);
+                }
+                // ... and for confusing nested <bx/><bx/>text<ex/><ex/> tags
+                this.collapseNestedBxEx(tuTokens);
+                theText = tuTokens.toString();
+            }
             
             // Get the core segments:
             SegmentInfo[] coreTus = TuPreener.getCoreSegments(theText, 
-                this.boundaryType, this.sourceLang);
+                this.boundaryType, this.sourceLang, false, false, srxSegmenter);
             
             // The ID of the first segment in the candidate TU is important because
             // it might (if, for example, this set of segments represents a
@@ -2203,13 +2067,13 @@ public class OdfHandler extends DefaultHandler {
                     }
                     
                     encounteredTranslatableSegment = true;  // Meaningful if this is the first one
-                    String coreSeg = coreTus[i].getSegmentStr();  // Includes x-coretext mrk tags
 
                     try {
                         // Open the trans-unit element (No offset attribute in the following (yet?))
                         outXliff.write(indent('0')
                             + "<trans-unit id='" + idOfCurSegment.toString() + "' "
-                            + "lt:paraID='" + paraID + "' ");
+                            + "lt:paraID='" + paraID + "'"
+                            + repetitionAttributes(idOfCurSegment, coreTus[i]) + " ");
                             
                         if (tuList.size() > 0) {   // This is an "imbedded" TU
                             useMergeableAttr = false;
@@ -2230,9 +2094,10 @@ public class OdfHandler extends DefaultHandler {
                             accumulatedUntranslatable = "";
                         }
 
-                        // Write the actual text of the TU:
+                        // Write the actual text of the TU (including its
+                        // x-coretext mrk tags):
                         // It should be already escaped (shouldn't it?)
-                        siblingTuSuffix.append(coreSeg);
+                        coreTus[i].appendTo(siblingTuSuffix);
                         
                     }
                     catch(IOException e) {
@@ -2249,9 +2114,8 @@ public class OdfHandler extends DefaultHandler {
                             // the of= value generally be high.
                             
                             outSkeleton.write("<tu id='" + idOfCurSegment.toString() + "' length='" 
-                                + coreSeg.length() + "' depth='" + (tuList.size() + 1) + "' "
+                                + coreTus[i].length() + "' depth='" + (tuList.size() + 1) + "' "
                                 + "no='" + (i+1) + "' of='" + coreTus.length + "'>\r\n");
-                            outSkeleton.flush();
                         }
                         catch(IOException e) {
                             System.err.println("Error while writing skeleton file.");
@@ -2279,7 +2143,6 @@ public class OdfHandler extends DefaultHandler {
                         outFormat.write("  <tag id='" + bxExXId + "'>");
                         outFormat.write(coreTus[i].getSegmentStr());
                         outFormat.write("</tag>\r\n");
-                        outFormat.flush();
 
                         bxExXId++;
                     }
@@ -2314,7 +2177,6 @@ public class OdfHandler extends DefaultHandler {
 
                     // ... and the trans-unit element
                     outXliff.write(indent('-') + "</trans-unit>\r\n");
-                    outXliff.flush();
                 }
                 catch(IOException e) {
                     System.err.println("Error writing translation-unit characters to the XLIFF file.");
@@ -2337,14 +2199,23 @@ public class OdfHandler extends DefaultHandler {
             TuListEntry candidateTu = tuList.remove(tuList.size() - 1);
 
             String theText = candidateTu.getTuText();
-            // Try simplifying things a bit
-            theText = this.collapseTabSpans(theText);
-            // ... and for confusing nested <bx/><bx/>text<ex/><ex/> tags
-            theText = this.collapseNestedBxEx(theText);
+            if (theText.trim().length() == 0) {
+                theText = "";                // Nothing meaningful.
+            }
+            else if (theText.indexOf("<bx") != -1) {
+                TuTokens tuTokens = new TuTokens(theText);
+                // Try simplifying things a bit
+                if (theText.indexOf("x-odf-tab") != -1) {
+                    this.collapseTabSpans(tuTokens);
+                }
+                // ... and for confusing nested <bx/><bx/>text<ex/><ex/> tags
+                this.collapseNestedBxEx(tuTokens);
+                theText = tuTokens.toString();
+            }
             
             // Get the core segments:
             SegmentInfo[] coreTus = TuPreener.getCoreSegments(theText, 
-                this.boundaryType, this.sourceLang);
+                this.boundaryType, this.sourceLang, false, false, srxSegmenter);
 
             // The ID of the first segment in the candidate TU is important because
             // it might (if, for example, this set of segments represents a
@@ -2403,12 +2274,11 @@ public class OdfHandler extends DefaultHandler {
                     }
                     
                     encounteredTranslatableSegment = true;  // Meaningful if this is the first one
-                    String coreSeg = coreTus[i].getSegmentStr();
-            
                     // Open the trans-unit element (No offset attribute in the following (yet?))
                     xliffAppendix.append(indent('0')
                         + "<trans-unit id='" + idOfCurSegment + "' "
-                            + "lt:paraID='" + paraID + "' ");
+                            + "lt:paraID='" + paraID + "'"
+                            + repetitionAttributes(idOfCurSegment, coreTus[i]) + " ");
                     
                     siblingTuSuffix.append(">\r\n");
 
@@ -2422,8 +2292,9 @@ public class OdfHandler extends DefaultHandler {
                         accumulatedUntranslatable = "";
                     }
                     
-                    // Write the actual text of the TU:
-                    siblingTuSuffix.append(coreSeg);
+                    // Write the actual text of the TU (including its x-coretext
+                    // mrk tags):
+                    coreTus[i].appendTo(siblingTuSuffix);
 
                     // Don't close the source or trans-unit elements yet--in case some trailing
                     // untranslatable "segments" need to be appended after this source
@@ -2451,7 +2322,6 @@ public class OdfHandler extends DefaultHandler {
                         outFormat.write("  <tag id='" + bxExXId + "'>");
                         outFormat.write(coreTus[i].getSegmentStr());
                         outFormat.write("</tag>\r\n");
-                        outFormat.flush();
 
                         bxExXId++;
                     }
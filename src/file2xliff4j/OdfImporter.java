@@ -22,16 +22,19 @@
 package file2xliff4j;
 
 import org.xml.sax.*;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 import f2xutils.*;
 import java.io.*;
 import java.util.*;
 import java.lang.*;
 import java.nio.charset.*;
+import java.util.zip.*;
 
 /**
  * The OdfImporter is used to import Open Document Format to XLIFF.
+ * <p>The content.xml and styles.xml files are normally read directly from
+ * the entries of the ODF package (see odfZipFile) without being extracted. If
+ * no package has been specified, they are read from the base directory.
  * 
  * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
  */
@@ -42,6 +45,29 @@ public abstract class OdfImporter implements Converter {
      */
     String xliffOriginalFileName = "";
     
+    /** The ODF package (ZIP file) from whose entries content.xml and 
+     * styles.xml are read. If null, they are read from files of those names
+     * in the base directory.
+     */
+    ZipFile odfZipFile = null;
+    
+    /** If non-null, the index in which to look up repeated segments (Set
+     * by the subclasses' setConversionProperty.)
+     */
+    RepetitionIndex repetitions = null;
+    
+    /** If non-null, the segmenter to use for SRX segment boundaries (Set by
+     * the subclasses' setConversionProperty.)
+     */
+    SrxSegmenter srxSegmenter = null;
+    
+    /** Whether to keep statistics of the TUs written, in statistics (Set by
+     * the subclasses' setConversionProperty; returned by their
+     * getConversionProperty.)
+     */
+    boolean keepStatistics = false;
+    ImportStatistics statistics = null;
+    
     /**
      * Constructor for the ODF importer. 
      */
@@ -112,10 +138,10 @@ public abstract class OdfImporter implements Converter {
                             Charset.forName("UTF-8") : nativeEncoding;
         
         // Create output stream writers for the SAX handler to write to.
-        OutputStreamWriter xliffOut = null;
-        OutputStreamWriter tskeletonOut = null;
-        OutputStreamWriter formatOut = null;
-        OutputStreamWriter stylesTSkeletonOut = null;
+        OutputSink xliffOut = null;
+        OutputSink tskeletonOut = null;
+        OutputSink formatOut = null;
+        OutputSink stylesTSkeletonOut = null;
 
         if (nativeFileType == null) {
             System.err.println("Required native file type parameter omitted.");
@@ -127,30 +153,25 @@ public abstract class OdfImporter implements Converter {
         }
         
         try {
-            xliffOut  = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + xliffOriginalFileName + Converter.xliffSuffix),
-                    "UTF8");
-            tskeletonOut = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + xliffOriginalFileName + Converter.tSkeletonSuffix),
-                    "UTF8");
-            formatOut = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + xliffOriginalFileName + Converter.formatSuffix),
-                    "UTF8");
-            stylesTSkeletonOut = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + xliffOriginalFileName + Converter.stylesTSkeletonSuffix),
-                    "UTF8");
+            xliffOut  = new OutputSink(
+                    baseDir + File.separator + xliffOriginalFileName + Converter.xliffSuffix);
+            tskeletonOut = new OutputSink(
+                    baseDir + File.separator + xliffOriginalFileName + Converter.tSkeletonSuffix);
+            formatOut = new OutputSink(
+                    baseDir + File.separator + xliffOriginalFileName + Converter.formatSuffix);
+            stylesTSkeletonOut = new OutputSink(
+                    baseDir + File.separator + xliffOriginalFileName + Converter.stylesTSkeletonSuffix);
             
         }
-        catch (UnsupportedEncodingException e) {
-            System.err.println("Unable to write XLIFF as UTF-8!!");
-            System.err.println(e.getMessage());
-            throw new ConversionException("Unable to write XLIFF as UTF-8: " + e.getMessage());
-        }
         catch (FileNotFoundException e) {
             System.err.println(e.getMessage());
             throw new ConversionException(e.getMessage());
         }
 
+        // If requested, keep statistics of the TUs as they are written
+        statistics = ImportStatistics.forImport(keepStatistics, baseDir,
+            xliffOriginalFileName);
+        
         int tuDepth = 2;
         int stylesTuDepth = 2;
 
@@ -158,16 +179,17 @@ public abstract class OdfImporter implements Converter {
         // and styles.xml:
         OdfStateObject odfState = new OdfStateObject();
         
+        XMLReader parser = null;
+        
         try {
             // Let's parse with the an XML Reader
-            XMLReader parser = XMLReaderFactory.createXMLReader();
+            parser = SAXParserPool.acquire(SAXParserPool.Config.XML_NAMESPACES);
 
             // We need to verify that styles.xml even exists. Depending on whether
             // it does or not, we will pass a different last argument to the
             // odfHandler constructor
             String handlerMode = "";
-            File stylesFile = new File(baseDir + File.separator + "styles.xml");
-            if (stylesFile.exists()) {
+            if (hasOdfEntry(baseDir, "styles.xml")) {
                 // If handlerMode is "content.xml", we will leave the XLIFF
                 // "open" so that the handler for styles.xml can later add
                 // TUs to the XLIFF. If "", the handler will write both the
@@ -182,20 +204,17 @@ public abstract class OdfImporter implements Converter {
                     formatOut, language, nativeFileType.toString(), 
                     xliffOriginalFileName, boundary, odfState,
                     handlerMode);
+            odfHandler.setRepetitionIndex(repetitions);
+            odfHandler.setSrxSegmenter(srxSegmenter);
+            odfHandler.setStatistics(statistics);
             
             parser.setContentHandler(odfHandler);
-
-            // Maintain the case (upper/lower) of tags (elements) and attributes 
-            // Include namespaces in the StartElement() attlist:
-            parser.setFeature("http://xml.org/sax/features/namespaces", true);
-            
-            // Also include namespace-prefixes:
-            parser.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
             
-            Reader inReader = new InputStreamReader(new FileInputStream(
-                    baseDir + File.separator + nativeFileName), encoding);
+            Reader inReader = new InputStreamReader(openOdfEntry(baseDir, 
+                    nativeFileName), encoding);
             InputSource OdfIn = new InputSource(inReader);
             parser.parse(OdfIn);
+            inReader.close();
             
             // Get the maxDepth of the TU tree
             tuDepth = odfHandler.getTuDepth();
@@ -209,6 +228,10 @@ public abstract class OdfImporter implements Converter {
             System.err.println("I/O error reading ODF input.");
             System.err.println("I/O error reading ODF input: " + e.getMessage());
         }
+        finally {
+            SAXParserPool.release(SAXParserPool.Config.XML_NAMESPACES, parser);
+            parser = null;
+        }
 
         try {
             /* Close the files we created above */
@@ -218,102 +241,116 @@ public abstract class OdfImporter implements Converter {
             System.err.println("Error creating tskeleton for content.xml");
             System.err.println(e.getMessage());
         }
+
+        // The content.xml temporary skeleton is complete. Merge it with 
+        // content.xml (to yield the content.xml skeleton) on a separate 
+        // thread while we parse styles.xml and merge its skeleton on this one.
+        // (styles.xml can't be parsed concurrently with content.xml, because
+        // it continues the content.xml id, rid and tag numbering that 
+        // odfState passes between the two handlers.)
+        OdfMergeThread contentMerger = new OdfMergeThread(baseDir, 
+                nativeFileName,                              // This is the content.xml file
+                baseDir + File.separator + xliffOriginalFileName + Converter.tSkeletonSuffix,
+                baseDir + File.separator + xliffOriginalFileName + Converter.skeletonSuffix + ".1",
+                baseDir + File.separator + xliffOriginalFileName + ".content.skelpasses",
+                encoding, tuDepth);
+        contentMerger.start();
         
-        // Now process the styles.xml file
+        boolean haveStylesSkel = false;  // Do we have a styles.xml skeleton?
+
+        // Whatever happens to styles.xml, don't return until the content.xml
+        // merger is done with its files.
         try {
-            // Let's parse with the an XML Reader
-            XMLReader parser = XMLReaderFactory.createXMLReader();
+            // Now process the styles.xml file (if there is one)
+            if (hasOdfEntry(baseDir, "styles.xml")) try {
+                // Let's parse with the an XML Reader
+                parser = SAXParserPool.acquire(SAXParserPool.Config.XML_NAMESPACES);
             
-            // On this first call, the xliffOriginalFileName will never be 
-            // content.xml. On the second call it will be styles.xml, which
-            // the handler will use as a cue not to open the file, etc.
+                // On this first call, the xliffOriginalFileName will never be 
+                // content.xml. On the second call it will be styles.xml, which
+                // the handler will use as a cue not to open the file, etc.
             
-            OdfHandler odfHandler = new OdfHandler(xliffOut, stylesTSkeletonOut, 
-                    formatOut, language, nativeFileType.toString(), 
-                    "styles.xml", boundary, odfState, "styles.xml");
-            
-            parser.setContentHandler(odfHandler);
-
-            // Maintain the case (upper/lower) of tags (elements) and attributes 
-            // Include namespaces in the StartElement() attlist:
-            parser.setFeature("http://xml.org/sax/features/namespaces", true);
+                OdfHandler odfHandler = new OdfHandler(xliffOut, stylesTSkeletonOut, 
+                        formatOut, language, nativeFileType.toString(), 
+                        "styles.xml", boundary, odfState, "styles.xml");
+                odfHandler.setRepetitionIndex(repetitions);
+                odfHandler.setSrxSegmenter(srxSegmenter);
+                odfHandler.setStatistics(statistics);
             
-            // Also include namespace-prefixes:
-            parser.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+                parser.setContentHandler(odfHandler);
             
-            Reader inReader = new InputStreamReader(new FileInputStream(
-                    baseDir + File.separator + "styles.xml"), encoding);
-            InputSource OdfIn = new InputSource(inReader);
-            parser.parse(OdfIn);
-
-            // Get the maxDepth of the TU tree
-            stylesTuDepth = odfHandler.getTuDepth();
-        }
-        catch(SAXException e) {
-            System.err.println("XML parser error (styles.xml).");
-            System.err.println(e.getMessage());
-            throw new ConversionException("SAX parser error (styles.xml): " + e.getMessage());
-        }
-        catch(IOException e) {
-            System.err.println("I/O error reading ODF input (styles.xml).");
-            System.err.println("I/O error reading ODF input (styles.xml): " + e.getMessage());
-        }
+                Reader inReader = new InputStreamReader(openOdfEntry(baseDir, 
+                        "styles.xml"), encoding);
+                InputSource OdfIn = new InputSource(inReader);
+                parser.parse(OdfIn);
+                inReader.close();
+
+                // Get the maxDepth of the TU tree
+                stylesTuDepth = odfHandler.getTuDepth();
+            }
+            catch(SAXException e) {
+                System.err.println("XML parser error (styles.xml).");
+                System.err.println(e.getMessage());
+                throw new ConversionException("SAX parser error (styles.xml): " + e.getMessage());
+            }
+            catch(IOException e) {
+                System.err.println("I/O error reading ODF input (styles.xml).");
+                System.err.println("I/O error reading ODF input (styles.xml): " + e.getMessage());
+            }
+            finally {
+                SAXParserPool.release(SAXParserPool.Config.XML_NAMESPACES, parser);
+                parser = null;
+            }
 
-        try {
-            /* Close the files we created above */
-            xliffOut.close();     
-            stylesTSkeletonOut.close();
-            formatOut.close();    
+            try {
+                /* Close the files we created above */
+                xliffOut.close();     
+                if (statistics != null) {
+                    statistics.close();
+                }
+                stylesTSkeletonOut.close();
+                formatOut.close();    
             
-        }
-        catch(java.io.IOException e) {
-            System.err.println("Error creating tskeleton for styles.xml");
-            System.err.println(e.getMessage());
-        }
+            }
+            catch(java.io.IOException e) {
+                System.err.println("Error creating tskeleton for styles.xml");
+                System.err.println(e.getMessage());
+            }
         
-        /* We have created temp skeleton files (intermediate skeleton files) for
-         * both the content.xml and the styles.xml files.
-         * We now need to merge those temporary skeleton files with the original 
-         * input files to yield a "real" skeleton */
-
-        // First content.xml
-        try {
-
-            // We'll read from the temporary skeleton
-            FileInputStream tSkeletonIn = new FileInputStream(baseDir + File.separator
-                    + xliffOriginalFileName + Converter.tSkeletonSuffix);
-
-            // We'll also read from the original input file
-            FileInputStream nativeIn = new FileInputStream(baseDir + File.separator
-                    + nativeFileName);   // This is the content.xml file
-
-            // We'll write to the (final) skeleton file
-            FileOutputStream skeletonOut = new FileOutputStream(baseDir + File.separator
-                    + xliffOriginalFileName + Converter.skeletonSuffix + ".1");
-
-            // The OdfSkeletonMerger will do the deed.
-            SkeletonMerger merger = new OdfSkeletonMerger();
-
-            if (merger != null) {
-                // Pass the merger a temporary file path "stem" before calling merger
-                merger.setProperty("http://www.lingotek.com/converters/properties/skelTemp",
-                        baseDir + File.separator + xliffOriginalFileName + ".content.skelpasses");
+            // Now merge the styles.xml temporary skeleton (if there is one)
+            haveStylesSkel = true;   // Assume we have a styles.xml skeleton
         
-                merger.merge(tSkeletonIn, nativeIn, skeletonOut, encoding, tuDepth);
+            // If the styles temporary skeleton is of length 0, then we found no translatable
+            // text in the styles.xml, so don't bother further with that file.
+            File tStylesFile = new File(baseDir + File.separator
+                        + xliffOriginalFileName + Converter.stylesTSkeletonSuffix);
+            // (If there is no styles.xml at all, there is no temporary skeleton.)
+            if (!tStylesFile.exists() || (tStylesFile.length() == 0L)) {
+                haveStylesSkel = false;
+            }
+        
+            // If we don't have a styles temporary skeleton, don't mess with styles.
+            if (haveStylesSkel) {
+                OdfMergeThread stylesMerger = new OdfMergeThread(baseDir, "styles.xml",
+                        baseDir + File.separator + xliffOriginalFileName + Converter.stylesTSkeletonSuffix,
+                        baseDir + File.separator + xliffOriginalFileName + Converter.skeletonSuffix + ".2",
+                        baseDir + File.separator + xliffOriginalFileName + ".styles.skelpasses",
+                        encoding, stylesTuDepth);
+                stylesMerger.run();   // Run on this thread
+                stylesMerger.checkFailure();
             }
-
-            tSkeletonIn.close();
-            nativeIn.close();
-            skeletonOut.close();
-        }
-        catch(java.io.FileNotFoundException e) {
-            System.err.println("Error creating final content.xml skeleton file from temporary skeleton");
-            System.err.println(e.getMessage());
         }
-        catch(java.io.IOException e) {
-            System.err.println("Error creating final content.xml skeleton file from temporary skeleton");
-            System.err.println(e.getMessage());
+        finally {
+            // Wait for the content.xml merger to finish.
+            try {
+                contentMerger.join();
+            }
+            catch (InterruptedException e) {
+                System.err.println("Interrupted while merging content.xml skeleton.");
+                throw new ConversionException("Interrupted while merging content.xml skeleton.");
+            }
         }
+        contentMerger.checkFailure();
         
         // Before returning, see if the notifier is non-null. If it is, check the
         // skeleton to see if it is well-formed XML
@@ -334,10 +371,8 @@ public abstract class OdfImporter implements Converter {
                 Charset charset = Charset.defaultCharset();
         
                 try {
-                    XMLReader parser = XMLReaderFactory.createXMLReader();
-
                     // We don't care about namespaces at the moment.
-                    parser.setFeature("http://xml.org/sax/features/namespaces", false);
+                    parser = SAXParserPool.acquire(SAXParserPool.Config.XML);
 
                     Reader inReader = new InputStreamReader(new FileInputStream(skelFile), charset);
                     InputSource skelIn = new InputSource(inReader);
@@ -378,125 +413,77 @@ public abstract class OdfImporter implements Converter {
                     System.err.println(notice);
                     notifier.sendNotification("0005", "OdfImporter", Notifier.ERROR, notice);
                 }
+                finally {
+                    SAXParserPool.release(SAXParserPool.Config.XML, parser);
+                    parser = null;
+                }
             }
         }
 
-        // Now repeat the above for styles.xml
-        boolean haveStylesSkel = true;   // Assume we have a styles.xml skeleton
-        
-        // If the styles temporary skeleton is of length 0, then we found no translatable
-        // text in the styles.xml, so don't bother further with that file.
-        File tStylesFile = new File(baseDir + File.separator
-                    + xliffOriginalFileName + Converter.stylesTSkeletonSuffix);
-        if (tStylesFile.exists()) {
-            if (tStylesFile.length() == 0L) {
-                haveStylesSkel = false;
+        // Likewise check the styles.xml skeleton (if we have one)
+        if (haveStylesSkel && notifier != null) {
+            String notice = "";
+            File skelFile = new File(baseDir + File.separator
+                    + xliffOriginalFileName + Converter.skeletonSuffix + ".2");
+            // Does the skeleton even exist?
+            if (!skelFile.exists()) {
+                notice = "Document importer didn't create a skeleton file named "
+                        + baseDir + File.separator
+                        + xliffOriginalFileName + Converter.skeletonSuffix + ".2";
+                System.err.println(notice);
+                notifier.sendNotification("0001", "OdfImporter", Notifier.ERROR, notice);
             }
-        }
-        
-        // If we don't have a styles temporary skeleton, don't mess with styles.
-        if (haveStylesSkel) {
-            try {
-
-                // We'll read from the temporary skeleton
-                FileInputStream tSkeletonIn = new FileInputStream(baseDir + File.separator
-                        + xliffOriginalFileName + Converter.stylesTSkeletonSuffix);
-
-                // We'll also read from the original input file
-                FileInputStream nativeIn = new FileInputStream(baseDir + File.separator
-                        + "styles.xml");   // This is the styles.xml file
-
-                // We'll write to the (final) skeleton file
-                FileOutputStream skeletonOut = new FileOutputStream(baseDir + File.separator
-                        + xliffOriginalFileName + Converter.skeletonSuffix + ".2");
-
-                // The OdfSkeletonMerger will do the deed.
-                SkeletonMerger merger = new OdfSkeletonMerger();
-
-                if (merger != null) {
-                    // Pass the merger a temporary file path "stem" before calling merger
-                    merger.setProperty("http://www.lingotek.com/converters/properties/skelTemp",
-                        baseDir + File.separator + xliffOriginalFileName + ".styles.skelpasses");
-                    merger.merge(tSkeletonIn, nativeIn, skeletonOut, encoding, stylesTuDepth);
-                }
+            // Is it well-formed?
+            else {
+                Charset charset = Charset.defaultCharset();
 
-                tSkeletonIn.close();
-                nativeIn.close();
-                skeletonOut.close();
-            }
-            catch(java.io.FileNotFoundException e) {
-                System.err.println("Error creating final styles.xml skeleton file from temporary skeleton");
-                System.err.println(e.getMessage());
-            }
-            catch(java.io.IOException e) {
-                System.err.println("Error creating final styles.xml skeleton file from temporary skeleton");
-                System.err.println(e.getMessage());
-            }
+                try {
+                    // We don't care about namespaces at the moment.
+                    parser = SAXParserPool.acquire(SAXParserPool.Config.XML);
 
-            // Before returning, see if the notifier is non-null. If it is, check the
-            // skeleton to see if it is well-formed XML
-            if (notifier != null) {
-                String notice = "";
-                File skelFile = new File(baseDir + File.separator
-                        + xliffOriginalFileName + Converter.skeletonSuffix + ".2");
-                // Does the skeleton even exist?
-                if (!skelFile.exists()) {
-                    notice = "Document importer didn't create a skeleton file named "
-                            + baseDir + File.separator
-                            + xliffOriginalFileName + Converter.skeletonSuffix + ".2";
-                    System.err.println(notice);
-                    notifier.sendNotification("0001", "OdfImporter", Notifier.ERROR, notice);
-                }
-                // Is it well-formed?
-                else {
-                    Charset charset = Charset.defaultCharset();
-
-                    try {
-                        XMLReader parser = XMLReaderFactory.createXMLReader();
-
-                        // We don't care about namespaces at the moment.
-                        parser.setFeature("http://xml.org/sax/features/namespaces", false);
-
-                        Reader inReader = new InputStreamReader(new FileInputStream(skelFile), charset);
-                        InputSource skelIn = new InputSource(inReader);
-                        if (skelIn != null) {
-                            parser.parse(skelIn); 
-                            inReader.close();
-                        }
-                        else {
-                            notice = "Unable to read skeleton file " 
-                                    + baseDir + File.separator
-                                    + xliffOriginalFileName + Converter.skeletonSuffix + ".2";
-                            System.err.println(notice);
-                            notifier.sendNotification("0002", "OdfImporter", Notifier.ERROR, notice);
-                        }
-                    }
-                    catch(SAXParseException e) {
-                        notice = "Skeleton file " + baseDir + File.separator
-                                + xliffOriginalFileName + Converter.skeletonSuffix + ".2"
-                                + " is not well-formed at line "
-                                + e.getLineNumber() + ", column " + e.getColumnNumber()
-                                + "\n" + e.getMessage() + "\n" + this.getStackTrace(e);
-                        System.err.println(notice);
-                        notifier.sendNotification("0003", "OdfImporter", Notifier.ERROR, notice);
-                    }
-                    catch(SAXException e) {
-                        notice = "Skeleton file " + baseDir + File.separator
-                                + xliffOriginalFileName + Converter.skeletonSuffix + ".2"
-                                + " caused an XML parser error: " + e.getMessage()
-                                + "\n" + this.getStackTrace(e);
-                        System.err.println(notice);
-                        notifier.sendNotification("0004", "OdfImporter", Notifier.ERROR, notice);
+                    Reader inReader = new InputStreamReader(new FileInputStream(skelFile), charset);
+                    InputSource skelIn = new InputSource(inReader);
+                    if (skelIn != null) {
+                        parser.parse(skelIn); 
+                        inReader.close();
                     }
-                    catch(IOException e) {
-                        notice = "The validator of skeleton file " + baseDir + File.separator
-                                + xliffOriginalFileName + Converter.skeletonSuffix + ".2"
-                                + " experienced an I/O error while reading input: " + e.getMessage()
-                                + "\n" + this.getStackTrace(e);
+                    else {
+                        notice = "Unable to read skeleton file " 
+                                + baseDir + File.separator
+                                + xliffOriginalFileName + Converter.skeletonSuffix + ".2";
                         System.err.println(notice);
-                        notifier.sendNotification("0005", "OdfImporter", Notifier.ERROR, notice);
+                        notifier.sendNotification("0002", "OdfImporter", Notifier.ERROR, notice);
                     }
                 }
+                catch(SAXParseException e) {
+                    notice = "Skeleton file " + baseDir + File.separator
+                            + xliffOriginalFileName + Converter.skeletonSuffix + ".2"
+                            + " is not well-formed at line "
+                            + e.getLineNumber() + ", column " + e.getColumnNumber()
+                            + "\n" + e.getMessage() + "\n" + this.getStackTrace(e);
+                    System.err.println(notice);
+                    notifier.sendNotification("0003", "OdfImporter", Notifier.ERROR, notice);
+                }
+                catch(SAXException e) {
+                    notice = "Skeleton file " + baseDir + File.separator
+                            + xliffOriginalFileName + Converter.skeletonSuffix + ".2"
+                            + " caused an XML parser error: " + e.getMessage()
+                            + "\n" + this.getStackTrace(e);
+                    System.err.println(notice);
+                    notifier.sendNotification("0004", "OdfImporter", Notifier.ERROR, notice);
+                }
+                catch(IOException e) {
+                    notice = "The validator of skeleton file " + baseDir + File.separator
+                            + xliffOriginalFileName + Converter.skeletonSuffix + ".2"
+                            + " experienced an I/O error while reading input: " + e.getMessage()
+                            + "\n" + this.getStackTrace(e);
+                    System.err.println(notice);
+                    notifier.sendNotification("0005", "OdfImporter", Notifier.ERROR, notice);
+                }
+                finally {
+                    SAXParserPool.release(SAXParserPool.Config.XML, parser);
+                    parser = null;
+                }
             }
         }
 
@@ -553,9 +540,9 @@ public abstract class OdfImporter implements Converter {
 
         try {
             // ... writing to the (final) skeleton file
-            Writer skeletonOut = new OutputStreamWriter(new FileOutputStream(baseDir 
+            Writer skeletonOut = new OutputSink(baseDir 
                     + File.separator + xliffOriginalFileName 
-                    + Converter.skeletonSuffix),Charset.forName("UTF-8"));
+                    + Converter.skeletonSuffix);
             
             if (haveStylesSkel) {    // We don't always have a styles skel ...
                 // Write an XML declaration for the "super" skeleton
@@ -582,7 +569,6 @@ public abstract class OdfImporter implements Converter {
                 // Finally, end the styles.xml element, etc.
                 skeletonOut.write("\n]]></lt:styles_xml>\n</lt:skeleton>\n");
             }
-            skeletonOut.flush();
             
             tSkelContent.close();
             if (haveStylesSkel) {
@@ -712,6 +698,152 @@ public abstract class OdfImporter implements Converter {
         
     }
     
+    /**
+     * This class merges a temporary skeleton (of either content.xml or 
+     * styles.xml) with the original XML file to yield that file's 
+     * skeleton. It extends Thread, so that the content.xml merge can
+     * proceed while styles.xml is being processed.
+     */
+    private class OdfMergeThread extends Thread {
+        private String baseDir;         // Where the original XML lives
+        private String nativeName;      // "content.xml" or "styles.xml"
+        private String tSkelPath;       // The temporary skeleton
+        private String skelPath;        // Where the skeleton goes
+        private String skelTemp;        // Temp file stem for merger passes
+        private Charset encoding;       // Encoding of the original XML
+        private int tuDepth;            // Max depth of TU nesting
+        private Exception failure;      // What ended the merge (if anything)
+
+        /**
+         * Constructor for an OdfMergeThread
+         * @param baseDir The directory that contains the original XML (if
+         *        it isn't read from odfZipFile)
+         * @param nativeName The name of the original XML (content.xml or
+         *        styles.xml)
+         * @param tSkelPath Path of the temporary skeleton to read
+         * @param skelPath Path of the skeleton to write
+         * @param skelTemp Temporary file path "stem" for the merger's passes
+         * @param encoding The encoding of the original XML
+         * @param tuDepth The maximum depth of TU nesting
+         */
+        public OdfMergeThread(String baseDir, String nativeName,
+                String tSkelPath, String skelPath, String skelTemp,
+                Charset encoding, int tuDepth) {
+            this.baseDir = baseDir;
+            this.nativeName = nativeName;
+            this.tSkelPath = tSkelPath;
+            this.skelPath = skelPath;
+            this.skelTemp = skelTemp;
+            this.encoding = encoding;
+            this.tuDepth = tuDepth;
+        }
+
+        /**
+         * Do the merge.
+         */
+        public void run() {
+            try {
+                // We'll read from the temporary skeleton
+                FileInputStream tSkeletonIn = new FileInputStream(tSkelPath);
+
+                // We'll also read from the original input file
+                InputStream nativeIn = openOdfEntry(baseDir, nativeName);
+
+                // We'll write to the (final) skeleton file
+                FileOutputStream skeletonOut = new FileOutputStream(skelPath);
+
+                // The OdfSkeletonMerger will do the deed.
+                SkeletonMerger merger = new OdfSkeletonMerger();
+
+                // Pass the merger a temporary file path "stem" before calling merger
+                merger.setProperty("http://www.lingotek.com/converters/properties/skelTemp",
+                        skelTemp);
+                merger.merge(tSkeletonIn, nativeIn, skeletonOut, encoding, tuDepth);
+
+                tSkeletonIn.close();
+                nativeIn.close();
+                skeletonOut.close();
+            }
+            catch(java.io.FileNotFoundException e) {
+                System.err.println("Error creating final " + nativeName 
+                        + " skeleton file from temporary skeleton");
+                System.err.println(e.getMessage());
+            }
+            catch(java.io.IOException e) {
+                System.err.println("Error creating final " + nativeName 
+                        + " skeleton file from temporary skeleton");
+                System.err.println(e.getMessage());
+            }
+            catch(ConversionException e) {
+                System.err.println("Error creating final " + nativeName 
+                        + " skeleton file from temporary skeleton");
+                System.err.println(e.getMessage());
+                failure = e;
+            }
+            catch(RuntimeException e) {
+                System.err.println("Error creating final " + nativeName 
+                        + " skeleton file from temporary skeleton");
+                System.err.println(e.getMessage());
+                failure = e;
+            }
+        }
+
+        /**
+         * If the merge failed with an exception that would have ended the
+         * conversion had the merge run on the converting thread, throw it
+         * (as a ConversionException). (I/O errors are only reported, as
+         * before; the skeleton check that follows the merge catches them.)
+         * Call this after run returns or the thread has been joined.
+         * @throws ConversionException If the merge failed
+         */
+        public void checkFailure() throws ConversionException {
+            if (failure instanceof ConversionException) {
+                throw (ConversionException)failure;
+            }
+            else if (failure != null) {
+                throw new ConversionException("Error creating final " + nativeName 
+                        + " skeleton file from temporary skeleton: " + failure);
+            }
+        }
+    }
+    
+    /**
+     * Does the ODF document have a file (content.xml or styles.xml, for
+     * example) with the specified name--either as an entry in odfZipFile or
+     * (if odfZipFile is null) in the base directory?
+     * @param baseDir The directory to look in if odfZipFile is null
+     * @param name The name of the file/entry
+     * @return true if it exists, else false
+     */
+    boolean hasOdfEntry(String baseDir, String name) {
+        if (odfZipFile != null) {
+            return (odfZipFile.getEntry(name) != null);
+        }
+        return new File(baseDir + File.separator + name).exists();
+    }
+    
+    /**
+     * Open a file (content.xml or styles.xml, for example) of the ODF 
+     * document for reading--either directly from its entry in odfZipFile or
+     * (if odfZipFile is null) from the base directory.
+     * @param baseDir The directory to read from if odfZipFile is null
+     * @param name The name of the file/entry
+     * @return An input stream to read the file's (uncompressed) content from.
+     * @throws java.io.IOException
+     *         if the file doesn't exist or can't be read.
+     */
+    InputStream openOdfEntry(String baseDir, String name) throws IOException {
+        if (odfZipFile != null) {
+            ZipEntry entry = odfZipFile.getEntry(name);
+            if (entry == null) {
+                throw new FileNotFoundException(name + " not found in "
+                        + odfZipFile.getName());
+            }
+            return odfZipFile.getInputStream(entry);
+        }
+        return new FileInputStream(baseDir + File.separator + name);
+    }
+    
     /**
      * Convert a stack trace to a string.
      * @param t Throwable whose stack trace will be returned
@@ -0,0 +1,596 @@
+/**
+ * OdfPackageWriter.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Class to write a new (target-language) OpenDocument package (a ZIP file)
+ * based on an existing (original) one. Entries that don't change between
+ * the original and the new package are copied "raw"--i.e. their compressed
+ * bytes are copied as-is, without being inflated and deflated again. New
+ * entries (content.xml, for example) are deflated as they are written, so
+ * their content needn't exist anywhere else (in a file or in memory) first.
+ * <p>The central directory of the new package lists the entries in the
+ * order they were written. (OpenDocument requires only that the mimetype
+ * entry be first.) ZIP64 packages are not supported.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+public class OdfPackageWriter {
+
+    private static final int BLKSIZE = 8192;
+
+    // ZIP signatures and (fixed) header lengths
+    private static final int LOC_SIG = 0x04034b50;    // Local file header
+    private static final int CEN_SIG = 0x02014b50;    // Central directory header
+    private static final int END_SIG = 0x06054b50;    // End of central directory
+    private static final int EXT_SIG = 0x08074b50;    // Data descriptor
+    private static final int LOC_HDR = 30;
+    private static final int CEN_HDR = 46;
+    private static final int END_HDR = 22;
+
+    private static final int FLAG_DESCRIPTOR = 0x0008; // Sizes follow the data
+    private static final int FLAG_UTF8 = 0x0800;       // Name is UTF-8
+
+    private String outFileName;          // The new package
+    private RandomAccessFile orig;       // The original package
+
+    // Central directory records of the original package, keyed by entry
+    // name, in their original order.
+    private LinkedHashMap<String,byte[]> origCentral
+            = new LinkedHashMap<String,byte[]>();
+
+    // Central directory records of the entries written so far (keyed and
+    // ordered likewise).
+    private LinkedHashMap<String,byte[]> newCentral
+            = new LinkedHashMap<String,byte[]>();
+
+    private OutputStream out;            // To the new package
+    private long outPos = 0;             // Offset of next byte written to out
+    private EntryOutputStream curEntry = null;  // Entry being deflated (if any)
+    private byte[] copyBuf = new byte[BLKSIZE];
+
+    /**
+     * Create a writer to a new package, reading the central directory of
+     * the original package from which some of its entries will be copied.
+     * @param outFileName The name of the new package
+     * @param origFileName The name of the original package
+     * @throws java.io.IOException
+     *         If the original package can't be read, isn't a ZIP file, or
+     *         the new package can't be created.
+     */
+    public OdfPackageWriter(String outFileName, String origFileName)
+            throws IOException {
+        this.outFileName = outFileName;
+        orig = new RandomAccessFile(origFileName, "r");
+        try {
+            readOrigCentral(origFileName);
+            out = new BufferedOutputStream(new FileOutputStream(outFileName),
+                    8 * BLKSIZE);
+        }
+        catch(IOException e) {
+            orig.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copy (raw, without inflating or deflating it) the named entry from
+     * the original package to the new one.
+     * @param name The name of the entry (e.g. Pictures/1000000001.png)
+     * @throws java.io.IOException
+     *         If the original has no such entry or an I/O error occurs.
+     */
+    public void copyEntry(String name) throws IOException {
+        checkNoOpenEntry();
+        byte[] cen = origCentral.get(name);
+        if (cen == null) {
+            throw new FileNotFoundException(name + " not found in original package");
+        }
+        long csize = getInt(cen, 20);
+        long locOffset = getInt(cen, 42);
+
+        // Find where the data starts (the local header's name and extra
+        // fields may differ in length from those in the central directory)
+        byte[] loc = new byte[LOC_HDR];
+        orig.seek(locOffset);
+        orig.readFully(loc);
+        if (getInt(loc, 0) != LOC_SIG) {
+            throw new ZipException("Invalid local header for " + name
+                    + " in original package");
+        }
+        int locExtraLen = getShort(loc, 28);
+        byte[] locExtra = new byte[locExtraLen];
+        orig.skipBytes(getShort(loc, 26));
+        orig.readFully(locExtra);
+
+        // The new local header gets the sizes and CRC from the central
+        // directory, so there won't be a data descriptor after the data.
+        byte[] nameBytes = new byte[getShort(cen, 28)];
+        System.arraycopy(cen, CEN_HDR, nameBytes, 0, nameBytes.length);
+        long newOffset = outPos;
+        int flags = getShort(cen, 8) & ~FLAG_DESCRIPTOR;
+        writeLocalHeader(getShort(cen, 6), flags, getShort(cen, 10),
+                (int)getInt(cen, 12), getInt(cen, 16), csize, getInt(cen, 24),
+                nameBytes, locExtra);
+
+        long remaining = csize;
+        while (remaining > 0) {
+            int n = orig.read(copyBuf, 0, (int)Math.min(copyBuf.length, remaining));
+            if (n < 0) {
+                throw new EOFException("Unexpected end of original package"
+                        + " while copying " + name);
+            }
+            write(copyBuf, 0, n);
+            remaining -= n;
+        }
+
+        byte[] newCen = cen.clone();
+        putShort(newCen, 8, flags);
+        putInt(newCen, 42, newOffset);
+        newCentral.put(name, newCen);
+    }
+
+    /**
+     * Begin a new (deflated) entry in the new package. Write the entry's
+     * (uncompressed) content to the returned stream, then close the stream
+     * to complete the entry. Only one entry can be open at a time.
+     * @param name The name of the new entry
+     * @return The stream to which to write the entry's content.
+     * @throws java.io.IOException
+     *         If another entry is still open or an I/O error occurs.
+     */
+    public OutputStream openEntry(String name) throws IOException {
+        checkNoOpenEntry();
+        byte[] nameBytes = name.getBytes("UTF-8");
+        int flags = FLAG_DESCRIPTOR | (isAscii(name) ? 0 : FLAG_UTF8);
+        long offset = outPos;
+        int dosTime = dosTime(System.currentTimeMillis());
+        writeLocalHeader(20, flags, ZipEntry.DEFLATED, dosTime, 0, 0, 0,
+                nameBytes, new byte[0]);
+        curEntry = new EntryOutputStream(name, nameBytes, flags, dosTime, offset);
+        return curEntry;
+    }
+
+    /**
+     * Write a new uncompressed (stored) entry to the new package. (The
+     * mimetype entry of an OpenDocument package must be stored.)
+     * @param name The name of the new entry
+     * @param content The entry's content
+     * @throws java.io.IOException
+     *         If an entry is still open or an I/O error occurs.
+     */
+    public void writeStoredEntry(String name, byte[] content) throws IOException {
+        checkNoOpenEntry();
+        byte[] nameBytes = name.getBytes("UTF-8");
+        int flags = isAscii(name) ? 0 : FLAG_UTF8;
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        long offset = outPos;
+        int dosTime = dosTime(System.currentTimeMillis());
+        writeLocalHeader(10, flags, ZipEntry.STORED, dosTime, crc.getValue(),
+                content.length, content.length, nameBytes, new byte[0]);
+        write(content, 0, content.length);
+        addCentral(name, nameBytes, 10, flags, ZipEntry.STORED, dosTime,
+                crc.getValue(), content.length, content.length, offset);
+    }
+
+    /**
+     * Does the original package have an entry with the specified name?
+     * @param name The entry name
+     * @return true if it does, else false
+     */
+    public boolean hasOriginalEntry(String name) {
+        return origCentral.containsKey(name);
+    }
+
+    /**
+     * Return the names of the original package's entries (in the order
+     * listed in its central directory).
+     * @return The entry names
+     */
+    public List<String> getOriginalEntryNames() {
+        return new ArrayList<String>(origCentral.keySet());
+    }
+
+    /**
+     * Has an entry with the specified name been written (and completed) in
+     * the new package?
+     * @param name The entry name
+     * @return true if it has, else false
+     */
+    public boolean hasEntry(String name) {
+        return newCentral.containsKey(name);
+    }
+
+    /**
+     * Omit a completed entry from the new package's central directory. (Its
+     * bytes remain in the file, but readers of the package won't see it.)
+     * This permits the entry to be written again--from a different source.
+     * @param name The name of the entry to discard.
+     */
+    public void discardEntry(String name) {
+        newCentral.remove(name);
+    }
+
+    /**
+     * Open a completed entry of the new package for reading (to check that
+     * the content just written is well-formed, for example).
+     * @param name The entry name
+     * @return A stream from which to read the entry's uncompressed content.
+     * @throws java.io.IOException
+     *         If no such entry has been written or an I/O error occurs.
+     */
+    public InputStream getInputStream(String name) throws IOException {
+        byte[] cen = newCentral.get(name);
+        if (cen == null) {
+            throw new FileNotFoundException(name + " not found in " + outFileName);
+        }
+        out.flush();     // So we can read what we've written
+        InputStream in = new EntryInputStream(getInt(cen, 42), getInt(cen, 20));
+        if (getShort(cen, 10) == ZipEntry.DEFLATED) {
+            // The stream doesn't end an Inflater it was given; we must.
+            final Inflater inflater = new Inflater(true);
+            in = new InflaterInputStream(in, inflater, BLKSIZE) {
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    }
+                    finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+        return in;
+    }
+
+    /**
+     * Return the name of the new package
+     * @return The new package's file name
+     */
+    public String getName() {
+        return outFileName;
+    }
+
+    /**
+     * Write the new package's central directory and close both packages.
+     * @throws java.io.IOException
+     *         If an entry is still open or an I/O error occurs.
+     */
+    public void close() throws IOException {
+        try {
+            checkNoOpenEntry();
+            long cenOffset = outPos;
+            for (byte[] cen : newCentral.values()) {
+                write(cen, 0, cen.length);
+            }
+            byte[] end = new byte[END_HDR];
+            putInt(end, 0, END_SIG);
+            putShort(end, 8, newCentral.size());
+            putShort(end, 10, newCentral.size());
+            putInt(end, 12, outPos - cenOffset);
+            putInt(end, 16, cenOffset);
+            write(end, 0, end.length);
+        }
+        finally {
+            out.close();
+            orig.close();
+        }
+    }
+
+    /**
+     * Close both packages and delete the (incomplete) new package. (Used
+     * after something has gone wrong.)
+     */
+    public void abandon() {
+        if (curEntry != null) {
+            curEntry.discard();
+            curEntry = null;
+        }
+        try { out.close(); } catch(IOException e) {}
+        try { orig.close(); } catch(IOException e) {}
+        new File(outFileName).delete();
+    }
+
+    /**
+     * Read the original package's central directory into origCentral
+     */
+    private void readOrigCentral(String origFileName) throws IOException {
+        // The end of central directory record is the last thing in the file
+        // (unless followed by a ZIP comment of up to 64K).
+        long len = orig.length();
+        int tailLen = (int)Math.min(len, END_HDR + 0xffff);
+        byte[] tail = new byte[tailLen];
+        orig.seek(len - tailLen);
+        orig.readFully(tail);
+        int end = tailLen - END_HDR;
+        while (end >= 0 && getInt(tail, end) != END_SIG) {
+            end--;
+        }
+        if (end < 0) {
+            throw new ZipException(origFileName + " is not a ZIP file");
+        }
+
+        int numEntries = getShort(tail, end + 10);
+        long cenSize = getInt(tail, end + 12);
+        long cenOffset = getInt(tail, end + 16);
+        if (numEntries == 0xffff || cenSize == 0xffffffffL
+                || cenOffset == 0xffffffffL) {
+            throw new ZipException(origFileName + " is a ZIP64 file (unsupported)");
+        }
+
+        byte[] cenDir = new byte[(int)cenSize];
+        orig.seek(cenOffset);
+        orig.readFully(cenDir);
+
+        int pos = 0;
+        for (int i = 0; i < numEntries; i++) {
+            if (pos + CEN_HDR > cenDir.length || getInt(cenDir, pos) != CEN_SIG) {
+                throw new ZipException("Invalid central directory in " + origFileName);
+            }
+            int nameLen = getShort(cenDir, pos + 28);
+            int cenLen = CEN_HDR + nameLen + getShort(cenDir, pos + 30)
+                    + getShort(cenDir, pos + 32);
+            if (getInt(cenDir, pos + 20) == 0xffffffffL
+                    || getInt(cenDir, pos + 42) == 0xffffffffL) {
+                throw new ZipException(origFileName + " is a ZIP64 file (unsupported)");
+            }
+            String name = new String(cenDir, pos + CEN_HDR, nameLen, "UTF-8");
+            byte[] cen = new byte[cenLen];
+            System.arraycopy(cenDir, pos, cen, 0, cenLen);
+            origCentral.put(name, cen);
+            pos += cenLen;
+        }
+    }
+
+    /**
+     * Write a local file header to the new package.
+     */
+    private void writeLocalHeader(int version, int flags, int method,
+            int dosTime, long crc, long csize, long size, byte[] nameBytes,
+            byte[] extra) throws IOException {
+        byte[] loc = new byte[LOC_HDR];
+        putInt(loc, 0, LOC_SIG);
+        putShort(loc, 4, version);
+        putShort(loc, 6, flags);
+        putShort(loc, 8, method);
+        putInt(loc, 10, dosTime);
+        putInt(loc, 14, crc);
+        putInt(loc, 18, csize);
+        putInt(loc, 22, size);
+        putShort(loc, 26, nameBytes.length);
+        putShort(loc, 28, extra.length);
+        write(loc, 0, loc.length);
+        write(nameBytes, 0, nameBytes.length);
+        write(extra, 0, extra.length);
+    }
+
+    /**
+     * Add a central directory record for an entry written to the new package.
+     */
+    private void addCentral(String name, byte[] nameBytes, int version,
+            int flags, int method, int dosTime, long crc, long csize,
+            long size, long offset) {
+        byte[] cen = new byte[CEN_HDR + nameBytes.length];
+        putInt(cen, 0, CEN_SIG);
+        putShort(cen, 4, version);
+        putShort(cen, 6, version);
+        putShort(cen, 8, flags);
+        putShort(cen, 10, method);
+        putInt(cen, 12, dosTime);
+        putInt(cen, 16, crc);
+        putInt(cen, 20, csize);
+        putInt(cen, 24, size);
+        putShort(cen, 28, nameBytes.length);
+        putInt(cen, 42, offset);
+        System.arraycopy(nameBytes, 0, cen, CEN_HDR, nameBytes.length);
+        newCentral.put(name, cen);
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        outPos += len;
+    }
+
+    private void checkNoOpenEntry() throws IOException {
+        if (curEntry != null) {
+            throw new IOException("Entry " + curEntry.name + " is still open");
+        }
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Convert a Java time to an MS-DOS date (high 16 bits) and time.
+     */
+    private static int dosTime(long time) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(time);
+        int year = cal.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);    // 1/1/1980
+        }
+        return ((year - 1980) << 25) | ((cal.get(Calendar.MONTH) + 1) << 21)
+            | (cal.get(Calendar.DAY_OF_MONTH) << 16)
+            | (cal.get(Calendar.HOUR_OF_DAY) << 11)
+            | (cal.get(Calendar.MINUTE) << 5) | (cal.get(Calendar.SECOND) >> 1);
+    }
+
+    private static int getShort(byte[] b, int off) {
+        return (b[off] & 0xff) | ((b[off+1] & 0xff) << 8);
+    }
+
+    private static long getInt(byte[] b, int off) {
+        return (getShort(b, off) | ((long)getShort(b, off+2) << 16)) & 0xffffffffL;
+    }
+
+    private static void putShort(byte[] b, int off, int v) {
+        b[off] = (byte)v;
+        b[off+1] = (byte)(v >>> 8);
+    }
+
+    private static void putInt(byte[] b, int off, long v) {
+        putShort(b, off, (int)(v & 0xffff));
+        putShort(b, off+2, (int)((v >>> 16) & 0xffff));
+    }
+
+    /**
+     * Stream that deflates the content of a new entry into the package,
+     * then (when closed) writes the entry's data descriptor.
+     */
+    private class EntryOutputStream extends OutputStream {
+        private String name;
+        private byte[] nameBytes;
+        private int flags;
+        private int dosTime;
+        private long offset;            // Of the entry's local header
+        private long dataStart;         // Of the entry's deflated data
+        private long size = 0;          // Uncompressed bytes written so far
+        private CRC32 crc = new CRC32();
+        private Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private byte[] deflateBuf = new byte[BLKSIZE];
+        private byte[] oneByte = new byte[1];
+        private boolean closed = false;
+
+        EntryOutputStream(String name, byte[] nameBytes, int flags,
+                int dosTime, long offset) {
+            this.name = name;
+            this.nameBytes = nameBytes;
+            this.flags = flags;
+            this.dosTime = dosTime;
+            this.offset = offset;
+            this.dataStart = outPos;
+        }
+
+        public void write(int b) throws IOException {
+            oneByte[0] = (byte)b;
+            write(oneByte, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Entry " + name + " is closed");
+            }
+            crc.update(b, off, len);
+            size += len;
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                deflate();
+            }
+        }
+
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate();
+            }
+            deflater.end();
+
+            long csize = outPos - dataStart;
+            byte[] ext = new byte[16];
+            putInt(ext, 0, EXT_SIG);
+            putInt(ext, 4, crc.getValue());
+            putInt(ext, 8, csize);
+            putInt(ext, 12, size);
+            OdfPackageWriter.this.write(ext, 0, ext.length);
+
+            addCentral(name, nameBytes, 20, flags, ZipEntry.DEFLATED, dosTime,
+                    crc.getValue(), csize, size, offset);
+            curEntry = null;
+        }
+
+        /**
+         * Close the entry without finishing it, releasing the Deflater's
+         * native memory. (Used by abandon.)
+         */
+        void discard() {
+            closed = true;
+            deflater.end();
+        }
+
+        private void deflate() throws IOException {
+            int n = deflater.deflate(deflateBuf, 0, deflateBuf.length);
+            if (n > 0) {
+                OdfPackageWriter.this.write(deflateBuf, 0, n);
+            }
+        }
+    }
+
+    /**
+     * Stream that reads the (compressed) data of an entry already written
+     * to the new package.
+     */
+    private class EntryInputStream extends InputStream {
+        private RandomAccessFile in;
+        private long remaining;
+
+        EntryInputStream(long locOffset, long csize) throws IOException {
+            in = new RandomAccessFile(outFileName, "r");
+            
+            // Skip the local header (whose extra field can differ in length
+            // from the central directory's)
+            byte[] loc = new byte[LOC_HDR];
+            in.seek(locOffset);
+            in.readFully(loc);
+            in.seek(locOffset + LOC_HDR + getShort(loc, 26) + getShort(loc, 28));
+            remaining = csize;
+        }
+
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return in.read();
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int)Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * OutputSink.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+
+/**
+ * The writer to which importers write their XLIFF, (intermediate) skeleton
+ * and format files. An OutputSink collects the characters written to it in a
+ * large buffer and encodes them as UTF-8 in bulk, so that an import results
+ * in a handful of large writes to the file rather than one small write per
+ * element or TU. It also counts the bytes it has written.
+ * <p>The buffer is written only when it fills, when the sink is flushed (at
+ * a checkpoint--the end of the document, for example) and when the sink is
+ * closed. For troubleshooting (to watch the output files grow as a document
+ * is imported, or to see how far an import got before failing), set the
+ * system property file2xliff4j.flushEveryWrite to true; each sink created
+ * afterwards then flushes after every write.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+public class OutputSink extends Writer {
+
+    /**
+     * The system property that (if "true") makes sinks flush after every
+     * write.
+     */
+    public static final String FLUSH_EVERY_WRITE_PROPERTY = "file2xliff4j.flushEveryWrite";
+
+    /** Size (in chars) of the buffer */
+    private static final int BUFFER_SIZE = 65536;
+
+    private OutputStream out;           // Where the bytes go
+    private CharsetEncoder encoder;     // UTF-8 encoder
+    private CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private long bytesWritten = 0;      // Bytes written to out so far
+    private boolean flushEveryWrite;    // Debugging switch
+    private boolean closed = false;
+
+    /**
+     * Create a sink that writes UTF-8 to an output stream.
+     * @param out The stream to write to
+     */
+    public OutputSink(OutputStream out) {
+        this.out = out;
+        this.encoder = Charset.forName("UTF-8").newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.flushEveryWrite = Boolean.getBoolean(FLUSH_EVERY_WRITE_PROPERTY);
+    }
+
+    /**
+     * Create a sink that writes UTF-8 to the named file.
+     * @param fileName The name of the file to (create and) write
+     * @throws java.io.FileNotFoundException
+     *         If the file can't be created.
+     */
+    public OutputSink(String fileName) throws FileNotFoundException {
+        this(new FileOutputStream(fileName));
+    }
+
+    /**
+     * Write a portion of an array of characters.
+     * @param cbuf The array of characters
+     * @param off Offset from which to start writing characters
+     * @param len Number of characters to write
+     * @throws java.io.IOException
+     *         If an I/O error occurs.
+     */
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, chars.remaining());
+            chars.put(cbuf, off, n);
+            off += n;
+            len -= n;
+            if (!chars.hasRemaining()) {
+                encodeChars(false);
+            }
+        }
+        if (flushEveryWrite) {
+            flush();
+        }
+    }
+
+    /**
+     * Write a portion of a string.
+     * @param str The string
+     * @param off Offset from which to start writing characters
+     * @param len Number of characters to write
+     * @throws java.io.IOException
+     *         If an I/O error occurs.
+     */
+    public void write(String str, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, chars.remaining());
+            chars.put(str, off, off + n);
+            off += n;
+            len -= n;
+            if (!chars.hasRemaining()) {
+                encodeChars(false);
+            }
+        }
+        if (flushEveryWrite) {
+            flush();
+        }
+    }
+
+    /**
+     * Write a single character.
+     * @param c The character to write
+     * @throws java.io.IOException
+     *         If an I/O error occurs.
+     */
+    public void write(int c) throws IOException {
+        ensureOpen();
+        chars.put((char)c);
+        if (!chars.hasRemaining()) {
+            encodeChars(false);
+        }
+        if (flushEveryWrite) {
+            flush();
+        }
+    }
+
+    /**
+     * Checkpoint: write everything written so far to the output stream and
+     * flush it. (A high surrogate at the very end is held back until its low
+     * surrogate is written.)
+     * @throws java.io.IOException
+     *         If an I/O error occurs.
+     */
+    public void flush() throws IOException {
+        ensureOpen();
+        encodeChars(false);
+        writeBytes();
+        out.flush();
+    }
+
+    /**
+     * Write everything written so far, and close the output stream. (Closing
+     * a closed sink has no effect.)
+     * @throws java.io.IOException
+     *         If an I/O error occurs.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            encodeChars(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                writeBytes();
+            }
+            writeBytes();
+        }
+        finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    /**
+     * Return the number of bytes written to the output stream so far. (After
+     * a flush or close, this is the size of the output.)
+     * @return The number of bytes written
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Encode the characters in the char buffer into the byte buffer,
+     * writing the byte buffer to the output stream whenever it fills.
+     * @param endOfInput Whether no more characters will be written
+     * @throws java.io.IOException
+     *         If an I/O error occurs.
+     */
+    private void encodeChars(boolean endOfInput) throws IOException {
+        chars.flip();
+        while (encoder.encode(chars, bytes, endOfInput).isOverflow()) {
+            writeBytes();
+        }
+        chars.compact();     // Keeps a trailing high surrogate (if any)
+    }
+
+    /**
+     * Write the contents of the byte buffer to the output stream.
+     * @throws java.io.IOException
+     *         If an I/O error occurs.
+     */
+    private void writeBytes() throws IOException {
+        if (bytes.position() > 0) {
+            out.write(bytes.array(), 0, bytes.position());
+            bytesWritten += bytes.position();
+            bytes.clear();
+        }
+    }
+
+    /** Throw an exception if the sink has been closed */
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Output sink closed");
+        }
+    }
+}
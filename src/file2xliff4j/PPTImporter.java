@@ -272,6 +272,9 @@ public class PPTImporter extends OOoTextImporter implements Converter {
      * @return An Object that represents the property's value.
      */
     public Object getConversionProperty(String property) {
+        if (property.equals(ImportStatistics.PROPERTY)) {
+            return statistics;
+        }
         return null;
     }
 
@@ -288,8 +291,10 @@ public class PPTImporter extends OOoTextImporter implements Converter {
    /**
      * Set a format-specific property that might affect the way that the
      * conversion occurs.
-     * <p><i>Note:</i> This converter needs no format-specific properties.
-     * If any are passed, they will be silently ignored.
+     * <p>The properties recognized are RepetitionIndex.PROPERTY (to mark
+     * repeated segments), ImportStatistics.PROPERTY (to keep statistics
+     * of the TUs written) and SrxSegmenter.PROPERTY (to segment with the
+     * rules of an SRX file). Others will be silently ignored.
      * @param property The name of the property
      * @param value The value of the property
      * @throws file2xliff4j.ConversionException
@@ -297,6 +302,15 @@ public class PPTImporter extends OOoTextImporter implements Converter {
      */
     public void setConversionProperty(String property, Object value)
             throws ConversionException {
+        if (property.equals(RepetitionIndex.PROPERTY)) {
+            repetitions = RepetitionIndex.forProperty(value);
+        }
+        else if (property.equals(ImportStatistics.PROPERTY)) {
+            keepStatistics = ImportStatistics.isEnabled(value);
+        }
+        else if (property.equals(SrxSegmenter.PROPERTY)) {
+            srxSegmenter = SrxSegmenter.forProperty(value);
+        }
         return;
     }
     
@@ -59,9 +59,9 @@ public class PdfHandler extends DefaultHandler {
     private HashSet<String> tuAttrs = new HashSet<String>();
     
     private Set<String> tuDelims;           // Tags that signal TU break
-    private OutputStreamWriter outXliff;    // Where to write XLIFF
-    private OutputStreamWriter outSkeleton;   // Where to write Target file
-    private OutputStreamWriter outFormat;   // Where to write Format file
+    private Writer outXliff;    // Where to write XLIFF
+    private Writer outSkeleton;   // Where to write Target file
+    private Writer outFormat;   // Where to write Format file
     private Locale sourceLang;              // Natural language of original
     private String docType;                 // Should be HTML
     private String originalFileName;        // For <file>'s "original" attribute
@@ -71,6 +71,15 @@ public class PdfHandler extends DefaultHandler {
     
     private SegmentBoundary boundaryType;
     
+    // If non-null, the index in which to look up repeated segments
+    private RepetitionIndex repetitions = null;
+
+    // If non-null, the segmenter to use for SRX segment boundaries
+    private SrxSegmenter srxSegmenter = null;
+    
+    // If non-null, the statistics to which to add each TU written
+    private ImportStatistics statistics = null;
+    
     // Counters to store the current bx/ex reference IDs for the formatting tags:
     private int aRid = 1;                   // <a>
     private int bRid = 1;                   // <b>
@@ -118,8 +127,8 @@ public class PdfHandler extends DefaultHandler {
      * @param originalFileName The original file's name (required as an attribute
      *        in the "file" element)
      */
-    public PdfHandler(Set<String> tuTags, OutputStreamWriter outXliff, 
-            OutputStreamWriter outSkeleton, OutputStreamWriter outFormat,
+    public PdfHandler(Set<String> tuTags, Writer outXliff, 
+            Writer outSkeleton, Writer outFormat,
             Locale sourceLang, String docType, String originalFileName,
             SegmentBoundary boundary) {
         
@@ -138,6 +147,33 @@ public class PdfHandler extends DefaultHandler {
         initHashes();                       // Hashes tell what to skip and not.
     }
 
+    /**
+     * Set the index in which to look up the core text of each TU written,
+     * so that repeated segments are marked as such. (If null, they aren't.)
+     * @param repetitions The repetition index
+     */
+    public void setRepetitionIndex(RepetitionIndex repetitions) {
+        this.repetitions = repetitions;
+    }
+
+    /**
+     * Set the segmenter to use for SRX segment boundaries. (If null, the
+     * default SRX segmenter is used.)
+     * @param srxSegmenter The SRX segmenter
+     */
+    public void setSrxSegmenter(SrxSegmenter srxSegmenter) {
+        this.srxSegmenter = srxSegmenter;
+    }
+
+    /**
+     * Set the statistics to which to add the core text of each TU written.
+     * (If null, no statistics are kept.)
+     * @param statistics The statistics
+     */
+    public void setStatistics(ImportStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     /**
      * Method called by SAX parser at the beginning of document parsing.
      */
@@ -165,7 +201,6 @@ public class PdfHandler extends DefaultHandler {
             }
             
             outXliff.write(">\r\n" + indent('0') + "</header>\r\n" + indent('0') + "<body>\r\n");
-            outXliff.flush();
 
         }
         catch(IOException e) {
@@ -177,7 +212,6 @@ public class PdfHandler extends DefaultHandler {
         try {
             outFormat.write("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\r\n");
             outFormat.write("<tags formatting='&lt;'>\r\n");
-            outFormat.flush();
         }
         catch(IOException e) {
             System.err.println("Error writing format file's declaration and preliminaries.");
@@ -233,7 +267,6 @@ public class PdfHandler extends DefaultHandler {
                     outSkeleton.write("'"); 
                 }
                 outSkeleton.write(">\r\n");
-                outSkeleton.flush();
             }
             catch(IOException e) {
                 System.err.println("Error while writing skeleton file.");
@@ -318,7 +351,6 @@ public class PdfHandler extends DefaultHandler {
                 
                 // Then close the tag
                 outFormat.write("></tag>\r\n");
-                outFormat.flush();
             }
             catch(IOException e) {
                 System.err.println("Error writing " + elementName + " start tag (id "
@@ -475,7 +507,6 @@ public class PdfHandler extends DefaultHandler {
         if (!formatCtype.containsKey(elementName.toLowerCase())) {
             try {
                 outSkeleton.write("</" + elementName + " seq='" + curTagNum++ + "'>\r\n");
-                outSkeleton.flush();
             }
             catch(IOException e) {
                 System.err.println("Error while writing skeleton file.");
@@ -513,7 +544,6 @@ public class PdfHandler extends DefaultHandler {
                 try {
                     outFormat.write("  <tag id='" + bxExId + "'>/"
                             + elementName + "></tag>\r\n");
-                    outFormat.flush();
                 }
                 catch(IOException e) {
                     System.err.println("Error writing " + elementName + " start tag (id "
@@ -723,7 +753,7 @@ public class PdfHandler extends DefaultHandler {
         
         // Get the core segments:
         SegmentInfo[] coreTus = TuPreener.getCoreSegments(candidateTu.toString(), 
-                this.boundaryType, this.sourceLang);
+                this.boundaryType, this.sourceLang, false, false, srxSegmenter);
         
         // UUID for the first (or possibly *only*) segment:
         UUID curTuID = UUID.randomUUID();
@@ -759,7 +789,6 @@ public class PdfHandler extends DefaultHandler {
                     outSkeleton.write("<tu id='" + curTuID.toString() + "' length='" 
                         + (coreSeg.length() - (TuPreener.CORE_START_MRK + TuPreener.CORE_END_MRK).length()) 
                         + "' " + "no='" + (i+1) + "' of='" + coreTus.length + "'>\r\n");
-                    outSkeleton.flush();
                 }
                 catch(IOException e) {
                     System.err.println("Error while writing skeleton file.");
@@ -771,13 +800,11 @@ public class PdfHandler extends DefaultHandler {
                     outFormat.write("  <tag id='" + bxExId + "'>");
                     outFormat.write(coreTus[i].getSegmentStr());
                     outFormat.write("</tag>\r\n");
-                    outFormat.flush();
 
                     // and a reference to it in tskeleton
                     outSkeleton.write("<format id='" + bxExId + "' length='" 
                         + (coreTus[i].getSegmentStr().length()) + "' "
                         + "no='" + (i+1) + "' of='" + coreTus.length + "'>\r\n");
-                    outSkeleton.flush();
                     bxExId++;
                 }
                 catch(IOException e) {
@@ -822,7 +849,7 @@ public class PdfHandler extends DefaultHandler {
         
         // Get the core segments:
         SegmentInfo[] coreTus = TuPreener.getCoreSegments(candidateTuStr, 
-                this.boundaryType, this.sourceLang);
+                this.boundaryType, this.sourceLang, false, false, srxSegmenter);
 
         // UUID for the first (or possibly *only*) segment:
         UUID xid = UUID.randomUUID();
@@ -835,7 +862,6 @@ public class PdfHandler extends DefaultHandler {
                 try {
                     outSkeleton.write("<attr name='" + attrName + "' tag='" 
                         + parentElement + "'>\r\n");
-                    outSkeleton.flush();
                 }
                 catch(IOException e) {
                     System.err.println("Error while writing skeleton file.");
@@ -875,12 +901,10 @@ public class PdfHandler extends DefaultHandler {
                 try {
                     // Write placeholder in format file. (No need for anything in skel)
                     outFormat.write("<lt:tu id='" + xid.toString() + "'/>\"");
-                    outFormat.flush();
 
                     outSkeleton.write("<tu id='" + xid.toString() + "' length='" 
                         + (coreSeg.length() - (TuPreener.CORE_START_MRK + TuPreener.CORE_END_MRK).length()) 
                         + "' " + "no='" + (i+1) + "' of='" + coreTus.length + "'>\r\n");
-                    outSkeleton.flush();
                 }
                 catch(IOException e) {
                     System.err.println("Error while writing skeleton file.");
@@ -937,6 +961,9 @@ public class PdfHandler extends DefaultHandler {
                     outXliff.write(" lt:mergeable='true'");
                 }
                 
+                outXliff.write(ImportStatistics.recordTu(tuID, coreTextOnly,
+                    repetitions, statistics));
+                
                 outXliff.write(">\r\n");
                 
                 // Open the source tag
@@ -951,7 +978,6 @@ public class PdfHandler extends DefaultHandler {
                 // Close the trans-unit element
                 outXliff.write(indent('-') + "</trans-unit>\r\n");
                 
-                outXliff.flush();  // For debugging ... at least.
             }
             catch(IOException e) {
                 System.err.println("Error writing translation-unit characters to the XLIFF file.");
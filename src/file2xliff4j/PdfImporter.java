@@ -55,6 +55,18 @@ public class PdfImporter extends DefaultHandler implements Converter {
     private String ownerPW;       // Master password
     private String userPW;        // User password
     
+    // If non-null, the index in which to look up repeated segments
+    private RepetitionIndex repetitions = null;
+
+    // If non-null, the segmenter to use for SRX segment boundaries (instead
+    // of the default)
+    private SrxSegmenter srxSegmenter = null;
+    
+    // Set by ImportStatistics.PROPERTY: whether to keep statistics of the
+    // TUs written (in statistics, which getConversionProperty returns)
+    private boolean keepStatistics = false;
+    private ImportStatistics statistics = null;
+    
     private boolean isEncrypted = false;
     private boolean isExtractionAllowed = true;
     
@@ -132,6 +144,11 @@ public class PdfImporter extends DefaultHandler implements Converter {
             return Integer.toString(this.longestLineLength);
         }
         
+        // ... or the statistics of the TUs written
+        if (property.equals(ImportStatistics.PROPERTY)) {
+            return statistics;
+        }
+        
         return null;
     }
 
@@ -254,35 +271,30 @@ public class PdfImporter extends DefaultHandler implements Converter {
         ff.renameTo(new File(pdfFileName));
 
         // Create output stream writers for the SAX handler to write to.
-        OutputStreamWriter xliffOut = null;
-        OutputStreamWriter tskeletonOut = null;
-        OutputStreamWriter formatOut = null;
+        OutputSink xliffOut = null;
+        OutputSink tskeletonOut = null;
+        OutputSink formatOut = null;
         
         try {
-            xliffOut  = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + nativeFileName + Converter.xliffSuffix),
-                    "UTF8");
+            xliffOut  = new OutputSink(
+                    baseDir + File.separator + nativeFileName + Converter.xliffSuffix);
 //            tskeletonOut = new OutputStreamWriter(new FileOutputStream(
 //                    baseDir + File.separator + nativeFileName + Converter.tSkeletonSuffix),
 //                    "UTF8");
             // For early versions, let's write directly to the skeleton file.
-            tskeletonOut = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + nativeFileName + Converter.skeletonSuffix),
-                    "UTF8");
-            formatOut = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + nativeFileName + Converter.formatSuffix),
-                    "UTF8");
-        }
-        catch (UnsupportedEncodingException e) {
-            System.err.println("Unable to write XLIFF as UTF-8!!");
-            System.err.println(e.getMessage());
-            throw new ConversionException("Unable to write XLIFF as UTF-8: " + e.getMessage());
+            tskeletonOut = new OutputSink(
+                    baseDir + File.separator + nativeFileName + Converter.skeletonSuffix);
+            formatOut = new OutputSink(
+                    baseDir + File.separator + nativeFileName + Converter.formatSuffix);
         }
         catch (FileNotFoundException e) {
             System.err.println(e.getMessage());
             throw new ConversionException(e.getMessage());
         }
         
+        // If requested, keep statistics of the TUs as they are written
+        statistics = ImportStatistics.forImport(keepStatistics, baseDir, nativeFileName);
+        
         XMLReader parser = null;
         Charset headerEncoding = null;
         
@@ -293,6 +305,9 @@ public class PdfImporter extends DefaultHandler implements Converter {
             PdfHandler handler = new PdfHandler(tuBreakTags, xliffOut, 
                     tskeletonOut, formatOut, language, 
                     nativeFileType.toString(), nativeFileName, boundary);
+            handler.setRepetitionIndex(repetitions);
+            handler.setSrxSegmenter(srxSegmenter);
+            handler.setStatistics(statistics);
             parser.setContentHandler(handler);
             
             // Include namespaces in the StartElement() attlist:
@@ -323,6 +338,9 @@ public class PdfImporter extends DefaultHandler implements Converter {
         try {
             /* Close the files we created above */
             xliffOut.close();
+            if (statistics != null) {
+                statistics.close();
+            }
             tskeletonOut.close();
             formatOut.close();
 
@@ -637,8 +655,11 @@ public class PdfImporter extends DefaultHandler implements Converter {
     /**
      * Set a format-specific property that might affect the way that the
      * conversion occurs.
-     * <p><i>Note:</i> This converter needs no format-specific properties.
-     * If any are passed, they will be silently ignored.
+     * <p>The properties recognized are ownerpassword and userpassword (to
+     * open an encrypted PDF), RepetitionIndex.PROPERTY (to mark repeated
+     * segments), ImportStatistics.PROPERTY (to keep statistics of the
+     * TUs written) and SrxSegmenter.PROPERTY (to segment with the rules of
+     * an SRX file). Others will be silently ignored.
      * @param property The name of the property
      * @param value The value of the property
      * @throws file2xliff4j.ConversionException
@@ -660,6 +681,21 @@ public class PdfImporter extends DefaultHandler implements Converter {
                 this.userPW = value.toString();
             }
         }
+        
+        // ... or the repetition index ...
+        else if (property.equals(RepetitionIndex.PROPERTY)) {
+            repetitions = RepetitionIndex.forProperty(value);
+        }
+        
+        // ... or whether to keep statistics ...
+        else if (property.equals(ImportStatistics.PROPERTY)) {
+            keepStatistics = ImportStatistics.isEnabled(value);
+        }
+        
+        // ... or the SRX rules to segment with.
+        else if (property.equals(SrxSegmenter.PROPERTY)) {
+            srxSegmenter = SrxSegmenter.forProperty(value);
+        }
         return;
     }
 
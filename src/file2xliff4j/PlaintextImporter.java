@@ -42,8 +42,8 @@ import java.util.regex.*;
  */
 public class PlaintextImporter implements Converter {
 
-    private OutputStreamWriter xliffOut;
-    private OutputStreamWriter skeletonOut;
+    private OutputSink xliffOut;
+    private OutputSink skeletonOut;
     private Locale sourceLanguage;         // For the source-language attribute
     private final String dataType = "plaintext";  // For the datatype attribute
     private String originalFileName;       // For the original attribute
@@ -53,43 +53,21 @@ public class PlaintextImporter implements Converter {
     
     private SegmentBoundary boundaryType;
     
-    // Space characters that might appear at the end of a line. (We omit
-    // non-breaking spaces, etc., since by definition, then won't appear
-    // at the end of a line.) When these appear at the end of a line, we
-    // don't add a space at the end when joining to the next line.
-    private final String SPACE_CHAR = 
-            "\\u0020"  // "Standard" space 
-          + "\\u2003"  // Em space
-          + "\\u3000"  // Ideographic space
-          + "\\u2002"  // En space
-          + "\\u2007"  // Figure space
-          + "\\u2004"  // Three-per-em space
-          + "\\u2005"  // Four-per-em space
-          + "\\u2006"  // Six-per-em space
-          + "\\u2009"  // Thin space
-          + "\\u205F"  // Medium mathematical space
-          + "\\u2008"  // Punctuation space
-          + "\\u200A"  // Hair space
-          + "\\u200B"; // Zero width space
+    // If non-null, the index in which to look up repeated segments
+    private RepetitionIndex repetitions = null;
+
+    // If non-null, the segmenter to use for SRX segment boundaries (instead
+    // of the default)
+    private SrxSegmenter srxSegmenter = null;
     
-    // If these appear at the end of a line, we don't add a space when
-    // we join to the next line.
-    private final String DASH_HYPHEN =
-            "\\u002d"  // Hyphen-minus
-          + "\\u2010"  // Hyphen
-          + "\\u2013"  // En dash
-          + "\\u2012"  // Figure dash
-          + "\\u2212"  // Minus sign
-          + "\\u2014"  // Em dash
-          + "\\u2015"  // Horizontal bar
-          + "\\u058A"  // Armenian hyphen
-          + "\\u301C"  // Wave dash (Japanese)
-          + "\\u3030"; // Wavy dash (Japanese)
+    // Set by ImportStatistics.PROPERTY: whether to keep statistics of the
+    // TUs written (in statistics, which getConversionProperty returns)
+    private boolean keepStatistics = false;
+    private ImportStatistics statistics = null;
     
-    // If these appear at the end of a line, we can join the next line to this
-    // one without inserting another space.
-    private final Matcher dashHyphenSpaceClass 
-            = Pattern.compile("[" + SPACE_CHAR + DASH_HYPHEN + "]").matcher("");
+    // If a space or dash/hyphen (CharClassifier.isSpaceOrDash) appears at
+    // the end of a line, we can join the next line to this one without
+    // inserting another space.
     
     // Delete the next character (which appears at the end of a line) before
     // joining it with the next line.
@@ -203,28 +181,32 @@ public class PlaintextImporter implements Converter {
         // Create output stream writers for the SAX handler to write to.
         // We will store our output as UTF-8
         try {
-            xliffOut  = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + inputFileName + Converter.xliffSuffix),
-                    "UTF8");
-            skeletonOut = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + inputFileName + Converter.skeletonSuffix),
-                    "UTF8");
+            xliffOut  = new OutputSink(
+                    baseDir + File.separator + inputFileName + Converter.xliffSuffix);
+            skeletonOut = new OutputSink(
+                    baseDir + File.separator + inputFileName + Converter.skeletonSuffix);
 
             // Write out the XLIFF preliminaries
             this.writeXliffProlog();
         }
-        catch (UnsupportedEncodingException e) {
-            System.err.println("Unable to write XLIFF as UTF-8!!");
-            System.err.println(e.getMessage());
-            throw new ConversionException("Unable to write XLIFF as UTF-8: " + e.getMessage());
-        }
         catch (FileNotFoundException e) {
             System.err.println(e.getMessage());
             throw new ConversionException(e.getMessage());
         }
 
-        // sourceText holds/accumulates a paragraph as it is read from the input file.
-        StringBuilder sourceText = new StringBuilder();
+        // If requested, keep statistics of the TUs as they are written
+        statistics = ImportStatistics.forImport(keepStatistics, baseDir, inputFileName);
+        
+        // The paragraph is fed to the segmenter a line at a time, as it is
+        // read from the input file--except for its last two characters (and
+        // any soft hyphens after them), which sourceTail holds: 
+        // checkTrailingSpace examines them (and might remove a soft hyphen) 
+        // when the next line arrives.
+        StreamingSegmenter segmenter = new StreamingSegmenter(this.boundaryType,
+            this.sourceLanguage, false, true, new ParagraphSegmentWriter());
+        segmenter.setSrxSegmenter(srxSegmenter);
+        boolean inParagraph = false;
+        StringBuilder sourceTail = new StringBuilder();
 
         try {
             
@@ -247,44 +229,31 @@ public class PlaintextImporter implements Converter {
                 // definition).
                 if (curInline.trim().length() == 0) {  // A blank line
                     // If we've accumulated some characters, write some XLIFF
-                    int numTus = 0;
-                    if (sourceText.length() > 0) {
-                        numTus = this.processParagraphBuff(sourceText.toString());
-                        if (numTus > 0) {
-                            // If more than 0 TUs, then processCandidateBuff()
-                            // will have written some TU place holders to the
-                            // skeleton file. We just need to add a newline.
-                            this.writeSkeleton("\n");
-                        }
-                        else {
-                            // The accumulated source text didn't include much
-                            // meaningful (no translatable text at least). Let's
-                            // just write it to the skeleton.
-                            this.writeSkeleton(sourceText + "\n");
-                        }
+                    if (inParagraph) {
+                        this.finishParagraph(segmenter, sourceTail);
+                        inParagraph = false;
                     }
-                    sourceText.setLength(0);
                     // Now write the current input line (paragraph separator)
                     this.writeSkeleton(curInline + "\n");
                     
                 }
                 
                 // There must be something (kind of?) interesting in the line 
-                // just read. Append it to the sourceText buffer
+                // just read. Append it to the paragraph
                 else {
-                    int sourceLen = sourceText.length();
-                    if (sourceLen > 0) {
+                    int sourceLen = sourceTail.length();
+                    if (inParagraph) {
                         // Add trailing space (or remove soft hyphens) if needed
                         // --before appending the new input line to what we've
-                        // accumulated in sourceText (so far).
-                        int numToAdjust = this.checkTrailingSpace(sourceText);
+                        // accumulated (so far).
+                        int numToAdjust = this.checkTrailingSpace(sourceTail);
 
 
                         if (numToAdjust > 0) {
-                            sourceText.append(" ");
+                            sourceTail.append(" ");
                         }
                         else if (numToAdjust < 0) {
-                            sourceText.setLength(sourceLen -1);
+                            sourceTail.setLength(sourceLen -1);
                         }
 
                         // Does curInline start with a Mongolian soft hyphen?
@@ -293,28 +262,28 @@ public class PlaintextImporter implements Converter {
                         }
                     }
                         
-                    sourceText.append(curInline);
+                    sourceTail.append(curInline);
+                    inParagraph = true;
+                    
+                    // Pass all but the last two characters (before any soft
+                    // hyphens that end the text) to the segmenter
+                    int toPass = sourceTail.length();
+                    while ((toPass > 0) 
+                            && (sourceTail.charAt(toPass - 1) == END_SOFT_HYPHEN)) {
+                        toPass--;
+                    }
+                    toPass -= 2;
+                    if (toPass > 0) {
+                        segmenter.append(sourceTail, 0, toPass);
+                        sourceTail.delete(0, toPass);
+                    }
                 }
             }  // end while
 
-            // If we hit the end of file and left characters in the sourceText
-            // buffer, print them out to the XLIFF.
-            int numTus = 0;
-            if (sourceText.length() > 0) {
-                numTus = this.processParagraphBuff(sourceText.toString());
-                if (numTus > 0) {
-                    // If more than 0 TUs, then processCandidateBuff()
-                    // will have written some TU place holders to the
-                    // skeleton file. We just need to add a newline.
-                    this.writeSkeleton("\n");
-                }
-                else {
-                    // The accumulated source text didn't include much
-                    // meaningful (no translatable text at least). Let's
-                    // just write it to the skeleton.
-                    this.writeSkeleton(sourceText + "\n");
-                }
-                sourceText.setLength(0);
+            // If we hit the end of file in a paragraph, print it out to the 
+            // XLIFF.
+            if (inParagraph) {
+                this.finishParagraph(segmenter, sourceTail);
             }
         }
 
@@ -326,7 +295,17 @@ public class PlaintextImporter implements Converter {
 
         // We've finished reading the input file. Now finish writing the XLIFF file
         writeXliffEpilog();
-        
+        try {
+            xliffOut.close(); xliffOut = null;
+            if (statistics != null) {
+                statistics.close();
+            }
+            skeletonOut.close(); skeletonOut = null;
+        }
+        catch(IOException e) {
+            System.err.println("Error closing XLIFF or skeleton file: " + e.getMessage());
+        }
+
         // ... And we're done.
         return ConversionStatus.CONVERSION_SUCCEEDED;
     }
@@ -552,88 +531,111 @@ public class PlaintextImporter implements Converter {
     
     /**
      * Method called whenever an end of paragraph is encountered in a plaintext
-     * file, this method writes the segment(s) in the XLIFF.
-     * @param text A buffer full of accumulated text to process and write to
-     *             XLIFF.
+     * file, this method finishes segmenting the paragraph--whose segments
+     * the segmenter has been writing to the XLIFF (and whose placeholders it
+     * has been writing to the skeleton) as it was fed the paragraph a line at
+     * a time. (That way a very long "paragraph"--a log file with no blank 
+     * lines, for example--isn't accumulated and divided all at once.)
+     * @param segmenter The segmenter fed the paragraph (so far)
+     * @param sourceTail The end of the paragraph, not yet fed to it. (It is
+     *        cleared.)
      * @return The number of segments added to XLIFF.
      */
-    private int processParagraphBuff(String text) {
-        // candidateTu accumulates XLIFF to be written to the XLIFF file
-        StringBuilder candidateTu = new StringBuilder();
+    private int finishParagraph(StreamingSegmenter segmenter, 
+            StringBuilder sourceTail) {
+        segmenter.append(sourceTail);
+        sourceTail.setLength(0);
+        int numTus = segmenter.finish();
+        if (numTus > 0) {
+            // If more than 0 TUs, then the segmenter's handler will have
+            // written some TU place holders to the skeleton file. We just
+            // need to add a newline.
+            this.writeSkeleton("\n");
+        }
+        else {
+            // The paragraph didn't include much meaningful (no translatable
+            // text at least). Let's just write it to the skeleton.
+            this.writeSkeleton(segmenter.getUnsegmentedText() + "\n");
+        }
         
-        int numSegments = 0;
-        if (text.length() > 0) {
-            // Get the core segments:
-            SegmentInfo[] coreTus = TuPreener.getCoreSegments(text,
-                this.boundaryType, this.sourceLanguage);
-
-            UUID paraId = null;
-
-            numSegments = coreTus.length;  // We'll return this.
-            
-            boolean hasSuccessor = true;
+        return numTus;
+    }
 
-            for (int i = 0; i < coreTus.length; i++) {
-                String coreSeg = coreTus[i].getSegmentStr();
-                UUID curTuId = UUID.randomUUID();
+    /**
+     * Handler that writes each segment of a paragraph to the XLIFF (as a
+     * trans-unit) and a placeholder for it to the skeleton.
+     */
+    private class ParagraphSegmentWriter implements StreamingSegmenter.SegmentHandler {
+        // candidateTu accumulates XLIFF to be written to the XLIFF file
+        private StringBuilder candidateTu = new StringBuilder();
+        private UUID paraId = null;
+        
+        public void handleSegment(SegmentInfo segment, boolean hasSuccessor) {
+            String coreSeg = segment.getSegmentStr();
+            UUID curTuId = UUID.randomUUID();
+
+            // The paragraph ID is the UUID of the first translation
+            // unit in the paragraph.
+            boolean isFirst = (paraId == null);
+            if (isFirst) {
+                paraId = curTuId;
+            }
 
-                // The paragraph ID is the UUID of the first translation
-                // unit in the paragraph.
-                if (paraId == null) {
-                    paraId = curTuId;
-                }
+            // Because there are no well-formedness constraints, we
+            // will consider all segments mergeable with their
+            // successors (and record it in XLIFF? (Is this necessary?)
+            // We need to indicate whether this segment is "mergeable"
+            // with its successor--and record it in the XLIFF. (The last
+            // segment doesn't have a successor.)
 
-                // Because there are no well-formedness constraints, we
-                // will consider all segments mergeable with their
-                // successors (and record it in XLIFF? (Is this necessary?)
-                // We need to indicate whether this segment is "mergeable"
-                // with its successor--and record it in the XLIFF
-                if (i == (coreTus.length-1)) { // If this is the last segment ...
-                    hasSuccessor = false;      // ... it doesn't have a successor
-                }
+            String coreText = TuStrings.escapeTuString(TuPreener.getCoreText(coreSeg));
 
-                // Start a new new TU element 
-                candidateTu.append(indent(6) + "<trans-unit id='" + curTuId.toString() + "'"
-                        + " lt:paraID='" + paraId + "'");
+            // Start a new new TU element 
+            candidateTu.append(indent(6) + "<trans-unit id='" + curTuId.toString() + "'"
+                    + " lt:paraID='" + paraId + "'");
+            candidateTu.append(ImportStatistics.recordTu(curTuId, coreText,
+                repetitions, statistics));
 
-                // If this segment is mergeable, so note it:
-                if (hasSuccessor) {
-                    candidateTu.append(" lt:mergeable='true'");
-                }
+            // If this segment is mergeable, so note it:
+            if (hasSuccessor) {
+                candidateTu.append(" lt:mergeable='true'");
+            }
 
-                // Close the opening TU tag
-                candidateTu.append(">\n");
+            // Close the opening TU tag
+            candidateTu.append(">\n");
 
-                // Begin a source element as well
-                candidateTu.append(indent('+') + "<source"
-                        + " xml:lang='" + sourceLanguage.toString() + "'>");
+            // Begin a source element as well
+            candidateTu.append(indent('+') + "<source"
+                    + " xml:lang='" + sourceLanguage.toString() + "'>");
 
-                // Write the segment to the source element
-                candidateTu.append(
-                        TuStrings.escapeTuString(TuPreener.getPrefixText(coreSeg))
-                      + TuPreener.CORE_START_MRK
-                      + TuStrings.escapeTuString(TuPreener.getCoreText(coreSeg))
-                      + TuPreener.CORE_END_MRK
-                      + TuStrings.escapeTuString(TuPreener.getSuffixText(coreSeg)));
+            // Write the segment to the source element
+            candidateTu.append(
+                    TuStrings.escapeTuString(TuPreener.getPrefixText(coreSeg))
+                  + TuPreener.CORE_START_MRK
+                  + coreText
+                  + TuPreener.CORE_END_MRK
+                  + TuStrings.escapeTuString(TuPreener.getSuffixText(coreSeg)));
 
-                candidateTu.append("</source>\n");  // & close the element
+            candidateTu.append("</source>\n");  // & close the element
 
-                candidateTu.append(indent(6) + "</trans-unit>\n"); // & the TU.
+            candidateTu.append(indent(6) + "</trans-unit>\n"); // & the TU.
 
-                writeXliff(candidateTu.toString());  // Write this TU
+            writeXliff(candidateTu.toString());  // Write this TU
 
-                // Write a Tu placeholder in the skeleton file.
-                if (i > 0) {
-                    // Write a space between placeholders.
-                    writeSkeleton(" ");
-                }
-                writeSkeleton("<lTLtLT:tu id='" + curTuId + "'/>");
+            // Write a Tu placeholder in the skeleton file.
+            if (!isFirst) {
+                // Write a space between placeholders.
+                writeSkeleton(" ");
+            }
+            writeSkeleton("<lTLtLT:tu id='" + curTuId + "'/>");
 
-                candidateTu.setLength(0); // Clear out the candidateTu
-            }  // for
+            candidateTu.setLength(0); // Clear out the candidateTu
+            
+            // The next paragraph's first segment starts a new paragraph ID
+            if (!hasSuccessor) {
+                paraId = null;
+            }
         }
-        
-        return numSegments;
     }
 
     /**
@@ -664,12 +666,9 @@ public class PlaintextImporter implements Converter {
                 nextToLastChar = text.charAt(textLen-2);
             }
 
-            // Reset the precompiled matcher for dash/hyphen/space
-            dashHyphenSpaceClass.reset(Character.toString((char)lastChar));
-
             //////////////////////////////////////////////////
             // 1. Does existing buffer end with a space or dash?
-            if (dashHyphenSpaceClass.matches()) {
+            if (CharClassifier.isSpaceOrDash((char)lastChar)) {
                 needsSpace = false;     // Don't sandwich a space in between ...
             }
             // The next checks are only if the character might be 
@@ -762,6 +761,9 @@ public class PlaintextImporter implements Converter {
      * @return An Object that represents the property's value.
      */
     public Object getConversionProperty(String property) {
+        if (property.equals(ImportStatistics.PROPERTY)) {
+            return statistics;
+        }
         return null;
     }
 
@@ -835,7 +837,6 @@ public class PlaintextImporter implements Converter {
         if (text != null) {
             try {
                 skeletonOut.write(text);
-                skeletonOut.flush();    // For debugging
             }
             catch(IOException e) {
                 System.err.println("Error writing skeleton file.");
@@ -856,7 +857,6 @@ public class PlaintextImporter implements Converter {
 
         try {
             xliffOut.write(text);
-            xliffOut.flush();   // For debugging
         }
         catch(IOException e) {
             System.err.println("Error writing to XLIFF: " + e.getMessage());
@@ -866,8 +866,10 @@ public class PlaintextImporter implements Converter {
     /**
      * Set a format-specific property that might affect the way that the
      * conversion occurs.
-     * <p><i>Note:</i> This converter needs no format-specific properties.
-     * If any are passed, they will be silently ignored.
+     * <p>The properties recognized are RepetitionIndex.PROPERTY (to mark
+     * repeated segments), ImportStatistics.PROPERTY (to keep statistics
+     * of the TUs written) and SrxSegmenter.PROPERTY (to segment with the
+     * rules of an SRX file). Others will be silently ignored.
      * @param property The name of the property
      * @param value The value of the property
      * @throws file2xliff4j.ConversionException
@@ -875,6 +877,15 @@ public class PlaintextImporter implements Converter {
      */
     public void setConversionProperty(String property, Object value)
             throws ConversionException {
+        if (property.equals(RepetitionIndex.PROPERTY)) {
+            repetitions = RepetitionIndex.forProperty(value);
+        }
+        else if (property.equals(ImportStatistics.PROPERTY)) {
+            keepStatistics = ImportStatistics.isEnabled(value);
+        }
+        else if (property.equals(SrxSegmenter.PROPERTY)) {
+            srxSegmenter = SrxSegmenter.forProperty(value);
+        }
         return;
     }
     
@@ -31,7 +31,6 @@ import java.util.regex.*;
 
 // The next are for validating the XLIFF for well-formedness.
 import org.xml.sax.*;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 /**
  * Import a GNU Portable Object Template to XLIFF. 
@@ -45,6 +44,14 @@ public class PoImporter implements Converter {
     
     private HashMap<Locale,Charset> langEncodingMap = new HashMap<Locale,Charset>();
     
+    // If non-null, the index in which to look up repeated segments
+    private RepetitionIndex repetitions = null;
+    
+    // Set by ImportStatistics.PROPERTY: whether to keep statistics of the
+    // TUs written (in statistics, which getConversionProperty returns)
+    private boolean keepStatistics = false;
+    private ImportStatistics statistics = null;
+    
     /**
      * Create a GNU Portable Object Template Importer 
      */
@@ -289,19 +296,20 @@ public class PoImporter implements Converter {
             potEncoding = Charset.forName("UTF-8");
         }
         
+        // If requested, keep statistics of the TUs as they are written
+        statistics = ImportStatistics.forImport(keepStatistics, baseDir, nativeFileName);
+        
         // Output the XLIFF prolog
         try {
             // Create input reader and output writers
             BufferedReader poRdr = new BufferedReader(new InputStreamReader(
                 new FileInputStream(inPot), potEncoding));
             
-            BufferedWriter xliffWtr  = new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(outXliff), Charset.forName("UTF-8")));
+            OutputSink xliffWtr  = new OutputSink(outXliff);
 
             // Let's write the skeleton in UTF-8 (I s'pose) ... because there's
             // no telling what languages the translation will end up in ...)
-            BufferedWriter skelWtr  = new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(outSkel), Charset.forName("UTF-8")));
+            OutputSink skelWtr  = new OutputSink(outSkel);
             
             // Write the "prolog" of the XLIFF file
             xliffWtr.write(Converter.xmlDeclaration);
@@ -312,7 +320,6 @@ public class PoImporter implements Converter {
                 + "' source-language='" + language.toString() + "' datatype='po'>\r\n");
             xliffWtr.write(indent() + "<header lt:segtype='sentence'");
             xliffWtr.write(">\r\n" + indent('0') + "</header>\r\n" + indent('0') + "<body>\r\n");
-            xliffWtr.flush();
         
             String poLine = null;             // Holds the next line read from PO template
             String source = "";               // Source language text accumulated so far
@@ -358,7 +365,6 @@ public class PoImporter implements Converter {
                                 + curTuID.toString() + "'/>\"\n");
                         }
                     }
-                    skelWtr.flush();
                 }
 
                 // ... or is it a continuation line (or a source/target?)
@@ -385,12 +391,17 @@ public class PoImporter implements Converter {
                     // If the source variable has meaningful characters, then
                     // it is time to output another translation unit
                     if (source.trim().length() > 0) {
+                        // (The message is one TU--whose target replaces the
+                        // msgstr on export--so it isn't segmented.)
+                        String markedTu 
+                            = TuPreener.markCoreTu(TuStrings.escapeTuString(source).replace("\\n","<x id='1' ctype='lb'/>"));
                         xliffWtr.write(indent('0')
                             + "<trans-unit id='" + curTuID + "' "
-                            + "lt:paraID='" + curTuID + "'>\r\n");
+                            + "lt:paraID='" + curTuID + "'"
+                            + ImportStatistics.recordTu(curTuID, TuPreener.getCoreText(markedTu),
+                                    repetitions, statistics)
+                            + ">\r\n");
                         // Open the source element
-                        String markedTu 
-                            = TuPreener.markCoreTu(TuStrings.escapeTuString(source).replace("\\n","<x id='1' ctype='lb'/>"));
                         xliffWtr.write(indent('+') + "<source xml:lang='" 
                             + language.toString() + "'>" 
                             + TuPreener.getPrefixText(markedTu)
@@ -400,7 +411,6 @@ public class PoImporter implements Converter {
                             + "</source>\r\n");
                         // ... and the trans-unit end tag
                         xliffWtr.write(indent('-') + "</trans-unit>\r\n");
-                        xliffWtr.flush();
 
                         source = "";    // Clear out source for next time
                         curTuID = UUID.randomUUID();   // Get a new TU ID for next time
@@ -421,12 +431,15 @@ public class PoImporter implements Converter {
             // named "source" is of length greater than zero. If it is, we need
             // to write out one final TU
             if (source.trim().length() > 0) {
+                String markedTu 
+                    = TuPreener.markCoreTu(TuStrings.escapeTuString(source).replace("\\n","<x id='1' ctype='lb'/>"));
                 xliffWtr.write(indent('0')
                     + "<trans-unit id='" + curTuID + "' "
-                    + "lt:paraID='" + curTuID + "'>\r\n");
+                    + "lt:paraID='" + curTuID + "'"
+                    + ImportStatistics.recordTu(curTuID, TuPreener.getCoreText(markedTu),
+                            repetitions, statistics)
+                    + ">\r\n");
                 // Open the source element
-                String markedTu 
-                    = TuPreener.markCoreTu(TuStrings.escapeTuString(source).replace("\\n","<x id='1' ctype='lb'/>"));
                 xliffWtr.write(indent('+') + "<source xml:lang='" 
                     + language.toString() + "'>" 
                     + TuPreener.getPrefixText(markedTu)
@@ -436,7 +449,6 @@ public class PoImporter implements Converter {
                     + "</source>\r\n");
                 // ... and the trans-unit end tag
                 xliffWtr.write(indent('-') + "</trans-unit>\r\n");
-                xliffWtr.flush();
 
                 source = "";    // Clear out source for next time
             }
@@ -450,6 +462,9 @@ public class PoImporter implements Converter {
             
             /* Close the files we created above */
             xliffWtr.close();
+            if (statistics != null) {
+                statistics.close();
+            }
             skelWtr.close();
         }
         catch(java.io.IOException e) {
@@ -478,11 +493,11 @@ public class PoImporter implements Converter {
             }
             else {
                 // The XLIFF exists. Is it well-formed?
-                try {
-                    XMLReader parser = XMLReaderFactory.createXMLReader();
+                XMLReader parser = null;
 
+                try {
                     // We don't care about namespaces at the moment.
-                    parser.setFeature("http://xml.org/sax/features/namespaces", false);
+                    parser = SAXParserPool.acquire(SAXParserPool.Config.XML);
 
                     Reader inReader = new InputStreamReader(new FileInputStream(xliffFile), 
                             Charset.forName("UTF-8"));
@@ -524,6 +539,9 @@ public class PoImporter implements Converter {
                     System.err.println(notice);
                     notifier.sendNotification("0006", "PoImporter", Notifier.ERROR, notice);
                 }
+                finally {
+                    SAXParserPool.release(SAXParserPool.Config.XML, parser);
+                }
             }
         }        
 
@@ -643,6 +661,9 @@ public class PoImporter implements Converter {
      * @return An Object that represents the property's value.
      */
     public Object getConversionProperty(String property) {
+        if (property.equals(ImportStatistics.PROPERTY)) {
+            return statistics;
+        }
         return null;
     }
 
@@ -810,8 +831,9 @@ public class PoImporter implements Converter {
     /**
      * Set a format-specific property that might affect the way that the
      * conversion occurs.
-     * <p><i>Note:</i> This converter needs no format-specific properties.
-     * If any are passed, they will be silently ignored.
+     * <p>The properties recognized are RepetitionIndex.PROPERTY (to mark
+     * repeated segments) and ImportStatistics.PROPERTY (to keep statistics
+     * of the TUs written). Others will be silently ignored.
      * @param property The name of the property
      * @param value The value of the property
      * @throws file2xliff4j.ConversionException
@@ -819,6 +841,12 @@ public class PoImporter implements Converter {
      */
     public void setConversionProperty(String property, Object value)
             throws ConversionException {
+        if (property.equals(RepetitionIndex.PROPERTY)) {
+            repetitions = RepetitionIndex.forProperty(value);
+        }
+        else if (property.equals(ImportStatistics.PROPERTY)) {
+            keepStatistics = ImportStatistics.isEnabled(value);
+        }
         return;
     }
 
@@ -0,0 +1,310 @@
+/**
+ * RepetitionIndex.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import java.util.*;
+
+/**
+ * Index of the core texts of the trans-units that importers have written,
+ * used to identify repeated segments (boilerplate headers, footers, legal
+ * notices, UI strings, ...) at import time.
+ * <p>Each distinct core text belongs to a repetition group, numbered (from
+ * 0) in the order the texts are first seen. When an importer writes a TU
+ * whose core text is already in the index, it adds two attributes to the
+ * trans-unit element:
+ * <ul>
+ * <li>lt:repGroup, the TU's repetition group, and
+ * <li>lt:firstTuID, the id of the TU in which the core text first occurred.
+ * </ul>
+ * The first occurrence itself isn't marked. Downstream processes can
+ * therefore translate each distinct segment once and copy its translation
+ * to the repetitions.
+ * <p>The core texts are compared after normalization: runs of white space
+ * count as a single space (and leading/trailing white space is ignored),
+ * soft hyphens are ignored, and the id and rid attributes of inline bx/ex/x (etc.) tags--which are
+ * numbered differently in different TUs--are ignored.
+ * <p>Core texts aren't stored: the index keeps a 64-bit hash of each
+ * normalized core text (in an open-addressing table of longs) and the id
+ * of the TU in which it first occurred (as two longs). An entry takes
+ * 40-64 bytes, so an index of millions of segments is practical. (Two
+ * different texts with the same 64-bit hash would be reported as
+ * repetitions; with a few million segments, the probability of that is
+ * around one in a million.)
+ * <p>One index can be shared by several importers (by passing it as the
+ * value of the repetitionindex conversion property), to find repetitions
+ * across files. Its methods are synchronized.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+public class RepetitionIndex {
+
+    /**
+     * The conversion property that enables the repetition index. Its value
+     * is either a RepetitionIndex (to share with other conversions) or
+     * Boolean.TRUE/"true" (to create a new index for this conversion).
+     */
+    public static final String PROPERTY
+        = "http://www.lingotek.com/converters/properties/repetitionindex";
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // Open-addressing hash table: hashes of the normalized core texts (0
+    // means empty) and their repetition groups.
+    private long[] hashes = new long[1024];
+    private int[] groups = new int[1024];
+
+    // The first TU of each repetition group (most/least significant bits of
+    // the UUID)
+    private long[] firstMsb = new long[512];
+    private long[] firstLsb = new long[512];
+    private int numGroups = 0;
+
+    private long numRepetitions = 0;   // TUs that repeated an earlier one
+
+    /**
+     * Create an empty repetition index.
+     */
+    public RepetitionIndex() {
+    }
+
+    /**
+     * Passed the value of the repetitionindex conversion property, return
+     * the index to use: the value itself, if it is a RepetitionIndex; a new
+     * index, if the value is Boolean.TRUE or "true"; otherwise (no index)
+     * null.
+     * @param value The value of the property
+     * @return The index, or null
+     */
+    public static RepetitionIndex forProperty(Object value) {
+        if (value instanceof RepetitionIndex) {
+            return (RepetitionIndex)value;
+        }
+        if ((value != null) && value.toString().equalsIgnoreCase("true")) {
+            return new RepetitionIndex();
+        }
+        return null;
+    }
+
+    /**
+     * Add the core text of a TU to the index. If the core text occurred
+     * earlier, return its repetition group; else return -1.
+     * @param tuID The id of the TU
+     * @param coreText The core text of the TU's source
+     * @return The repetition group of a repetition, or -1
+     */
+    public synchronized int add(UUID tuID, CharSequence coreText) {
+        long hash = hash(coreText);
+        int mask = hashes.length - 1;
+        int slot = (int)(hash ^ (hash >>> 32)) & mask;
+        while (hashes[slot] != 0) {
+            if (hashes[slot] == hash) {
+                numRepetitions++;
+                return groups[slot];      // A repetition.
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // First occurrence: start a new group
+        if (numGroups == firstMsb.length) {
+            firstMsb = Arrays.copyOf(firstMsb, numGroups * 2);
+            firstLsb = Arrays.copyOf(firstLsb, numGroups * 2);
+        }
+        firstMsb[numGroups] = tuID.getMostSignificantBits();
+        firstLsb[numGroups] = tuID.getLeastSignificantBits();
+        hashes[slot] = hash;
+        groups[slot] = numGroups++;
+
+        // Keep the table at most half full
+        if (numGroups * 2 > hashes.length) {
+            rehash();
+        }
+        return -1;
+    }
+
+    /**
+     * Return the id of the TU in which the core text of a repetition group
+     * first occurred.
+     * @param group The repetition group
+     * @return The id of its first TU
+     */
+    public synchronized UUID getFirstTuID(int group) {
+        return new UUID(firstMsb[group], firstLsb[group]);
+    }
+
+    /**
+     * Return the number of distinct core texts in the index.
+     * @return The number of repetition groups
+     */
+    public synchronized int getGroupCount() {
+        return numGroups;
+    }
+
+    /**
+     * Return the number of TUs added to the index whose core texts
+     * repeated an earlier one.
+     * @return The number of repetitions
+     */
+    public synchronized long getRepetitionCount() {
+        return numRepetitions;
+    }
+
+    /**
+     * Add the core text of a TU to the index, and return the attributes
+     * (each preceded by a space) to add to its trans-unit element: the
+     * lt:repGroup and lt:firstTuID attributes, if the TU is a repetition;
+     * otherwise the empty string. (A TU with no core text isn't added.)
+     * @param tuID The id of the TU
+     * @param coreText The core text of the TU's source
+     * @return The attributes
+     */
+    public String tuAttributes(UUID tuID, CharSequence coreText) {
+        if ((coreText == null) || (coreText.length() == 0)) {
+            return "";
+        }
+        int group = add(tuID, coreText);
+        if (group < 0) {
+            return "";
+        }
+        return " lt:repGroup='" + group + "' lt:firstTuID='"
+            + getFirstTuID(group) + "'";
+    }
+
+    /**
+     * Return the (non-zero) 64-bit hash of the normalized core text.
+     */
+    private static long hash(CharSequence text) {
+        long h = FNV_OFFSET;
+        boolean pendingSpace = false;     // White space since the last char
+        boolean atStart = true;           // Nothing hashed yet
+        int len = text.length();
+        int i = 0;
+        while (i < len) {
+            char c = text.charAt(i);
+            if (c == '\u00ad') {             // (getCoreText drops soft hyphens)
+                i++;
+                continue;
+            }
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                pendingSpace = !atStart;
+                i++;
+                continue;
+            }
+            if (pendingSpace) {
+                h = (h ^ ' ') * FNV_PRIME;
+                pendingSpace = false;
+            }
+            atStart = false;
+            if ((c == '<') && (i + 1 < len) && Character.isLetter(text.charAt(i + 1))) {
+                // An inline tag: hash it without its id and rid attributes
+                int gt = indexOf(text, '>', i);
+                if (gt > 0) {
+                    h = hashTag(h, text, i, gt + 1);
+                    i = gt + 1;
+                    continue;
+                }
+            }
+            h = (h ^ c) * FNV_PRIME;
+            i++;
+        }
+
+        // Mix the bits (MurmurHash3's finalizer), so that the low bits index
+        // the table well.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (h == 0) ? 1 : h;
+    }
+
+    /**
+     * Continue hash h with the tag [start,end) of text, skipping its id and
+     * rid attributes.
+     */
+    private static long hashTag(long h, CharSequence text, int start, int end) {
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            if ((c == ' ') && (isAttribute(text, i + 1, end, "id")
+                               || isAttribute(text, i + 1, end, "rid"))) {
+                // Skip the attribute (through its closing quote)
+                int eq = indexOf(text, '=', i);
+                char quote = text.charAt(eq + 1);
+                int close = indexOf(text, quote, eq + 2);
+                if ((close > 0) && (close < end)) {
+                    i = close + 1;
+                    continue;
+                }
+            }
+            h = (h ^ c) * FNV_PRIME;
+            i++;
+        }
+        return h;
+    }
+
+    /** Does the attribute name='...' (or name="...") start at i? */
+    private static boolean isAttribute(CharSequence text, int i, int end,
+            String name) {
+        int eq = i + name.length();
+        if (eq + 1 >= end) {
+            return false;
+        }
+        for (int j = 0; j < name.length(); j++) {
+            if (text.charAt(i + j) != name.charAt(j)) {
+                return false;
+            }
+        }
+        char quote = text.charAt(eq + 1);
+        return (text.charAt(eq) == '=') && ((quote == '\'') || (quote == '"'));
+    }
+
+    /** Return the offset of c in text at or after from, or -1 */
+    private static int indexOf(CharSequence text, char c, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Double the size of the hash table */
+    private void rehash() {
+        long[] oldHashes = hashes;
+        int[] oldGroups = groups;
+        hashes = new long[oldHashes.length * 2];
+        groups = new int[oldHashes.length * 2];
+        int mask = hashes.length - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            long hash = oldHashes[i];
+            if (hash != 0) {
+                int slot = (int)(hash ^ (hash >>> 32)) & mask;
+                while (hashes[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = hash;
+                groups[slot] = oldGroups[i];
+            }
+        }
+    }
+}
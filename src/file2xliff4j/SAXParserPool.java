@@ -0,0 +1,186 @@
+/**
+ * SAXParserPool.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import org.xml.sax.*;
+import org.xml.sax.helpers.*;
+
+import java.util.*;
+
+/**
+ * A per-thread pool of configured SAX parsers (XMLReaders). Creating a
+ * parser involves a JAR service lookup and setting up the parser's
+ * configuration, which (for short documents) can take longer than the parse
+ * itself. The importers and exporters therefore borrow a parser (configured
+ * the way they need it) from the pool, and give it back when they are done
+ * with it; the next conversion on the same thread that needs a parser with
+ * the same configuration reuses it.
+ * <p>A parser that is given back has its content handler and lexical handler
+ * cleared (so that the pool doesn't hold on to the handlers--and all they
+ * refer to--between conversions). Xerces and NekoHTML parsers reset their
+ * remaining state at the start of each parse.
+ * <p>Each thread has its own parsers, so no synchronization is needed. A
+ * thread that asks for a second parser with a configuration it has already
+ * borrowed (without giving it back) gets a new one.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+final class SAXParserPool {
+
+    /**
+     * The parser configurations that the pool hands out.
+     */
+    enum Config {
+        /** XML parser that doesn't care about namespaces (for checking
+         *  whether a file is well-formed, for example) */
+        XML,
+
+        /** XML parser that reports namespaces and namespace prefixes in
+         *  the startElement attribute lists */
+        XML_NAMESPACES,
+
+        /** NekoHTML parser, configured the way the HtmlImporter needs it */
+        HTML;
+
+        /**
+         * Create a new parser with this configuration.
+         * @return The parser
+         * @throws SAXException If the parser can't be created or configured
+         */
+        XMLReader newParser() throws SAXException {
+            XMLReader parser;
+            switch (this) {
+                case XML:
+                    parser = XMLReaderFactory.createXMLReader();
+
+                    // We don't care about namespaces at the moment.
+                    parser.setFeature("http://xml.org/sax/features/namespaces", false);
+                    break;
+
+                case XML_NAMESPACES:
+                    parser = XMLReaderFactory.createXMLReader();
+
+                    // Include namespaces in the StartElement() attlist:
+                    parser.setFeature("http://xml.org/sax/features/namespaces", true);
+
+                    // Also include namespace-prefixes:
+                    parser.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+                    break;
+
+                default:         // HTML
+                    parser = XMLReaderFactory.createXMLReader("org.cyberneko.html.parsers.SAXParser");
+
+                    // Maintain the case (upper/lower) of tags (elements) and attributes
+                    // found in the input document.
+                    parser.setProperty("http://cyberneko.org/html/properties/names/elems", "match");
+                    parser.setProperty("http://cyberneko.org/html/properties/names/attrs", "match");
+
+                    // "In order to process HTML documents as XML, this feature should *not* be turned
+                    // off" (Note: "true" is the default value.)
+                    parser.setFeature("http://cyberneko.org/html/features/balance-tags", true);
+
+                    // Include namespaces in the StartElement() attlist:
+                    parser.setFeature("http://xml.org/sax/features/namespaces", true);
+
+                    // Also include namespace-prefixes:
+                    parser.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+
+                    // WWhipple 11/16/2006. When Neki parses XHTML documents in UTF8 that
+                    // begin with a byte order mark and DOCTYPE, it fails to notice the
+                    // immediately following opening html and head tags, instead inserting
+                    // what it assumes to be missing parent tags. This should fix that
+                    // problem:
+                    //   "With this feature set, the tag balancer will not attempt to
+                    //   insert a missing body elements around content and markup.
+                    //   However, proper parents for elements contained within the
+                    //   <body> element will still be inserted."
+                    parser.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment", true);
+                    break;
+            }
+            return parser;
+        }
+    }
+
+    /** The lexical handler property */
+    private static final String LEXICAL_HANDLER =
+        "http://xml.org/sax/properties/lexical-handler";
+
+    /** Content handler that idle parsers point to (instead of the last
+     *  handler that used them) */
+    private static final ContentHandler NO_HANDLER = new DefaultHandler();
+
+    /** Each thread's idle parsers, one (at most) per configuration */
+    private static final ThreadLocal<EnumMap<Config,XMLReader>> idleParsers =
+        new ThreadLocal<EnumMap<Config,XMLReader>>() {
+            protected EnumMap<Config,XMLReader> initialValue() {
+                return new EnumMap<Config,XMLReader>(Config.class);
+            }
+        };
+
+    /** Not instantiable */
+    private SAXParserPool() {
+    }
+
+    /**
+     * Borrow a parser with the specified configuration. The caller should
+     * set the parser's content handler (and lexical handler, if any) and
+     * pass the parser to release when done with it.
+     * @param config The configuration the parser needs to have
+     * @return A parser with that configuration
+     * @throws SAXException If a new parser is needed and can't be created
+     *         or configured
+     */
+    static XMLReader acquire(Config config) throws SAXException {
+        XMLReader parser = idleParsers.get().remove(config);
+        if (parser == null) {
+            parser = config.newParser();
+        }
+        return parser;
+    }
+
+    /**
+     * Give back a parser borrowed by acquire, so that later conversions on
+     * this thread can reuse it.
+     * @param config The configuration that was passed to acquire
+     * @param parser The parser (If null, release does nothing.)
+     */
+    static void release(Config config, XMLReader parser) {
+        if (parser == null) {
+            return;
+        }
+
+        parser.setContentHandler(NO_HANDLER);
+        try {
+            if (parser.getProperty(LEXICAL_HANDLER) != null) {
+                parser.setProperty(LEXICAL_HANDLER, null);
+            }
+        }
+        catch(SAXException e) {
+            return;         // Can't clear it; let the parser go.
+        }
+
+        EnumMap<Config,XMLReader> idle = idleParsers.get();
+        if (!idle.containsKey(config)) {
+            idle.put(config, parser);
+        }
+    }
+}
@@ -29,4 +29,5 @@ public enum SegmentBoundary {
     
     PARAGRAPH,    // Break translation units on the paragraph
     SENTENCE,     // Break them on sentence boundaries
+    SRX,          // Break them on sentence boundaries defined by SRX rules
 }
@@ -0,0 +1,47 @@
+/**
+ * Segmenter.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import java.util.*;
+
+/**
+ * Interface for segmentation engines that divide the text of a paragraph
+ * into (sentence) segments.
+ * <p>Implementations must be safe to call from several threads at once.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+public interface Segmenter {
+
+    /**
+     * Passed the text of a paragraph and its locale, return the offsets
+     * of the ends of the paragraph's segments, in ascending order. (Each
+     * segment starts where the previous one ends; the first starts at
+     * offset 0.) The last offset is the length of the text. If the text
+     * is empty, return an empty array.
+     * @param text The text to segment
+     * @param locale The language of the text, which determines the rules
+     *        used to segment it.
+     * @return The ends of the segments
+     */
+    public int[] getSegmentEnds(String text, Locale locale);
+}
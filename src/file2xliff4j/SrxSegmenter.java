@@ -0,0 +1,535 @@
+/**
+ * SrxSegmenter.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+import org.xml.sax.*;
+import org.xml.sax.helpers.*;
+
+/**
+ * Segmentation engine that divides paragraphs into segments using SRX
+ * (Segmentation Rules eXchange) 2.0 rules. (This is the engine used for SRX
+ * segment boundaries.)
+ * <p>Each SRX rule consists of a "before break" and an "after break" regular
+ * expression, and says whether the position between them is (or isn't) a
+ * segment break. The language map rules determine which language rules
+ * apply to a given language; if the SRX header specifies cascading, the
+ * rules of all matching language rules apply, in order. At each position
+ * of the text, the first rule that matches decides.
+ * <p>The rules' regular expressions are compiled once, when the rules are
+ * loaded, and the (ordered) list of rules for each language is built the
+ * first time the language is segmented. Segmentation scans the text once
+ * per rule, trying the rule at every position--resuming each search at the
+ * position after the start of the previous match (not after its end), so
+ * that a match that overlaps the previous one is found too--and records
+ * the first rule (in order) that matches each position in a table. The
+ * break rules are scanned first, to find the candidate breaks; the 
+ * exception rules that precede a break rule are then scanned only as far
+ * as the last candidate. Each candidate is thus decided by the first rule
+ * that matches it, as SRX specifies. (Combining the rules into a single 
+ * alternation of look-aheads makes java.util.regex try every rule at every
+ * position, which is slower than letting each rule's own scan skip ahead.)
+ * <p>The built-in rules use possessive quantifiers, and don't start a match
+ * in the middle of a run of punctuation or white space, so that segmenting
+ * with them takes time linear in the length of the text, even for text 
+ * like a long run of periods. (The time an installed rule takes depends on
+ * how its regular expressions are written.)
+ * <p>Unless other rules are specified--for a conversion, by the PROPERTY
+ * conversion property; or for all conversions, by setDefault--SRX 
+ * segmentation uses built-in rules that, in addition to breaking after
+ * sentence-ending punctuation, know about common English and German 
+ * abbreviations, and about bx/ex/x tags following the punctuation.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+public class SrxSegmenter implements Segmenter {
+
+    /**
+     * The conversion property that specifies the SRX rules an importer uses
+     * for SRX segment boundaries. Its value is an SrxSegmenter (to share
+     * with other conversions), or the SRX file (a File, or its path) to load
+     * the rules from. If it isn't set, the default segmenter is used.
+     */
+    public static final String PROPERTY
+        = "http://www.lingotek.com/converters/properties/srxrules";
+
+    // The built-in language rules: name, break ("yes"/"no"), before break,
+    // after break
+    private static final String[][] BUILTIN_RULES = {
+        // Common English abbreviations, and initials (J. R. R. Tolkien)
+        // (The look-ahead lets most words fail without trying each
+        // abbreviation.)
+        {"English", "no", "\\b(?=\\p{L}{1,6}\\.)(?:Mr|Mrs|Ms|Dr|Prof|Sr|Jr|St|Mt|vs|cf|e\\.g|i\\.e"
+            + "|Inc|Ltd|Co|Corp|No|Fig|Vol|approx)\\.\\s++", "\\S"},
+        {"English", "no", "\\b\\p{Lu}\\.\\s++", "\\p{Lu}"},
+
+        // Common German abbreviations, and ordinal numbers (am 3. Mai)
+        {"German", "no", "\\b(?=\\p{L}{1,3}\\.)(?:z\\.\\s?B|u\\.\\s?a|d\\.\\s?h|bzw|usw|vgl|ca|Nr|Dr"
+            + "|Hr|Fr|St|S)\\.\\s++", "\\S"},
+        {"German", "no", "\\b\\d{1,2}\\.\\s++", "\\S"},
+        {"German", "no", "\\b[zud]\\.\\s++", "\\p{Lu}\\."},
+
+        // A lower case letter after a period: Probably not the end of a
+        // sentence.
+        {"Default", "no", "\\.\\s++", "\\p{Ll}"},
+        // Sentence-ending punctuation--possibly followed by closing quotes,
+        // parentheses and bx/ex/x tags--then white space. (The white space
+        // stays with the sentence.) A match starts at the first of the
+        // punctuation marks.
+        {"Default", "yes", "(?<![\\.\\?!])[\\.\\?!]++[\\)\\]'\"\u2019\u201d]*+"
+            + "(?:<[be]?x\\b[^<>]*+>)*+\\s++", "\\S"},
+        // CJK sentence-ending punctuation needs no white space
+        {"Default", "yes", "(?<![\u3002\uff01\uff1f])[\u3002\uff01\uff1f]++"
+            + "[\u300d\u300f\uff09\u2019\u201d]*+\\s*+", "\\S"},
+    };
+
+    // The built-in language maps: language pattern, language rule name
+    private static final String[][] BUILTIN_MAPS = {
+        {"en.*", "English"},
+        {"de.*", "German"},
+        {".*", "Default"},
+    };
+
+    // (Read without locking, on every paragraph; set under the class lock)
+    private static volatile SrxSegmenter defaultSegmenter = null;
+
+    private boolean cascade = true;      // Apply all matching language rules?
+
+    // Compiled rules of each language rule, by name
+    private HashMap<String,ArrayList<SrxRule>> languageRules
+        = new HashMap<String,ArrayList<SrxRule>>();
+
+    // Language maps, in order
+    private ArrayList<LanguageMap> languageMaps = new ArrayList<LanguageMap>();
+
+    // The rules (in order) that apply to each language code
+    private ConcurrentHashMap<String,SrxRule[]> rulesByLanguage
+        = new ConcurrentHashMap<String,SrxRule[]>();
+
+    /**
+     * Create a segmenter that uses the built-in rules.
+     * @throws file2xliff4j.ConversionException
+     *         If a built-in rule is invalid (which it shouldn't be)
+     */
+    public SrxSegmenter() throws ConversionException {
+        for (String[] rule : BUILTIN_RULES) {
+            addRule(rule[0], !rule[1].equals("no"), rule[2], rule[3]);
+        }
+        for (String[] map : BUILTIN_MAPS) {
+            addLanguageMap(map[0], map[1]);
+        }
+    }
+
+    /**
+     * Create a segmenter that uses the rules in an SRX file.
+     * @param srxFile The SRX file
+     * @throws file2xliff4j.ConversionException
+     *         If the file can't be read or parsed, or if one of its rules'
+     *         regular expressions is invalid.
+     */
+    public SrxSegmenter(File srxFile) throws ConversionException {
+        InputStream srxStream = null;
+        try {
+            srxStream = new BufferedInputStream(new FileInputStream(srxFile));
+            loadSrx(new InputSource(srxStream), srxFile.getPath());
+        }
+        catch (IOException e) {
+            System.err.println("Unable to read SRX file " + srxFile.getPath()
+                + ": " + e.getMessage());
+            throw new ConversionException("Unable to read SRX file "
+                + srxFile.getPath() + ": " + e.getMessage());
+        }
+        finally {
+            if (srxStream != null) {
+                try { srxStream.close(); } catch (IOException e) { }
+            }
+        }
+    }
+
+    /**
+     * Passed the value of the srxrules conversion property, return the
+     * segmenter to use: the value itself, if it is an SrxSegmenter; one that
+     * uses the rules in the SRX file the value names, if it is a File or a
+     * path; otherwise (to use the default segmenter) null.
+     * @param value The value of the property
+     * @return The segmenter, or null
+     * @throws file2xliff4j.ConversionException
+     *         If the SRX file can't be read or parsed, or has invalid rules
+     */
+    public static SrxSegmenter forProperty(Object value) 
+            throws ConversionException {
+        if (value instanceof SrxSegmenter) {
+            return (SrxSegmenter)value;
+        }
+        if (value instanceof File) {
+            return new SrxSegmenter((File)value);
+        }
+        if ((value != null) && (value.toString().length() > 0)) {
+            return new SrxSegmenter(new File(value.toString()));
+        }
+        return null;
+    }
+
+    /**
+     * Return the segmenter used for SRX segment boundaries--by default, one
+     * that uses the built-in rules.
+     * @return The default SRX segmenter
+     * @throws file2xliff4j.ConversionException
+     *         If the built-in rules can't be compiled
+     */
+    public static SrxSegmenter getDefault() throws ConversionException {
+        SrxSegmenter segmenter = defaultSegmenter;
+        if (segmenter == null) {
+            synchronized (SrxSegmenter.class) {
+                if (defaultSegmenter == null) {
+                    defaultSegmenter = new SrxSegmenter();
+                }
+                segmenter = defaultSegmenter;
+            }
+        }
+        return segmenter;
+    }
+
+    /**
+     * Install a segmenter (with rules from an SRX file, for example) to be
+     * used for SRX segment boundaries.
+     * @param segmenter The segmenter to use, or null to revert to the
+     *        built-in rules
+     */
+    public static synchronized void setDefault(SrxSegmenter segmenter) {
+        defaultSegmenter = segmenter;
+    }
+
+    /**
+     * Passed the text of a paragraph and its locale, return the offsets
+     * of the ends of its segments, as determined by the SRX rules for the
+     * locale's language.
+     * @param text The text to segment
+     * @param locale The language of the text
+     * @return The ends of the segments
+     */
+    public int[] getSegmentEnds(String text, Locale locale) {
+        int len = text.length();
+        if (len == 0) {
+            return new int[0];
+        }
+
+        SrxRule[] rules = getRules(locale);
+
+        // For each position, the (index + 1 of the) first rule that matches
+        // it--the rule that decides whether it is a break
+        int[] ruleAt = new int[len];
+
+        // Scan for the break rules' matches first (the candidate breaks),
+        // noting the last candidate and the last break rule that matched 
+        // anywhere
+        int lastBreak = 0;
+        int lastBreakRule = -1;
+        for (int i = 0; i < rules.length; i++) {
+            if (rules[i].isBreak) {
+                int last = scan(rules[i].pattern.matcher(text), len, ruleAt, i);
+                if (last > 0) {
+                    lastBreak = Math.max(lastBreak, last);
+                    lastBreakRule = i;
+                }
+            }
+        }
+        if (lastBreak == 0) {
+            return new int[] {len};      // The whole text is one segment
+        }
+
+        // Then for the exception rules--but only those that precede a
+        // break rule that matched, and only as far as the last candidate.
+        // (A match that ends after it has to start at or before it.)
+        for (int i = 0; i < lastBreakRule; i++) {
+            if (!rules[i].isBreak) {
+                scan(rules[i].pattern.matcher(text), lastBreak + 1, ruleAt, i);
+            }
+        }
+
+        int numBreaks = 0;
+        for (int pos = 1; pos < len; pos++) {
+            if ((ruleAt[pos] > 0) && rules[ruleAt[pos] - 1].isBreak) {
+                numBreaks++;
+            }
+        }
+
+        int[] ends = new int[numBreaks + 1];
+        int numEnds = 0;
+        for (int pos = 1; (pos < len) && (numEnds < numBreaks); pos++) {
+            if ((ruleAt[pos] > 0) && rules[ruleAt[pos] - 1].isBreak) {
+                ends[numEnds++] = pos;
+            }
+        }
+        ends[numEnds] = len;
+
+        return ends;
+    }
+
+    /**
+     * Find the matches of rule i that start before a limit--trying the rule
+     * at each position, including the positions within the previous match--
+     * and record that the rule matches where each ends (inside the text).
+     * @param m The rule's matcher (on the text)
+     * @param limit Where to stop looking for the start of a match
+     * @param ruleAt For each position, the (index + 1 of the) first rule
+     *        that matches it
+     * @param i The index of the rule
+     * @return The last (inside) position recorded, or 0 if none
+     */
+    private static int scan(Matcher m, int limit, int[] ruleAt, int i) {
+        int last = 0;
+        for (int from = 0; (from < limit) && m.find(from) 
+                 && (m.start() < limit); from = m.start() + 1) {
+            if ((m.end() > 0) && (m.end() < ruleAt.length)) {
+                decide(ruleAt, m.end(), i);
+                last = Math.max(last, m.end());
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Record that rule i matches position pos--unless an earlier rule already
+     * matched it.
+     */
+    private static void decide(int[] ruleAt, int pos, int i) {
+        if ((pos > 0) && (pos < ruleAt.length) 
+            && ((ruleAt[pos] == 0) || (ruleAt[pos] > i + 1))) {
+            ruleAt[pos] = i + 1;
+        }
+    }
+
+    /**
+     * Return the rules (in order) that apply to a locale's language,
+     * collecting them the first time the language is requested.
+     * @param locale The locale
+     * @return Its rules
+     */
+    private SrxRule[] getRules(Locale locale) {
+        // SRX language codes are RFC 4646-style (en-US, not en_US)
+        String langCode = (locale == null) ? "" : locale.toString().replace('_', '-');
+        SrxRule[] langRules = rulesByLanguage.get(langCode);
+        if (langRules == null) {
+            ArrayList<SrxRule> rules = new ArrayList<SrxRule>();
+            for (LanguageMap map : languageMaps) {
+                if (map.languagePattern.matcher(langCode).matches()) {
+                    ArrayList<SrxRule> mapRules = languageRules.get(map.languageRuleName);
+                    if (mapRules != null) {
+                        rules.addAll(mapRules);
+                    }
+                    if (!cascade) {
+                        break;            // Only the first match applies
+                    }
+                }
+            }
+            langRules = rules.toArray(new SrxRule[rules.size()]);
+            rulesByLanguage.put(langCode, langRules);
+        }
+
+        return langRules;
+    }
+
+    /**
+     * Compile a rule and add it to the named language rule
+     * @param ruleName The name of the language rule
+     * @param isBreak true if the rule defines a break, false if it defines
+     *        an exception
+     * @param beforeBreak Regular expression that matches the text before
+     *        the break
+     * @param afterBreak Regular expression that matches the text after
+     *        the break
+     * @throws file2xliff4j.ConversionException
+     *         If the rule's regular expressions are invalid
+     */
+    private void addRule(String ruleName, boolean isBreak, String beforeBreak,
+            String afterBreak) throws ConversionException {
+        // The before break expression matches up to the break position; the
+        // after break expression is just a look-ahead.
+        String regex = "(?:" + beforeBreak + ")";
+        if (afterBreak.length() > 0) {
+            regex += "(?=" + afterBreak + ")";
+        }
+
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex);
+        }
+        catch (PatternSyntaxException e) {
+            System.err.println("Invalid SRX rule in language rule " + ruleName
+                + ": " + e.getMessage());
+            throw new ConversionException("Invalid SRX rule in language rule "
+                + ruleName + ": " + e.getMessage());
+        }
+
+        ArrayList<SrxRule> rules = languageRules.get(ruleName);
+        if (rules == null) {
+            rules = new ArrayList<SrxRule>();
+            languageRules.put(ruleName, rules);
+        }
+        rules.add(new SrxRule(isBreak, pattern));
+    }
+
+    /**
+     * Add a language map
+     * @param languagePattern Regular expression that matches the language
+     *        codes to which the language rule applies
+     * @param ruleName The name of the language rule
+     * @throws file2xliff4j.ConversionException
+     *         If the language pattern is invalid
+     */
+    private void addLanguageMap(String languagePattern, String ruleName)
+            throws ConversionException {
+        try {
+            languageMaps.add(new LanguageMap(Pattern.compile(languagePattern,
+                Pattern.CASE_INSENSITIVE), ruleName));
+        }
+        catch (PatternSyntaxException e) {
+            System.err.println("Invalid SRX language pattern " + languagePattern
+                + ": " + e.getMessage());
+            throw new ConversionException("Invalid SRX language pattern "
+                + languagePattern + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parse an SRX document, compiling its rules
+     * @param srxSource The SRX document
+     * @param srxName The name of the document (for error messages)
+     * @throws file2xliff4j.ConversionException
+     *         If the document can't be parsed or has invalid rules
+     */
+    private void loadSrx(InputSource srxSource, String srxName)
+            throws ConversionException, IOException {
+        SrxHandler handler = new SrxHandler();
+        XMLReader parser = null;
+        try {
+            parser = SAXParserPool.acquire(SAXParserPool.Config.XML_NAMESPACES);
+            parser.setContentHandler(handler);
+            parser.parse(srxSource);
+        }
+        catch (SAXException e) {
+            if (e.getException() instanceof ConversionException) {
+                throw (ConversionException)e.getException();
+            }
+            System.err.println("Unable to parse SRX file " + srxName + ": "
+                + e.getMessage());
+            throw new ConversionException("Unable to parse SRX file "
+                + srxName + ": " + e.getMessage());
+        }
+        finally {
+            SAXParserPool.release(SAXParserPool.Config.XML_NAMESPACES, parser);
+        }
+    }
+
+    /**
+     * SAX handler that reads the header, rules and language maps of an SRX
+     * document.
+     */
+    private class SrxHandler extends DefaultHandler {
+        private String ruleName = "";                // Current language rule
+        private boolean isBreak = true;              // Current rule's type
+        private String beforeBreak = "";
+        private String afterBreak = "";
+        private StringBuilder text = new StringBuilder(); // Element content
+
+        public void startElement(String namespaceURI, String localName,
+                String qualifiedName, Attributes atts) throws SAXException {
+            String name = (localName.length() > 0) ? localName : qualifiedName;
+            text.setLength(0);
+            if (name.equals("header")) {
+                cascade = "yes".equals(atts.getValue("cascade"));
+            }
+            else if (name.equals("languagerule")) {
+                ruleName = atts.getValue("languagerulename");
+            }
+            else if (name.equals("rule")) {
+                isBreak = !"no".equals(atts.getValue("break"));
+                beforeBreak = "";
+                afterBreak = "";
+            }
+            else if (name.equals("languagemap")) {
+                try {
+                    addLanguageMap(atts.getValue("languagepattern"),
+                        atts.getValue("languagerulename"));
+                }
+                catch (ConversionException e) {
+                    throw new SAXException(e);
+                }
+            }
+        }
+
+        public void endElement(String namespaceURI, String localName,
+                String qualifiedName) throws SAXException {
+            String name = (localName.length() > 0) ? localName : qualifiedName;
+            if (name.equals("beforebreak")) {
+                beforeBreak = text.toString();
+            }
+            else if (name.equals("afterbreak")) {
+                afterBreak = text.toString();
+            }
+            else if (name.equals("rule")) {
+                try {
+                    addRule(ruleName, isBreak, beforeBreak, afterBreak);
+                }
+                catch (ConversionException e) {
+                    throw new SAXException(e);
+                }
+            }
+            text.setLength(0);
+        }
+
+        public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+    }
+
+    /**
+     * A compiled SRX rule
+     */
+    private static class SrxRule {
+        boolean isBreak;          // Break (true) or exception (false)?
+        Pattern pattern;          // (?:before)(?=after)
+
+        SrxRule(boolean isBreak, Pattern pattern) {
+            this.isBreak = isBreak;
+            this.pattern = pattern;
+        }
+    }
+
+    /**
+     * A language map: the language rule that applies to languages whose
+     * codes match a pattern
+     */
+    private static class LanguageMap {
+        Pattern languagePattern;
+        String languageRuleName;
+
+        LanguageMap(Pattern languagePattern, String languageRuleName) {
+            this.languagePattern = languagePattern;
+            this.languageRuleName = languageRuleName;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/**
+ * StreamingSegmenter.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Incremental version of TuPreener.getCoreSegments, for "paragraphs" that
+ * are too long to segment all at once--the text of a PDF file, or a 
+ * plaintext log with no blank lines, for example. The segmenter reads the
+ * paragraph (from a CharSequence or a Reader) a chunk at a time--or is fed
+ * it a piece at a time (by append, then finish)--segments what it has so 
+ * far, and passes each finished segment--with its core marked--to a 
+ * SegmentHandler. The last segment found in a chunk might 
+ * continue in the next one, so it (and anything that follows it) is kept
+ * and segmented again together with the next chunk.
+ * <p>Memory use is therefore bounded by the length of the longest sentence
+ * (plus a chunk), rather than by the length of the paragraph. (A '&lt;'
+ * with no '>' after it yet might start a tag, which the segmentation engine
+ * mustn't see as text, so the text from there on isn't segmented until the
+ * '>' arrives--or the paragraph ends.) The segments are the same ones
+ * getCoreSegments would return: segments with no translatable text are
+ * appended to the preceding segment (or, if no segment precedes them,
+ * prepended to the following one). A paragraph with no translatable text
+ * has no segments; its text is kept (see getUnsegmentedText).
+ * <p>PARAGRAPH boundaries can't be found without reading the whole 
+ * paragraph, so for them the paragraph is read in full and passed to
+ * getCoreSegments.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+public class StreamingSegmenter {
+
+    /**
+     * Interface for receiving the segments of a paragraph, in order.
+     */
+    public interface SegmentHandler {
+        /**
+         * Handle the next segment of the paragraph.
+         * @param segment The segment, with its core marked
+         * @param hasSuccessor true if another segment follows this one in
+         *        the paragraph, else false.
+         */
+        public void handleSegment(SegmentInfo segment, boolean hasSuccessor);
+    }
+
+    // Minimum number of characters to read at a time
+    private static final int CHUNK_SIZE = 8192;
+    
+    // A break within this many characters of the end of what has been read
+    // so far might be moved (or withdrawn) by the text that follows, so wait
+    // for more text before acting on it.
+    private static final int LOOKAHEAD = 64;
+    
+    private SegmentBoundary bdyType;
+    private Locale locale;
+    private boolean preenHtmlFromXML;
+    private boolean rawText;
+    private SegmentHandler handler;
+    private SrxSegmenter srxSegmenter = null; // (null: the default)
+
+    private StringBuilder pending = new StringBuilder(); // Read, not segmented
+    private char[] chunk = new char[CHUNK_SIZE];
+    private int segmentedLength = 0;  // Pending length when last segmented
+    private SegmentInfo held = null;  // Last segment (not yet handled)
+    private String unsegmented = null; // Last paragraph, if it had no segments
+    
+    /**
+     * Create a segmenter that passes the segments it finds to a handler.
+     * @param bdyType Segment boundary type (e.g. paragraph, sentence)
+     * @param locale The language of the text
+     * @param preenHtmlFromXML If true, look for HTML-like tags (represented
+     *        as entities) outside the core. (See TuPreener.getCoreSegments.)
+     * @param handler The handler to pass the segments to
+     */
+    public StreamingSegmenter(SegmentBoundary bdyType, Locale locale,
+            boolean preenHtmlFromXML, SegmentHandler handler) {
+        this(bdyType, locale, preenHtmlFromXML, false, handler);
+    }
+
+    /**
+     * Create a segmenter that passes the segments it finds to a handler.
+     * @param bdyType Segment boundary type (e.g. paragraph, sentence)
+     * @param locale The language of the text
+     * @param preenHtmlFromXML If true, look for HTML-like tags (represented
+     *        as entities) outside the core. (See TuPreener.getCoreSegments.)
+     * @param rawText If true, the paragraphs are unescaped text, whose only
+     *        markup is bx, ex and x tags. (See TuPreener.getCoreSegments.)
+     * @param handler The handler to pass the segments to
+     */
+    public StreamingSegmenter(SegmentBoundary bdyType, Locale locale,
+            boolean preenHtmlFromXML, boolean rawText, SegmentHandler handler) {
+        this.bdyType = bdyType;
+        this.locale = locale;
+        this.preenHtmlFromXML = preenHtmlFromXML;
+        this.rawText = rawText;
+        this.handler = handler;
+    }
+
+    /**
+     * Set the segmenter to use for SRX segment boundaries. (If null, the
+     * default SRX segmenter is used.)
+     * @param srxSegmenter The SRX segmenter
+     */
+    public void setSrxSegmenter(SrxSegmenter srxSegmenter) {
+        this.srxSegmenter = srxSegmenter;
+    }
+
+    /**
+     * Segment a paragraph held in a CharSequence (a StringBuilder, for
+     * example), passing its segments to the handler.
+     * @param text The paragraph
+     * @return The number of segments passed to the handler
+     */
+    public int segment(CharSequence text) {
+        if (bdyType.equals(SegmentBoundary.PARAGRAPH)) {
+            return append(text) + finish();
+        }
+        
+        int numSegments = 0;
+        int len = text.length();
+        for (int pos = 0; pos < len; ) {
+            int end = Math.min(len, pos + Math.max(CHUNK_SIZE, pending.length()));
+            numSegments += append(text, pos, end);
+            pos = end;
+        }
+        return numSegments + finish();
+    }
+
+    /**
+     * Append a piece (a line, for example) of the paragraph being segmented,
+     * passing any segments that are now complete to the handler. (Once at
+     * least a chunk--and at least as much as is pending--has been appended 
+     * since the pending text was last segmented, it is segmented again.) 
+     * Call finish at the end of the paragraph.
+     * @param text The next piece of the paragraph
+     * @return The number of segments passed to the handler
+     */
+    public int append(CharSequence text) {
+        return append(text, 0, text.length());
+    }
+
+    /**
+     * Append part of a CharSequence to the paragraph being segmented, passing
+     * any segments that are now complete to the handler. Call finish at the
+     * end of the paragraph.
+     * @param text The CharSequence that holds the next piece of the paragraph
+     * @param start Where the piece starts in text
+     * @param end Where it ends
+     * @return The number of segments passed to the handler
+     */
+    public int append(CharSequence text, int start, int end) {
+        pending.append(text, start, end);
+        if (bdyType.equals(SegmentBoundary.PARAGRAPH)
+                || (pending.length() - segmentedLength 
+                    < Math.max(CHUNK_SIZE, segmentedLength))) {
+            return 0;
+        }
+        return segmentPending(false);
+    }
+
+    /**
+     * Finish the paragraph being segmented: segment the rest of it, and pass
+     * its remaining segments to the handler. The segmenter is then ready for
+     * the next paragraph.
+     * @return The number of segments passed to the handler
+     */
+    public int finish() {
+        unsegmented = null;
+        if (bdyType.equals(SegmentBoundary.PARAGRAPH)) {
+            String paragraph = pending.toString();
+            pending.setLength(0);
+            return handleAll(paragraph);
+        }
+        return segmentPending(true) + release(false);
+    }
+
+    /**
+     * Return the text of the paragraph last finished if it had no segments
+     * (because it has no translatable text); otherwise return null. (Until
+     * a paragraph's first segment is found, the segmenter keeps all of the
+     * paragraph, since the text with no core that starts it will be 
+     * prepended to that segment.)
+     * @return The text of the paragraph with no segments, or null
+     */
+    public String getUnsegmentedText() {
+        return unsegmented;
+    }
+
+    /**
+     * Segment a paragraph read from a Reader (until end of file), passing 
+     * its segments to the handler. The caller is responsible for closing
+     * the Reader.
+     * @param in The Reader to read the paragraph from
+     * @return The number of segments passed to the handler
+     * @throws ConversionException if an error occurs reading the paragraph
+     */
+    public int segment(Reader in) throws ConversionException {
+        int numSegments = 0;
+        try {
+            if (bdyType.equals(SegmentBoundary.PARAGRAPH)) {
+                int n;
+                while ((n = in.read(chunk)) > 0) {
+                    pending.append(chunk, 0, n);
+                }
+                return finish();
+            }
+            
+            boolean eof = false;
+            while (!eof) {
+                // Read at least as much as is pending (so that re-segmenting
+                // a long sentence costs time proportional to its length).
+                int wanted = Math.max(CHUNK_SIZE, pending.length());
+                if (chunk.length < wanted) {
+                    chunk = new char[wanted];
+                }
+                int got = 0;
+                int n = 0;
+                while ((got < wanted) && ((n = in.read(chunk, got, wanted - got)) > 0)) {
+                    got += n;
+                }
+                eof = (n < 0);
+                pending.append(chunk, 0, got);
+                if (!eof) {
+                    numSegments += segmentPending(false);
+                }
+            }
+            numSegments += finish();
+        }
+        catch (IOException e) {
+            System.err.println("Error while reading paragraph to segment: "
+                + e.getMessage());
+            throw new ConversionException("Error while reading paragraph to "
+                + "segment: " + e.getMessage());
+        }
+        finally {
+            pending.setLength(0);
+            segmentedLength = 0;
+        }
+        
+        return numSegments;
+    }
+
+    /**
+     * Segment the pending text, handling each segment that is complete and 
+     * keeping the rest pending.
+     * @param atEnd true if the pending text ends the paragraph
+     * @return The number of segments passed to the handler
+     */
+    private int segmentPending(boolean atEnd) {
+        String window = pending.toString();
+        TuPreener.PlainTextView view = TuPreener.PlainTextView.get();
+        
+        // Unless the paragraph ends here, leave out a tag or entity that the
+        // next chunk might complete. (Until it is complete, the view would
+        // present it as text.)
+        String plainText = view.setTu(atEnd ? window 
+            : window.substring(0, settledLength(window)), rawText);
+        int[] sEnds = TuPreener.getSegmenter(bdyType, srxSegmenter)
+            .getSegmentEnds(plainText, locale);
+        
+        int numSegments = 0;
+        int sStart = 0;
+        for (int i = 0; i < sEnds.length; i++) {
+            boolean last = (i == sEnds.length - 1);
+            if (!atEnd && (last || (sEnds[i] > plainText.length() - LOOKAHEAD))) {
+                break;                    // Might not be finished yet
+            }
+            int sEnd = last ? window.length() : view.tuBoundary(sEnds[i]);
+            numSegments += addSentence(window, sStart, sEnd, view);
+            // (A sentence with no core that no segment precedes becomes the
+            // start of the next sentence.)
+            if (held == null) {
+                continue;
+            }
+            sStart = sEnd;
+        }
+        if (atEnd) {
+            // (If no segment has been found, none of the paragraph was.)
+            if (held == null) {
+                unsegmented = window;
+            }
+            sStart = window.length();
+        }
+        pending.delete(0, sStart);
+        segmentedLength = pending.length();
+        
+        return numSegments;
+    }
+
+    /**
+     * Return the length of the part of a (not final) window whose plain-text
+     * view can't be changed by the text that follows: all of it, unless it
+     * ends with what might be the start of a tag (a '<' with no '>' after
+     * it) or of an entity (an '&amp;' with no ';' after it, close enough to
+     * the end to have one within 10 characters--unless the text is raw, 
+     * which has no entities).
+     * @param window The pending text
+     * @return The length of its settled part
+     */
+    private int settledLength(String window) {
+        int len = window.length();
+        int lt = window.indexOf('<', window.lastIndexOf('>') + 1);
+        if (lt >= 0) {
+            len = lt;
+        }
+        for (int amp = window.indexOf('&', Math.max(0, window.length() - 10)); 
+                 !rawText && (amp >= 0) && (amp < len); amp = window.indexOf('&', amp + 1)) {
+            if (window.indexOf(';', amp + 1) < 0) {
+                len = amp;
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Mark the core of a sentence. If it has one, pass the previous segment
+     * to the handler (this one is now its successor) and hold onto this one; 
+     * otherwise append the sentence to the held segment (if any--if there
+     * isn't one, the caller prepends the sentence to the next one).
+     * @param window The text that contains the sentence
+     * @param start Where the sentence starts in the window
+     * @param end Where it ends
+     * @param view The plain-text view of the window
+     * @return The number of segments passed to the handler
+     */
+    private int addSentence(String window, int start, int end, 
+            TuPreener.PlainTextView view) {
+        SegmentInfo segInfo = view.markSentence(start, end, bdyType, preenHtmlFromXML);
+        if (segInfo != null) {
+            int numSegments = release(true);
+            held = segInfo;
+            return numSegments;
+        }
+        if (held != null) {
+            held.append(window, start, end);
+        }
+        return 0;
+    }
+
+    /**
+     * Pass the held segment (if any) to the handler.
+     * @param hasSuccessor Whether another segment follows it
+     * @return The number of segments passed to the handler
+     */
+    private int release(boolean hasSuccessor) {
+        if (held == null) {
+            return 0;
+        }
+        SegmentInfo segment = held;
+        held = null;
+        handler.handleSegment(segment, hasSuccessor);
+        return 1;
+    }
+
+    /**
+     * Segment a whole paragraph with getCoreSegments, and pass the segments
+     * to the handler.
+     * @param paragraph The paragraph
+     * @return The number of segments passed to the handler
+     */
+    private int handleAll(String paragraph) {
+        SegmentInfo[] segments = TuPreener.getCoreSegments(paragraph, bdyType, 
+            locale, preenHtmlFromXML, rawText, srxSegmenter);
+        if (segments.length == 0) {
+            unsegmented = paragraph;
+        }
+        for (int i = 0; i < segments.length; i++) {
+            handler.handleSegment(segments[i], i < segments.length - 1);
+        }
+        return segments.length;
+    }
+}
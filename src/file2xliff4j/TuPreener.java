@@ -21,10 +21,9 @@
 
 package file2xliff4j;
 
+import java.io.*;
 import java.util.*;
 import java.util.regex.*;
-import java.text.BreakIterator;
-//import com.ibm.icu.text.BreakIterator;
 
 /**
  * Class to represent an XLIFF element (e.g., bx, ex, x ...) and its adjacent white
@@ -39,9 +38,9 @@ class ElementAndSpace {
     private String rid;               // Reference Identifier (rid attribute value)
     private boolean outsideOfCore;    // Defaults to false
     
-    // rid matcher.
-    private Matcher ridM 
-        = Pattern.compile("\\brid=['\"]([^'\"]+)['\"]",Pattern.CANON_EQ).matcher("");
+    // rid pattern.
+    private static final Pattern ridPattern 
+        = Pattern.compile("\\brid=['\"]([^'\"]+)['\"]",Pattern.CANON_EQ);
     
     /**
      * Set the characters that make up he element
@@ -52,7 +51,7 @@ class ElementAndSpace {
         elementText = element;
 
         // While we're at it, extract and set the reference identifier (rid)
-        ridM.reset(element);
+        Matcher ridM = ridPattern.matcher(element);
         if (ridM.find()) {
             rid = ridM.group(1);
         }
@@ -111,50 +110,27 @@ class ElementAndSpace {
     }
 }
 
-/**
- * Class to represent a bx or ex element and its rid on a stack.
- *
- * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
- */
-class BxExStackEntry {
-    private String elementName;       // bx or ex
-    private String rid;               // Reference Identifier (rid attribute value)
-    
-    /**
-     * Constructor that takes an element Name and rid
-     */
-    public BxExStackEntry(String elementName, String rid) {
-        this.elementName = elementName;
-        this.rid = rid;
-    }
-    
-    /**
-     * Return the element name (bx or ex)
-     * @return the name.
-     */
-    public String getElementName() {
-        return elementName;
-    }
-    
-    /**
-     * Return the bx or ex element's rid attribute's value.
-     * @return the rid value
-     */
-    public String getRid() {
-        return rid;
-    }
-}
-
 /**
  * Class to represent a (sentence, probably) segment in a muti-sentence
  * paragraph.
+ * <p>A segment is usually represented by offsets into the text of its 
+ * paragraph: where the segment starts and ends, and where its core starts
+ * and ends. The segment string--the segment with its core marked--is built
+ * only if getSegmentStr is called; writeTo and appendTo copy the pieces of
+ * the segment (and the core marks) directly to their destination.
  *
  * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
  */
 class SegmentInfo {
-    private String segment;       // Candidate segment string
+    private String segment;       // Candidate segment string (with core marks)
     private boolean translatable; // Does this candidate have translatable text?
     
+    private CharSequence source;  // The paragraph (null if segment is all we have)
+    private int start;            // Where the segment starts in the source
+    private int coreStart;        // ... where its core starts
+    private int coreEnd;          // ... and ends
+    private int end;              // ... and where the segment ends
+    
     /**
      * Constructor that takes a candidate segment string and an indication of
      * whether it is translatable text. (If the segment contains no translatable
@@ -170,16 +146,124 @@ class SegmentInfo {
         this.translatable = isTranslatable;
     }
     
+    /**
+     * Constructor for a translatable segment of a paragraph, whose core is
+     * to be marked at the specified offsets.
+     * @param source The text of the paragraph
+     * @param start Offset in the paragraph where the segment starts
+     * @param coreStart Offset where the segment's core starts
+     * @param coreEnd Offset where the segment's core ends
+     * @param end Offset where the segment ends
+     */
+    SegmentInfo(CharSequence source, int start, int coreStart, int coreEnd,
+            int end) {
+        this.source = source;
+        this.start = start;
+        this.coreStart = coreStart;
+        this.coreEnd = coreEnd;
+        this.end = end;
+        this.translatable = true;
+    }
+    
     /**
      * Return the candidate segment string
      * @return The segment.
      */
     public String getSegmentStr() {
+        if (segment == null) {
+            StringBuilder segBuf = new StringBuilder(length());
+            appendTo(segBuf);
+            segment = segBuf.toString();
+        }
         return segment;
     }
 
     public void setSegmentStr(String segStr) {
         this.segment = segStr;
+        this.source = null;
+    }
+    
+    /**
+     * Return the core text of the segment (the text between its core marks).
+     * @return The core text
+     */
+    String getCoreText() {
+        if (source == null) {
+            return TuPreener.getCoreText(segment);
+        }
+        return source.subSequence(coreStart, coreEnd).toString();
+    }
+    
+    /**
+     * Append text that follows the segment (text without a core of its
+     * own) to the segment.
+     * @param text The text that contains the appendage
+     * @param from Where the appendage starts in the text
+     * @param to Where it ends
+     */
+    void append(CharSequence text, int from, int to) {
+        if ((source != null) && (source == text) && (end == from)) {
+            end = to;                     // Just extend the segment
+            segment = null;
+        }
+        else {
+            setSegmentStr(getSegmentStr() + text.subSequence(from, to));
+        }
+    }
+    
+    /**
+     * Return the length of the segment string (including its core marks).
+     * @return The length
+     */
+    public int length() {
+        if (source == null) {
+            return segment.length();
+        }
+        return (end - start) + TuPreener.CORE_START_MRK.length() 
+            + TuPreener.CORE_END_MRK.length();
+    }
+    
+    /**
+     * Write the segment string to a Writer--without building the string.
+     * @param out The Writer to write to
+     * @throws IOException if the write fails
+     */
+    public void writeTo(Writer out) throws IOException {
+        if (source == null) {
+            out.write(segment);
+        }
+        else {
+            write(out, start, coreStart);
+            out.write(TuPreener.CORE_START_MRK);
+            write(out, coreStart, coreEnd);
+            out.write(TuPreener.CORE_END_MRK);
+            write(out, coreEnd, end);
+        }
+    }
+    
+    /**
+     * Append the segment string to a StringBuilder.
+     * @param buf The StringBuilder to append to
+     */
+    public void appendTo(StringBuilder buf) {
+        if (source == null) {
+            buf.append(segment);
+        }
+        else {
+            buf.append(source, start, coreStart).append(TuPreener.CORE_START_MRK)
+                .append(source, coreStart, coreEnd).append(TuPreener.CORE_END_MRK)
+                .append(source, coreEnd, end);
+        }
+    }
+    
+    /** Write [from,to) of the source to a Writer */
+    private void write(Writer out, int from, int to) throws IOException {
+        if (source instanceof String) {
+            out.write((String)source, from, to - from);  // (No copy)
+        }
+        else {
+            out.append(source, from, to);
+        }
     }
     
     /**
@@ -277,6 +361,10 @@ public class TuPreener {
     // Add checkboxes
     // u2751 Lower right shadowed white square
     // u2752 Upper right shadowed white square
+    //
+    // (CharClassifier has lookup tables for the characters of this class and
+    // of SECONDARY_WHITE_SPACE_CLASS. Use them rather than compiling new
+    // patterns from these strings. Keep the two in sync.)
     public static final String WHITE_SPACE_CLASS 
             = "[\\u0009\\u0020\\u00a0\\u00b7\\u2002\\u2003\\u2022\\u2023"
                 + "\\u2043\\u204c\\u204d\\u2219\\u25c9\\u25d8\\u25e6\\u005f"
@@ -303,6 +391,25 @@ public class TuPreener {
     
     private static final Matcher coreMatch 
         = Pattern.compile("^.*?<mrk\\s+mtype=(['\"])x-coretext\\1>(.*)</mrk>",Pattern.DOTALL).matcher("");
+
+    // Patterns used by markCoreTuByRegex (and isSingleton)
+    private static final Pattern leadingSpacePattern
+        = Pattern.compile("^(" + WHITE_SPACE_CLASS + "+)",Pattern.CANON_EQ);
+    private static final Pattern leadingSpaceOrHtmlPattern
+        = Pattern.compile("^(" + WHITE_SPACE_CLASS + "|" + HTML_TAGS_AS_ENTITIES + ")+",
+            Pattern.CANON_EQ);
+    private static final Pattern trailingSpacePattern
+        = Pattern.compile("(" + WHITE_SPACE_CLASS + "+)$",Pattern.CANON_EQ);
+    private static final Pattern trailingSpaceOrHtmlPattern
+        = Pattern.compile("(" + WHITE_SPACE_CLASS + "|" + HTML_TAGS_AS_ENTITIES + ")+$",
+            Pattern.CANON_EQ);
+    private static final Pattern leadingTagPattern
+        = Pattern.compile("^(<[^>]+>)",Pattern.CANON_EQ);
+    // (\z rather than $, which also matches before a final line terminator)
+    private static final Pattern trailingTagPattern
+        = Pattern.compile("(<[^>]+>)\\z",Pattern.CANON_EQ);
+    private static final Pattern singletonPattern 
+        = Pattern.compile("<x [^>]*/>",Pattern.CANON_EQ);
     
     /**
      * Return the text between the core start and end tags
@@ -504,8 +611,8 @@ public class TuPreener {
      * Return an array of segment objects. (If the boundary type is PARAGRAPH, 
      * return a single-element array that contains the original input string, 
      * with the core text marked with mrk elements of mtype x-coretext. If the 
-     * boundary type is SENTENCE, store each sentence in an element of the 
-     * return array, with the core of each marked.
+     * boundary type is SENTENCE (or SRX), store each sentence in an element
+     * of the return array, with the core of each marked.
      * @param in The input string that contains (potentially) a paragraph
      *        segment
      * @param bdyType Segment boundary type (e.g. paragraph, sentence)
@@ -527,8 +634,8 @@ public class TuPreener {
      * Return an array of segment objects. (If the boundary type is PARAGRAPH, 
      * return a single-element array that contains the original input string, 
      * with the core text marked with mrk elements. If the boundary type is 
-     * SENTENCE, store each sentence in an element of the return array, with the 
-     * core of each marked.
+     * SENTENCE (or SRX), store each sentence in an element of the return 
+     * array, with the core of each marked.
      * @param in The input string that contains (potentially) a paragraph
      *        segment
      * @param bdyType Segment boundary type (e.g. paragraph, sentence)
@@ -544,13 +651,71 @@ public class TuPreener {
      */
     public static SegmentInfo[] getCoreSegments(String in, SegmentBoundary bdyType,
             Locale locale, boolean preenHtmlFromXML) {
+        return TuPreener.getCoreSegments(in, bdyType, locale, preenHtmlFromXML, 
+            false);
+    }
+    
+    /**
+     * Passed a String that contains a the text of a "paragraph," a 
+     * segment boundary type indicator and the locale of the text in the string,
+     * divide the input string into segments, marking each segment's "cores."
+     * (See the preceding method.) Importers that segment their text before
+     * escaping it (PlaintextImporter, for example) specify rawText, so that 
+     * a '&lt;' or '&amp;' in the text is segmented as the text it is.
+     * @param in The input string that contains (potentially) a paragraph
+     *        segment
+     * @param bdyType Segment boundary type (e.g. paragraph, sentence)
+     * @param locale The language of the string--used by the sentence break
+     *        iterator to break into sentences.
+     * @param preenHtmlFromXML If true, look for HTML-like tags that are possibly
+     *        outside the "core"--tags that represent "less-than" and "greater-than"
+     *        as entities. If found on the edges of segments, move them outside
+     *        the core.
+     * @param rawText If true, the string is unescaped text: Its only markup 
+     *        is bx, ex and x tags, and it has no entities. If false, it is a
+     *        TU string, whose tags and entities aren't part of its text.
+     * @return An array of zero or more segment information objects, each one 
+     *         potentially marked (using mrk tags) to indicate its core 
+     *         translatable text.
+     */
+    public static SegmentInfo[] getCoreSegments(String in, SegmentBoundary bdyType,
+            Locale locale, boolean preenHtmlFromXML, boolean rawText) {
+        return TuPreener.getCoreSegments(in, bdyType, locale, preenHtmlFromXML,
+            rawText, null);
+    }
+    
+    /**
+     * Passed a String that contains a the text of a "paragraph," a 
+     * segment boundary type indicator and the locale of the text in the string,
+     * divide the input string into segments, marking each segment's "cores."
+     * (See the preceding methods.) Importers whose SrxSegmenter.PROPERTY 
+     * conversion property is set pass the segmenter it specifies, to use 
+     * for SRX boundaries instead of the default one.
+     * @param in The input string that contains (potentially) a paragraph
+     *        segment
+     * @param bdyType Segment boundary type (e.g. paragraph, sentence)
+     * @param locale The language of the string--used by the sentence break
+     *        iterator to break into sentences.
+     * @param preenHtmlFromXML If true, look for HTML-like tags (represented
+     *        as entities) outside the core.
+     * @param rawText If true, the string is unescaped text (whose only markup
+     *        is bx, ex and x tags); if false, it is a TU string.
+     * @param srxSegmenter The segmenter to use for SRX boundaries, or null to
+     *        use the default (SrxSegmenter.getDefault)
+     * @return An array of zero or more segment information objects, each one 
+     *         potentially marked (using mrk tags) to indicate its core 
+     *         translatable text.
+     */
+    public static SegmentInfo[] getCoreSegments(String in, SegmentBoundary bdyType,
+            Locale locale, boolean preenHtmlFromXML, boolean rawText,
+            SrxSegmenter srxSegmenter) {
         // Handle the trivial case, where segments are split on paragraph
         // boundaries.
         if (bdyType.equals(SegmentBoundary.PARAGRAPH)) {
-            String coreTu = markCoreTu(in, bdyType, preenHtmlFromXML);
-            if (coreTu.length() > 0) {
+            SegmentInfo seginfo = markCoreSegment(in, 0, in.length(), bdyType,
+                preenHtmlFromXML);
+            if (seginfo != null) {
                 SegmentInfo[] segArr = new SegmentInfo[1];
-                SegmentInfo seginfo = new SegmentInfo(coreTu,true);
                 segArr[0] = seginfo;
                 return segArr;
             }
@@ -567,22 +732,30 @@ public class TuPreener {
             
             ArrayList<SegmentInfo> tempSegs = new ArrayList<SegmentInfo>();
             
-            // We need to break the string into sentence segments. Use BreakIterator 
-            // for the specified locale
-            BreakIterator sBoundary = BreakIterator.getSentenceInstance(locale);
-
-            sBoundary.setText(in);      // Tell sentence iterator about the TU
-            int sStart = sBoundary.first();   // Get the start of the first sentence.
+            // We need to break the string into sentence segments. Use the
+            // segmentation engine for the boundary type (BreakIterator or 
+            // SRX rules) for the specified locale--on a view of the string
+            // without its inline codes (and with its entities resolved), so
+            // that the engine sees only the text.
+            PlainTextView view = PlainTextView.get();
+            String plainText = view.setTu(in, rawText);
+            int[] sEnds = getSegmenter(bdyType, srxSegmenter).getSegmentEnds(
+                plainText, locale);
+            int sStart = 0;             // The start of the first sentence.
             
             SENTENCE_LOOP:
-            for (int sEnd = sBoundary.next(); sEnd != BreakIterator.DONE;
-                 sStart = sEnd, sEnd = sBoundary.next()) { 
-                
-                String curSentence = in.substring(sStart,sEnd);
+            for (int i = 0; i < sEnds.length; i++) { 
+                // Where does the sentence end in the original string?
+                int sEnd = (i == sEnds.length - 1) ? in.length() 
+                    : view.tuBoundary(sEnds[i]);
+                int curStart = sStart;  // The sentence is [curStart,sEnd)
+                sStart = sEnd;
                 
-                String coreTu = markCoreTu(curSentence, bdyType, preenHtmlFromXML);  // Mark the core of the sentence
-                if (coreTu.length() > 0) {
-                    SegmentInfo segInfo = new SegmentInfo(coreTu,true);
+                // Mark the core of the sentence (unless it is just white
+                // space and tags, which has no core).
+                SegmentInfo segInfo = view.markSentence(curStart, sEnd, bdyType, 
+                    preenHtmlFromXML);
+                if (segInfo != null) {
                     tempSegs.add(segInfo);
                     hasMeaningfulText = true;
                 }
@@ -600,10 +773,12 @@ public class TuPreener {
                     // will contain lt:core beginning and end tags. This will
                     // be appended after the closing lt:core tag.
                     if (tempSegs.size() > 0) {
-                        SegmentInfo segInfo = tempSegs.get(tempSegs.size() - 1);
-                        
-                        segInfo.setSegmentStr(segInfo.getSegmentStr() + curSentence);
-                        tempSegs.set(tempSegs.size() - 1, segInfo);
+                        tempSegs.get(tempSegs.size() - 1).append(in, curStart, sEnd);
+                    }
+                    // If it is the first segment, there is nothing to append
+                    // it to. Prepend it to the next sentence instead.
+                    else {
+                        sStart = curStart;
                     }
                 }
             }  // We've identified all the sentence segments
@@ -623,6 +798,353 @@ public class TuPreener {
         }
     }
 
+    /**
+     * Return the segmentation engine for a (sentence-level) segment boundary 
+     * type: the SRX engine for SRX boundaries, else the BreakIterator engine.
+     * @param bdyType The segment boundary type
+     * @param srxSegmenter The SRX engine to use, or null for the default one
+     * @return The segmenter
+     */
+    static Segmenter getSegmenter(SegmentBoundary bdyType, 
+            SrxSegmenter srxSegmenter) {
+        if (bdyType.equals(SegmentBoundary.SRX)) {
+            if (srxSegmenter != null) {
+                return srxSegmenter;
+            }
+            try {
+                return SrxSegmenter.getDefault();
+            }
+            catch (ConversionException e) {
+                System.err.println("TuPreener.getSegmenter: Unable to load SRX "
+                    + "rules; segmenting with BreakIterator instead.");
+            }
+        }
+        return BreakIteratorSegmenter.getInstance();
+    }
+
+    /**
+     * Mark the core of a segment of a paragraph, as markCoreTu would, but 
+     * return the result as a SegmentInfo that--in the usual case--refers to
+     * the paragraph by offset, rather than as a new string.
+     * @param para The text of the paragraph
+     * @param start Where the segment starts in the paragraph
+     * @param end Where it ends
+     * @param segment The type of segmentation boundary
+     * @param preenHtmlFromXML If true, look for HTML-like tags (represented
+     *        as entities) outside the core.
+     * @return The segment, or null if it has no translatable text.
+     */
+    static SegmentInfo markCoreSegment(String para, int start, int end, 
+            SegmentBoundary segment, boolean preenHtmlFromXML) {
+        String in = para.substring(start, end);
+        
+        // Let markCoreTu handle the cases that its scanner doesn't.
+        if ((in.trim().length() == 0) || (in.indexOf(CORE_START_TAG) > -1)
+            || hasCoreMrk(in) || hasCombiningChars(in)) {
+            String coreTu = markCoreTu(in, segment, preenHtmlFromXML);
+            return (coreTu.length() > 0) ? new SegmentInfo(coreTu, true) : null;
+        }
+        
+        if ((segment == null) || segment.equals(SegmentBoundary.SRX)) {
+            segment = SegmentBoundary.SENTENCE;
+        }
+        CoreScanner scanner = CoreScanner.get();
+        if (!scanner.scan(in, segment, preenHtmlFromXML)) {
+            return null;
+        }
+        if (scanner.findCore()) {
+            return new SegmentInfo(para, start, start + scanner.coreStart, 
+                start + scanner.coreEnd, end);
+        }
+        return new SegmentInfo(scanner.assemble(), true);
+    }
+
+    /**
+     * A plain-text view of a TU string, for the segmentation engines: The
+     * view omits the TU's tags (bx, ex, x or any other inline codes) and 
+     * replaces its character entities with the characters they represent.
+     * (The view of raw text omits only its bx, ex and x tags.) For each 
+     * character of the view, it remembers where in the TU the character 
+     * came from, so that segment boundaries found in the view can be 
+     * projected back onto the TU. Each thread reuses its view. (The
+     * StreamingSegmenter uses it too.)
+     */
+    static final class PlainTextView {
+        private static final ThreadLocal<PlainTextView> views 
+            = new ThreadLocal<PlainTextView>() {
+                protected PlainTextView initialValue() {
+                    return new PlainTextView();
+                }
+            };
+        
+        private String s;                 // The TU string
+        private boolean raw;              // Is it raw text? (See setTu)
+        private StringBuilder text = new StringBuilder(); // Its plain text
+        private int[] tuStart = new int[128]; // Where each char starts in s
+        private int[] tuEnd = new int[128];   // ... and where it ends
+        private int nextGt, nextLt;       // Next '>' and '<' (see tagEnd)
+        
+        /** Return this thread's view */
+        static PlainTextView get() {
+            return views.get();
+        }
+        
+        /**
+         * Make this the view of a TU string. 
+         * @param tu The TU string
+         * @param rawText If true, the string is unescaped text, whose only
+         *        markup is bx, ex and x tags. (Any other '&lt;' or '&amp;' 
+         *        is text.)
+         * @return The TU's plain text
+         */
+        String setTu(String tu, boolean rawText) {
+            s = tu;
+            raw = rawText;
+            text.setLength(0);
+            nextGt = nextLt = 0;
+            int len = tu.length();
+            int i = 0;
+            while (i < len) {
+                char c = tu.charAt(i);
+                if (c == '<') {
+                    // Skip the tag. (Even in a TU string, a '<' isn't 
+                    // necessarily the start of one.)
+                    int end = raw ? inlineCodeEnd(i) : tagEnd(i);
+                    if (end > 0) {
+                        i = end;
+                        continue;
+                    }
+                }
+                else if ((c == '&') && !raw) {
+                    int semi = tu.indexOf(';', i + 1);
+                    int cp = ((semi > 0) && (semi - i <= 10)) ? entityChar(i, semi) : -1;
+                    if (cp >= 0) {
+                        if (Character.isSupplementaryCodePoint(cp)) {
+                            add(Character.highSurrogate(cp), i, semi + 1);
+                            add(Character.lowSurrogate(cp), i, semi + 1);
+                        }
+                        else {
+                            add((char)cp, i, semi + 1);
+                        }
+                        i = semi + 1;
+                        continue;
+                    }
+                }
+                add(c, i, i + 1);
+                i++;
+            }
+            
+            return text.toString();
+        }
+
+        /**
+         * Return the TU offset of a segment boundary found in the view 
+         * before character p (0 &lt; p &lt; the length of the plain text). 
+         * Tags between the text before and after the boundary go with the
+         * following segment--except for leading ex tags (and end tags), 
+         * which close the preceding one.
+         */
+        int tuBoundary(int p) {
+            int pos = tuEnd[p - 1];
+            int limit = tuStart[p];
+            while ((pos < limit) && (s.charAt(pos) == '<')
+                   && (s.startsWith("</", pos) || isTag(pos, "<ex"))) {
+                pos = s.indexOf('>', pos) + 1;
+            }
+            return pos;
+        }
+        
+        /**
+         * Mark the core of the segment [start,end) of the TU string, as 
+         * markCoreSegment does. But don't let markCoreTu discard text that
+         * the view shows: If it finds no core in a segment whose plain text
+         * is meaningful (a '&lt;' that doesn't start a tag, for example), 
+         * the segment's core is all of it but its leading and trailing 
+         * white space.
+         * @return The segment, or null if it has no translatable text.
+         */
+        SegmentInfo markSentence(int start, int end, SegmentBoundary bdyType,
+                boolean preenHtmlFromXML) {
+            if (isMarkupOnly(start, end)) {
+                return null;
+            }
+            SegmentInfo segInfo = markCoreSegment(s, start, end, bdyType, 
+                preenHtmlFromXML);
+            // (The view shows HTML-like tags represented as entities as text,
+            // so check for those in the TU string.)
+            if ((segInfo != null) || !hasText(start, end) || (preenHtmlFromXML
+                    && !CharClassifier.hasMeaningfulText(s, start, end, true))) {
+                return segInfo;
+            }
+            int coreStart = start, coreEnd = end;
+            while (isWhiteSpace(s.charAt(coreStart))) {
+                coreStart++;
+            }
+            while (isWhiteSpace(s.charAt(coreEnd - 1))) {
+                coreEnd--;
+            }
+            return new SegmentInfo(s, start, coreStart, coreEnd, end);
+        }
+        
+        /**
+         * Does the plain text of the TU string between start and end include
+         * meaningful (not white space or hyphen) characters?
+         */
+        private boolean hasText(int start, int end) {
+            // Find the first character of the view that comes from the 
+            // TU string at or after start
+            int lo = 0, hi = text.length();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (tuStart[mid] < start) {
+                    lo = mid + 1;
+                }
+                else {
+                    hi = mid;
+                }
+            }
+            for (int p = lo; (p < text.length()) && (tuEnd[p] <= end); p++) {
+                char c = text.charAt(p);
+                if (!(CharClassifier.isPreenableSpace(c) 
+                      || CharClassifier.isSecondarySpace(c))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * Does the TU string between start and end consist only of white
+         * space, hyphens and bx/ex/x tags--which markCoreTu regards as having
+         * no core text?
+         */
+        boolean isMarkupOnly(int start, int end) {
+            int i = start;
+            while (i < end) {
+                char c = s.charAt(i);
+                if (isWhiteSpace(c) || (c == '-')) {
+                    i++;
+                }
+                else if ((c == '<') && (isTag(i, "<bx") || isTag(i, "<ex") 
+                         || isTag(i, "<x"))) {
+                    int gt = s.indexOf('>', i);
+                    if ((gt < 0) || (gt >= end)) {
+                        return false;
+                    }
+                    i = gt + 1;
+                }
+                else {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        /**
+         * If a tag (or comment, processing instruction, ...) starts at the
+         * '<' at offset lt, return the offset just past its '>'; else -1.
+         * (A tag's '<' is followed by a name start character, '/', '!' or
+         * '?', and no other '<' precedes its '>'.)
+         */
+        private int tagEnd(int lt) {
+            if (lt + 1 >= s.length()) {
+                return -1;
+            }
+            char c = s.charAt(lt + 1);
+            if (!(Character.isLetter(c) || (c == '_') || (c == ':') || (c == '/')
+                  || (c == '!') || (c == '?'))) {
+                return -1;
+            }
+            // (setTu calls this with increasing offsets, so the searches
+            // resume where the previous ones stopped.)
+            if ((nextGt >= 0) && (nextGt < lt + 2)) {
+                nextGt = s.indexOf('>', lt + 2);
+            }
+            if (nextGt < 0) {
+                return -1;
+            }
+            if ((nextLt >= 0) && (nextLt < lt + 1)) {
+                nextLt = s.indexOf('<', lt + 1);
+            }
+            if ((nextLt >= 0) && (nextLt < nextGt)) {
+                return -1;
+            }
+            return nextGt + 1;
+        }
+        
+        /**
+         * If a bx, ex or x tag (an empty element, with attributes) starts at
+         * the '<' at offset lt, return the offset just past its '>'; else -1.
+         * (In raw text, these are the only tags.)
+         */
+        private int inlineCodeEnd(int lt) {
+            int nameEnd = s.startsWith("<x", lt) ? lt + 2
+                : (s.startsWith("<bx", lt) || s.startsWith("<ex", lt)) ? lt + 3 : -1;
+            if ((nameEnd < 0) || (nameEnd >= s.length()) 
+                || !isWhiteSpace(s.charAt(nameEnd))) {
+                return -1;
+            }
+            int gt = s.indexOf('>', nameEnd);
+            int nextLt = s.indexOf('<', nameEnd);
+            if ((gt < 0) || (s.charAt(gt - 1) != '/') 
+                || ((nextLt >= 0) && (nextLt < gt))) {
+                return -1;
+            }
+            return gt + 1;
+        }
+        
+        /** Does the tag that starts at pos have the specified name (e.g. "<ex")? */
+        private boolean isTag(int pos, String name) {
+            int after = pos + name.length();
+            if (!s.startsWith(name, pos) || (after >= s.length())) {
+                return false;
+            }
+            char c = s.charAt(after);
+            return (c == '/') || (c == '>') || isWhiteSpace(c);
+        }
+        
+        /**
+         * Return the character that the entity [amp,semi] represents, or
+         * -1 if it isn't a predefined XML entity or a character reference.
+         */
+        private int entityChar(int amp, int semi) {
+            if (s.charAt(amp + 1) == '#') {
+                try {
+                    int cp;
+                    if ((s.charAt(amp + 2) == 'x') || (s.charAt(amp + 2) == 'X')) {
+                        cp = Integer.parseInt(s.substring(amp + 3, semi), 16);
+                    }
+                    else {
+                        cp = Integer.parseInt(s.substring(amp + 2, semi));
+                    }
+                    return Character.isValidCodePoint(cp) ? cp : -1;
+                }
+                catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+            String name = s.substring(amp + 1, semi);
+            if (name.equals("amp"))  { return '&'; }
+            if (name.equals("lt"))   { return '<'; }
+            if (name.equals("gt"))   { return '>'; }
+            if (name.equals("quot")) { return '"'; }
+            if (name.equals("apos")) { return '\''; }
+            return -1;
+        }
+
+        /** Append a character to the plain text */
+        private void add(char c, int start, int end) {
+            int n = text.length();
+            if (n == tuStart.length) {
+                tuStart = Arrays.copyOf(tuStart, n * 2);
+                tuEnd = Arrays.copyOf(tuEnd, n * 2);
+            }
+            tuStart[n] = start;
+            tuEnd[n] = end;
+            text.append(c);
+        }
+    }
+
     /**
      * Mark the core text of a translation unit: Passed a string to be stored in
      * a trans-unit source or target, determine if
@@ -726,16 +1248,43 @@ public class TuPreener {
                     TuPreener.CORE_END_MRK);
         }
         
-        Matcher coreMrkMatcher = Pattern.compile("<mrk\\s+mtype=(['\"])x-coretext\\1>", Pattern.DOTALL).matcher(in);
-        if (coreMrkMatcher.find()) {
+        if (hasCoreMrk(in)) {
             return in;                  // Already has core mrk tag.
         }
         
         // Set a default value for the segment boundary if null was specified.
-        if (segment == null) {
+        // (SRX segments are sentences too.)
+        if ((segment == null) || segment.equals(SegmentBoundary.SRX)) {
             segment = SegmentBoundary.SENTENCE;
         }
         
+        // The regular expressions that markCoreTuByRegex uses match with
+        // canonical equivalence, which (among other things) makes character
+        // classes match whole "grapheme clusters"--a letter followed by a
+        // combining mark, for example. The CoreScanner matches one character
+        // at a time (except for CR LF), so leave strings that include any 
+        // characters that can combine with their neighbors to the regexes.
+        if (hasCombiningChars(in)) {
+            return markCoreTuByRegex(in, segment, preenHtmlFromXML);
+        }
+        
+        return CoreScanner.get().markCore(in, segment, preenHtmlFromXML);
+    }
+    
+    /**
+     * Mark the core text of a translation unit, using regular expressions. 
+     * (See markCoreTu--which has already checked for null, empty and 
+     * already-marked TU strings--for details.) The tests also use this as
+     * the reference that CoreScanner's output is checked against.
+     * @param in The candidate input TU text to be examined
+     * @param segment The type of segmentation boundary
+     * @param preenHtmlFromXML If true, look for HTML-like tags that are possibly
+     *        outside the "core".
+     * @return The resulting TU string, either marked with its "core" contents, or
+     *  reduced to a zero length string if it contains no translatable text at all.
+     */
+    static String markCoreTuByRegex(String in, SegmentBoundary segment, 
+            boolean preenHtmlFromXML) {
         ArrayList<ElementAndSpace> prefixTags = new ArrayList<ElementAndSpace>();
         ArrayList<ElementAndSpace> suffixTags = new ArrayList<ElementAndSpace>();
         
@@ -748,16 +1297,17 @@ public class TuPreener {
         // Matcher to extract prefix whitespace
         Matcher ms;
         if (preenHtmlFromXML) {
-            ms = Pattern.compile("^(" + WHITE_SPACE_CLASS + "|" + HTML_TAGS_AS_ENTITIES + ")+",
-                Pattern.CANON_EQ).matcher("");
+            ms = leadingSpaceOrHtmlPattern.matcher("");
         }
         else {
-            ms = Pattern.compile("^(" + WHITE_SPACE_CLASS + "+)",Pattern.CANON_EQ).matcher("");
+            ms = leadingSpacePattern.matcher("");
         }
         ms.reset(core);
         if (ms.find()) {                           // Look for leading white space
             leadingSpace = ms.group(1);
             if (leadingSpace != null) {
+                // (All of the match--group 1 captures only its last repetition)
+                leadingSpace = core.substring(0, ms.end(1));
                 core = core.substring(ms.end(1));
             }
             else {
@@ -773,23 +1323,32 @@ public class TuPreener {
         // Note: Java Regexes seem to be broken in a major way when it comes to
         // matching something like trailing "\n\\u0020\\u0020\\u0020"
         // We will try another tactic
-        String trimmedTail = core.trim(); // Prefix already trimmed above
+        String trimmedTail = core.trim();
         if (trimmedTail.length() < core.length()) {
-            trailingSpace = core.substring(trimmedTail.length());
+            // The prefix is usually trimmed already--but the leading space
+            // pattern doesn't match a CR LF, so whatever trim removed from 
+            // the front goes with the leading space.
+            int trimStart = 0;
+            while ((trimStart < core.length()) && (core.charAt(trimStart) <= ' ')) {
+                trimStart++;
+            }
+            leadingSpace += core.substring(0, trimStart);
+            trailingSpace = core.substring(trimStart + trimmedTail.length());
             core = trimmedTail;
         }
         
         Matcher ns;
         if (preenHtmlFromXML) {
-            ns = Pattern.compile("(" + WHITE_SPACE_CLASS + "|" + HTML_TAGS_AS_ENTITIES + ")+$",
-                Pattern.CANON_EQ).matcher("");
+            ns = trailingSpaceOrHtmlPattern.matcher("");
         }
         else {
-            ns = Pattern.compile("(" + WHITE_SPACE_CLASS + "+)$",Pattern.CANON_EQ).matcher("");
+            ns = trailingSpacePattern.matcher("");
         }
         ns.reset(core);
         if (ns.find()) {
-            trailingSpace = ns.group(1) + trailingSpace;  // Whitespace at end.
+            // Whitespace at end. (Up to the very end: "$" also matches before
+            // a final line terminator.)
+            trailingSpace = core.substring(ns.start(1)) + trailingSpace;
 //            if (trailingSpace != null) {
                 core = core.substring(0,ns.start(1));
 //            }
@@ -807,7 +1366,7 @@ public class TuPreener {
          **************************************************************************/
   
         // Matcher for a leading tag
-        Matcher mt = Pattern.compile("^(<[^>]+>)",Pattern.CANON_EQ).matcher("");
+        Matcher mt = leadingTagPattern.matcher("");
         
         // Get leading tags/whitespace
         // Perl's regexes could do the following in one statement. However, Java is
@@ -831,6 +1390,7 @@ public class TuPreener {
                 if (ms.find()) {                           // Look for leading white space
                     String prefixWhiteSpace = ms.group(1);
                     if (prefixWhiteSpace != null) {
+                        prefixWhiteSpace = core.substring(0, ms.end(1));
                         core = core.substring(ms.end(1));
                         curTag.setAdjacentSpace(prefixWhiteSpace);
                     }
@@ -848,7 +1408,7 @@ public class TuPreener {
         // Now get trailing tags and whitespace at the end of the TU
         if (core.length() > 0) {    // Something besides leading tags & whitespace
             // Matcher for a  single trailing suffix tag
-            Matcher nt = Pattern.compile("(<[^>]+>)$",Pattern.CANON_EQ).matcher("");
+            Matcher nt = trailingTagPattern.matcher("");
 
             while (true) {
                 ElementAndSpace curTag = new ElementAndSpace();
@@ -871,6 +1431,7 @@ public class TuPreener {
                     if (ns.find()) {
                         suffixWhiteSpace = ns.group(1);  // Whitespace at end.
                         if (suffixWhiteSpace != null) {
+                            suffixWhiteSpace = core.substring(ns.start(1));
                             core = core.substring(0,ns.start(1));
                             curTag.setAdjacentSpace(suffixWhiteSpace);
                         }
@@ -891,18 +1452,7 @@ public class TuPreener {
         // Ticket 472 9/25/2006 WLW
         // If the core TU consists exclusively of WHITESPACE and XLIFF tags,
         // return ""
-        Matcher ws;
-        if (preenHtmlFromXML) {
-            ws = Pattern.compile("^(?:" + WHITE_SPACE_CLASS +
-                "|" + SECONDARY_WHITE_SPACE_CLASS + "|<[be]?x[^>]*>|" + 
-                HTML_TAGS_AS_ENTITIES + ")*$", Pattern.DOTALL).matcher("");
-        }
-        else {
-            ws = Pattern.compile("^(?:" + WHITE_SPACE_CLASS +
-                "|" + SECONDARY_WHITE_SPACE_CLASS + "|<[be]?x[^>]*>)*$", Pattern.DOTALL).matcher("");
-        }
-        ws.reset(core);
-        if (ws.find()) {
+        if (!CharClassifier.hasMeaningfulText(core, preenHtmlFromXML)) {
             return "";
         }
         
@@ -1119,99 +1669,804 @@ public class TuPreener {
     }
     
     /**
-     * Is this a singleton tag? (For now, that means an empty x tag.)
-     * @param tag The tag to examine for singletonness
-     * @return true if a singleton tag, else false.
+     * Does the string include an &lt;mrk mtype='x-coretext'&gt; tag? (The
+     * same test as the regex "&lt;mrk\s+mtype=(['"])x-coretext\1&gt;")
      */
-    public static boolean isSingleton(String tag) {
-        if ((tag == null) || (tag.length() == 0)) {
-            return false;                          // Or should this return true?
-        }
-        
-        // Matcher for an x tag
-        Matcher xm = Pattern.compile("<x [^>]*/>",Pattern.CANON_EQ).matcher(tag);
-
-        if (xm.find()) {       // Is this an x tag?
-            return true;
+    private static boolean hasCoreMrk(String in) {
+        for (int i = in.indexOf("<mrk"); i >= 0; i = in.indexOf("<mrk", i + 1)) {
+            int j = i + 4;
+            while (j < in.length() && isRegexSpace(in.charAt(j))) {
+                j++;
+            }
+            if ((j > i + 4) && in.startsWith("mtype=", j) 
+                && (j + 6 < in.length())) {
+                char quote = in.charAt(j + 6);
+                if (((quote == '\'') || (quote == '"'))
+                    && in.startsWith("x-coretext", j + 7)
+                    && in.startsWith(quote + ">", j + 17)) {
+                    return true;
+                }
+            }
         }
-                                 
-        return false;          // Not a singleton tag (x for now)
+        return false;
     }
 
     /**
-     * Passed the core text of a tu that originates from a format that doesn't
-     * necessarily map to well-formed XML (non-XHTML HTML, for example), verify 
-     * that the only tags present are bx, ex and x tags (for our implementation,
-     * at least). The tags need not necessarily be properly nested.
-     * <p>While validating, remove non-bx/ex/x tags.
-     * <p><i>Note:</i> Although XLIFF allows source and target elements to
-     * include tags/elements other than bx, ex and x, this particular implementation
-     * allows only those three (empty) elements. (Since the text we are passed is the
-     * <i>core</i> of the TU, it doesn't include our start and end mrk tags.)
-     * @param tuText The text of the TU
-     * @return A checked and repaired (if necessary) text string.
+     * Does the string include any characters that can combine with an 
+     * adjacent character into a single grapheme cluster (combining marks,
+     * format characters such as ZWJ, Hangul jamo, surrogates ...)?
      */
-    public static String checkAndRepairTuTags(String tuText) {
-        if (tuText == null) {
-            return "";          // Return zero-length string if null
+    private static boolean hasCombiningChars(String in) {
+        for (int i = 0; i < in.length(); i++) {
+            char c = in.charAt(i);
+            if (c < '\u0300') {
+                continue;
+            }
+            switch (Character.getType(c)) {
+                case Character.NON_SPACING_MARK:
+                case Character.ENCLOSING_MARK:
+                case Character.COMBINING_SPACING_MARK:
+                case Character.FORMAT:
+                case Character.SURROGATE:
+                    return true;
+            }
+            if (((c >= '\u1100') && (c <= '\u11ff'))     // Hangul jamo
+                || ((c >= '\ua960') && (c <= '\ua97c'))
+                || ((c >= '\ud7b0') && (c <= '\ud7fb'))
+                || (c == '\u0e33') || (c == '\u0eb3') || (c == '\u0d4e')
+                || (c == '\uff9e') || (c == '\uff9f')) {
+                return true;
+            }
         }
-
-        // If no tags, return the string we were passed.
-        if ((tuText.trim().length() == 0) 
-            || (tuText.indexOf("<") == -1)) {
-            return tuText;
+        return false;
+    }
+    
+    /** Is c one of the characters in WHITE_SPACE_CLASS? */
+    private static boolean isWhiteSpace(char c) {
+        return CharClassifier.isPreenableSpace(c);
+    }
+    
+    /** Is c one of the characters matched by the regex \s? */
+    private static boolean isRegexSpace(char c) {
+        return (c == ' ') || (c == '\t') || (c == '\n') || (c == '\u000b')
+            || (c == '\f') || (c == '\r');
+    }
+
+    /** Is c a line terminator (a character that the regex "." doesn't match)? */
+    private static boolean isLineTerminator(char c) {
+        return (c == '\n') || (c == '\r') || (c == '\u0085') || ((c|1) == '\u2029');
+    }
+    
+    /** Does the regex \b consider c a word character? */
+    private static boolean isWordChar(int c) {
+        return (c == '_') || Character.isLetterOrDigit(c);
+    }
+    
+    /**
+     * Hand-written scanner that does what markCoreTuByRegex does (producing
+     * identical output) without regular expressions and without copying 
+     * substrings: Everything is kept as offsets into the input string until
+     * the result is assembled. Each thread reuses its own scanner (and its
+     * arrays and buffer).
+     * <p>The scanner reproduces the regexes' behavior exactly--including 
+     * their treatment of line terminators at the end of the text (which 
+     * "$" matches before), of CR LF (which, with canonical equivalence,
+     * character classes don't match) and, when preening HTML-like tags, of 
+     * which repetition of a group is captured. (It doesn't handle 
+     * combining characters--see hasCombiningChars.)
+     */
+    static final class CoreScanner {
+        private static final ThreadLocal<CoreScanner> scanners 
+            = new ThreadLocal<CoreScanner>() {
+                protected CoreScanner initialValue() {
+                    return new CoreScanner();
+                }
+            };
+
+        private String s;                 // The TU string being scanned
+        private boolean html;             // Preen HTML-like tags (as entities)?
+        private int grpStart, grpEnd;     // Space matched by the last space scan
+        private TagList prefixTags = new TagList();
+        private TagList suffixTags = new TagList();
+        private StringBuilder outBuf = new StringBuilder();
+        private int[] pieces = new int[32];   // Start & end of each piece of the result
+        private int numPieces;
+        private int startMrkAt, endMrkAt; // Index of the piece each mark precedes
+        int coreStart, coreEnd;           // Offsets of the core (see findCore)
+        
+        /** Return this thread's scanner */
+        static CoreScanner get() {
+            return scanners.get();
         }
         
-        // We have a < character--a good sign of 1+ tags' presence
-        String validText = "";   // What we'll eventually return.
-        /*
-         * Matcher to match/capture the following:
-         * - Leading characters before a bx/ex/x (or other) tag
-         * - The bx/ex/x (or other) tag
-         * - The name of the tag (bx, ex or x)
-         * - The trailing characters after the tag.
+        /**
+         * Mark the core text of the TU string. (See markCoreTu.)
          */
-        Matcher m = Pattern.compile("^(.*?)(<[^>/]*/?>)(.*)",Pattern.DOTALL).matcher("");
+        String markCore(String in, SegmentBoundary segment, boolean preenHtmlFromXML) {
+            if (!scan(in, segment, preenHtmlFromXML)) {
+                return "";
+            }
+            return assemble();
+        }
+        
+        /**
+         * Find the core text of the TU string, recording the pieces of the
+         * marked result (see assemble). Return false if it has no core text.
+         */
+        boolean scan(String in, SegmentBoundary segment, boolean preenHtmlFromXML) {
+            s = in;
+            html = preenHtmlFromXML;
+            prefixTags.clear();
+            suffixTags.clear();
+            
+            int cs = 0;                   // Start of the candidate core
+            int ce = s.length();          // End of the candidate core
+            
+            // Isolate leading space from the TU string
+            int leadStart = 0, leadEnd = 0;
+            int pos = leadingSpace(cs, ce);
+            if (grpStart >= 0) {
+                leadStart = grpStart;
+                leadEnd = grpEnd;
+                cs = pos;
+            }
+            
+            // Isolate trailing space: First the characters that String.trim()
+            // removes. (Any it removes from the front--a CR LF, which the 
+            // leading space scan doesn't match--go with the leading space.)
+            int trimStart = 0, trimEnd = 0;
+            int st = cs, en = ce;
+            while ((st < en) && (s.charAt(st) <= ' ')) {
+                st++;
+            }
+            while ((en > st) && (s.charAt(en - 1) <= ' ')) {
+                en--;
+            }
+            if ((en - st) < (ce - cs)) {
+                leadEnd = st;
+                trimStart = en;
+                trimEnd = ce;
+                cs = st;
+                ce = en;
+            }
 
-        String tail = tuText;
-        boolean bogus = false;               // Not bogus ... yet.
-        
-        while ((tail != null) && (tail.length() > 0)) {  // While more tags
-            m.reset(tail);
-            if (m.find()) {
-                String prefix = m.group(1);
-                String tag = m.group(2);
-                tail = m.group(3); // For next iteration
+            // ... then the white space before that
+            int trailStart = 0, trailEnd = 0;
+            pos = trailingSpace(cs, ce);
+            if (grpStart >= 0) {
+                trailStart = grpStart;
+                trailEnd = grpEnd;
+                ce = pos;
+            }
+            
+            // Now isolate leading tags and adjacent space (adjacent on the side
+            // of the tag closest to the core TU text)
+            int tagEnd;
+            while ((tagEnd = leadingTag(cs, ce)) >= 0) {
+                int tagStart = cs;
+                cs = tagEnd;
+                int spStart = 0, spEnd = 0;
+                pos = leadingSpace(cs, ce);
+                if (grpStart >= 0) {
+                    spStart = grpStart;
+                    spEnd = grpEnd;
+                    cs = pos;
+                }
+                prefixTags.add(tagStart, tagEnd, spStart, spEnd);
+            }
+            
+            // Now get trailing tags and whitespace at the end of the TU
+            if (cs < ce) {
+                int tagStart;
+                while ((tagStart = trailingTag(cs, ce)) >= 0) {
+                    tagEnd = grpEnd;
+                    ce = tagStart;
+                    int spStart = 0, spEnd = 0;
+                    pos = trailingSpace(cs, ce);
+                    if (grpStart >= 0) {
+                        spStart = grpStart;
+                        spEnd = grpEnd;
+                        ce = pos;
+                    }
+                    suffixTags.add(tagStart, tagEnd, spStart, spEnd);
+                }
+            }
+            
+            // Check for meaningful characters in the core. 
+            boolean allTrimmable = true;
+            for (int i = cs; i < ce; i++) {
+                if (s.charAt(i) > ' ') {
+                    allTrimmable = false;
+                    break;
+                }
+            }
+            if (allTrimmable || hasNoCoreText(cs, ce)) {
+                return false;
+            }
+            
+            if ((prefixTags.size == 0) && (suffixTags.size == 0)) {
+                numPieces = 0;
+                piece(leadStart, leadEnd);
+                startMrkAt = numPieces;
+                piece(cs, ce);
+                endMrkAt = numPieces;
+                piece(trailStart, trailEnd);
+                piece(trimStart, trimEnd);
+                return true;
+            }
 
-                if (prefix.length() > 0) {
-                    // Make sure leading text (before first tag) has no characters
-                    // that should be XML entities
-                    validText += validateEntities(prefix);
+            // Look through the prefix tags and determine which are inside and 
+            // which are outside the core.
+            for (int i = 0; i < prefixTags.size; i++) {
+                boolean foundMatch = false;
+                
+                // Is this a singleton <x/> element (for example)?
+                if (isSingleton(prefixTags, i)) {
+                    prefixTags.outside[i] = true;
+                    foundMatch = true;
                 }
 
-                // If the tag starts <bx, <ex, or <x add it to validText
-                if (tag.matches("<[be]?x\\b.*")) {
-                    validText += tag;
+                // Look at suffix tags to see if they contain a matching rid
+                for (int j = 0; (j < suffixTags.size) && (! foundMatch); j++) {
+                    if (sameRid(prefixTags, i, suffixTags, j)) {
+                        prefixTags.outside[i] = true;
+                        suffixTags.outside[j] = true;
+                        foundMatch = true;
+                    }
+                }
+                
+                // ... then at later prefix tags
+                for (int j = i+1; (j < prefixTags.size) && (! foundMatch); j++) {
+                    if (sameRid(prefixTags, i, prefixTags, j)) {
+                        prefixTags.outside[i] = true;
+                        prefixTags.outside[j] = true;
+                        foundMatch = true;
+                    }
+                }
+                
+                // When segmenting on sentence boundaries, treat a bx tag
+                // whose ex isn't in the core as a singleton
+                if ((!foundMatch) && segment.equals(SegmentBoundary.SENTENCE)
+                    && isBxOrEx(prefixTags, i, 'b')
+                    && !coreHasTag(cs, ce, "<ex", prefixTags, i)) {
+                    prefixTags.outside[i] = true;
                 }
-                // Else don't add tag to validText
             }
-            else {
-                // No more matches. Put the tail on the end of the accumulated
-                // valid text
-                if (tail.length() > 0) {
-                    validText += validateEntities(tail);
-                    tail = "";
+            
+            // If a suffix tag is outside the core, then all following tags
+            // are too. (Note: The right-most suffix tag is at index 0.)
+            boolean restAreOutsideCore = false;
+            int indexOfFirstNonCoreSuffixTag = -1;
+            for (int i = suffixTags.size - 1; i >= 0; i--) {
+                if (restAreOutsideCore) {
+                    suffixTags.outside[i] = true;
                 }
+                else if (suffixTags.outside[i]) {
+                    restAreOutsideCore = true;
+                    indexOfFirstNonCoreSuffixTag = i;
+                }
+            }
+            
+            // Look for singletons and pairs of tags within the suffix
+            for (int i = indexOfFirstNonCoreSuffixTag + 1; i < suffixTags.size; i++) {
+                boolean foundMatch = false;
+                
+                if (isSingleton(suffixTags, i)) {
+                    suffixTags.outside[i] = true;
+                    foundMatch = true;
+                }
+                
+                for (int j = i+1; (j < suffixTags.size) && (! foundMatch); j++) {
+                    if (sameRid(suffixTags, i, suffixTags, j)) {
+                        suffixTags.outside[i] = true;
+                        suffixTags.outside[j] = true;
+                        foundMatch = true;
+                    }
+                }
+
+                // When segmenting on sentence boundaries, treat an ex tag
+                // whose bx isn't in the core as a singleton
+                if ((!foundMatch) && segment.equals(SegmentBoundary.SENTENCE)
+                    && isBxOrEx(suffixTags, i, 'e')
+                    && !coreHasTag(cs, ce, "<bx", suffixTags, i)) {
+                    suffixTags.outside[i] = true;
+                }
+            }
+            
+            // Suffix tags closer to the core than one that is inside the 
+            // core are inside too.
+            boolean restAreInside = false;
+            for (int i = 0; i < suffixTags.size; i++) {
+                if (suffixTags.outside[i]) {
+                    if (restAreInside) {
+                        suffixTags.outside[i] = false;
+                    }
+                }
+                else {
+                    restAreInside = true;
+                }
+            }
+
+            // Record the pieces of the result
+            numPieces = 0;
+            piece(leadStart, leadEnd);
+            
+            boolean outsideCore = true;
+            for (int i = 0; i < prefixTags.size; i++) {
+                if ((! prefixTags.outside[i]) && outsideCore) {
+                    outsideCore = false;
+                    startMrkAt = numPieces;
+                }
+                int t = i * TagList.STRIDE;
+                piece(prefixTags.pos[t], prefixTags.pos[t+1]);
+                piece(prefixTags.pos[t+2], prefixTags.pos[t+3]);
+            }
+            if (outsideCore) {
+                startMrkAt = numPieces;
             }
+            
+            piece(cs, ce);
+            
+            boolean insideCore = true;
+            for (int i = suffixTags.size - 1; i >= 0; i--) {
+                if (suffixTags.outside[i] && insideCore) {
+                    insideCore = false;
+                    endMrkAt = numPieces;
+                }
+                int t = i * TagList.STRIDE;
+                piece(suffixTags.pos[t+2], suffixTags.pos[t+3]); // Space first
+                piece(suffixTags.pos[t], suffixTags.pos[t+1]);   // *Then* tag
+            }
+            if (insideCore) {
+                endMrkAt = numPieces;
+            }
+            
+            piece(trailStart, trailEnd);
+            piece(trimStart, trimEnd);
+            return true;
+        }
+
+        /** Record the next piece, [start,end) of the TU string, of the result */
+        private void piece(int start, int end) {
+            if (2 * numPieces == pieces.length) {
+                pieces = Arrays.copyOf(pieces, pieces.length * 2);
+            }
+            pieces[2 * numPieces] = start;
+            pieces[2 * numPieces + 1] = end;
+            numPieces++;
         }
         
-        if (validText.equals(tuText)) {
-            return tuText;
+        /**
+         * Assemble the marked TU string from the pieces that scan recorded,
+         * inserting the core start and end marks between them.
+         */
+        String assemble() {
+            outBuf.setLength(0);
+            for (int k = 0; k < numPieces; k++) {
+                if (k == startMrkAt) {
+                    outBuf.append(CORE_START_MRK);
+                }
+                if (k == endMrkAt) {
+                    outBuf.append(CORE_END_MRK);
+                }
+                outBuf.append(s, pieces[2 * k], pieces[2 * k + 1]);
+            }
+            if (endMrkAt == numPieces) {
+                outBuf.append(CORE_END_MRK);
+            }
+            return outBuf.toString();
         }
-        else {
-            return validText;
+        
+        /**
+         * If the pieces that scan recorded are the TU string itself, in 
+         * order (as they nearly always are), set coreStart and coreEnd to
+         * the offsets in the TU string where the core marks go, and return
+         * true. Otherwise return false.
+         */
+        boolean findCore() {
+            int pos = 0;
+            for (int k = 0; k < numPieces; k++) {
+                if (k == startMrkAt) {
+                    coreStart = pos;
+                }
+                if (k == endMrkAt) {
+                    coreEnd = pos;
+                }
+                int start = pieces[2 * k];
+                int end = pieces[2 * k + 1];
+                if (start < end) {
+                    if (start != pos) {
+                        return false;
+                    }
+                    pos = end;
+                }
+            }
+            if (endMrkAt == numPieces) {
+                coreEnd = pos;
+            }
+            return pos == s.length();
+        }
+
+        /**
+         * Does the WHITE_SPACE_CLASS (matching with canonical equivalence) 
+         * match the character at i? (It doesn't match a CR followed by LF.)
+         */
+        private boolean wsAt(int i, int end) {
+            char c = s.charAt(i);
+            return isWhiteSpace(c) 
+                && !((c == '\r') && (i + 1 < end) && (s.charAt(i + 1) == '\n'));
+        }
+
+        /**
+         * Does "$" match at position i of the text that ends at end? (At the
+         * end, or before a final line terminator.)
+         */
+        private boolean dollarAt(int i, int start, int end) {
+            if (i == end) {
+                return true;
+            }
+            if ((i < end - 2) || (i < start)) {
+                return false;
+            }
+            char c = s.charAt(i);
+            if (i == end - 2) {
+                return (c == '\r') && (s.charAt(i + 1) == '\n');
+            }
+            if (c == '\n') {
+                return !((i > start) && (s.charAt(i - 1) == '\r'));
+            }
+            return (c == '\r') || (c == '\u0085') || ((c|1) == '\u2029');
+        }
+        
+        /**
+         * Return the end of the HTML_TAGS_AS_ENTITIES match that starts at
+         * i, or -1 if none does.
+         */
+        private int entityTagEnd(int i, int end, boolean canonEq) {
+            return CharClassifier.entityTagEnd(s, i, end, canonEq);
+        }
+        
+        /**
+         * Does a white space character or (if preening HTML) an entity tag
+         * begin at i?
+         */
+        private boolean spaceTokenAt(int i, int end) {
+            return wsAt(i, end) || (html && (entityTagEnd(i, end, true) >= 0));
+        }
+        
+        /**
+         * Return the start of the white space character or (if preening 
+         * HTML) entity tag that ends at i, or -1 if none does.
+         */
+        private int spaceTokenBefore(int i, int start, int end) {
+            if ((i > start) && wsAt(i - 1, end)) {
+                return i - 1;
+            }
+            if (html && (i - 4 > start) && s.startsWith("&gt;", i - 4)) {
+                int amp = s.lastIndexOf('&', i - 5);
+                if ((amp >= start) && (entityTagEnd(amp, end, true) == i)) {
+                    return amp;
+                }
+            }
+            return -1;
+        }
+        
+        /**
+         * Match leading space (like leadingSpacePattern or 
+         * leadingSpaceOrHtmlPattern) in [start,end). Set grpStart/grpEnd to
+         * the match (grpStart = -1 if none) and return the end of the match.
+         */
+        private int leadingSpace(int start, int end) {
+            grpStart = -1;
+            int k = start;
+            if (!html) {
+                while ((k < end) && wsAt(k, end)) {
+                    k++;
+                }
+                if (k > start) {
+                    grpStart = start;
+                    grpEnd = k;
+                }
+                return k;
+            }
+            
+            for (;;) {
+                int next = -1;
+                if (k < end) {
+                    next = wsAt(k, end) ? k + 1 : entityTagEnd(k, end, true);
+                }
+                if (next < 0) {
+                    break;
+                }
+                grpStart = start;
+                grpEnd = next;
+                k = next;
+            }
+            return k;
+        }
+
+        /**
+         * Match trailing space (like trailingSpacePattern or 
+         * trailingSpaceOrHtmlPattern) in [start,end). Set grpStart to the 
+         * start of what the pattern's group 1 would capture (grpStart = -1 if
+         * no match) and grpEnd to end, and return grpStart (the new end of 
+         * the core). (The space extends to end, even when "$" matches before
+         * a final line terminator.)
+         */
+        private int trailingSpace(int start, int end) {
+            grpStart = -1;
+            for (int b = Math.max(start, end - 2); b <= end; b++) {
+                if (!dollarAt(b, start, end) 
+                    || ((b < end) && spaceTokenAt(b, end))) {
+                    continue;
+                }
+                if (!html) {
+                    int r = b;
+                    while ((r > start) && wsAt(r - 1, end)) {
+                        r--;
+                    }
+                    if (r < b) {
+                        grpStart = r;
+                        grpEnd = end;
+                        return r;
+                    }
+                }
+                else {
+                    // Group 1 captures only the last repetition
+                    int t = spaceTokenBefore(b, start, end);
+                    if (t >= 0) {
+                        grpStart = t;
+                        grpEnd = end;
+                        return t;
+                    }
+                }
+            }
+            return end;
+        }
+        
+        /**
+         * Return the end of the tag (like leadingTagPattern) at start, or -1
+         */
+        private int leadingTag(int start, int end) {
+            if ((start >= end) || (s.charAt(start) != '<')) {
+                return -1;
+            }
+            int gt = s.indexOf('>', start + 1);
+            if ((gt < start + 2) || (gt >= end)) {
+                return -1;
+            }
+            for (int q = start + 1; q < gt - 1; q++) {
+                if ((s.charAt(q) == '\r') && (s.charAt(q + 1) == '\n')) {
+                    return -1;
+                }
+            }
+            return gt + 1;
+        }
+        
+        /**
+         * Return the start of the tag (like trailingTagPattern) at the end of
+         * [start,end), or -1. Sets grpEnd to the end of the tag.
+         */
+        private int trailingTag(int start, int end) {
+            int gt = end - 1;
+            if ((gt < start + 2) || (s.charAt(gt) != '>')) {
+                return -1;
+            }
+            // The tag starts at the first '<' after the previous '>' (and
+            // after any CR LF, which [^>] doesn't match).
+            int from = s.lastIndexOf('>', gt - 1);
+            if (from < start) {
+                from = start - 1;
+            }
+            for (int q = gt - 2; q > from; q--) {
+                if ((s.charAt(q) == '\r') && (s.charAt(q + 1) == '\n')) {
+                    from = q;
+                    break;
+                }
+            }
+            int lt = s.indexOf('<', from + 1);
+            if ((lt >= 0) && (lt <= gt - 2)) {
+                grpEnd = end;
+                return lt;
+            }
+            return -1;
+        }
+        
+        /**
+         * Does [start,end) consist exclusively of white space, hyphens, bx/ex/x
+         * tags and (if preening HTML) entity tags? (Like noCoreTextPattern)
+         */
+        private boolean hasNoCoreText(int start, int end) {
+            return !CharClassifier.hasMeaningfulText(s, start, end, html);
+        }
+        
+        /**
+         * Is tag i an empty x tag? (Like isSingleton)
+         */
+        private boolean isSingleton(TagList tags, int i) {
+            int tagStart = tags.pos[i * TagList.STRIDE];
+            int tagEnd = tags.pos[i * TagList.STRIDE + 1];
+            int x = s.indexOf("<x ", tagStart);
+            return (x >= 0) && (x + 3 <= tagEnd - 2) && (s.charAt(tagEnd - 2) == '/');
+        }
+        
+        /**
+         * Is tag i a bx (type 'b') or ex (type 'e') tag with a rid?
+         */
+        private boolean isBxOrEx(TagList tags, int i, char type) {
+            int t = i * TagList.STRIDE;
+            return (tags.pos[t+5] > tags.pos[t+4])           // Has a rid
+                && (tags.pos[t+1] - tags.pos[t] > 3)
+                && (s.charAt(tags.pos[t] + 1) == type)
+                && (s.charAt(tags.pos[t] + 2) == 'x');
+        }
+        
+        /**
+         * Do tag i of tags1 and tag j of tags2 have the same (non-empty) rid?
+         */
+        private boolean sameRid(TagList tags1, int i, TagList tags2, int j) {
+            int t1 = i * TagList.STRIDE, t2 = j * TagList.STRIDE;
+            int len = tags1.pos[t1+5] - tags1.pos[t1+4];
+            return (len > 0) && (len == tags2.pos[t2+5] - tags2.pos[t2+4])
+                && s.regionMatches(tags1.pos[t1+4], s, tags2.pos[t2+4], len);
+        }
+        
+        /**
+         * Does the core [start,end) match the regex 
+         * ".*&lt;ex\s[^&gt;]*?rid=['"]RID['"].*" (or &lt;bx), where RID is the
+         * rid of tag i?
+         */
+        private boolean coreHasTag(int start, int end, String open, TagList tags, int i) {
+            int ridStart = tags.pos[i * TagList.STRIDE + 4];
+            int ridLen = tags.pos[i * TagList.STRIDE + 5] - ridStart;
+            
+            // The rid is interpolated into the regex. If it has characters
+            // that are special in regexes, let the regex interpret them.
+            for (int k = ridStart; k < ridStart + ridLen; k++) {
+                if ("\\^$.|?*+()[]{}".indexOf(s.charAt(k)) >= 0) {
+                    return s.substring(start, end).matches(".*" + open 
+                        + "\\s[^>]*?rid=['\"]" + s.substring(ridStart, ridStart + ridLen)
+                        + "['\"].*");
+                }
+            }
+            
+            // "." doesn't match line terminators.
+            int firstTerm = end, lastTerm = start - 1;
+            for (int k = start; k < end; k++) {
+                if (isLineTerminator(s.charAt(k))) {
+                    if (firstTerm == end) {
+                        firstTerm = k;
+                    }
+                    lastTerm = k;
+                }
+            }
+            
+            for (int a = s.indexOf(open, start); (a >= 0) && (a < firstTerm) 
+                    && (a + 3 < end); a = s.indexOf(open, a + 1)) {
+                if (!isRegexSpace(s.charAt(a + 3))) {
+                    continue;
+                }
+                for (int r = a + 4; (r < end) && (s.charAt(r) != '>'); r++) {
+                    int v = r + 5;                // Start of the rid value
+                    if ((v + ridLen < end) && s.startsWith("rid=", r)
+                        && isQuote(s.charAt(r + 4)) && isQuote(s.charAt(v + ridLen))
+                        && s.regionMatches(v, s, ridStart, ridLen)
+                        && (v + ridLen + 1 > lastTerm)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+        
+        private static boolean isQuote(char c) {
+            return (c == '\'') || (c == '"');
+        }
+        
+        /**
+         * Set the rid (start/end) of tag i (like ElementAndSpace.setElement)
+         */
+        private void setRid(TagList tags, int i) {
+            int t = i * TagList.STRIDE;
+            int tagStart = tags.pos[t], tagEnd = tags.pos[t+1];
+            tags.pos[t+4] = tags.pos[t+5] = 0;
+            for (int k = s.indexOf("rid=", tagStart); (k >= 0) && (k + 4 < tagEnd);
+                    k = s.indexOf("rid=", k + 1)) {
+                if (((k > tagStart) && isWordChar(s.charAt(k - 1)))
+                    || !isQuote(s.charAt(k + 4))) {
+                    continue;
+                }
+                int v = k + 5, e = v;
+                while ((e < tagEnd) && !isQuote(s.charAt(e))) {
+                    e++;
+                }
+                if ((e > v) && (e < tagEnd)) {
+                    tags.pos[t+4] = v;
+                    tags.pos[t+5] = e;
+                    return;
+                }
+            }
+        }
+        
+        /**
+         * A list of prefix or suffix tags: for each, the start and end of the
+         * tag, of its adjacent white space and of its rid (all offsets into
+         * the TU string), and whether it is outside the core.
+         */
+        private final class TagList {
+            static final int STRIDE = 6;
+            int size = 0;
+            int[] pos = new int[STRIDE * 8];
+            boolean[] outside = new boolean[8];
+            
+            void clear() {
+                size = 0;
+            }
+            
+            void add(int tagStart, int tagEnd, int spStart, int spEnd) {
+                if (size == outside.length) {
+                    pos = Arrays.copyOf(pos, pos.length * 2);
+                    outside = Arrays.copyOf(outside, outside.length * 2);
+                }
+                int t = size * STRIDE;
+                pos[t] = tagStart;
+                pos[t+1] = tagEnd;
+                pos[t+2] = spStart;
+                pos[t+3] = spEnd;
+                outside[size] = false;
+                setRid(this, size++);
+            }
         }
     }
+    
+    /**
+     * Is this a singleton tag? (For now, that means an empty x tag.)
+     * @param tag The tag to examine for singletonness
+     * @return true if a singleton tag, else false.
+     */
+    public static boolean isSingleton(String tag) {
+        if ((tag == null) || (tag.length() == 0)) {
+            return false;                          // Or should this return true?
+        }
+        
+        // Matcher for an x tag
+        Matcher xm = singletonPattern.matcher(tag);
+
+        if (xm.find()) {       // Is this an x tag?
+            return true;
+        }
+                                 
+        return false;          // Not a singleton tag (x for now)
+    }
+
+    /**
+     * Passed the core text of a tu that originates from a format that doesn't
+     * necessarily map to well-formed XML (non-XHTML HTML, for example), verify 
+     * that the only tags present are bx, ex and x tags (for our implementation,
+     * at least). The tags need not necessarily be properly nested.
+     * <p>While validating, remove non-bx/ex/x tags.
+     * <p><i>Note:</i> Although XLIFF allows source and target elements to
+     * include tags/elements other than bx, ex and x, this particular implementation
+     * allows only those three (empty) elements. (Since the text we are passed is the
+     * <i>core</i> of the TU, it doesn't include our start and end mrk tags.)
+     * @param tuText The text of the TU
+     * @return A checked and repaired (if necessary) text string.
+     */
+    public static String checkAndRepairTuTags(String tuText) {
+        if (tuText == null) {
+            return "";          // Return zero-length string if null
+        }
+
+        // If no tags, return the string we were passed.
+        if ((tuText.trim().length() == 0) 
+            || (tuText.indexOf("<") == -1)) {
+            return tuText;
+        }
+        
+        // We have a < character--a good sign of 1+ tags' presence. Keep the
+        // bx, ex and x tags (and the text, with valid entities); drop the rest.
+        return TagRepairer.get().checkAndRepairTags(tuText);
+    }
         
 //    /**
 //     * Passed a string containing a sequence of adjacent TUs (from within
@@ -1275,246 +2530,410 @@ public class TuPreener {
         }
         
         // We have a bx, ex and/or x tag. Check it/them out.
-        String validText = "";   // What we'll eventually return.
-        /*
-         * Matcher to match/capture the following:
-         * - Leading characters before a bx/ex/x tag
-         * - The bx/ex/x tag
-         * - The name of the tag (bx, ex or x)
-         * - The trailing characters after the tag.
-         */
-//        Matcher m = Pattern.compile("^(.*?)(<([be]?x)\\b[^>/]*/?>)(.*)",Pattern.DOTALL).matcher("");
-        Matcher m = Pattern.compile("^(.*?)(<([be]?x|/?mrk)\\b[^>/]*/?>)(.*)",Pattern.DOTALL).matcher("");
-
-        String tail = tuText;
-        Stack<BxExStackEntry> bxExStack = new Stack<BxExStackEntry>();
-        boolean bogus = false;               // Not bogus ... yet.
-        
-        while ((tail != null) && (tail.length() > 0)) {  // While more tags
-            m.reset(tail);
-            if (m.find()) {
-                String prefix = m.group(1);
-                String tag = m.group(2);
-                String tagName = m.group(3);
-                tail = m.group(4); // For next iteration
+        return TagRepairer.get().validateAndRepair(tuText);
+    }
 
-                if (prefix.length() > 0) {
-                    // Make sure leading text (before first tag) has no characters
-                    // that should be XML entities
-                    validText += validateEntities(prefix);
-                }
-                // WWhipple added 3/5/2007: Add code to make sure that this tag
-                // has an id attribute (and that the bx/ex tag wasn't concocted
-                // to match an ex/bx tag in the same sentence segment).
-                // Note: This also removes mrk/end-mrk tags, which don't have
-                // attributes.
-                String id = idOf(tag);
-                if (id == null || id.length() == 0) {
-                    // If this bx/ex/x tag without an id attribute ...
-                    // Just don't concatenate the tag to validText. ...
-                    // ... Instead continue
+    /**
+     * One-pass tokenizer that does the work of checkAndRepairTuTags and 
+     * validateAndRepairTu. Instead of repeatedly matching regular expressions
+     * against (copies of) the rest of the TU, it steps from one &lt; to the 
+     * next, keeping offsets into the TU string. The rids of open bx tags are
+     * kept on a stack of offsets, and the result is built in a StringBuilder
+     * that each thread reuses.
+     * <p>The tokenizer recognizes exactly the tags (and attributes) that the 
+     * regular expressions it replaces recognized.
+     */
+    private static final class TagRepairer {
+        private static final ThreadLocal<TagRepairer> repairers 
+            = new ThreadLocal<TagRepairer>() {
+                protected TagRepairer initialValue() {
+                    return new TagRepairer();
+                }
+            };
+        
+        private static final String[] ENTITIES 
+            = {"&amp;", "&lt;", "&gt;", "&apos;", "&quot;"};
+        
+        private String s;                 // The TU text
+        private int len;                  // ... and its length
+        private StringBuilder outBuf = new StringBuilder();
+        private int[] ridStack = new int[16]; // Start & end of each open bx's rid
+        private int stackSize;            // Number of ints on the stack
+        private int stopFrom, stopAt;     // First '>' or '/' at or after stopFrom
+        private int valStart, valEnd;     // Value of the last attribute found
+        
+        /** Return this thread's TagRepairer */
+        static TagRepairer get() {
+            return repairers.get();
+        }
+        
+        private void reset(String tuText) {
+            s = tuText;
+            len = tuText.length();
+            outBuf.setLength(0);
+            stackSize = 0;
+            stopFrom = stopAt = -1;
+        }
+        
+        /**
+         * Keep bx, ex and x tags (and text); remove other tags. (See 
+         * checkAndRepairTuTags.)
+         */
+        String checkAndRepairTags(String tuText) {
+            reset(tuText);
+            int pos = 0;                  // Start of text not yet processed
+            int tagStart = s.indexOf('<');
+            while (tagStart >= 0) {
+                int tagEnd = tagEnd(tagStart + 1);
+                if (tagEnd < 0) {         // Not a tag; try the next <
+                    tagStart = s.indexOf('<', tagStart + 1);
                     continue;
                 }
+                appendText(pos, tagStart);
 
-                String rid = ridOf(tag);
+                // Keep the tag if it starts <bx, <ex or <x (and, like the 
+                // regex ".*" that used to check it, has no line terminators)
+                int nameEnd = bexNameEnd(tagStart);
+                if ((nameEnd > 0) && !hasLineTerminator(nameEnd, tagEnd)) {
+                    outBuf.append(s, tagStart, tagEnd);
+                }
                 
-                // Now validate the tag
-                if (tagName.equals("bx")) {
-                    if ((rid == null) || (rid.length() == 0)) {
-                        // We don't allow a bx without a rid
-                        bogus = true;
-                        break;
+                pos = tagEnd;
+                tagStart = s.indexOf('<', pos);
+            }
+            appendText(pos, len);
+            
+            return result();
+        }
+        
+        /**
+         * Validate the bx/ex/x tags of a TU, repairing it if necessary. (See 
+         * validateAndRepairTu.)
+         */
+        String validateAndRepair(String tuText) {
+            reset(tuText);
+            boolean bogus = false;        // Not bogus ... yet.
+            int pos = 0;                  // Start of text not yet processed
+            int tagStart = s.indexOf('<');
+            while (tagStart >= 0) {
+                // Is this a bx, ex, x, mrk or /mrk tag?
+                int nameEnd = bexNameEnd(tagStart);
+                if ((nameEnd < 0) && (s.startsWith("mrk", tagStart + 1) 
+                        || s.startsWith("/mrk", tagStart + 1))) {
+                    nameEnd = tagStart + ((s.charAt(tagStart + 1) == '/') ? 5 : 4);
+                    if (!isBoundary(nameEnd)) {
+                        nameEnd = -1;
                     }
-                    bxExStack.push(new BxExStackEntry(tagName,rid));
-                    validText += tag;
                 }
-                else if (tagName.equals("ex")) {
-                    if ((rid == null) || (rid.length() == 0)) {
-                        // We don't allow an ex without a rid
-                        bogus = true;
-                        break;
-                    }
-                    if (bxExStack.empty()) {
-                        // Signifies an ex without a matching bx; bogus
-                        bogus = true;
-                        break;
+                int tagEnd = (nameEnd < 0) ? -1 : tagEnd(nameEnd);
+                if (tagEnd < 0) {         // Not one of ours; try the next <
+                    tagStart = s.indexOf('<', tagStart + 1);
+                    continue;
+                }
+                appendText(pos, tagStart);
+                pos = tagEnd;
+                
+                // Drop tags without an id attribute--a bx/ex tag concocted to
+                // match an ex/bx tag in the same sentence segment, for example.
+                // (This also removes mrk and end mrk tags, which don't have one.)
+                if (findAttribute(tagStart, tagEnd, "id=") && (valEnd > valStart)) {
+                    boolean hasRid = findAttribute(tagStart, tagEnd, "rid=") 
+                        && (valEnd > valStart);
+                    char type = s.charAt(tagStart + 1);
+                    if (type == 'b') {
+                        if (!hasRid) {
+                            bogus = true;     // We don't allow a bx without a rid
+                            break;
+                        }
+                        pushRid();
                     }
-                    // The top of the stack should be the opening bx entry that
-                    // matches this ex entry.
-                    BxExStackEntry bxEntry = bxExStack.pop();
-                    if (!bxEntry.getRid().equals(rid)) {
-                        // If rid's don't match, this is bogus
-                        bogus = true;
-                        break;
+                    else if (type == 'e') {
+                        // The ex needs a rid that matches the one on top of the 
+                        // stack (that of the most recent unclosed bx)
+                        if (!hasRid || !popRid()) {
+                            bogus = true;
+                            break;
+                        }
                     }
-                    validText += tag;
-                }
-                else if (tagName.equals("x")) {
-                    // This is good. (This implementation supports x tags.)
-                    validText += tag;
-                }
-                // 2/28/7 WWhipple mrk tags mark the core text
-                else if (tagName.equals("mrk")) {
-                    validText += tag;
-                }
-                else if (tagName.equals("/mrk")) {
-                    // The end of core text
-                    validText += tag;
-                }
-                else {
-                    // No other tags are allowed--bogosity!
-                    bogus = true;
-                    break;
+                    outBuf.append(s, tagStart, tagEnd);  // (x, mrk and /mrk too)
                 }
+                
+                tagStart = s.indexOf('<', pos);
             }
-            else {
-                // No more matches. Put the tail on the end of the accumulated
-                // valid text
-                if (tail.length() > 0) {
-                    validText += validateEntities(tail);
-                    tail = "";
-                }
+
+            if (!bogus) {
+                appendText(pos, len);
+                pos = len;
+                // If the stack isn't empty, there are more bxes than exes
+                bogus = (stackSize > 0);
             }
-        }
-        
-        // If the bx/ex stack isn't empty, there are more bxes than exes'
-        if (!bxExStack.empty()) {
-            bogus = true;
-        }
-        
-        // We're done. If the core TU's formatting is bogus, strip *all* tags
-        if (bogus) {
             
-            // We have detected something bogus. We might have some partially
-            // valid text (validText) with some remaining t[r]ail[ing] text (tail)
-            // and who knows what in the middle. If there is some tail text,
-            // append it to valid text ...
-            if ((tail != null) && (tail.length() > 0)) {
-                validText += tail;
+            if (bogus) {
+                // Append any trailing text (unvalidated) to the partially 
+                // valid text, then strip the tags.
+                outBuf.append(s, pos, len);
+                return stripTags();
             }
             
-//            // Delete anything delimited with < and >
-//            Pattern anyTagP = Pattern.compile("(<[^>]*>)",Pattern.DOTALL);
-//            // Delete anything delimited with < and > -- except x tags
-//            Pattern anyTagP = Pattern.compile("<[^x]>|<[^x]\\s[^>]*>|<[^x][^>]*>",Pattern.DOTALL);
-
-            // Delete all bx and ex tags
-            Pattern bxexP = Pattern.compile("<[be]x[^>]*>",Pattern.DOTALL);
-
-            // Strip the bx/ex tags
-            validText = bxexP.matcher(validText).replaceAll("");
+            return result();
+        }
+        
+        /**
+         * Strip all bx and ex tags from the output--and if any tags other 
+         * than x tags remain, strip all tags.
+         */
+        private String stripTags() {
+            String validText = outBuf.toString();
+            int vLen = validText.length();
+            outBuf.setLength(0);
+            boolean hasGt = true;         // Might there be a > later on?
+            boolean otherTags = false;    // Did we see a non-x tag?
+            for (int i = 0; i < vLen; i++) {
+                char c = validText.charAt(i);
+                if (c == '<') {
+                    if (hasGt && (i + 2 < vLen) && (validText.charAt(i + 2) == 'x')
+                        && ((validText.charAt(i + 1) == 'b') || (validText.charAt(i + 1) == 'e'))) {
+                        int gt = validText.indexOf('>', i + 3);
+                        if (gt >= 0) {
+                            i = gt;       // Skip the bx/ex tag
+                            continue;
+                        }
+                        hasGt = false;
+                    }
+                }
+                outBuf.append(c);
+            }
             
             // Check for any tags other than <x ... (including mrk and end mark)
-            if (validText.matches("(?s).*</?[^x].*")) {
+            for (int i = 0; (i < outBuf.length() - 1) && !otherTags; i++) {
+                otherTags = (outBuf.charAt(i) == '<') && (outBuf.charAt(i + 1) != 'x');
+            }
+            if (otherTags) {
                 // Found one/some--delete all tags. (We've got big problems).
-                Pattern anyTagP = Pattern.compile("(<[^>]*>)",Pattern.DOTALL);
-                validText = anyTagP.matcher(validText).replaceAll("");
+                validText = outBuf.toString();
+                vLen = validText.length();
+                outBuf.setLength(0);
+                int from = 0;
+                for (int lt = validText.indexOf('<'); lt >= 0; 
+                        lt = validText.indexOf('<', from)) {
+                    int gt = validText.indexOf('>', lt + 1);
+                    if (gt < 0) {
+                        break;
+                    }
+                    outBuf.append(validText, from, lt);
+                    from = gt + 1;
+                }
+                outBuf.append(validText, from, vLen);
             }
-            
+
             System.err.println("TuPreener.validateAndRepairTu: Invalid XLIFF "
                 + "detected in the following target (removed many of the tags):");
-            System.err.println(tuText + "\n");
+            System.err.println(s + "\n");
             
-            return validText; // That we changed
-        }
-
-        if (validText.equals(tuText)) {
-            return tuText;
-        }
-        else {
-            return validText;
+            return outBuf.toString();
         }
-    }
-
-    /**
-     * Passed the text of a bx or ex or x element, return its id 
-     * attribute's value
-     * @param bex The bx or ex or x 
-     * @return The id attribute's value
-     */
-    private static String idOf(String bex) {
-        if ((bex == null) || (bex.trim().length() == 0)) {
-            return "";
+        
+        /** Return the TU string if unchanged, else the output */
+        private String result() {
+            if ((outBuf.length() == len) && s.contentEquals(outBuf)) {
+                return s;
+            }
+            return outBuf.toString();
         }
         
-        Matcher idM = Pattern.compile("\\bid=(['\"])(.*?)\\1").matcher(bex);
-        if (idM.find()) {
-            return idM.group(2);
+        /**
+         * Append text between tags to the output. If the text includes an
+         * ampersand, make sure that singleton ampersands use the amp entity,
+         * that only the amp, lt, gt, apos and quot entities are used, and
+         * that the characters that should be entities are entities.
+         */
+        private void appendText(int start, int end) {
+            int amp = start;
+            while ((amp < end) && (s.charAt(amp) != '&')) {
+                amp++;
+            }
+            if (amp == end) {             // No ampersands; copy as is
+                outBuf.append(s, start, end);
+                return;
+            }
+            
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '&':
+                        if (!isEntity(i, end)) {
+                            outBuf.append("&amp;");  // Invalid entity!
+                            continue;
+                        }
+                        break;
+                    case '\'': outBuf.append("&apos;"); continue;
+                    case '"':  outBuf.append("&quot;"); continue;
+                    case '<':  outBuf.append("&lt;");   continue;
+                    case '>':  outBuf.append("&gt;");   continue;
+                }
+                outBuf.append(c);
+            }
         }
-        else {
-            return "";
+        
+        /** Does one of the big 5 entities start at i (and end by end)? */
+        private boolean isEntity(int i, int end) {
+            for (String entity : ENTITIES) {
+                if ((end - i >= entity.length()) && s.startsWith(entity, i)) {
+                    return true;
+                }
+            }
+            return false;
         }
-    }
-    
-    /**
-     * Passed the text of an empty bx or ex element, return its rid 
-     * attribute's value
-     * @param bex The bx or ex empty element
-     * @return The rid attribute's value
-     */
-    private static String ridOf(String bex) {
-        if ((bex == null) || (bex.trim().length() == 0)) {
-            return "";
+
+        /**
+         * Return the end of a tag whose name ends at from--that is, just past 
+         * the first '&gt;' or "/&gt;" (with no other '&gt;' or '/' between)--or
+         * -1 if there is none.
+         */
+        private int tagEnd(int from) {
+            // Remember the first '>' or '/' found; the next search usually
+            // starts before it.
+            if ((from < stopFrom) || (from > stopAt)) {
+                stopFrom = from;
+                stopAt = from;
+                while ((stopAt < len) && (s.charAt(stopAt) != '>') 
+                        && (s.charAt(stopAt) != '/')) {
+                    stopAt++;
+                }
+            }
+            if (stopAt >= len) {
+                return -1;
+            }
+            if (s.charAt(stopAt) == '>') {
+                return stopAt + 1;
+            }
+            if ((stopAt + 1 < len) && (s.charAt(stopAt + 1) == '>')) {
+                return stopAt + 2;
+            }
+            return -1;
         }
         
-        Matcher ridM = Pattern.compile("\\brid=(['\"])(.*?)\\1").matcher(bex);
-        if (ridM.find()) {
-            return ridM.group(2);
+        /**
+         * If a bx, ex or x tag name starts after the &lt; at tagStart, return
+         * its end; else -1
+         */
+        private int bexNameEnd(int tagStart) {
+            int nameEnd;
+            if ((tagStart + 2 < len) && (s.charAt(tagStart + 2) == 'x')
+                && ((s.charAt(tagStart + 1) == 'b') || (s.charAt(tagStart + 1) == 'e'))) {
+                nameEnd = tagStart + 3;
+            }
+            else if ((tagStart + 1 < len) && (s.charAt(tagStart + 1) == 'x')) {
+                nameEnd = tagStart + 2;
+            }
+            else {
+                return -1;
+            }
+            return isBoundary(nameEnd) ? nameEnd : -1;
         }
-        else {
-            return "";
+        
+        /**
+         * Is there a word boundary (regex \b) between the word character
+         * before i and the character at i?
+         */
+        private boolean isBoundary(int i) {
+            if (i >= len) {
+                return true;
+            }
+            int ch = s.codePointAt(i);
+            // (A non-spacing mark following the word character is part of
+            // the word.)
+            return !(isWordChar(ch) 
+                || (Character.getType(ch) == Character.NON_SPACING_MARK));
         }
-    }
-    
-    /**
-     * Verify that singleton ampersands use the amp entity, and that otherwise
-     * only the lt, gt, apos and quot entities are used. Also verify that
-     * single characters that should be entities *are* entities.
-     * @param textStr String to verify
-     * @return String in which all ampersands are valid
-     */
-    private static String validateEntities(String textStr) {
-        if (textStr == null) {
-            return "";
+
+        /**
+         * Find the value of attribute name (like the regex 
+         * "\bname(['\"])(.*?)\1") within the tag [tagStart,tagEnd), setting 
+         * valStart and valEnd. Return true if found.
+         */
+        private boolean findAttribute(int tagStart, int tagEnd, String name) {
+            for (int i = tagStart + 1; i + name.length() < tagEnd; i++) {
+                if (!s.startsWith(name, i) || isWordBefore(i, tagStart)) {
+                    continue;
+                }
+                int q = i + name.length();
+                char quote = s.charAt(q);
+                if ((quote != '\'') && (quote != '"')) {
+                    continue;
+                }
+                for (int j = q + 1; j < tagEnd; j++) {
+                    char c = s.charAt(j);
+                    if (c == quote) {
+                        valStart = q + 1;
+                        valEnd = j;
+                        return true;
+                    }
+                    if (isLineTerminator(c)) {
+                        break;
+                    }
+                }
+            }
+            return false;
         }
-        if ((textStr.trim().length() == 0) 
-            || (textStr.indexOf("&") == -1)){
-            return textStr;
-        }
-        
-        // We have at least one ampersand; validate it.
-        int curIndex = 0;
-        while ((curIndex = textStr.indexOf('&', curIndex)) > -1) {
-            if (!(textStr.startsWith("&amp;",curIndex)
-                || textStr.startsWith("&lt;",curIndex)
-                || textStr.startsWith("&gt;",curIndex)
-                || textStr.startsWith("&apos;",curIndex)
-                || textStr.startsWith("&quot;",curIndex))) {
-                // Invalid entity! Replace & with &amp;
-                if (textStr.length() > (curIndex+1)) {
-                    // & isn't at the very end of the string:
-                    textStr = textStr.substring(0,curIndex) + "&amp;" 
-                        + textStr.substring(curIndex+1);
+
+        /**
+         * Is the character before i (which is > tagStart) part of a word? 
+         * (A non-spacing mark is if it follows a letter or digit.)
+         */
+        private boolean isWordBefore(int i, int tagStart) {
+            int ch = Character.codePointBefore(s, i);
+            if (isWordChar(ch)) {
+                return true;
+            }
+            if (Character.getType(ch) != Character.NON_SPACING_MARK) {
+                return false;
+            }
+            for (int x = i - 1; x >= tagStart; x--) {
+                ch = s.codePointAt(x);
+                if (Character.isLetterOrDigit(ch)) {
+                    return true;
                 }
-                else {
-                    // & *is* at the very end of the string:
-                    textStr = textStr.substring(0,curIndex) + "&amp;"; 
-                    break;   // No more string
+                if (Character.getType(ch) != Character.NON_SPACING_MARK) {
+                    return false;
                 }
             }
-            // Else & is first char of the big 5 entities.
-            
-            curIndex++;      // Do this in either case.
+            return false;
         }
         
-        // Now make sure that we use entities where needed (for the
-        // other 4 XML entities)
-        if (textStr.contains("'"))  { textStr = textStr.replace("'", "&apos;"); }
-        if (textStr.contains("\"")) { textStr = textStr.replace("\"", "&quot;"); }
-        if (textStr.contains("<"))  { textStr = textStr.replace("<", "&lt;"); }
-        if (textStr.contains(">"))  { textStr = textStr.replace(">", "&gt;"); }
-
-        return textStr;      // All the &'s should be OK in this one.
+        /** Does [start,end) include a line terminator? */
+        private boolean hasLineTerminator(int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (isLineTerminator(s.charAt(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /** Push the rid (valStart/valEnd) of a bx onto the stack */
+        private void pushRid() {
+            if (stackSize == ridStack.length) {
+                ridStack = Arrays.copyOf(ridStack, stackSize * 2);
+            }
+            ridStack[stackSize++] = valStart;
+            ridStack[stackSize++] = valEnd;
+        }
+        
+        /**
+         * Pop the rid of the most recent bx off the stack. Return true if
+         * it matches the rid (valStart/valEnd) of an ex, false if it doesn't
+         * (or if the stack is empty).
+         */
+        private boolean popRid() {
+            if (stackSize == 0) {
+                return false;             // An ex without a matching bx
+            }
+            int end = ridStack[--stackSize];
+            int start = ridStack[--stackSize];
+            return ((end - start) == (valEnd - valStart))
+                && s.regionMatches(start, s, valStart, end - start);
+        }
     }
-    
+
 }
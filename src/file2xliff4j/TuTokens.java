@@ -0,0 +1,412 @@
+/**
+ * TuTokens.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import java.util.*;
+
+/**
+ * The text of a candidate Translation Unit, broken into a list of tokens--
+ * runs of (escaped) text, and the inline bx, ex, x (etc.) tags between them.
+ * The handlers' collapse rules (which replace nested bx/ex tags, ODF
+ * annotations, footnotes and so on with fewer tags) find the sequences they
+ * look for in the token list and replace them in place. The TU is turned
+ * back into a string only once, after all the rules have been applied.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+class TuTokens {
+
+    /**
+     * A single token: either a run of text or an inline tag.
+     */
+    static class Token {
+        private String text;             // The token, as it appears in the TU
+        private String name = null;      // Tag name (null for text)
+        private String[] attrs = null;   // Attribute names and values (alternating)
+
+        /**
+         * Create a token.
+         * @param text The text of the token, which is a tag if it begins
+         *        with "&lt;"
+         */
+        Token(String text) {
+            this.text = text;
+            if (text.startsWith("<")) {
+                parseTag();
+            }
+        }
+
+        /**
+         * Return the token as it appears in the TU.
+         * @return The text of the token
+         */
+        String getText() {
+            return text;
+        }
+
+        /**
+         * Is this token a run of text?
+         * @return true if text, false if a tag
+         */
+        boolean isText() {
+            return (name == null);
+        }
+
+        /**
+         * Is this token a tag with the specified name?
+         * @param tagName The name (bx, ex, x, ...)
+         * @return true if it is, else false
+         */
+        boolean isTag(String tagName) {
+            return (name != null) && name.equalsIgnoreCase(tagName);
+        }
+
+        /**
+         * Return the number of attributes the tag has. (0 for text)
+         * @return The number of attributes
+         */
+        int getAttributeCount() {
+            return (attrs == null) ? 0 : attrs.length / 2;
+        }
+
+        /**
+         * Return the name of the i-th attribute of this tag.
+         * @param i Which attribute (0, 1, ...)
+         * @return The attribute's name, or null if there is no such attribute
+         */
+        String getAttributeName(int i) {
+            return (i < getAttributeCount()) ? attrs[2 * i] : null;
+        }
+
+        /**
+         * Return the value of the specified attribute of this tag.
+         * @param attrName The attribute's name
+         * @return The attribute's value, or null if the tag doesn't have it
+         */
+        String getAttribute(String attrName) {
+            return getAttribute(attrName, 0);
+        }
+
+        /**
+         * Return the value of the specified attribute of this tag, provided
+         * it is the i-th attribute or a later one.
+         * @param attrName The attribute's name
+         * @param i The first attribute to consider (0, 1, ...)
+         * @return The attribute's value, or null if the tag doesn't have it
+         *         (at or after position i)
+         */
+        String getAttribute(String attrName, int i) {
+            for (int a = 2 * i; (attrs != null) && (a < attrs.length); a += 2) {
+                if (attrs[a].equalsIgnoreCase(attrName)) {
+                    return attrs[a + 1];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Is the tag's id attribute its first attribute?
+         * @return true if so, else false
+         */
+        boolean startsWithId() {
+            return "id".equalsIgnoreCase(getAttributeName(0));
+        }
+
+        /**
+         * Parse the tag's name and attributes. If the tag can't be parsed,
+         * it is left with no attributes (so that no collapse rule will
+         * consider it).
+         */
+        private void parseTag() {
+            int len = text.length();
+            int pos = 1;
+            while ((pos < len) && !Character.isWhitespace(text.charAt(pos))
+                    && (text.charAt(pos) != '/') && (text.charAt(pos) != '>')) {
+                pos++;
+            }
+            name = text.substring(1, pos);
+
+            ArrayList<String> list = new ArrayList<String>();
+            while (true) {
+                while ((pos < len) && Character.isWhitespace(text.charAt(pos))) {
+                    pos++;
+                }
+                if ((pos >= len) || (text.charAt(pos) == '/') || (text.charAt(pos) == '>')) {
+                    break;
+                }
+                int eq = text.indexOf('=', pos);
+                if ((eq == -1) || (eq + 1 >= len)) {
+                    return;          // Unparsable
+                }
+                char quote = text.charAt(eq + 1);
+                int endQuote = ((quote == '\'') || (quote == '"'))
+                    ? text.indexOf(quote, eq + 2) : -1;
+                if (endQuote == -1) {
+                    return;          // Unparsable
+                }
+                list.add(text.substring(pos, eq).trim());
+                list.add(text.substring(eq + 2, endQuote));
+                pos = endQuote + 1;
+            }
+            attrs = list.toArray(new String[list.size()]);
+        }
+    }
+
+    private ArrayList<Token> tokens = new ArrayList<Token>();
+
+    /**
+     * Break the text of a TU into tokens.
+     * @param tu The text of the TU
+     */
+    TuTokens(String tu) {
+        int len = tu.length();
+        int pos = 0;
+        while (pos < len) {
+            int end;
+            if (tu.charAt(pos) == '<') {
+                end = tu.indexOf('>', pos);
+                end = (end == -1) ? len : end + 1;
+            }
+            else {
+                end = tu.indexOf('<', pos);
+                if (end == -1) {
+                    end = len;
+                }
+            }
+            tokens.add(new Token(tu.substring(pos, end)));
+            pos = end;
+        }
+    }
+
+    /**
+     * Return the number of tokens.
+     * @return The number of tokens
+     */
+    int size() {
+        return tokens.size();
+    }
+
+    /**
+     * Return the i-th token.
+     * @param i Which token (0, 1, ...)
+     * @return The token, or null if i is out of range
+     */
+    Token get(int i) {
+        return ((i >= 0) && (i < tokens.size())) ? tokens.get(i) : null;
+    }
+
+    /**
+     * Replace a run of tokens with a single tag.
+     * @param from The first token to replace
+     * @param to One past the last token to replace
+     * @param tag The text of the replacement tag
+     */
+    void replace(int from, int to, String tag) {
+        tokens.subList(from + 1, to).clear();
+        tokens.set(from, new Token(tag));
+    }
+
+    /**
+     * Return the text of a run of tokens, as it appears in the TU.
+     * @param from The first token
+     * @param to One past the last token
+     * @return The concatenated text of the tokens
+     */
+    String getText(int from, int to) {
+        StringBuilder buf = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            buf.append(tokens.get(i).getText());
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Find the leftmost pair of nested bx/ex pairs (starting at or after the
+     * specified token), in which the outer and inner bx tags are adjacent,
+     * and the inner and outer ex tags are adjacent. Both bx tags must have
+     * id, ctype and rid attributes (in that order); the ex tags must have id
+     * and rid attributes, the rid being the last.
+     * @param from The token at which to start looking
+     * @param enclosesText If true, the inner bx must be followed by text
+     *        (and its ex tag may be any distance away). If false, the inner
+     *        ex must immediately follow the inner bx.
+     * @param spaceBetween If true, white space may separate the two bx
+     *        tags and the two ex tags.
+     * @return The indexes of the outer bx, the inner bx, the inner ex and
+     *         the outer ex (in that order), or null if there is no such pair
+     */
+    int[] findNestedBxEx(int from, boolean enclosesText, boolean spaceBetween) {
+        for (int outerBx = from; outerBx < tokens.size(); outerBx++) {
+            String outerRid = nestableBxRid(outerBx);
+            if (outerRid == null) {
+                continue;
+            }
+            int innerBx = skipSpace(outerBx + 1, spaceBetween);
+            String innerRid = nestableBxRid(innerBx);
+            if (innerRid == null) {
+                continue;
+            }
+
+            int innerEx;
+            if (enclosesText) {
+                Token t = get(innerBx + 1);
+                if ((t == null) || !t.isText()) {
+                    continue;
+                }
+                innerEx = indexOfEx(innerRid, innerBx + 2);
+            }
+            else {
+                innerEx = innerBx + 1;
+                if (!innerRid.equals(exRid(innerEx))) {
+                    continue;
+                }
+            }
+            if (innerEx == -1) {
+                continue;
+            }
+
+            int outerEx = skipSpace(innerEx + 1, spaceBetween);
+            if (outerRid.equals(exRid(outerEx))) {
+                return new int[] {outerBx, innerBx, innerEx, outerEx};
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Select a ctype (for the bx tag that replaces two nested ones) that will
+     * make most sense to the translator. If both start with "x-", use the
+     * inner; if one starts with "x-", use the other one; if neither starts
+     * with "x-", prefer "link", else the inner ctype.
+     * @param outerCtype The outer bx tag's ctype
+     * @param innerCtype The inner bx tag's ctype
+     * @return The preferred ctype
+     */
+    static String preferredCtype(String outerCtype, String innerCtype) {
+        if (outerCtype.equals("link") || innerCtype.equals("link")) {
+            return "link";
+        }
+        else if (outerCtype.startsWith("x-")) {
+            return innerCtype;
+        }
+        else if (innerCtype.startsWith("x-")) {
+            return outerCtype;
+        }
+        return innerCtype;      // Neither starts with "x-"; prefer inner
+    }
+
+    /**
+     * Return a copy of a tag, with a new value for its id attribute.
+     * @param tag The text of the tag
+     * @param id The new id
+     * @return The tag with the new id
+     */
+    static String withId(String tag, int id) {
+        int valStart = tag.indexOf("id=") + 4;
+        int valEnd = tag.indexOf(tag.charAt(valStart - 1), valStart);
+        return tag.substring(0, valStart) + id + tag.substring(valEnd);
+    }
+
+    /**
+     * Return the TU's text.
+     * @return The concatenated text of all the tokens
+     */
+    public String toString() {
+        return getText(0, tokens.size());
+    }
+
+    /**
+     * If the i-th token is a bx tag with id, ctype and rid attributes (in
+     * that order), return its rid.
+     * @param i Which token
+     * @return The rid, or null
+     */
+    private String nestableBxRid(int i) {
+        Token t = get(i);
+        if ((t == null) || !t.isTag("bx") || !t.startsWithId()) {
+            return null;
+        }
+        for (int a = 1; a < t.getAttributeCount(); a++) {
+            if ("ctype".equalsIgnoreCase(t.getAttributeName(a))) {
+                return t.getAttribute("rid", a + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * If the i-th token is an ex tag whose first attribute is id and whose
+     * last is rid, return its rid.
+     * @param i Which token
+     * @return The rid, or null
+     */
+    private String exRid(int i) {
+        Token t = get(i);
+        if ((t == null) || !t.isTag("ex") || !t.startsWithId()
+                || (t.getAttributeCount() < 2)
+                || !"rid".equalsIgnoreCase(t.getAttributeName(t.getAttributeCount() - 1))) {
+            return null;
+        }
+        return t.getAttribute("rid", t.getAttributeCount() - 1);
+    }
+
+    /**
+     * Return the index of the first ex tag (at or after the specified token)
+     * with the specified rid.
+     * @param rid The rid to look for
+     * @param from The token at which to start looking
+     * @return The index of the ex tag, or -1
+     */
+    private int indexOfEx(String rid, int from) {
+        for (int i = from; i < tokens.size(); i++) {
+            if (rid.equals(exRid(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * If permitted, skip a run of text that consists only of white space.
+     * @param i The token to (possibly) skip
+     * @param skip Whether to skip white space
+     * @return The index of the following token (if i is white space that
+     *         can be skipped), or i
+     */
+    private int skipSpace(int i, boolean skip) {
+        Token t = get(i);
+        if (skip && (t != null) && t.isText() && isSpace(t.getText())) {
+            return i + 1;
+        }
+        return i;
+    }
+
+    /** Does the string consist only of (regex \s) white space? */
+    private static boolean isSpace(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (" \t\n\u000b\f\r".indexOf(s.charAt(i)) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -74,6 +74,14 @@ public class WinRcImporter implements Converter {
 
     private int curIndent = 0;
     
+    // If non-null, the index in which to look up repeated segments
+    private RepetitionIndex repetitions = null;
+    
+    // Set by ImportStatistics.PROPERTY: whether to keep statistics of the
+    // TUs written (in statistics, which getConversionProperty returns)
+    private boolean keepStatistics = false;
+    private ImportStatistics statistics = null;
+    
     /**
      * Create a Microsoft Windows rc file importer
      */
@@ -183,6 +191,9 @@ public class WinRcImporter implements Converter {
             rcEncoding = Charset.forName("windows-1252");
         }
         
+        // If requested, keep statistics of the TUs as they are written
+        statistics = ImportStatistics.forImport(keepStatistics, baseDir, nativeFileName);
+        
         // Output the XLIFF prolog
         try {
             // Create input reader and output writers
@@ -190,13 +201,11 @@ public class WinRcImporter implements Converter {
                 new FileInputStream(inRc), rcEncoding));
             
             // We'll use UTF-8 for the XLIFF and skeleton ...
-            BufferedWriter xliffWtr  = new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(outXliff), Charset.forName("UTF-8")));
+            OutputSink xliffWtr  = new OutputSink(outXliff);
 
             // Let's write the skeleton in UTF-8 (I s'pose) ... because there's
             // no telling what languages the translation will end up in ...)
-            BufferedWriter skelWtr  = new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(outSkel), Charset.forName("UTF-8")));
+            OutputSink skelWtr  = new OutputSink(outSkel);
             
             // Write the "prolog" of the XLIFF file
             xliffWtr.write(Converter.xmlDeclaration);
@@ -207,7 +216,6 @@ public class WinRcImporter implements Converter {
                 + "' source-language='" + language.toString() + "' datatype='winres'>\r\n");
             xliffWtr.write(indent() + "<header lt:segtype='sentence'");
             xliffWtr.write(">\r\n" + indent('0') + "</header>\r\n" + indent('0') + "<body>\r\n");
-            xliffWtr.flush();
         
             String rcLine = null;             // Holds the next line read from PO template
 //            String source = "";               // Source language text accumulated so far
@@ -231,11 +239,6 @@ public class WinRcImporter implements Converter {
                     else {   
                         
                         UUID curTuID = UUID.randomUUID(); // ID for this TU
-                        // It seems to be real. Write a trans-unit element to
-                        // the XLIFF:
-                        xliffWtr.write(indent('0')
-                            + "<trans-unit id='" + curTuID + "' "
-                            + "lt:paraID='" + curTuID + "'>\r\n");
                         
                         // If the text contains any \x escaped characters, 
                         // resolve them.
@@ -256,8 +259,17 @@ public class WinRcImporter implements Converter {
                             text = text.replace("&quot;&quot;","&quot;");
                         }
                         
-                        // Open the source element
+                        // It seems to be real. Write a trans-unit element to
+                        // the XLIFF:
                         String markedTu = TuPreener.markCoreTu(text);
+                        xliffWtr.write(indent('0')
+                            + "<trans-unit id='" + curTuID + "' "
+                            + "lt:paraID='" + curTuID + "'"
+                            + ImportStatistics.recordTu(curTuID, TuPreener.getCoreText(markedTu),
+                                    repetitions, statistics)
+                            + ">\r\n");
+                        
+                        // Open the source element
                         xliffWtr.write(indent('+') + "<source xml:lang='" 
                             + language.toString() + "'>" 
                             + TuPreener.getPrefixText(markedTu)
@@ -267,7 +279,6 @@ public class WinRcImporter implements Converter {
                             + "</source>\r\n");
                         // ... and the trans-unit end tag
                         xliffWtr.write(indent('-') + "</trans-unit>\r\n");
-                        xliffWtr.flush();
                         
                         // Write a placeholder to the skeleton.
                         skelWtr.write(prefix + keyword + filler + "<lTLt:tu id='" 
@@ -281,10 +292,6 @@ public class WinRcImporter implements Converter {
                     StringTableEntry [] stEntry = getTableStrings(rcLine, rcRdr, skelWtr);
                     for (int i = 0; i < stEntry.length; i++) {
                         UUID tuID = stEntry[i].getTuID();
-                        xliffWtr.write(indent('0')
-                            + "<trans-unit id='" + tuID + "' "
-                            + "lt:paraID='" + tuID + "'>\r\n");
-                        // Open the source element
                         String curText = stEntry[i].getTuText();
 
                         curText = TuStrings.escapeTuString(curText);
@@ -299,6 +306,13 @@ public class WinRcImporter implements Converter {
                         }
                         
                         String markedTu = TuPreener.markCoreTu(curText);
+                        xliffWtr.write(indent('0')
+                            + "<trans-unit id='" + tuID + "' "
+                            + "lt:paraID='" + tuID + "'"
+                            + ImportStatistics.recordTu(tuID, TuPreener.getCoreText(markedTu),
+                                    repetitions, statistics)
+                            + ">\r\n");
+                        // Open the source element
                         xliffWtr.write(indent('+') + "<source xml:lang='" 
                             + language.toString() + "'>" 
                             + TuPreener.getPrefixText(markedTu)
@@ -308,7 +322,6 @@ public class WinRcImporter implements Converter {
                             + "</source>\r\n");
                         // ... and the trans-unit end tag
                         xliffWtr.write(indent('-') + "</trans-unit>\r\n");
-                        xliffWtr.flush();
                     }
                 }
 
@@ -316,7 +329,6 @@ public class WinRcImporter implements Converter {
                     // Just print it to the skeleton:
                     skelWtr.write(rcLine + "\r\n");
                 }
-                skelWtr.flush();
             }   // while
         
             // Then finish off the XLIFF file
@@ -327,6 +339,9 @@ public class WinRcImporter implements Converter {
             
             /* Close the files we created above */
             xliffWtr.close();
+            if (statistics != null) {
+                statistics.close();
+            }
             skelWtr.close();
         }
         catch(java.io.IOException e) {
@@ -513,6 +528,9 @@ public class WinRcImporter implements Converter {
      * @return An Object that represents the property's value.
      */
     public Object getConversionProperty(String property) {
+        if (property.equals(ImportStatistics.PROPERTY)) {
+            return statistics;
+        }
         return null;
     }
 
@@ -557,13 +575,13 @@ public class WinRcImporter implements Converter {
      * @param rcLine The first line of the STRINGTABLE entry in the RC file
      * @param rcRdr The BufferedReader from which to read additional lines of
      *              the STRINGTABLE, if necessary.
-     * @param skelWtr A BufferedWriter to which to write the skeleton lines
+     * @param skelWtr The OutputSink to which to write the skeleton lines
      *              that correspond to this STRINGTABLE.
      * @return An array of StringTableEntries
      * @throws IOException If caused during an I/O operation.
      */
     private StringTableEntry[] getTableStrings(String rcLine, BufferedReader rcRdr,
-            BufferedWriter skelWtr) throws IOException {
+            OutputSink skelWtr) throws IOException {
         StringBuilder rawEntry = new StringBuilder();
         rawEntry.append(rcLine);
         boolean curliesMatch = false;   // { .... }
@@ -870,8 +888,9 @@ public class WinRcImporter implements Converter {
     /**
      * Set a format-specific property that might affect the way that the
      * conversion occurs.
-     * <p><i>Note:</i> This converter needs no format-specific properties.
-     * If any are passed, they will be silently ignored.
+     * <p>The properties recognized are RepetitionIndex.PROPERTY (to mark
+     * repeated segments) and ImportStatistics.PROPERTY (to keep statistics
+     * of the TUs written). Others will be silently ignored.
      * @param property The name of the property
      * @param value The value of the property
      * @throws file2xliff4j.ConversionException
@@ -879,6 +898,12 @@ public class WinRcImporter implements Converter {
      */
     public void setConversionProperty(String property, Object value)
             throws ConversionException {
+        if (property.equals(RepetitionIndex.PROPERTY)) {
+            repetitions = RepetitionIndex.forProperty(value);
+        }
+        else if (property.equals(ImportStatistics.PROPERTY)) {
+            keepStatistics = ImportStatistics.isEnabled(value);
+        }
         return;
     }
 
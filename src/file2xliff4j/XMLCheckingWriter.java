@@ -0,0 +1,754 @@
+/**
+ * XMLCheckingWriter.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import org.xml.sax.SAXParseException;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writer that checks whether the XML written through it is well-formed, as
+ * it passes through on its way to the underlying writer. The exporters use
+ * it to validate the documents they generate without reading them back in
+ * and parsing them after they are written.
+ * <p>The checks are the ones that generated documents actually fail: start
+ * and end tags must balance (with a single root element), tags and
+ * attributes must be syntactically correct, every &amp; must begin a
+ * character or entity reference, attribute values may not contain &lt;, and
+ * characters that XML doesn't allow (most control characters, for example)
+ * may not appear. Text may not contain ]]&gt;, nor comments --. Otherwise,
+ * comments, processing instructions, CDATA sections and the DOCTYPE are
+ * skipped over. Entity references other than the five
+ * predefined ones are accepted only if the document has a DOCTYPE (which
+ * might declare them). Unlike a validating parser, the writer doesn't check
+ * for duplicate attributes or read DTDs.
+ * <p>The first problem found is reported by getError (with its line and
+ * column); the rest of the document is passed through unchecked. The
+ * end-of-document checks (that every element was closed, for example) are
+ * made when the writer is closed.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+class XMLCheckingWriter extends FilterWriter {
+
+    // Where we are in the document
+    private static final int CONTENT = 0;       // Between tags
+    private static final int LT = 1;            // Just after <
+    private static final int START_NAME = 2;    // In a start tag's name
+    private static final int IN_TAG = 3;        // Between attributes
+    private static final int ATTR_NAME = 4;     // In an attribute name
+    private static final int ATTR_EQ = 5;       // Expecting =
+    private static final int ATTR_QUOTE = 6;    // Expecting the opening quote
+    private static final int ATTR_VALUE = 7;    // In an attribute value
+    private static final int AFTER_ATTR = 8;    // Just after a closing quote
+    private static final int EMPTY_END = 9;     // Just after the / of />
+    private static final int END_NAME = 10;     // In an end tag's name
+    private static final int END_SPACE = 11;    // After an end tag's name
+    private static final int REF = 12;          // In a reference (after &)
+    private static final int BANG = 13;         // After <! (which markup?)
+    private static final int COMMENT = 14;      // In <!-- ... -->
+    private static final int CDATA = 15;        // In <![CDATA[ ... ]]>
+    private static final int PI = 16;           // In <? ... ?>
+    private static final int DOCTYPE = 17;      // In <!DOCTYPE ... >
+
+    // Where we are in the DOCTYPE
+    private static final int DT_HEADER = 0;     // Before the internal subset
+    private static final int DT_SUBSET = 1;     // Between its declarations
+    private static final int DT_LT = 2;         // Just after < in the subset
+    private static final int DT_BANG = 3;       // Just after <!
+    private static final int DT_BANG_DASH = 4;  // Just after <!-
+    private static final int DT_DECL = 5;       // In <!ELEMENT (etc.) ... >
+    private static final int DT_COMMENT = 6;    // In <!-- ... -->
+    private static final int DT_PI = 7;         // In <? ... ?>
+    private static final int DT_AFTER = 8;      // After the subset's ]
+
+    /** The longest entity or character reference we'll consider */
+    private static final int MAX_REF = 64;
+
+    private int state = CONTENT;
+    private int refReturnState;         // State to return to after a reference
+    private char quote;                 // Quote that opened the attribute value
+
+    private StringBuilder name = new StringBuilder();   // Tag name, reference (etc.)
+    private ArrayList<String> openElements = new ArrayList<String>();
+    private boolean sawRoot = false;    // Has the root element started?
+    private boolean sawDoctype = false; // Might entities have been declared?
+    private boolean atStart = true;     // Nothing (but maybe a BOM) yet
+
+    // For comments, CDATA sections, PIs and the DOCTYPE (and ]]> in text)
+    private int trailing = 0;           // Matched chars of the closing delimiter
+    private int doctypeState;           // Where we are in the DOCTYPE
+    private char doctypeQuote = 0;      // Quote we're inside in the DOCTYPE
+
+    private char[] chars = new char[1024];  // For checking strings
+
+    private int line = 1;               // Position of the current character
+    private int column = 0;
+    private boolean afterCR = false;
+
+    private SAXParseException error = null;   // The first problem found
+    private boolean closed = false;
+
+    /**
+     * Create a writer that checks the XML written to it.
+     * @param out The writer to which to pass the XML
+     */
+    XMLCheckingWriter(Writer out) {
+        super(out);
+    }
+
+    /**
+     * Write a character.
+     * @param c The character
+     * @throws java.io.IOException If the underlying writer can't write it
+     */
+    public void write(int c) throws IOException {
+        out.write(c);
+        if (error == null) {
+            check((char)c);
+        }
+    }
+
+    /**
+     * Write part of an array of characters.
+     * @param cbuf The characters
+     * @param off Where to start
+     * @param len How many to write
+     * @throws java.io.IOException If the underlying writer can't write them
+     */
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        out.write(cbuf, off, len);
+        check(cbuf, off, len);
+    }
+
+    /**
+     * Write part of a string.
+     * @param str The string
+     * @param off Where to start
+     * @param len How many characters to write
+     * @throws java.io.IOException If the underlying writer can't write them
+     */
+    public void write(String str, int off, int len) throws IOException {
+        out.write(str, off, len);
+        while ((len > 0) && (error == null)) {
+            int n = Math.min(len, chars.length);
+            str.getChars(off, off + n, chars, 0);
+            check(chars, 0, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Make the end-of-document checks, then close the underlying writer.
+     * @throws java.io.IOException If the underlying writer can't be closed
+     */
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            if (error == null) {
+                if (state != CONTENT) {
+                    fail("The document ended in the middle of markup.");
+                }
+                else if (openElements.size() > 0) {
+                    fail("The element type \"" + openElements.get(openElements.size() - 1)
+                        + "\" was not closed before the end of the document.");
+                }
+                else if (!sawRoot) {
+                    fail("The document has no root element.");
+                }
+            }
+        }
+        out.close();
+    }
+
+    /**
+     * Return the first problem found in the XML.
+     * @return The problem (with its line and column), or null if the XML
+     *         written (and closed) is well-formed.
+     */
+    SAXParseException getError() {
+        if ((error == null) && !closed) {
+            return new SAXParseException("The document was not completely written.",
+                null, null, line, column);
+        }
+        return error;
+    }
+
+    /**
+     * Check the next characters of the document.
+     * @param buf The characters
+     * @param off Where to start
+     * @param len How many to check
+     */
+    private void check(char[] buf, int off, int len) {
+        int end = off + len;
+        int i = off;
+        while ((i < end) && (error == null)) {
+            // Skip quickly over runs of ordinary characters in text and in
+            // attribute values.
+            if (((state == CONTENT) && !openElements.isEmpty() && (trailing == 0))
+                    || (state == ATTR_VALUE)) {
+                int start = i;
+                char stop = (state == ATTR_VALUE) ? quote : ']';   // ]]> isn't allowed in text
+                while (i < end) {
+                    char c = buf[i];
+                    if ((c < 0x20) || (c == '<') || (c == '&') || (c == stop)
+                            || (c >= 0xFFFE)) {
+                        break;
+                    }
+                    i++;
+                }
+                column += i - start;
+                afterCR = false;
+                if (i == end) {
+                    break;
+                }
+            }
+            // Likewise for the rest of a name
+            else if ((state == START_NAME) || (state == ATTR_NAME)
+                    || ((state == END_NAME) && (name.length() > 0))) {
+                int start = i;
+                while ((i < end) && isNameChar(buf[i])) {
+                    i++;
+                }
+                if (state != ATTR_NAME) {
+                    name.append(buf, start, i - start);
+                }
+                column += i - start;
+                afterCR = false;
+                if (i == end) {
+                    break;
+                }
+            }
+            check(buf[i++]);
+        }
+    }
+
+    /**
+     * Check the next character of the document.
+     * @param c The character
+     */
+    private void check(char c) {
+        // Keep track of the position (for error messages)
+        if (c == '\n') {
+            if (!afterCR) {
+                line++;
+            }
+            column = 0;
+            afterCR = false;
+        }
+        else if (c == '\r') {
+            line++;
+            column = 0;
+            afterCR = true;
+        }
+        else {
+            column++;
+            afterCR = false;
+        }
+
+        if ((c < 0x20) ? ((c != '\t') && (c != '\n') && (c != '\r'))
+                : ((c == 0xFFFE) || (c == 0xFFFF))) {
+            fail("An invalid XML character (Unicode: 0x"
+                + Integer.toHexString(c) + ") was found.");
+            return;
+        }
+        if (atStart) {
+            atStart = false;
+            if (c == 0xFEFF) {          // Byte order mark
+                return;
+            }
+        }
+
+        switch (state) {
+            case CONTENT:
+                if (c == '<') {
+                    state = LT;
+                }
+                else if (c == '&') {
+                    startRef(CONTENT);
+                }
+                else if (openElements.isEmpty() && !isSpace(c)) {
+                    fail("Content is not allowed outside the root element.");
+                }
+                else if ((c == '>') && (trailing == 2)) {
+                    fail("The character sequence \"]]>\" must not appear in content"
+                        + " unless used to mark the end of a CDATA section.");
+                }
+                trailing = (c == ']') ? Math.min(trailing + 1, 2) : 0;
+                break;
+
+            case LT:
+                if (c == '/') {
+                    name.setLength(0);
+                    state = END_NAME;
+                }
+                else if (c == '?') {
+                    trailing = 0;
+                    state = PI;
+                }
+                else if (c == '!') {
+                    name.setLength(0);
+                    state = BANG;
+                }
+                else if (isNameStart(c)) {
+                    name.setLength(0);
+                    name.append(c);
+                    state = START_NAME;
+                }
+                else {
+                    fail("The markup following \"<\" is not well-formed.");
+                }
+                break;
+
+            case START_NAME:
+                if (isNameChar(c)) {
+                    name.append(c);
+                }
+                else {
+                    if (openElements.isEmpty()) {
+                        if (sawRoot) {
+                            fail("The markup following the root element must be well-formed.");
+                            return;
+                        }
+                        sawRoot = true;
+                    }
+                    openElements.add(name.toString());
+                    afterTagName(c);
+                }
+                break;
+
+            case IN_TAG:
+                afterTagName(c);
+                break;
+
+            case ATTR_NAME:
+                if (c == '=') {
+                    state = ATTR_QUOTE;
+                }
+                else if (isSpace(c)) {
+                    state = ATTR_EQ;
+                }
+                else if (!isNameChar(c)) {
+                    fail("Attribute name in element \"" + currentElement()
+                        + "\" must be followed by the ' = ' character.");
+                }
+                break;
+
+            case ATTR_EQ:
+                if (c == '=') {
+                    state = ATTR_QUOTE;
+                }
+                else if (!isSpace(c)) {
+                    fail("Attribute name in element \"" + currentElement()
+                        + "\" must be followed by the ' = ' character.");
+                }
+                break;
+
+            case ATTR_QUOTE:
+                if ((c == '"') || (c == '\'')) {
+                    quote = c;
+                    state = ATTR_VALUE;
+                }
+                else if (!isSpace(c)) {
+                    fail("Open quote is expected for an attribute of element \""
+                        + currentElement() + "\".");
+                }
+                break;
+
+            case ATTR_VALUE:
+                if (c == quote) {
+                    state = AFTER_ATTR;
+                }
+                else if (c == '<') {
+                    fail("The value of an attribute of element \"" + currentElement()
+                        + "\" must not contain the '<' character.");
+                }
+                else if (c == '&') {
+                    startRef(ATTR_VALUE);
+                }
+                break;
+
+            case AFTER_ATTR:
+                if (isSpace(c)) {
+                    state = IN_TAG;
+                }
+                else if ((c == '>') || (c == '/')) {
+                    afterTagName(c);
+                }
+                else {
+                    fail("Element type \"" + currentElement()
+                        + "\" must be followed by either attribute specifications, \">\" or \"/>\".");
+                }
+                break;
+
+            case EMPTY_END:
+                if (c == '>') {
+                    openElements.remove(openElements.size() - 1);
+                    state = CONTENT;
+                }
+                else {
+                    fail("Element type \"" + currentElement()
+                        + "\" must be followed by either attribute specifications, \">\" or \"/>\".");
+                }
+                break;
+
+            case END_NAME:
+                if (isNameChar(c) && ((name.length() > 0) || isNameStart(c))) {
+                    name.append(c);
+                }
+                else if ((name.length() > 0) && ((c == '>') || isSpace(c))) {
+                    endElement();
+                    state = (c == '>') ? CONTENT : END_SPACE;
+                }
+                else {
+                    fail("The end tag is not well-formed.");
+                }
+                break;
+
+            case END_SPACE:
+                if (c == '>') {
+                    state = CONTENT;
+                }
+                else if (!isSpace(c)) {
+                    fail("The end-tag for element type \"" + name
+                        + "\" must end with a '>' delimiter.");
+                }
+                break;
+
+            case REF:
+                if (c == ';') {
+                    checkRef();
+                    state = refReturnState;
+                }
+                else if ((name.length() >= MAX_REF)
+                        || !(isNameChar(c) || ((c == '#') && (name.length() == 0)))) {
+                    fail("The entity reference must end with the ';' delimiter.");
+                }
+                else {
+                    name.append(c);
+                }
+                break;
+
+            case BANG:
+                name.append(c);
+                if (name.toString().equals("--")) {
+                    trailing = 0;
+                    state = COMMENT;
+                }
+                else if (name.toString().equals("[CDATA[")) {
+                    if (openElements.isEmpty()) {
+                        fail("CDATA sections are not allowed outside the root element.");
+                        return;
+                    }
+                    trailing = 0;
+                    state = CDATA;
+                }
+                else if (name.toString().equals("DOCTYPE")) {
+                    if (sawRoot || sawDoctype) {
+                        fail("The DOCTYPE must precede the root element.");
+                        return;
+                    }
+                    sawDoctype = true;
+                    doctypeState = DT_HEADER;
+                    doctypeQuote = 0;
+                    state = DOCTYPE;
+                }
+                else if (!"--".startsWith(name.toString())
+                        && !"[CDATA[".startsWith(name.toString())
+                        && !"DOCTYPE".startsWith(name.toString())) {
+                    fail("The markup following \"<!\" is not well-formed.");
+                }
+                break;
+
+            case COMMENT:
+                // Look for --> (-- may appear only there)
+                if (trailing == 2) {
+                    if (c == '>') {
+                        state = CONTENT;
+                    }
+                    else {
+                        fail("The string \"--\" is not permitted within comments.");
+                    }
+                    trailing = 0;
+                }
+                else {
+                    trailing = (c == '-') ? trailing + 1 : 0;
+                }
+                break;
+
+            case CDATA:
+                // Look for ]]>
+                if (c == ']') {
+                    trailing = Math.min(trailing + 1, 2);
+                }
+                else {
+                    if ((c == '>') && (trailing == 2)) {
+                        state = CONTENT;
+                    }
+                    trailing = 0;
+                }
+                break;
+
+            case PI:
+                // Look for ?>
+                if ((c == '>') && (trailing == 1)) {
+                    state = CONTENT;
+                }
+                trailing = (c == '?') ? 1 : 0;
+                break;
+
+            case DOCTYPE:
+                doctypeChar(c);
+                break;
+        }
+    }
+
+    /**
+     * Handle a character of the DOCTYPE. Quotes delimit literals only in the
+     * DOCTYPE's external ID and in the markup declarations of its internal
+     * subset--not in the subset's comments and processing instructions.
+     * (The declarations themselves aren't checked.)
+     * @param c The character
+     */
+    private void doctypeChar(char c) {
+        if (doctypeQuote != 0) {
+            if (c == doctypeQuote) {
+                doctypeQuote = 0;
+            }
+            return;
+        }
+
+        switch (doctypeState) {
+            case DT_HEADER:
+                if ((c == '"') || (c == '\'')) {
+                    doctypeQuote = c;
+                }
+                else if (c == '[') {
+                    doctypeState = DT_SUBSET;
+                }
+                else if (c == '>') {
+                    state = CONTENT;
+                }
+                break;
+
+            case DT_SUBSET:
+                if (c == '<') {
+                    doctypeState = DT_LT;
+                }
+                else if (c == ']') {
+                    doctypeState = DT_AFTER;
+                }
+                break;
+
+            case DT_LT:
+                if (c == '?') {
+                    trailing = 0;
+                    doctypeState = DT_PI;
+                }
+                else if (c == '!') {
+                    doctypeState = DT_BANG;
+                }
+                else {
+                    fail("The markup declarations contained or pointed to by the "
+                        + "document type declaration must be well-formed.");
+                }
+                break;
+
+            case DT_BANG:
+                doctypeState = (c == '-') ? DT_BANG_DASH : DT_DECL;
+                break;
+
+            case DT_BANG_DASH:
+                if (c == '-') {
+                    trailing = 0;
+                    doctypeState = DT_COMMENT;
+                }
+                else {
+                    fail("Comments must start with \"<!--\".");
+                }
+                break;
+
+            case DT_DECL:
+                if ((c == '"') || (c == '\'')) {
+                    doctypeQuote = c;
+                }
+                else if (c == '>') {
+                    doctypeState = DT_SUBSET;
+                }
+                break;
+
+            case DT_COMMENT:
+                // Look for --> (-- may appear only there)
+                if (trailing == 2) {
+                    if (c == '>') {
+                        doctypeState = DT_SUBSET;
+                    }
+                    else {
+                        fail("The string \"--\" is not permitted within comments.");
+                    }
+                    trailing = 0;
+                }
+                else {
+                    trailing = (c == '-') ? trailing + 1 : 0;
+                }
+                break;
+
+            case DT_PI:
+                // Look for ?>
+                if ((c == '>') && (trailing == 1)) {
+                    doctypeState = DT_SUBSET;
+                }
+                trailing = (c == '?') ? 1 : 0;
+                break;
+
+            case DT_AFTER:
+                if (c == '>') {
+                    state = CONTENT;
+                }
+                else if (!isSpace(c)) {
+                    fail("The document type declaration must end with '>'.");
+                }
+                break;
+        }
+    }
+
+    /**
+     * Handle a character that follows a tag name or attribute (or the white
+     * space after one) in a start tag.
+     * @param c The character
+     */
+    private void afterTagName(char c) {
+        if (c == '>') {
+            state = CONTENT;
+        }
+        else if (c == '/') {
+            state = EMPTY_END;
+        }
+        else if (isSpace(c)) {
+            state = IN_TAG;
+        }
+        else if ((state == IN_TAG) && isNameStart(c)) {
+            state = ATTR_NAME;
+        }
+        else {
+            fail("Element type \"" + currentElement()
+                + "\" must be followed by either attribute specifications, \">\" or \"/>\".");
+        }
+    }
+
+    /**
+     * Match the end tag whose name we just read with the innermost open
+     * element.
+     */
+    private void endElement() {
+        String expected = currentElement();
+        if (expected == null) {
+            fail("The end tag \"" + name + "\" has no matching start tag.");
+        }
+        else if (!expected.contentEquals(name)) {
+            fail("The element type \"" + expected
+                + "\" must be terminated by the matching end-tag \"</" + expected + ">\".");
+        }
+        else {
+            openElements.remove(openElements.size() - 1);
+        }
+    }
+
+    /**
+     * Start reading a reference (just after the &amp;).
+     * @param returnState The state to return to after the reference
+     */
+    private void startRef(int returnState) {
+        name.setLength(0);
+        refReturnState = returnState;
+        state = REF;
+    }
+
+    /**
+     * Check the name of the reference we just read (between &amp; and ;).
+     */
+    private void checkRef() {
+        String ref = name.toString();
+        if (ref.startsWith("#")) {
+            int codePoint = -1;
+            try {
+                if (ref.startsWith("#x")) {
+                    codePoint = Integer.parseInt(ref.substring(2), 16);
+                }
+                else {
+                    codePoint = Integer.parseInt(ref.substring(1));
+                }
+            }
+            catch (NumberFormatException e) {
+                // Leave codePoint -1
+            }
+            if (!isXmlChar(codePoint)) {
+                fail("The character reference \"&" + ref + ";\" is not valid.");
+            }
+        }
+        else if (ref.length() == 0 || !isNameStart(ref.charAt(0))) {
+            fail("The entity name must immediately follow the '&' in the entity reference.");
+        }
+        else if (!sawDoctype && !ref.equals("lt") && !ref.equals("gt")
+                && !ref.equals("amp") && !ref.equals("apos") && !ref.equals("quot")) {
+            fail("The entity \"" + ref + "\" was referenced, but not declared.");
+        }
+    }
+
+    /** The innermost open element (or null if none) */
+    private String currentElement() {
+        return openElements.isEmpty() ? null : openElements.get(openElements.size() - 1);
+    }
+
+    /** Record the first problem (at the current position) */
+    private void fail(String message) {
+        error = new SAXParseException(message, null, null, line, column);
+    }
+
+    /** Is the character XML white space? */
+    private static boolean isSpace(char c) {
+        return (c == ' ') || (c == '\n') || (c == '\t') || (c == '\r');
+    }
+
+    /** Can the character begin a name? (Non-ASCII characters are accepted.) */
+    private static boolean isNameStart(char c) {
+        return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'))
+            || (c == '_') || (c == ':') || (c >= 0x80);
+    }
+
+    /** Can the character appear in a name? */
+    private static boolean isNameChar(char c) {
+        return isNameStart(c) || ((c >= '0') && (c <= '9'))
+            || (c == '-') || (c == '.');
+    }
+
+    /** Is the code point one that XML allows in a document? */
+    private static boolean isXmlChar(int c) {
+        return (c == 0x9) || (c == 0xA) || (c == 0xD)
+            || ((c >= 0x20) && (c <= 0xD7FF))
+            || ((c >= 0xE000) && (c <= 0xFFFD))
+            || ((c >= 0x10000) && (c <= 0x10FFFF));
+    }
+}
@@ -27,7 +27,6 @@ import java.util.*;
 import java.nio.charset.*;
 import java.util.regex.*;
 import org.xml.sax.*;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 /**
  * Class to export an XLIFF target to an XML document in the same format as the
@@ -36,6 +35,16 @@ import org.xml.sax.helpers.XMLReaderFactory;
  */
 public class XMLExporter implements Converter {
 
+    /**
+     * The conversion property that selects strict validation of the
+     * exported document. By default, the exporter checks that the document is
+     * well-formed while writing it (see XMLCheckingWriter). If this property
+     * is set to Boolean.TRUE (or "true"), it instead reads the finished
+     * document back in and parses it with a SAX parser, as it used to.
+     */
+    public static final String STRICT_VALIDATION_PROPERTY
+        = "http://www.lingotek.com/converters/properties/strictvalidation";
+
     /** The following maps TU identifiers to target strings: */
     private TuStrings tuMap = new TuStrings();
     
@@ -48,6 +57,10 @@ public class XMLExporter implements Converter {
 
 //    private StringBuilder expansionBuf = new StringBuilder();
     private BufferedWriter outWriter;  // To write exports to.
+    private XMLCheckingWriter checker; // Checks what outWriter writes
+
+    // Set by STRICT_VALIDATION_PROPERTY: whether to reparse the output
+    private boolean strictValidation = false;
 
     
     /** Creates a new instance of XMLExporter */
@@ -194,11 +207,11 @@ public class XMLExporter implements Converter {
             }
             // Is it well-formed?
             else {
-                try {
-                    XMLReader parser = XMLReaderFactory.createXMLReader();
+                XMLReader parser = null;
 
+                try {
                     // We don't care about namespaces at the moment.
-                    parser.setFeature("http://xml.org/sax/features/namespaces", false);
+                    parser = SAXParserPool.acquire(SAXParserPool.Config.XML);
 
                     // Use an InputStream (instead of Reader), for XML that has
                     // a byteorder mark.
@@ -241,6 +254,9 @@ public class XMLExporter implements Converter {
                     System.err.println(notice);
                     notifier.sendNotification("0005", "XMLExporter", Notifier.ERROR, notice);
                 }
+                finally {
+                    SAXParserPool.release(SAXParserPool.Config.XML, parser);
+                }
             }
         }
 
@@ -280,8 +296,9 @@ public class XMLExporter implements Converter {
         // XML output file 
 //        OutputStreamWriter output = null;  // Where final document is written
         try {
-            outWriter = new BufferedWriter(new OutputStreamWriter(
+            checker = new XMLCheckingWriter(new OutputStreamWriter(
                     new FileOutputStream(outXml), Charset.forName("UTF-8")));
+            outWriter = new BufferedWriter(checker);
         }
         catch(FileNotFoundException e ) {
             System.err.println("Cannot write to the XML file: " + e.getMessage());
@@ -331,59 +348,80 @@ public class XMLExporter implements Converter {
         boolean contentOK = true;
         Charset charset = Charset.forName("UTF-8");
         
-        try {
-            XMLReader parser = XMLReaderFactory.createXMLReader();
-
-            // We don't care about namespaces at the moment.
-            parser.setFeature("http://xml.org/sax/features/namespaces", false);
-
-            // Use an InputStream instead of a Reader, for cases where the XML
-            // begins with a byteorder mark.
-            InputStream inStream = new FileInputStream(outXml);
-            InputSource contentIn = new InputSource(inStream);
-            if (contentIn != null) {
-                parser.parse(contentIn); 
-                inStream.close();
+        if (strictValidation) {
+            // Parse the file we just wrote
+            XMLReader parser = null;
+
+            try {
+                // We don't care about namespaces at the moment.
+                parser = SAXParserPool.acquire(SAXParserPool.Config.XML);
+
+                // Use an InputStream instead of a Reader, for cases where the XML
+                // begins with a byteorder mark.
+                InputStream inStream = new FileInputStream(outXml);
+                InputSource contentIn = new InputSource(inStream);
+                if (contentIn != null) {
+                    parser.parse(contentIn); 
+                    inStream.close();
+                }
+                else {
+                    contentOK = false;
+                    if (notifier != null) {
+                        String notice = "Unable to read generated file " 
+                                + outXml;
+                        System.err.println(notice);
+                        notifier.sendNotification("0011", "XMLExporter", Notifier.ERROR, notice);
+                    }
+                }
             }
-            else {
+            catch(SAXParseException e) {
                 contentOK = false;
                 if (notifier != null) {
-                    String notice = "Unable to read generated file " 
-                            + outXml;
+                    String notice = "Generated file " + outXml
+                            + " is not well-formed at line "
+                            + e.getLineNumber() + ", column " + e.getColumnNumber()
+                            + "\n" + e.getMessage() + "\n" + this.getStackTrace(e);
                     System.err.println(notice);
-                    notifier.sendNotification("0011", "XMLExporter", Notifier.ERROR, notice);
+                    notifier.sendNotification("0012", "XMLExporter", Notifier.ERROR, notice);
                 }
             }
-        }
-        catch(SAXParseException e) {
-            contentOK = false;
-            if (notifier != null) {
-                String notice = "Generated file " + outXml
-                        + " is not well-formed at line "
-                        + e.getLineNumber() + ", column " + e.getColumnNumber()
-                        + "\n" + e.getMessage() + "\n" + this.getStackTrace(e);
-                System.err.println(notice);
-                notifier.sendNotification("0012", "XMLExporter", Notifier.ERROR, notice);
+            catch(SAXException e) {
+                contentOK = false;
+                if (notifier != null) {
+                    String notice = "Generated file " + outXml
+                            + " caused an XML parser error: " + e.getMessage()
+                            + "\n" + this.getStackTrace(e);
+                    System.err.println(notice);
+                    notifier.sendNotification("0013", "XMLExporter", Notifier.ERROR, notice);
+                }
             }
-        }
-        catch(SAXException e) {
-            contentOK = false;
-            if (notifier != null) {
-                String notice = "Generated file " + outXml
-                        + " caused an XML parser error: " + e.getMessage()
-                        + "\n" + this.getStackTrace(e);
-                System.err.println(notice);
-                notifier.sendNotification("0013", "XMLExporter", Notifier.ERROR, notice);
+            catch(IOException e) {
+                contentOK = false;
+                if (notifier != null) {
+                    String notice = "The validator of generated file " + outXml
+                            + " experienced an I/O error while reading input: " + e.getMessage()
+                            + "\n" + this.getStackTrace(e);
+                    System.err.println(notice);
+                    notifier.sendNotification("0014", "XMLExporter", Notifier.ERROR, notice);
+                }
+            }
+            finally {
+                SAXParserPool.release(SAXParserPool.Config.XML, parser);
             }
         }
-        catch(IOException e) {
-            contentOK = false;
-            if (notifier != null) {
-                String notice = "The validator of generated file " + outXml
-                        + " experienced an I/O error while reading input: " + e.getMessage()
-                        + "\n" + this.getStackTrace(e);
-                System.err.println(notice);
-                notifier.sendNotification("0014", "XMLExporter", Notifier.ERROR, notice);
+        else {
+            // The checker looked at the XML as we wrote it.
+            SAXParseException e = checker.getError();
+            if (e != null) {
+                contentOK = false;
+                if (notifier != null) {
+                    String notice = "Generated file " + outXml
+                            + " is not well-formed at line "
+                            + e.getLineNumber() + ", column " + e.getColumnNumber()
+                            + "\n" + e.getMessage();
+                    System.err.println(notice);
+                    notifier.sendNotification("0012", "XMLExporter", Notifier.ERROR, notice);
+                }
             }
         }
 
@@ -854,8 +892,9 @@ public class XMLExporter implements Converter {
     /**
      * Set a format-specific property that might affect the way that the
      * conversion occurs.
-     * <p><i>Note:</i> This converter needs no format-specific properties.
-     * If any are passed, they will be silently ignored.
+     * <p>The only property recognized is STRICT_VALIDATION_PROPERTY (to
+     * validate the exported document by parsing it after it is written).
+     * Others will be silently ignored.
      * @param property The name of the property
      * @param value The value of the property
      * @throws file2xliff4j.ConversionException
@@ -863,6 +902,9 @@ public class XMLExporter implements Converter {
      */
     public void setConversionProperty(String property, Object value)
             throws ConversionException {
+        if (property.equals(STRICT_VALIDATION_PROPERTY)) {
+            strictValidation = (value != null) && value.toString().equalsIgnoreCase("true");
+        }
         return;
     }
     
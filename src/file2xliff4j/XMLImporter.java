@@ -40,11 +40,42 @@ import java.util.regex.*;
  */
 public class XMLImporter extends DefaultHandler implements Converter, LexicalHandler {
 
-    private BufferedWriter xliffOut;        // Where to write the XLIFF
+    /**
+     * The conversion property that enables single-pass mode. If set to
+     * Boolean.TRUE (or "true"), the importer identifies the candidate TUs
+     * during the parse that extracts them (see XMLSinglePassFilter), instead
+     * of parsing the document once with the XMLCandidateTuXPathGenerator
+     * beforehand. (The candidates aren't then saved to a "candidates" file.)
+     */
+    public static final String SINGLE_PASS_PROPERTY
+        = "http://www.lingotek.com/converters/properties/singlepass";
+    
+    /**
+     * The conversion property that specifies an XMLCandidateProfile (learned
+     * from sample documents of the input's schema) that decides which
+     * elements and attributes are candidate TUs. Its value is either the
+     * profile or the name of a file to which one was saved. (Profile files
+     * are cached.) A profile implies single-pass mode.
+     */
+    public static final String PROFILE_PROPERTY
+        = "http://www.lingotek.com/converters/properties/xpathprofile";
+
+    /**
+     * The conversion property that enables diagnostics. If set to
+     * Boolean.TRUE (or "true"), the importer saves the candidate TU XPaths in
+     * a file named &lt;original_file_name&gt;candidates and the skip list in
+     * &lt;original_file_name&gt;skiplist. (The files are written by a
+     * background thread while the import proceeds.) By default, neither
+     * file is written.
+     */
+    public static final String DIAGNOSTICS_PROPERTY
+        = "http://www.lingotek.com/converters/properties/xmldiagnostics";
+
+    private OutputSink xliffOut;        // Where to write the XLIFF
 //    private OutputStreamWriter xliffOut;   // Where to write the XLIFF
-    private BufferedWriter tskeletonOut;
+    private OutputSink tskeletonOut;
 //    private OutputStreamWriter tskeletonOut;
-    private BufferedWriter formatOut;
+    private OutputSink formatOut;
 //    private OutputStreamWriter formatOut;
     private Locale sourceLanguage;         // For the source-language attribute
     private String dataType;               // For the datatype attribute
@@ -56,8 +87,34 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
     private Locale curTargetLang;           // Language of the current <target> string
 
     private SegmentBoundary boundaryType;   // Paragraph or Sentence segments?
-    private HashSet<XMLTuXPath> tuXPathSet; // Set of candidate XPaths to TUs
-    private Set<XMLTuXPath> skipSet;        // Set of the above to omit.
+    private XMLTuXPathSet tuXPathSet;       // Set of candidate XPaths to TUs
+    private XMLTuXPathSet skipSet;          // Set of the above to omit.
+    
+    // If non-null, the index in which to look up repeated segments
+    private RepetitionIndex repetitions = null;
+
+    // If non-null, the segmenter to use for SRX segment boundaries (instead
+    // of the default)
+    private SrxSegmenter srxSegmenter = null;
+    
+    // Set by ImportStatistics.PROPERTY: whether to keep statistics of the
+    // TUs written (in statistics, which getConversionProperty returns)
+    private boolean keepStatistics = false;
+    private ImportStatistics statistics = null;
+    
+    // Set by SINGLE_PASS_PROPERTY: whether to find the candidate TUs while
+    // extracting them
+    private boolean singlePass = false;
+    
+    // Set by PROFILE_PROPERTY: if non-null, the profile of candidate TU paths
+    private XMLCandidateProfile profile = null;
+
+    // Set by DIAGNOSTICS_PROPERTY: whether to save the candidates and skip list
+    private boolean diagnostics = false;
+    
+    // When diagnosing, the threads that write the candidates and skip list
+    private DiagnosticsWriter candidatesWriter = null;
+    private DiagnosticsWriter skipListWriter = null;
 
     // The following accumulates the text from an element.
     private StringBuilder candidateTuSource = new StringBuilder();
@@ -178,41 +235,44 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
             throw new ConversionException("Source language omitted. (Required)");
         }
 
-        // Create an object to generate a set of candidate XPaths to translatable
-        // text.
-        XMLCandidateTuXPathGenerator xPathGen =  new XMLCandidateTuXPathGenerator();        
+        // In single-pass mode (or with a profile), the XMLSinglePassFilter adds
+        // the candidates to the set as it finds them during the (only) parse.
+        if (singlePass || (profile != null)) {
+            this.tuXPathSet = new XMLTuXPathSet();
+        }
+        else {
+            // Create an object to generate a set of candidate XPaths to translatable
+            // text.
+            XMLCandidateTuXPathGenerator xPathGen =  new XMLCandidateTuXPathGenerator();        
         
-        // Then ask that object for a set of XMLTuXPaths that likely contain
-        // translatable text
-        try {
-            this.tuXPathSet
-                = xPathGen.getCandidateTuXPaths(new FileInputStream(
-                    baseDir + File.separator + inputXmlFileName));
+            // Then ask that object for a set of XMLTuXPaths that likely contain
+            // translatable text
+            HashSet<XMLTuXPath> candidates = null;
+            try {
+                candidates = xPathGen.getCandidateTuXPaths(new FileInputStream(
+                        baseDir + File.separator + inputXmlFileName));
+            }
+            catch(FileNotFoundException e) {
+                System.err.println("Cannot locate input XML file: " + e.getMessage());
+                throw new ConversionException("Cannot locate input XML file: " + e.getMessage());
+            }
             
-            // Write out the Candidate Paths (for posterity)
-            if (tuXPathSet != null && tuXPathSet.size() > 0) {
-                OutputStreamWriter candOut  = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + inputXmlFileName + "candidates"));
-                Iterator<XMLTuXPath> xpIter = tuXPathSet.iterator();
-                while (xpIter.hasNext()) {
-                    candOut.write(xpIter.next().toString() + "\n");
-                    candOut.flush();
-                }
-                candOut.close();
+            // If diagnosing, write out the Candidate Paths (for posterity)
+            if (diagnostics && (candidates != null) && (candidates.size() > 0)) {
+                candidatesWriter = new DiagnosticsWriter(baseDir + File.separator
+                    + inputXmlFileName + "candidates", candidates);
             }
             
-        }
-        catch(FileNotFoundException e) {
-            System.err.println("Cannot locate input XML file: " + e.getMessage());
-            throw new ConversionException("Cannot locate input XML file: " + e.getMessage());
-        }
-        catch(IOException ioex) {
-            System.err.println("Error saving copy of Candidate TU XPaths. Continuing ...");
+            // Look the candidates up by their packed locations.
+            if (candidates != null) {
+                this.tuXPathSet = new XMLTuXPathSet(candidates);
+                candidates.clear();
+            }
         }
         
         // See if the XPath set contains any elements. If not, we have nowhere
         // to look for content.
-        if ((tuXPathSet == null) || (tuXPathSet.size() == 0)) {
+        if ((tuXPathSet == null) || ((tuXPathSet.size() == 0) && !singlePass && (profile == null))) {
             System.err.println("Unable to identify any translatable text in file " 
                     + baseDir + File.separator + inputXmlFileName);
             throw new ConversionException("Unable to identify any translatable text in file " 
@@ -222,28 +282,12 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
         // Now that we have a set of candidate TU XPaths, see if there is also
         // subset of those XPaths to skip. (There *might* not be.)
         if (skipList != null) {
-            skipSet = (Set<XMLTuXPath>)skipList;
+            skipSet = new XMLTuXPathSet(skipList);
 
-            if (skipSet.size() > 0) {
-                try {
-                    // Write out the Skip list (for posterity)
-                    OutputStreamWriter skipOut  = new OutputStreamWriter(new FileOutputStream(
-                        baseDir + File.separator + inputXmlFileName + "skiplist"));
-                    Iterator<XMLTuXPath> skipIter = skipSet.iterator();
-                    while (skipIter.hasNext()) {
-                        skipOut.write(skipIter.next().toString() + "\n");
-                        skipOut.flush();
-                    }
-                    skipOut.close();
-                }
-                catch(FileNotFoundException e) {
-                    System.err.println("Cannot save copy skiplist: " + e.getMessage()
-                        + " (continuing ...)");
-                }
-                catch(IOException ioex) {
-                    System.err.println("Error saving copy of skiplist: "
-                            + ioex.getMessage() + " (continuing ...)");
-                }
+            // If diagnosing, write out the Skip list (for posterity)
+            if (diagnostics && (skipList.size() > 0)) {
+                skipListWriter = new DiagnosticsWriter(baseDir + File.separator
+                    + inputXmlFileName + "skiplist", skipList);
             }
         }
         
@@ -259,44 +303,41 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
         // Create output stream writers for the SAX handler to write to.
         // We will store our output as UTF-8
         try {
-            xliffOut  = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + inputXmlFileName + Converter.xliffSuffix),
-                    "UTF8"));
-            tskeletonOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + inputXmlFileName + Converter.tSkeletonSuffix),
-                    "UTF8"));
-            formatOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + inputXmlFileName + Converter.formatSuffix),
-                    "UTF8"));
-        }
-        catch (UnsupportedEncodingException e) {
-            System.err.println("Unable to write XLIFF as UTF-8!!");
-            System.err.println(e.getMessage());
-            throw new ConversionException("Unable to write XLIFF as UTF-8: " + e.getMessage());
+            xliffOut  = new OutputSink(
+                    baseDir + File.separator + inputXmlFileName + Converter.xliffSuffix);
+            tskeletonOut = new OutputSink(
+                    baseDir + File.separator + inputXmlFileName + Converter.tSkeletonSuffix);
+            formatOut = new OutputSink(
+                    baseDir + File.separator + inputXmlFileName + Converter.formatSuffix);
         }
         catch (FileNotFoundException e) {
             System.err.println(e.getMessage());
             throw new ConversionException(e.getMessage());
         }
 
+        // If requested, keep statistics of the TUs as they are written
+        statistics = ImportStatistics.forImport(keepStatistics, baseDir, inputXmlFileName);
+        
         XMLReader parser = null;
         Charset encoding = null;
         
         try {
             // Let's parse with the an XML Reader
-            parser = XMLReaderFactory.createXMLReader();
+            parser = SAXParserPool.acquire(SAXParserPool.Config.XML_NAMESPACES);
             
-            parser.setContentHandler(this); // We're gonna handle content ourself
+            if (singlePass || (profile != null)) {
+                // The filter finds the candidates and passes the events on to us
+                XMLSinglePassFilter filter = new XMLSinglePassFilter(this, tuXPathSet,
+                    profile, baseDir + File.separator + inputXmlFileName);
+                parser.setContentHandler(filter);
+                parser.setProperty("http://xml.org/sax/properties/lexical-handler", filter);
+            }
+            else {
+                parser.setContentHandler(this); // We're gonna handle content ourself
 
-            // We want to preserve entities in the document as entities in the TUs
-            parser.setProperty("http://xml.org/sax/properties/lexical-handler", this);
-            
-            // Maintain the case (upper/lower) of tags (elements) and attributes 
-            // Include namespaces in the StartElement() attlist:
-            parser.setFeature("http://xml.org/sax/features/namespaces", true);
-            
-            // Also include namespace-prefixes:
-            parser.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+                // We want to preserve entities in the document as entities in the TUs
+                parser.setProperty("http://xml.org/sax/properties/lexical-handler", this);
+            }
 
             // The Reader prevents SAX from recognizing the byte-order mark (BOM)
             // Using an InputStream will let SAX read the BOM and detect the
@@ -325,7 +366,19 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
             System.err.println("I/O error reading XML input: " + e.getMessage());
             throw new ConversionException("I/O error reading XML input: " + e.getMessage());
         }
+        finally {
+            SAXParserPool.release(SAXParserPool.Config.XML_NAMESPACES, parser);
+        }
 
+        // In single-pass mode, we don't know until now whether there were any
+        // candidates.
+        if (tuXPathSet.size() == 0) {
+            System.err.println("Unable to identify any translatable text in file " 
+                    + baseDir + File.separator + inputXmlFileName);
+            throw new ConversionException("Unable to identify any translatable text in file " 
+                    + baseDir + File.separator + inputXmlFileName);
+        }
+        
         // Null out some objects we don't need any more:
         this.candidateCdata.setLength(0);    this.candidateCdata.trimToSize();    this.candidateCdata = null;
         this.candidateTuSource.setLength(0); this.candidateTuSource.trimToSize(); this.candidateTuSource = null;
@@ -338,6 +391,9 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
         try {
             /* Close the files we created above */
             xliffOut.close(); xliffOut = null;
+            if (statistics != null) {
+                statistics.close();
+            }
             tskeletonOut.close(); tskeletonOut = null;
             formatOut.close(); formatOut = null;
 
@@ -377,6 +433,14 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
             System.err.println(e.getMessage());
         }
         
+        // Wait for the diagnostics (if any) to be written
+        if (candidatesWriter != null) {
+            candidatesWriter.finish(); candidatesWriter = null;
+        }
+        if (skipListWriter != null) {
+            skipListWriter.finish(); skipListWriter = null;
+        }
+        
         if (generatedFileName != null) {
             generatedFileName.write(inputXmlFileName + Converter.xliffSuffix);
         }
@@ -987,6 +1051,9 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
      * @return An Object that represents the property's value.
      */
     public Object getConversionProperty(String property) {
+        if (property.equals(ImportStatistics.PROPERTY)) {
+            return statistics;
+        }
         return null;
     }
 
@@ -1055,14 +1122,12 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
      * the specified location contains translatable text.
      */
     private boolean isTextElement(int line, int col, String attrName) {
-        // In the following, we don't care about the first argument--the string
-        // representation of the XPath. It isn't used in determing set membership.
-        XMLTuXPath xPath = new XMLTuXPath("", line, col, attrName);
-        if (this.tuXPathSet.contains(xPath)) {
+        // (The sets look up the location without creating an XMLTuXPath.)
+        if (this.tuXPathSet.contains(line, col, attrName)) {
             if (this.skipSet == null) {
                 return true;
             }
-            else if (this.skipSet.contains(xPath)) {
+            else if (this.skipSet.contains(line, col, attrName)) {
                 return false;     // Skip this one.
             }
             else {  // This XPath isn't to be skipped
@@ -1074,6 +1139,16 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
         }
     }    
     
+    /**
+     * Is the importer inside a translatable text element? (If so, it treats
+     * the start of an element as the start of an inline tag, without checking
+     * whether the element is a candidate TU.)
+     * @return true if inside a text element, else false
+     */
+    boolean isInsideTextElement() {
+        return this.insideTextElement;
+    }
+    
     /**
      * Write a string to the format file. 
      * @param text The string to write to the format document. (No newlines, etc.
@@ -1084,7 +1159,6 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
         if (text != null) {
             try {
                 formatOut.write(text);
-                formatOut.flush();   // For debugging only
             }
             catch(IOException e) {
                 System.err.println("Error writing format file.");
@@ -1112,7 +1186,6 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
                     textWithSeq = text;
                 }
                 tskeletonOut.write(textWithSeq);
-                tskeletonOut.flush();    // For debugging
             }
             catch(IOException e) {
                 System.err.println("Error writing tskeleton file.");
@@ -1133,7 +1206,7 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
 
         // Get the core segments:
         SegmentInfo[] coreTus = TuPreener.getCoreSegments(tuBuf,
-            this.boundaryType, this.sourceLanguage, true);
+            this.boundaryType, this.sourceLanguage, true, false, srxSegmenter);
         
         ArrayList<UUID> retUUIDs = new ArrayList<UUID>();
         
@@ -1190,7 +1263,10 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
                 // Open the trans-unit element (No offset attribute in the following (yet?))
                 writeXliff(indent('0')
                     + "<trans-unit id='" + idOfCurSegment.toString() + "' "
-                    + "lt:paraID='" + paraId + "' ");
+                    + "lt:paraID='" + paraId + "'"
+                    + ImportStatistics.recordTu(idOfCurSegment, coreTus[i].getCoreText(),
+                            repetitions, statistics)
+                    + " ");
                 
                 siblingTuSuffix.append(">\r\n");
 
@@ -1282,7 +1358,6 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
 
         try {
             xliffOut.write(text);
-            xliffOut.flush();   // For debugging
         }
         catch(IOException e) {
             System.err.println("Error writing to XLIFF: " + e.getMessage());
@@ -1292,8 +1367,13 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
     /**
      * Set a format-specific property that might affect the way that the
      * conversion occurs.
-     * <p><i>Note:</i> This converter needs no format-specific properties.
-     * If any are passed, they will be silently ignored.
+     * <p>The properties recognized are RepetitionIndex.PROPERTY (to mark
+     * repeated segments), ImportStatistics.PROPERTY (to keep statistics
+     * of the TUs written), SrxSegmenter.PROPERTY (to segment with the 
+     * rules of an SRX file), SINGLE_PASS_PROPERTY (to parse the input only
+     * once), PROFILE_PROPERTY (to decide which elements and attributes
+     * are candidate TUs by their paths) and DIAGNOSTICS_PROPERTY (to save
+     * the candidates and skip list). Others will be silently ignored.
      * @param property The name of the property
      * @param value The value of the property
      * @throws file2xliff4j.ConversionException
@@ -1301,7 +1381,90 @@ public class XMLImporter extends DefaultHandler implements Converter, LexicalHan
      */
     public void setConversionProperty(String property, Object value)
             throws ConversionException {
+        if (property.equals(RepetitionIndex.PROPERTY)) {
+            repetitions = RepetitionIndex.forProperty(value);
+        }
+        else if (property.equals(ImportStatistics.PROPERTY)) {
+            keepStatistics = ImportStatistics.isEnabled(value);
+        }
+        else if (property.equals(SrxSegmenter.PROPERTY)) {
+            srxSegmenter = SrxSegmenter.forProperty(value);
+        }
+        else if (property.equals(SINGLE_PASS_PROPERTY)) {
+            singlePass = (value != null) && value.toString().equalsIgnoreCase("true");
+        }
+        else if (property.equals(DIAGNOSTICS_PROPERTY)) {
+            diagnostics = (value != null) && value.toString().equalsIgnoreCase("true");
+        }
+        else if (property.equals(PROFILE_PROPERTY)) {
+            if (value instanceof XMLCandidateProfile) {
+                profile = (XMLCandidateProfile)value;
+            }
+            else if (value != null) {
+                try {
+                    profile = XMLCandidateProfile.forFile(value.toString());
+                }
+                catch (IOException e) {
+                    System.err.println("Unable to read XPath profile " + value);
+                    throw new ConversionException("Unable to read XPath profile "
+                        + value + ": " + e.getMessage());
+                }
+            }
+            else {
+                profile = null;
+            }
+        }
         return;
     }
-    
+
+    /**
+     * Thread that writes a copy of a set of XMLTuXPaths (the candidates or
+     * the skip list) to a diagnostics file, one per line, while the import
+     * proceeds. The thread starts when it is created.
+     */
+    private static class DiagnosticsWriter extends Thread {
+        private String fileName;                // Where to write
+        private ArrayList<XMLTuXPath> xPaths;   // What to write
+
+        /**
+         * Copy the XMLTuXPaths (the caller may clear its set) and start
+         * writing them.
+         * @param fileName The name of the diagnostics file
+         * @param xPaths The XMLTuXPaths to write
+         */
+        private DiagnosticsWriter(String fileName, Collection<XMLTuXPath> xPaths) {
+            super("XMLImporter diagnostics");
+            this.fileName = fileName;
+            this.xPaths = new ArrayList<XMLTuXPath>(xPaths);
+            setDaemon(true);
+            start();
+        }
+
+        public void run() {
+            try {
+                OutputSink diagOut = new OutputSink(fileName);
+                for (XMLTuXPath xPath : xPaths) {
+                    diagOut.write(xPath.toString() + "\n");
+                }
+                diagOut.close();
+            }
+            catch(IOException e) {
+                System.err.println("Error saving copy of " + fileName + ": "
+                    + e.getMessage() + " (continuing ...)");
+            }
+            xPaths = null;
+        }
+
+        /**
+         * Wait for the diagnostics file to be written.
+         */
+        private void finish() {
+            try {
+                join();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
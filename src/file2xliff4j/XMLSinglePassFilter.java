@@ -0,0 +1,544 @@
+/**
+ * XMLSinglePassFilter.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import f2xutils.*;
+import org.xml.sax.*;
+import org.xml.sax.helpers.*;
+import org.xml.sax.ext.LexicalHandler;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SAX handler that sits between the parser and the XMLImporter when the
+ * importer runs in single-pass mode. It identifies the candidate TU
+ * elements and attributes (by the same rules as the
+ * XMLCandidateTuXPathGenerator) during the parse that extracts them, so
+ * that the input document needn't be parsed twice.
+ * <p>Whether an attribute is a candidate is known when its element starts,
+ * but an element is a candidate only if its text (not counting the text of
+ * its descendants) isn't ignorable--which might not be evident until the
+ * element ends. The filter therefore holds back the events from the start
+ * of such an element until the element's status is known: when meaningful
+ * text turns up in it (it's a candidate) or when it ends (it isn't). The
+ * held events are then passed to the importer, which finds the candidates
+ * in the set it consults (tuXPathSet). Inside a translatable element, the
+ * importer doesn't need to know whether descendant elements are candidates,
+ * so their events are passed on at once.
+ * <p>Only the subtree of an undecided element is held in memory. In
+ * documents whose root element has no text of its own, that can amount to
+ * most of the document, so the filter holds events only up to a limit
+ * (MAX_HELD_CHARS). If the limit is reached, the filter falls back to the
+ * two-pass method: it reads the input file a second time with the
+ * XMLCandidateTuXPathGenerator, adds all the candidates it finds to the
+ * set, and decides every element (held or still to come) by looking it up
+ * there--so no more events need be held.
+ * <p>If the filter is given an XMLCandidateProfile (learned from documents
+ * that share the schema of the input), it decides whether an element or
+ * attribute is a candidate by its path in the profile, as soon as the
+ * element starts. Then no events are held at all.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+class XMLSinglePassFilter extends DefaultHandler implements LexicalHandler {
+
+    // Types of held events
+    private static final int START_ELEMENT = 0;
+    private static final int END_ELEMENT = 1;
+    private static final int CHARACTERS = 2;
+    private static final int START_ENTITY = 3;
+    private static final int END_ENTITY = 4;
+    private static final int START_CDATA = 5;
+    private static final int END_CDATA = 6;
+    private static final int COMMENT = 7;
+
+    // About how much (in characters, counting each event as 16 in addition
+    // to its text and attributes) the filter holds before it falls back to
+    // deciding the elements with a separate pass over the input
+    private static final int MAX_HELD_CHARS = 1 << 20;
+
+    private XMLImporter importer;           // Where to pass the events
+    private XMLTuXPathSet candidates;       // Where to add candidate TUs
+
+    // Rules for deciding which elements and attributes are candidates
+    private XMLCandidateTuXPathGenerator rules = new XMLCandidateTuXPathGenerator();
+
+    private Locator parserLocator;          // The parser's locator
+
+    // Where the element whose start is passed to the importer starts (The
+    // importer's locator reports these.)
+    private int curLine = 0;
+    private int curCol = 0;
+
+    // The elements that have started (but not ended) in the parse
+    private Stack<ElementStatus> openElements = new Stack<ElementStatus>();
+
+    // Events held until the status of the element they follow is known
+    private ArrayDeque<HeldEvent> heldEvents = new ArrayDeque<HeldEvent>();
+    private int heldChars = 0;              // Their size (see MAX_HELD_CHARS)
+
+    // The input file (which the filter reads again if it holds too much),
+    // or null
+    private String inputPath;
+
+    // Have all the candidates in the document been added to the set (by a
+    // separate pass over the input)?
+    private boolean allCandidatesKnown = false;
+
+    private boolean inCdata = false;        // Are we in a CDATA section?
+
+    // If non-null, the profile that decides which paths are candidates
+    private XMLCandidateProfile profile;
+
+    // With a profile: the paths of the open elements
+    private Stack<String> pathStack = new Stack<String>();
+
+    /**
+     * Create a filter that passes SAX events to an XMLImporter, adding the
+     * candidate TUs it finds to a set.
+     * @param importer The importer to pass the events to
+     * @param candidates The set (the importer's tuXPathSet) to which to add
+     *        the location of each candidate element and attribute
+     * @param profile If non-null, the profile that decides which elements
+     *        and attributes are candidates (by their paths). If null, the
+     *        rules of the XMLCandidateTuXPathGenerator decide.
+     * @param inputPath The path of the input file, which the filter reads
+     *        a second time if it would otherwise hold too many events. (If
+     *        null, the filter holds as many events as it needs to.)
+     */
+    XMLSinglePassFilter(XMLImporter importer, XMLTuXPathSet candidates,
+            XMLCandidateProfile profile, String inputPath) {
+        this.importer = importer;
+        this.candidates = candidates;
+        this.profile = profile;
+        this.inputPath = inputPath;
+    }
+
+    /**
+     * Keep the parser's locator, and give the importer one that reports
+     * where the element whose start it is processing starts.
+     * @param locator The parser's locator
+     */
+    public void setDocumentLocator(Locator locator) {
+        this.parserLocator = locator;
+        importer.setDocumentLocator(new Locator() {
+            public String getPublicId() { return parserLocator.getPublicId(); }
+            public String getSystemId() { return parserLocator.getSystemId(); }
+            public int getLineNumber() { return curLine; }
+            public int getColumnNumber() { return curCol; }
+        });
+    }
+
+    /**
+     * Pass the start of the document to the importer.
+     * @throws org.xml.sax.SAXException
+     *         If the importer needs to report errors.
+     */
+    public void startDocument() throws SAXException {
+        importer.startDocument();
+    }
+
+    /**
+     * Note the candidate attributes of an element, and pass its start to the
+     * importer (or hold it, if the importer needs to know whether the element
+     * is a candidate and that isn't known yet).
+     * @param namespaceURI The URI of the namespace
+     * @param localName The local name (without prefix)
+     * @param qualifiedName The qualified name (with prefix)
+     * @param atts The specified or defaulted attributes.
+     * @throws org.xml.sax.SAXException
+     *         If the importer needs to report errors.
+     */
+    public void startElement(String namespaceURI, String localName,
+            String qualifiedName, Attributes atts) throws SAXException {
+        ElementStatus status = new ElementStatus(parserLocator.getLineNumber(),
+            parserLocator.getColumnNumber());
+        openElements.push(status);
+
+        String path = null;
+        if (profile != null) {
+            String elementName = qualifiedName;
+            if ((elementName == null) || (elementName.length() == 0)) {
+                elementName = localName;
+            }
+            path = (pathStack.isEmpty() ? "" : pathStack.peek()) + "/" + elementName;
+            pathStack.push(path);
+
+            // The profile knows now whether the element is a candidate
+            status.decided = true;
+            if (profile.isCandidateElement(path)) {
+                status.isCandidate = true;
+                candidates.add(status.line, status.column, null);
+            }
+        }
+        else if (allCandidatesKnown) {
+            status.decided = true;
+            status.isCandidate = candidates.contains(status.line, status.column, null);
+        }
+
+        for (int i = 0; i < atts.getLength(); i++) {
+            if ((profile != null)
+                ? profile.isCandidateAttribute(path, atts.getQName(i))
+                : rules.isCandidateAttribute(atts.getQName(i), atts.getValue(i))) {
+                candidates.add(status.line, status.column, atts.getQName(i));
+            }
+        }
+
+        if (heldEvents.isEmpty() && isReady(status)) {
+            curLine = status.line;
+            curCol = status.column;
+            importer.startElement(namespaceURI, localName, qualifiedName, atts);
+        }
+        else {
+            HeldEvent event = new HeldEvent(START_ELEMENT, namespaceURI,
+                localName, qualifiedName);
+            event.atts = new AttributesImpl(atts);
+            event.status = status;
+            hold(event);
+        }
+    }
+
+    /**
+     * Note that the element that is ending isn't a candidate (if it isn't
+     * already known to be one), and pass its end to the importer.
+     * @param namespaceURI The URI of the namespace
+     * @param localName The local name (without prefix)
+     * @param qualifiedName The qualified name (with prefix)
+     * @throws org.xml.sax.SAXException
+     *         If the importer needs to report errors.
+     */
+    public void endElement(String namespaceURI, String localName,
+            String qualifiedName) throws SAXException {
+        if (!openElements.isEmpty()) {
+            openElements.pop().decided = true;
+        }
+        if (!pathStack.isEmpty()) {
+            pathStack.pop();
+        }
+
+        if (heldEvents.isEmpty()) {
+            importer.endElement(namespaceURI, localName, qualifiedName);
+        }
+        else {
+            hold(new HeldEvent(END_ELEMENT, namespaceURI, localName,
+                qualifiedName));
+            release();
+        }
+    }
+
+    /**
+     * If the characters aren't ignorable (and aren't in a CDATA section), the
+     * current element is a candidate. Pass the characters to the importer.
+     * @param ch Array containing characters encountered
+     * @param start Position in array of first applicable character
+     * @param length How many characters are of interest?
+     * @throws org.xml.sax.SAXException
+     *         If the importer needs to report errors.
+     */
+    public void characters(char[] ch, int start, int length)
+            throws SAXException {
+        boolean newCandidate = false;
+        if (!inCdata && !openElements.isEmpty()) {
+            ElementStatus status = openElements.peek();
+            if (!status.decided
+                && !rules.isIgnorableText(new String(ch, start, length))) {
+                status.isCandidate = true;
+                status.decided = true;
+                candidates.add(status.line, status.column, null);
+                newCandidate = true;
+            }
+        }
+
+        if (heldEvents.isEmpty()) {
+            importer.characters(ch, start, length);
+        }
+        else {
+            HeldEvent event = new HeldEvent(CHARACTERS, null, null, null);
+            event.chars = Arrays.copyOfRange(ch, start, start + length);
+            hold(event);
+            if (newCandidate) {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Pass the rest of the events (whose elements have all ended by now) and
+     * the end of the document to the importer.
+     * @throws org.xml.sax.SAXException
+     *         If the importer needs to report errors.
+     */
+    public void endDocument() throws SAXException {
+        release();
+        importer.endDocument();
+    }
+
+    /************************************************************************
+     * L e x i c a l H a n d l e r   m e t h o d s
+     ***********************************************************************/
+    /**
+     * Pass the start of an entity to the importer.
+     * @param name The name of the entity
+     * @throws org.xml.sax.SAXException
+     *         If the importer needs to report errors.
+     */
+    public void startEntity(String name) throws SAXException {
+        pass(new HeldEvent(START_ENTITY, name, null, null));
+    }
+
+    /**
+     * Pass the end of an entity to the importer.
+     * @param name The name of the entity
+     * @throws org.xml.sax.SAXException
+     *         If the importer needs to report errors.
+     */
+    public void endEntity(String name) throws SAXException {
+        pass(new HeldEvent(END_ENTITY, name, null, null));
+    }
+
+    /** Method defined by the LexicalHandler interface that we don't care about.
+     * @throws org.xml.sax.SAXException
+     *         If the SAX parser needs to report errors.
+     */
+    public void startDTD(String name, String publicId, String systemId)
+        throws SAXException {}
+
+    /** Method defined by the LexicalHandler interface that we don't care about.
+     * @throws org.xml.sax.SAXException
+     *         If the SAX parser needs to report errors.
+     */
+    public void endDTD() throws SAXException {}
+
+    /**
+     * Pass the start of a CDATA section to the importer. (Text in CDATA
+     * doesn't make an element a candidate.)
+     * @throws org.xml.sax.SAXException
+     *         If the importer needs to report errors.
+     */
+    public void startCDATA() throws SAXException {
+        inCdata = true;
+        pass(new HeldEvent(START_CDATA, null, null, null));
+    }
+
+    /**
+     * Pass the end of a CDATA section to the importer.
+     * @throws org.xml.sax.SAXException
+     *         If the importer needs to report errors.
+     */
+    public void endCDATA() throws SAXException {
+        inCdata = false;
+        pass(new HeldEvent(END_CDATA, null, null, null));
+    }
+
+    /**
+     * Pass a comment to the importer.
+     * @param text Array containing characters encountered
+     * @param start Position in array of first applicable character
+     * @param length How many characters are of interest?
+     * @throws org.xml.sax.SAXException
+     *         If the importer needs to report errors.
+     */
+    public void comment(char[] text, int start, int length) throws SAXException {
+        if (heldEvents.isEmpty()) {
+            importer.comment(text, start, length);
+        }
+        else {
+            HeldEvent event = new HeldEvent(COMMENT, null, null, null);
+            event.chars = Arrays.copyOfRange(text, start, start + length);
+            hold(event);
+        }
+    }
+
+    /**
+     * Is the importer ready for the start of an element? (It is if it knows
+     * whether the element is a candidate--or if it doesn't need to know,
+     * because the element is inside a translatable element.)
+     */
+    private boolean isReady(ElementStatus status) {
+        return status.decided || importer.isInsideTextElement();
+    }
+
+    /** Pass (or, if events are being held, hold) an event. */
+    private void pass(HeldEvent event) throws SAXException {
+        if (heldEvents.isEmpty()) {
+            dispatch(event);
+        }
+        else {
+            hold(event);
+        }
+    }
+
+    /**
+     * Hold an event. If that makes the held events too big, decide all the
+     * elements with a separate pass over the input, and pass the held
+     * events on.
+     */
+    private void hold(HeldEvent event) throws SAXException {
+        heldEvents.add(event);
+        heldChars += event.size();
+        if ((heldChars > MAX_HELD_CHARS) && (inputPath != null)) {
+            findAllCandidates();
+            release();
+        }
+    }
+
+    /**
+     * Add all the candidates in the input to the set (by parsing it with an
+     * XMLCandidateTuXPathGenerator), and decide the elements that are still
+     * undecided by looking them up there.
+     */
+    private void findAllCandidates() {
+        HashSet<XMLTuXPath> found = null;
+        try {
+            InputStream in = new FileInputStream(inputPath);
+            try {
+                found = new XMLCandidateTuXPathGenerator().getCandidateTuXPaths(in);
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Unable to reread XML input: " + e.getMessage());
+        }
+        inputPath = null;             // Don't try again.
+        if (found == null) {
+            return;                   // Keep holding, then.
+        }
+
+        for (XMLTuXPath xPath : found) {
+            candidates.add(xPath);
+        }
+        found.clear();
+        allCandidatesKnown = true;
+        
+        for (ElementStatus status : openElements) {
+            if (!status.decided) {
+                status.decided = true;
+                status.isCandidate = candidates.contains(status.line, 
+                    status.column, null);
+            }
+        }
+    }
+
+    /**
+     * Pass the held events to the importer, up to the start of the first
+     * element whose status the importer needs but that isn't known yet.
+     */
+    private void release() throws SAXException {
+        while (!heldEvents.isEmpty()) {
+            HeldEvent event = heldEvents.peek();
+            if ((event.type == START_ELEMENT) && !isReady(event.status)) {
+                return;
+            }
+            heldEvents.poll();
+            heldChars -= event.size();
+            dispatch(event);
+        }
+    }
+
+    /** Pass an event to the importer */
+    private void dispatch(HeldEvent event) throws SAXException {
+        switch (event.type) {
+            case START_ELEMENT:
+                curLine = event.status.line;
+                curCol = event.status.column;
+                importer.startElement(event.name, event.localName,
+                    event.qualifiedName, event.atts);
+                break;
+            case END_ELEMENT:
+                importer.endElement(event.name, event.localName,
+                    event.qualifiedName);
+                break;
+            case CHARACTERS:
+                importer.characters(event.chars, 0, event.chars.length);
+                break;
+            case START_ENTITY:
+                importer.startEntity(event.name);
+                break;
+            case END_ENTITY:
+                importer.endEntity(event.name);
+                break;
+            case START_CDATA:
+                importer.startCDATA();
+                break;
+            case END_CDATA:
+                importer.endCDATA();
+                break;
+            case COMMENT:
+                importer.comment(event.chars, 0, event.chars.length);
+                break;
+        }
+    }
+
+    /**
+     * Where an element starts, and whether it is known to be (or not to be)
+     * a candidate TU.
+     */
+    private static class ElementStatus {
+        private int line;                   // Where the element starts
+        private int column;
+        private boolean isCandidate = false; // Has meaningful text
+        private boolean decided = false;     // Candidate, or ended without being one
+
+        private ElementStatus(int line, int column) {
+            this.line = line;
+            this.column = column;
+        }
+    }
+
+    /**
+     * A SAX event held until the importer is ready for it.
+     */
+    private static class HeldEvent {
+        private int type;                   // START_ELEMENT, etc.
+        private String name;                // Namespace URI or entity name
+        private String localName;
+        private String qualifiedName;
+        private Attributes atts;            // (START_ELEMENT)
+        private ElementStatus status;       // (START_ELEMENT)
+        private char[] chars;               // (CHARACTERS and COMMENT)
+
+        private HeldEvent(int type, String name, String localName,
+                String qualifiedName) {
+            this.type = type;
+            this.name = name;
+            this.localName = localName;
+            this.qualifiedName = qualifiedName;
+        }
+
+        /** About how much the event holds (see MAX_HELD_CHARS) */
+        private int size() {
+            int size = 16;
+            if (chars != null) {
+                size += chars.length;
+            }
+            if (atts != null) {
+                for (int i = 0; i < atts.getLength(); i++) {
+                    size += atts.getQName(i).length() + atts.getValue(i).length();
+                }
+            }
+            return size;
+        }
+    }
+}
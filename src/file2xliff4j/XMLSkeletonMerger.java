@@ -35,12 +35,21 @@ import java.util.regex.*;
  * </ul>
  * It outputs a final Skeleton file that can be used to generate
  * the original XML (with modified/added targets) XLIFF.
+ * <p>The merger makes a single forward pass over the two input streams.
+ * Only a small window of the original XML (from just before the most 
+ * recently sought tag to the current position) is held in memory; as the
+ * window advances, everything that precedes it is written to the skeleton
+ * output stream. Memory use is therefore independent of the size of the
+ * XML document.
  *
  * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
  */
 public class XMLSkeletonMerger implements SkeletonMerger {
     
-    private StringBuilder skelBuf;            // Starts with copy of XML document
+    private StringBuilder skelBuf;            // Window into the XML document
+    private BufferedReader xml;               // The original XML we read from
+    private boolean xmlAtEOF = false;         // Have we read all the original XML?
+    private char[] readBuf;                   // For reading the original XML
 
     private int prevTagSeekOffset;            // The offset of the previous tag to which we sought.
     private boolean inAttr = false;           // We're processing an attribute
@@ -52,6 +61,9 @@ public class XMLSkeletonMerger implements SkeletonMerger {
                                               // of the wildcard tag we insert before the
                                               // </trans-unit> tag
     private static final int BLKSIZE = 8192;  // How much to read at a time.
+    private static final int FLUSH_THRESHOLD = 4 * BLKSIZE; // Write out the
+                                              // window's "settled" prefix when
+                                              // it grows larger than this.
 
     private int tSkelSeqNo = -1;              // Line number in tskeleton file.
             
@@ -104,17 +116,20 @@ public class XMLSkeletonMerger implements SkeletonMerger {
         }
 
         BufferedReader tSkel = new BufferedReader(new InputStreamReader(tSkelInStream, Charset.forName("UTF-8")));
-        BufferedReader xml =  new BufferedReader(new InputStreamReader(xmlInStream, encoding));
+        xml =  new BufferedReader(new InputStreamReader(xmlInStream, encoding));
         BufferedWriter skel  = new BufferedWriter(new OutputStreamWriter(skeletonOutStream, encoding));
         
-        // Read the XML stream into a buffer for easy (quick and dirty for now)
-        // manipulation
-        skelBuf = new StringBuilder();
-        char[] buf = new char [BLKSIZE];          // For reading
-        int numRead;
-        while ((numRead = xml.read(buf)) > 0) {
-            skelBuf.append(buf,0,numRead);
-        }
+        // The skeleton buffer holds only a window of the XML stream. It is
+        // filled on demand as we search forward for tags, and its settled
+        // prefix is written to the skeleton as the window advances.
+        skelBuf = new StringBuilder(2 * FLUSH_THRESHOLD);
+        readBuf = new char [BLKSIZE];
+        xmlAtEOF = false;
+        xmlStreamPos = 0;
+        prevTagSeekOffset = 0;
+        attrValOffset = 0;
+        inAttr = false;
+        prevTagWasEmpty = false;
         
         // Matcher to capture the line sequence number from the tskeleton.
         Matcher seqMatcher = Pattern.compile(" seq='(\\d+)'(?:>|&gt;)$").matcher("");
@@ -166,6 +181,9 @@ public class XMLSkeletonMerger implements SkeletonMerger {
                 break;                        //   quit looping
             }
             
+            // Write out whatever part of the window we can't revisit.
+            flushSettled(skel);
+            
             seqMatcher.reset(curSkelLine);
             if (seqMatcher.find()) { this.tSkelSeqNo = Integer.parseInt(seqMatcher.group(1)); }
             
@@ -288,14 +306,120 @@ public class XMLSkeletonMerger implements SkeletonMerger {
             }
         }
         
-        // Write the skeleton buffer to the skel stream
-        for (int i = 0; i < skelBuf.length(); i++) {
-        //for (int i = 0; i < xmlStreamPos; i++) {
-            skel.write(skelBuf.charAt(i));
+        // Write the rest of the skeleton buffer to the skel stream, followed
+        // by whatever remains unread in the XML stream.
+        writeBuf(skel, skelBuf.length());
+        int numRead;
+        while ((numRead = xml.read(readBuf)) > 0) {
+            skel.write(readBuf, 0, numRead);
         }
         
         skel.flush();
         skel.close();
+        skelBuf = null;
+        xml = null;
+    }
+    
+    /**
+     * Read the next block of the original XML stream and append it to the
+     * skeleton buffer.
+     * @return true if characters were appended, else false (end of stream)
+     * @throws java.io.IOException
+     *         if an I/O error occurs.
+     */
+    private boolean readMore() throws IOException {
+        if (xmlAtEOF) {
+            return false;
+        }
+        int numRead = xml.read(readBuf);
+        if (numRead <= 0) {
+            xmlAtEOF = true;
+            return false;
+        }
+        skelBuf.append(readBuf, 0, numRead);
+        return true;
+    }
+    
+    /**
+     * Make sure that the skeleton buffer extends at least through the 
+     * specified position, reading more of the XML stream if necessary.
+     * @param pos The position that needs to be in the buffer
+     * @throws java.io.IOException
+     *         if an I/O error occurs.
+     */
+    private void fillThrough(int pos) throws IOException {
+        while (pos >= skelBuf.length() && readMore()) {
+            // Keep reading
+        }
+    }
+    
+    /**
+     * Find the first occurrence of a string in the skeleton buffer at or
+     * after the specified position, reading more of the XML stream until 
+     * the string is found or the stream is exhausted.
+     * @param str The string to look for
+     * @param fromIndex Where to begin looking
+     * @return The index of the string, or -1 if not found
+     * @throws java.io.IOException
+     *         if an I/O error occurs.
+     */
+    private int indexOf(String str, int fromIndex) throws IOException {
+        int idx = skelBuf.indexOf(str, fromIndex);
+        while (idx == -1) {
+            // Only the tail end of what we have already searched could be
+            // the start of a match that spans into the next block.
+            int searchFrom = Math.max(fromIndex, 
+                    skelBuf.length() - str.length() + 1);
+            if (!readMore()) {
+                break;
+            }
+            idx = skelBuf.indexOf(str, searchFrom);
+        }
+        return idx;
+    }
+    
+    /**
+     * Write the first len characters of the skeleton buffer to the skeleton
+     * stream.
+     * @param skel Where to write
+     * @param len How many characters to write
+     * @throws java.io.IOException
+     *         if an I/O error occurs.
+     */
+    private void writeBuf(Writer skel, int len) throws IOException {
+        for (int i = 0; i < len; i += BLKSIZE) {
+            int end = Math.min(len, i + BLKSIZE);
+            skelBuf.getChars(i, end, readBuf, 0);
+            skel.write(readBuf, 0, end - i);
+        }
+    }
+    
+    /**
+     * Write out (and drop from the window) the part of the skeleton buffer
+     * that we will never revisit: Everything before the current position,
+     * the start of the tag we most recently sought to (where attribute
+     * placeholders might still be inserted) and the current attribute value.
+     * Offsets into the buffer are adjusted accordingly.
+     * @param skel Where to write
+     * @throws java.io.IOException
+     *         if an I/O error occurs.
+     */
+    private void flushSettled(Writer skel) throws IOException {
+        int settled = Math.min(xmlStreamPos, prevTagSeekOffset);
+        if (inAttr) {
+            settled = Math.min(settled, attrValOffset);
+        }
+        settled--;            // Keep the char before the tag (for attr seeks)
+        
+        if (settled < FLUSH_THRESHOLD) {
+            return;
+        }
+        
+        writeBuf(skel, settled);
+        skelBuf.delete(0, settled);
+        xmlStreamPos -= settled;
+        prevTagSeekOffset -= settled;
+        attrValOffset -= settled;
     }
     
     /**
@@ -320,7 +444,8 @@ public class XMLSkeletonMerger implements SkeletonMerger {
      * @param beginOrEnd The above tag is either a "begin" or "end" tag.
      * @param deleteThru Delete to "before" or "after" the specified tag.
      */
-    private void deleteToTag(String tag, String beginOrEnd, String deleteThru) {
+    private void deleteToTag(String tag, String beginOrEnd, String deleteThru)
+            throws IOException {
         String tagPrefix = "";
         int tagStartsAt = -1;
         int deleteTo = -1;
@@ -333,7 +458,7 @@ public class XMLSkeletonMerger implements SkeletonMerger {
         }
 
         // Where does the tag we're looking for start?
-        tagStartsAt = skelBuf.indexOf(tagPrefix,xmlStreamPos);
+        tagStartsAt = indexOf(tagPrefix,xmlStreamPos);
         if (tagStartsAt == -1) {       // Ending tag doesn't exist
             System.err.println("XMLSkeletonMerger.deleteToTag: Can't find start tag at seq=" + tSkelSeqNo);
             prevTagWasEmpty = false;  // Not empty (nonexistent, in fact!)
@@ -345,6 +470,7 @@ public class XMLSkeletonMerger implements SkeletonMerger {
         // find </abcdef>.)
         boolean found = false;
         while (!found) {
+            fillThrough(tagStartsAt + tagPrefix.length());
             if (skelBuf.substring(tagStartsAt + tagPrefix.length(), 
                     tagStartsAt + tagPrefix.length() + 1).matches("[\\s/>]")) {
                 // Yes, the substring is followed by whitespace or > (or / if empty element)
@@ -352,7 +478,7 @@ public class XMLSkeletonMerger implements SkeletonMerger {
             }
             else { // We matched a longer tag whose prefix matches the one
                 // we're looking for. Keep looking for an exact match.
-                tagStartsAt = skelBuf.indexOf(tagPrefix,tagStartsAt + 1);
+                tagStartsAt = indexOf(tagPrefix,tagStartsAt + 1);
                 if (tagStartsAt == -1) {
                     System.err.println("XMLSkeletonMerger.deleteToTag: Cannot find start tag at seq=" + tSkelSeqNo);
                     prevTagWasEmpty = false;  // Not empty (nonexistent, in fact!)
@@ -365,7 +491,7 @@ public class XMLSkeletonMerger implements SkeletonMerger {
         }
         else { // We need to delete through the end of the tag ("after")
             // Find the tag end:
-            deleteTo = skelBuf.indexOf(">", tagStartsAt + tagPrefix.length());
+            deleteTo = indexOf(">", tagStartsAt + tagPrefix.length());
             if (deleteTo > -1) {
                 // If this tag is an empty tag, note it for later (when we delete to/seek
                 // to the next end tag.
@@ -437,10 +563,11 @@ public class XMLSkeletonMerger implements SkeletonMerger {
      * @param parentElement The name of the parent element.
      * @return true if no problems, else false.
      */
-    private boolean seekBackToAttr(String attrName, String parentElement) {
+    private boolean seekBackToAttr(String attrName, String parentElement)
+            throws IOException {
         // Look for the attr name between the start of the previous tag and
         // the XmlStreamPos
-        int startsAt = skelBuf.indexOf(attrName + "=", this.prevTagSeekOffset);
+        int startsAt = indexOf(attrName + "=", this.prevTagSeekOffset);
         
         if (startsAt == -1 || startsAt > xmlStreamPos) {
             // Out of range!! Bail out
@@ -463,7 +590,7 @@ public class XMLSkeletonMerger implements SkeletonMerger {
                 matched = true;
             }
             else { // Look further
-                startsAt = skelBuf.indexOf(attrName + "=", startsAt + 1);
+                startsAt = indexOf(attrName + "=", startsAt + 1);
                 if (startsAt == -1 || startsAt > xmlStreamPos) {
                     // Out of range!! Bail out
                     System.err.println("XMLSkeletonMerger.seekBackToAttr: Index (" 
@@ -476,6 +603,7 @@ public class XMLSkeletonMerger implements SkeletonMerger {
         
         // If we're still here, we ought to be positioned at the desired
         // attribute. Delete the current attribute value and adjust indexes, etc.
+        fillThrough(startsAt + (attrName + "=").length());
         char quotChar = skelBuf.charAt(startsAt + (attrName + "=").length());
         if (quotChar != '"' && quotChar != '\'') {
             System.err.println("XMLSkeletonMerger.seekBackToAttr: Invalid quote "
@@ -486,7 +614,7 @@ public class XMLSkeletonMerger implements SkeletonMerger {
         this.attrValOffset = startsAt + (attrName + "=").length() + 1;
         
         // Find the ending quote of the attribute value:
-        int closeQuotePos = skelBuf.indexOf(Character.toString(quotChar), attrValOffset);
+        int closeQuotePos = indexOf(Character.toString(quotChar), attrValOffset);
         if (closeQuotePos == -1) {
             System.err.println("XMLSkeletonMerger.seekBackToAttr: Cannot find "
                 + "close quote of attribute value " + attrName + " at seq=" + tSkelSeqNo);
@@ -517,7 +645,8 @@ public class XMLSkeletonMerger implements SkeletonMerger {
      * @param beginOrEnd Either "begin" or "end" (i.e. an opening or closing tag)
      * @param seekThru Seek to "before" or "after" the specified tag.
      */
-    private void seekToTag(String tag, String beginOrEnd, String seekThru) {
+    private void seekToTag(String tag, String beginOrEnd, String seekThru)
+            throws IOException {
         String tagPrefix = "";
         int tagStartsAt = -1;
         int endOfTag = -1;
@@ -526,7 +655,7 @@ public class XMLSkeletonMerger implements SkeletonMerger {
         // Handle CDATA delimiters--Seek just past the delimiter
         if (tag.equals("<![CDATA[")) {
             // Look for the start of CDATA, beginning at the current XML stream position.
-            tagStartsAt = skelBuf.indexOf(tag,xmlStreamPos);
+            tagStartsAt = indexOf(tag,xmlStreamPos);
             if (tagStartsAt == -1) {
                 System.err.println("XMLSkeletonMerger.seekToTag: Can't find CDATA start delimiter at seq=" + tSkelSeqNo);
                 prevTagWasEmpty = false;  // Not empty (nonexistent, in fact! Actually, not a tag!)
@@ -539,7 +668,7 @@ public class XMLSkeletonMerger implements SkeletonMerger {
         }
         else if (tag.equals("]]>")) {
             // Look for the end of CDATA, beginning at the current XML stream position.
-            tagStartsAt = skelBuf.indexOf(tag,xmlStreamPos);
+            tagStartsAt = indexOf(tag,xmlStreamPos);
             if (tagStartsAt == -1) {
                 System.err.println("XMLSkeletonMerger.seekToTag: Can't find CDATA end delimiter at seq=" + tSkelSeqNo);
                 prevTagWasEmpty = false;  // Not empty (nonexistent, in fact! Actually, not a tag!)
@@ -561,7 +690,7 @@ public class XMLSkeletonMerger implements SkeletonMerger {
 
         // Note: We need to handle the case where an end tag has whitespace
         // before the closing '>' (spans two lines, etc.)
-        tagStartsAt = skelBuf.indexOf(tagPrefix,xmlStreamPos);
+        tagStartsAt = indexOf(tagPrefix,xmlStreamPos);
         if (tagStartsAt == -1) {
             System.err.println("XMLSkeletonMerger.seekToTag: Can't find start tag at seq=" + tSkelSeqNo);
             prevTagWasEmpty = false;  // Not empty (nonexistent, in fact!)
@@ -574,6 +703,7 @@ public class XMLSkeletonMerger implements SkeletonMerger {
         boolean found = false;
         char ch = 0;
         while (!found) {
+            fillThrough(tagStartsAt + tagPrefix.length());
 //            if (skelBuf.substring(tagStartsAt + tagPrefix.length(), 
 //                    tagStartsAt + tagPrefix.length() + 1).matches("[\\s/>]")) {
             if ((ch = skelBuf.charAt(tagStartsAt + tagPrefix.length())) == ' ' ||
@@ -586,7 +716,7 @@ public class XMLSkeletonMerger implements SkeletonMerger {
             }
             else { // We matched a longer tag whose prefix matches the one
                 // we're looking for. Keep looking for an exact match.
-                tagStartsAt = skelBuf.indexOf(tagPrefix,tagStartsAt + 1);
+                tagStartsAt = indexOf(tagPrefix,tagStartsAt + 1);
                 if (tagStartsAt == -1) {
                     System.err.println("XMLSkeletonMerger.seekToTag: Cannot find start tag at seq=" + tSkelSeqNo);
                     prevTagWasEmpty = false;  // Not empty (nonexistent, in fact!)
@@ -602,7 +732,7 @@ public class XMLSkeletonMerger implements SkeletonMerger {
         }
         else {  // Seek to *after* the tag.
             // Find the > at the end of the tag.
-            endOfTag = skelBuf.indexOf(">", tagStartsAt + tagPrefix.length());
+            endOfTag = indexOf(">", tagStartsAt + tagPrefix.length());
             if (endOfTag > -1) {     // Verify that there is a closing >
                 // See if this is an empty element and note it duly
                 if (skelBuf.charAt(endOfTag -1) == '/') {
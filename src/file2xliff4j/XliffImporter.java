@@ -308,9 +308,9 @@ class TuTarget {
  */
 public class XliffImporter extends DefaultHandler implements Converter, LexicalHandler  {
 
-    private OutputStreamWriter xliffOut;
-    private OutputStreamWriter tskeletonOut;
-    private OutputStreamWriter formatOut;
+    private OutputSink xliffOut;
+    private OutputSink tskeletonOut;
+    private OutputSink formatOut;
     private Locale sourceLanguage;         // For the source-language attribute
     private String dataType;               // For the datatype attribute
     private String originalFileName;       // For the original attribute
@@ -460,20 +460,12 @@ public class XliffImporter extends DefaultHandler implements Converter, LexicalH
         // Create output stream writers for the SAX handler to write to.
         // We will store our output as UTF-8
         try {
-            xliffOut  = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + inputXliffFileName + Converter.xliffSuffix),
-                    "UTF8");
-            tskeletonOut = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + inputXliffFileName + Converter.tSkeletonSuffix),
-                    "UTF8");
-            formatOut = new OutputStreamWriter(new FileOutputStream(
-                    baseDir + File.separator + inputXliffFileName + Converter.formatSuffix),
-                    "UTF8");
-        }
-        catch (UnsupportedEncodingException e) {
-            System.err.println("Unable to write XLIFF as UTF-8!!");
-            System.err.println(e.getMessage());
-            throw new ConversionException("Unable to write XLIFF as UTF-8: " + e.getMessage());
+            xliffOut  = new OutputSink(
+                    baseDir + File.separator + inputXliffFileName + Converter.xliffSuffix);
+            tskeletonOut = new OutputSink(
+                    baseDir + File.separator + inputXliffFileName + Converter.tSkeletonSuffix);
+            formatOut = new OutputSink(
+                    baseDir + File.separator + inputXliffFileName + Converter.formatSuffix);
         }
         catch (FileNotFoundException e) {
             System.err.println(e.getMessage());
@@ -484,17 +476,10 @@ public class XliffImporter extends DefaultHandler implements Converter, LexicalH
         
         try {
             // Let's parse with the an XML Reader
-            parser = XMLReaderFactory.createXMLReader();
+            parser = SAXParserPool.acquire(SAXParserPool.Config.XML_NAMESPACES);
             
             parser.setContentHandler(this); // We're gonna handle content ourself
 
-            // Maintain the case (upper/lower) of tags (elements) and attributes 
-            // Include namespaces in the StartElement() attlist:
-            parser.setFeature("http://xml.org/sax/features/namespaces", true);
-            
-            // Also include namespace-prefixes:
-            parser.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
-
             // The Reader prevents SAX from recognizing the byte-order mark (BOM)
             //Reader inReader = new InputStreamReader(new FileInputStream(
             //        baseDir + File.separator + inputXliffFileName), encoding);
@@ -514,6 +499,9 @@ public class XliffImporter extends DefaultHandler implements Converter, LexicalH
             System.err.println("I/O error reading XLIFF input.");
             System.err.println("I/O error reading XLIFF input: " + e.getMessage());
         }
+        finally {
+            SAXParserPool.release(SAXParserPool.Config.XML_NAMESPACES, parser);
+        }
 
         try {
             /* Close the files we created above */
@@ -2147,7 +2135,6 @@ public class XliffImporter extends DefaultHandler implements Converter, LexicalH
         if (text != null) {
             try {
                 formatOut.write(text);
-                formatOut.flush();   // For debugging only
             }
             catch(IOException e) {
                 System.err.println("Error writing format file.");
@@ -2166,7 +2153,6 @@ public class XliffImporter extends DefaultHandler implements Converter, LexicalH
         if (text != null) {
             try {
                 tskeletonOut.write(text);
-                tskeletonOut.flush();    // For debugging
             }
             catch(IOException e) {
                 System.err.println("Error writing tskeleton file.");
@@ -2187,7 +2173,6 @@ public class XliffImporter extends DefaultHandler implements Converter, LexicalH
 
         try {
             xliffOut.write(text);
-            xliffOut.flush();   // For debugging
         }
         catch(IOException e) {
             System.err.println("Error writing to XLIFF: " + e.getMessage());
@@ -51,6 +51,14 @@ import org.xml.sax.helpers.XMLReaderFactory;
 public class XulDtdImporter implements Converter {
 
     private int curIndent = 0;
+    
+    // If non-null, the index in which to look up repeated segments
+    private RepetitionIndex repetitions = null;
+    
+    // Set by ImportStatistics.PROPERTY: whether to keep statistics of the
+    // TUs written (in statistics, which getConversionProperty returns)
+    private boolean keepStatistics = false;
+    private ImportStatistics statistics = null;
     /**
      * Create an XulDtdImporter 
      */
@@ -135,17 +143,18 @@ public class XulDtdImporter implements Converter {
             throw new ConversionException("Input DTD file does not exist.");
         }
 
+        // If requested, keep statistics of the TUs as they are written
+        statistics = ImportStatistics.forImport(keepStatistics, baseDir, nativeFileName);
+        
         // Output the XLIFF prolog
         try {
             // Create input reader and output writers
             BufferedReader dtdRdr = new BufferedReader(new InputStreamReader(
                 new FileInputStream(inDtd), Charset.forName("UTF-8")));
             
-            BufferedWriter xliffWtr  = new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(outXliff), "UTF8"));
+            OutputSink xliffWtr  = new OutputSink(outXliff);
 
-            BufferedWriter skelWtr  = new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(outSkel), "UTF8"));
+            OutputSink skelWtr  = new OutputSink(outSkel);
             
             // Write the "prolog" of the XLIFF file
             xliffWtr.write(Converter.xmlDeclaration);
@@ -156,7 +165,6 @@ public class XulDtdImporter implements Converter {
                 + "' source-language='" + language.toString() + "' datatype='xmldtd'>\r\n");
             xliffWtr.write(indent() + "<header lt:segtype='sentence'");
             xliffWtr.write(">\r\n" + indent('0') + "</header>\r\n" + indent('0') + "<body>\r\n");
-            xliffWtr.flush();
         
             // Now read every line in the input DTD, looking for lines with
             // ENTITY declarations
@@ -196,19 +204,22 @@ public class XulDtdImporter implements Converter {
                     
                     
                     UUID curTuID = UUID.randomUUID();
+                    String coreText = entityVal.replace("&", "&amp;").replace("<", "&lt;").replace(">", 
+                            "&lt;").replace("'", "&apos;").replace("\"", "&quot;");
                     xliffWtr.write(indent('0')
                         + "<trans-unit id='" + curTuID + "' "
-                        + "lt:paraID='" + curTuID + "'>\r\n");
+                        + "lt:paraID='" + curTuID + "'"
+                        + ImportStatistics.recordTu(curTuID, coreText,
+                                repetitions, statistics)
+                        + ">\r\n");
                     // Open the source element
                     xliffWtr.write(indent('+') + "<source xml:lang='" 
                         + language.toString() + "'><mrk mtype='x-coretext'>"
-                        + entityVal.replace("&", "&amp;").replace("<", "&lt;").replace(">", 
-                            "&lt;").replace("'", "&apos;").replace("\"", "&quot;")
+                        + coreText
                         + "</mrk></source>\r\n");
 
                     // ... and the trans-unit end tag
                     xliffWtr.write(indent('-') + "</trans-unit>\r\n");
-                    xliffWtr.flush();
                     
                     // Write the ENTITY (substituting a TU ID placeholder for
                     // the value) to the skeleton
@@ -222,7 +233,6 @@ public class XulDtdImporter implements Converter {
                     // echo the input to the output
                     skelWtr.write(dtdLine + "\n");
                 }
-                skelWtr.flush();
             }
         
             // Then finish off the XLIFF file
@@ -233,6 +243,9 @@ public class XulDtdImporter implements Converter {
             
             /* Close the files we created above */
             xliffWtr.close();
+            if (statistics != null) {
+                statistics.close();
+            }
             skelWtr.close();
         }
         catch(java.io.IOException e) {
@@ -418,6 +431,9 @@ public class XulDtdImporter implements Converter {
      * @return An Object that represents the property's value.
      */
     public Object getConversionProperty(String property) {
+        if (property.equals(ImportStatistics.PROPERTY)) {
+            return statistics;
+        }
         return null;
     }
 
@@ -489,8 +505,9 @@ public class XulDtdImporter implements Converter {
     /**
      * Set a format-specific property that might affect the way that the
      * conversion occurs.
-     * <p><i>Note:</i> This converter needs no format-specific properties.
-     * If any are passed, they will be silently ignored.
+     * <p>The properties recognized are RepetitionIndex.PROPERTY (to mark
+     * repeated segments) and ImportStatistics.PROPERTY (to keep statistics
+     * of the TUs written). Others will be silently ignored.
      * @param property The name of the property
      * @param value The value of the property
      * @throws file2xliff4j.ConversionException
@@ -498,6 +515,12 @@ public class XulDtdImporter implements Converter {
      */
     public void setConversionProperty(String property, Object value)
             throws ConversionException {
+        if (property.equals(RepetitionIndex.PROPERTY)) {
+            repetitions = RepetitionIndex.forProperty(value);
+        }
+        else if (property.equals(ImportStatistics.PROPERTY)) {
+            keepStatistics = ImportStatistics.isEnabled(value);
+        }
         return;
     }
 
@@ -0,0 +1,131 @@
+/*
+ * CoreScannerTest.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that TuPreener's CoreScanner marks the core of a TU exactly as the
+ * regular expressions of markCoreTuByRegex do--for TUs generated from
+ * white space (including CR LF and other line terminators), hyphens,
+ * entities, bx/ex/x tags, other tags and HTML-like tags represented as
+ * entities, with and without preenHtmlFromXML.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+public class CoreScannerTest {
+
+    // The pieces generated TUs are made of
+    private static final String[] ATOMS = {
+        " ", "  ", "\t", "\r\n", "\r", "\n", "\u0085", "\u2029", "\u00a0", "\u2003",
+        "\u3000", "-", "\u2014",
+        "Hello", "there", "Mr.", "3.", ". ", "! ", "?", "_", "\u65e5\u672c",
+        "&amp;", "&lt;", "&gt;", "&quot;", "&#x201d;", "&#160;",
+        "<bx id='1' rid='1'/>", "<ex id='2' rid='1'/>",
+        "<bx id='3' rid='2'/>", "<ex id='4' rid='2'/>",
+        "<bx id=\"5\" rid=\"3\"/>", "<ex id=\"6\" rid=\"3\"/>",
+        "<x id='7'/>", "<x id='8' ctype='lb'/>", "<b>", "</b>", "<", ">",
+        "&lt;b&gt;", "&lt;/i&gt;", "&lt;br/&gt;", "&lt;a href='x'&gt;",
+        "&lt;p class=\"c\"/&gt;"
+    };
+
+    // Boundary types and preenHtmlFromXML values to check each TU with
+    private static final SegmentBoundary[] BOUNDARIES = {
+        SegmentBoundary.PARAGRAPH, SegmentBoundary.SENTENCE
+    };
+    private static final boolean[] PREEN = { false, true };
+
+    /**
+     * Check TUs that exercise the regexes' treatment of line terminators
+     * and of the tags at the edges of the core.
+     */
+    @Test
+    public void testEdgeCases() {
+        String[] tus = {
+            "Hello",
+            "  Hello there.  ",
+            "\r\nHello",
+            " \r\n Hello",
+            "Hello\r\n",
+            "Hello \r\n",
+            "Hello\n",
+            "Hello\r\n\r\n",
+            "\r\n\r\n<bx id='1' rid='1'/>&amp;",
+            "Done.\r\n\r\n<bx id='1' rid='1'/>&amp;",
+            "<bx id='1' rid='1'/>Hello<ex id='2' rid='1'/>",
+            "<bx id='1' rid='1'/> Hello <ex id='2' rid='1'/> ",
+            "<bx id='1' rid='1'/>Hello<ex id='2' rid='2'/>",
+            "<ex id='2' rid='1'/>Hello <bx id='3' rid='2'/>",
+            "<x id='1'/>Hello<x id='2'/>",
+            "<x id='1'/>\r\n<x id='2'/>Hello",
+            "<b>Hello</b>",
+            "<b\r\n>Hello",
+            "Hello<b\r\n>",
+            "&lt;b&gt;Hello&lt;/b&gt;",
+            " &lt;b&gt; Hello &lt;/b&gt; ",
+            "&lt;b&gt;&lt;i&gt;Hello&lt;/i&gt;&lt;/b&gt;",
+            "- Hello -",
+            "<x id='1'/> - ",
+            "&lt;br/&gt;"
+        };
+        for (String tu : tus) {
+            checkTu(tu);
+        }
+    }
+
+    /**
+     * Check TUs generated (reproducibly) from ATOMS.
+     */
+    @Test
+    public void testGeneratedTus() {
+        Random random = new Random(31);
+        StringBuilder tu = new StringBuilder();
+        for (int n = 0; n < 40000; n++) {
+            tu.setLength(0);
+            int numAtoms = 1 + random.nextInt(12);
+            for (int i = 0; i < numAtoms; i++) {
+                tu.append(ATOMS[random.nextInt(ATOMS.length)]);
+            }
+            checkTu(tu.toString());
+        }
+    }
+
+    /**
+     * Compare the scanner with the regexes for a TU (that markCoreTu would
+     * pass to them), for each boundary type and preenHtmlFromXML value.
+     */
+    private void checkTu(String tu) {
+        if (tu.trim().length() == 0) {
+            return;                   // markCoreTu returns "" itself
+        }
+        TuPreener.CoreScanner scanner = TuPreener.CoreScanner.get();
+        for (SegmentBoundary boundary : BOUNDARIES) {
+            for (boolean preen : PREEN) {
+                String expected = TuPreener.markCoreTuByRegex(tu, boundary, preen);
+                assertEquals("[" + tu + "] " + boundary + (preen ? " (preen)" : ""),
+                    expected, scanner.markCore(tu, boundary, preen));
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * CoreSegmentsTest.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of TuPreener.getCoreSegments: The segments of a paragraph must
+ * reassemble into the paragraph, and a '<' in raw (unescaped) text must be
+ * segmented as text.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+public class CoreSegmentsTest {
+
+    // The pieces generated TU strings are made of
+    private static final String[] TU_ATOMS = {
+        "-", ".", " ", "  ", "\r\n", "\r\n\r\n", "\n", "\r", "&amp;", "&quot;",
+        "&#x201d;", "\"", "'", "<bx id='2' rid='1'/>", "<ex id='3' rid='1'/>",
+        "<x id='4'/>", "Hello", "there", "Mr.", "! ", "? ", ". ", "Done.", "A",
+        "b", "3.", "\u3002"
+    };
+
+    // The pieces generated raw text is made of
+    private static final String[] RAW_ATOMS = {
+        "Hello", "there", "Mr.", ". ", "! ", "? ", " ", "<", ">", "<b", "a>",
+        "<?", "<!", "Press Enter.", "wait", "&amp;", "&", "-", "3.", "x", " <"
+    };
+
+    /**
+     * Check that a '<' in raw text doesn't hide the text up to the next '>'
+     * from the segmentation engine.
+     */
+    @Test
+    public void testRawTextLessThan() {
+        checkCores("<Press Enter. Then wait>", "<Press Enter.", "Then wait>");
+        checkCores("<?Hello there> ", "<?", "Hello there>");
+        checkCores("Note: <see below. Really> ok.", "Note: <see below.",
+            "Really> ok.");
+        checkCores("<b>Hello.</b>", "<b>Hello.", "</b>");
+        checkCores("<Hello there>", "<Hello there>");
+        checkCores("Yes. <x id='1'/>No.", "Yes.", "No.");
+    }
+
+    /**
+     * Check that the segments of generated TU strings (that include CR LF)
+     * reassemble into the TU string.
+     */
+    @Test
+    public void testTuReassembly() {
+        checkReassembly("Done.\r\n\r\n<bx id='1' rid='1'/>&amp;", false);
+        checkReassembly("\r\nHello. There.", false);
+        checkReassembly("Hello.<x id='4'/>\r\n\r\n<x id='4'/>", false);
+        Random random = new Random(35);
+        for (int n = 0; n < 20000; n++) {
+            checkReassembly(generate(random, TU_ATOMS), false);
+        }
+    }
+
+    /**
+     * Check that the segments of generated raw text reassemble into the
+     * text--and that text with something meaningful in it has segments.
+     */
+    @Test
+    public void testRawReassembly() {
+        Random random = new Random(36);
+        for (int n = 0; n < 20000; n++) {
+            String text = generate(random, RAW_ATOMS);
+            SegmentInfo[] segments = checkReassembly(text, true);
+            if (text.trim().replace("-", "").length() > 0) {
+                assertTrue("[" + text + "]", segments.length > 0);
+            }
+        }
+    }
+
+    /** Return a paragraph made of up to 16 random atoms */
+    private static String generate(Random random, String[] atoms) {
+        StringBuilder para = new StringBuilder();
+        int numAtoms = 1 + random.nextInt(16);
+        for (int i = 0; i < numAtoms; i++) {
+            para.append(atoms[random.nextInt(atoms.length)]);
+        }
+        return para.toString();
+    }
+
+    /**
+     * Check that the cores of the sentence segments of some raw text are the
+     * ones expected.
+     */
+    private static void checkCores(String text, String... cores) {
+        SegmentInfo[] segments = TuPreener.getCoreSegments(text,
+            SegmentBoundary.SENTENCE, Locale.US, false, true);
+        assertEquals("[" + text + "]", cores.length, segments.length);
+        for (int i = 0; i < cores.length; i++) {
+            assertEquals("[" + text + "]", cores[i],
+                TuPreener.getCoreText(segments[i].getSegmentStr()));
+        }
+    }
+
+    /**
+     * Check that the sentence (and SRX) segments of a paragraph reassemble
+     * into the paragraph. Return the sentence segments.
+     */
+    private static SegmentInfo[] checkReassembly(String para, boolean rawText) {
+        SegmentInfo[] sentences = null;
+        for (SegmentBoundary boundary : new SegmentBoundary[] {
+                SegmentBoundary.SENTENCE, SegmentBoundary.SRX }) {
+            SegmentInfo[] segments = TuPreener.getCoreSegments(para, boundary,
+                Locale.US, false, rawText);
+            if (segments.length == 0) {
+                continue;
+            }
+            StringBuilder all = new StringBuilder();
+            for (SegmentInfo segment : segments) {
+                all.append(TuPreener.removeCoreMarks(segment.getSegmentStr()));
+            }
+            assertEquals(boundary + " [" + para + "]", para, all.toString());
+            if (boundary.equals(SegmentBoundary.SENTENCE)) {
+                sentences = segments;
+            }
+        }
+        return (sentences == null) ? new SegmentInfo[0] : sentences;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * SrxSegmenterTest.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of SrxSegmenter: each position is decided by the first rule that
+ * matches it (even where the matches of a rule overlap), segmenting a long
+ * run of punctuation takes linear time, and an importer segments with the
+ * rules the srxrules conversion property specifies.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+public class SrxSegmenterTest {
+
+    // Rules: No break between two initials, or after two initials that
+    // precede a capitalized word; break after ". " and "; ".
+    private static final String SRX
+        = "<?xml version='1.0' encoding='UTF-8'?>\n"
+        + "<srx xmlns='http://www.lisa.org/srx20' version='2.0'>\n"
+        + "<header segmentsubflows='yes' cascade='no'/>\n"
+        + "<body><languagerules><languagerule languagerulename='Test'>\n"
+        + "<rule break='no'><beforebreak>\\b\\p{Lu}\\.\\s</beforebreak>"
+        + "<afterbreak>\\p{Lu}\\.</afterbreak></rule>\n"
+        + "<rule break='no'><beforebreak>\\p{Lu}\\.\\s\\p{Lu}\\.\\s</beforebreak>"
+        + "<afterbreak>\\p{Lu}</afterbreak></rule>\n"
+        + "<rule break='yes'><beforebreak>[\\.;]\\s</beforebreak>"
+        + "<afterbreak>\\S</afterbreak></rule>\n"
+        + "</languagerule></languagerules>\n"
+        + "<maprules><languagemap languagepattern='.*' "
+        + "languagerulename='Test'/></maprules></body></srx>\n";
+
+    private File tempDir;
+    private File srxFile;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = File.createTempFile("srxtest", "");
+        tempDir.delete();
+        tempDir.mkdir();
+        srxFile = new File(tempDir, "test.srx");
+        write(srxFile, SRX);
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : tempDir.listFiles()) {
+            file.delete();
+        }
+        tempDir.delete();
+    }
+
+    /**
+     * Check that an exception rule vetoes a break where its match overlaps
+     * its previous match. ("A. B. " and "B. C. " both match the second
+     * rule.)
+     */
+    @Test
+    public void testOverlappingMatches() throws ConversionException {
+        SrxSegmenter segmenter = new SrxSegmenter(srxFile);
+        assertArrayEquals(new int[] {14, 18},
+            segmenter.getSegmentEnds("A. B. C. End. Next", Locale.ENGLISH));
+        assertArrayEquals(new int[] {5, 10, 11},
+            segmenter.getSegmentEnds("One; Two. x", Locale.ENGLISH));
+    }
+
+    /**
+     * Check that the built-in rules segment long runs of punctuation (and
+     * of abbreviations) in linear time.
+     */
+    @Test(timeout = 20000)
+    public void testLongRuns() throws ConversionException {
+        SrxSegmenter segmenter = SrxSegmenter.getDefault();
+        for (String run : new String[] {".", ". ", "!?", "Mr. ", "z. B. "}) {
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 500000) {
+                text.append(run);
+            }
+            text.append("End");
+            segmenter.getSegmentEnds(text.toString(), Locale.ENGLISH);
+            segmenter.getSegmentEnds(text.toString(), Locale.GERMAN);
+        }
+    }
+
+    /**
+     * Check that PlaintextImporter segments with the rules of the SRX file
+     * the srxrules conversion property names--and with the built-in rules
+     * if it isn't set.
+     */
+    @Test
+    public void testConversionProperty() throws IOException, ConversionException {
+        assertEquals(2, countTus(srxFile.getPath()));
+        assertEquals(1, countTus(null));
+    }
+
+    /**
+     * Import a plaintext file with SRX boundaries, and return the number of
+     * TUs in the XLIFF.
+     */
+    private int countTus(String srxPath) throws IOException, ConversionException {
+        write(new File(tempDir, "para.txt"), "Hello; world\n");
+        PlaintextImporter importer = new PlaintextImporter();
+        if (srxPath != null) {
+            importer.setConversionProperty(SrxSegmenter.PROPERTY, srxPath);
+        }
+        importer.convert(ConversionMode.TO_XLIFF, Locale.ENGLISH, null, 0,
+            Charset.forName("UTF-8"), FileType.PLAINTEXT, "para.txt",
+            tempDir.getPath(), null, SegmentBoundary.SRX, null);
+        
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            new FileInputStream(new File(tempDir, "para.txt" 
+                + Converter.xliffSuffix)), "UTF-8"));
+        int numTus = 0;
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.contains("<trans-unit ")) {
+                    numTus++;
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+        return numTus;
+    }
+
+    /** Write a string to a (UTF-8) file */
+    private static void write(File file, String text) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(text);
+        }
+        finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * StreamingSegmenterTest.java
+ *
+ * Copyright (C) 2007. Lingotek, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA
+ */
+
+package file2xliff4j;
+
+import java.io.*;
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that StreamingSegmenter finds the segments TuPreener.getCoreSegments
+ * does--whether it reads a paragraph from a CharSequence or a Reader, or is
+ * fed it a piece (a "line") at a time.
+ *
+ * @author Weldon Whipple &lt;weldon@lingotek.com&gt;
+ */
+public class StreamingSegmenterTest {
+
+    // The pieces generated paragraphs are made of
+    private static final String[] ATOMS = {
+        "-", ".", " ", "  ", "&amp;", "&", ";", "\"", "'", "<", ">", "<b", 
+        "<x id='4'/>", "<bx id='2' rid='1'/>", "<ex id='3' rid='1'/>", 
+        "Hello", "there", "Mr.", "! ", "? ", ". ", "A", "3.", "e.g. ", 
+        "Some more words ", "End. Next", "\u3002"
+    };
+
+    private static final SegmentBoundary[] BOUNDARIES = {
+        SegmentBoundary.PARAGRAPH, SegmentBoundary.SENTENCE, SegmentBoundary.SRX
+    };
+
+    /**
+     * Check long generated (raw) paragraphs--several chunks long--each read
+     * and fed in the three ways.
+     */
+    @Test
+    public void testGeneratedParagraphs() throws ConversionException {
+        Random random = new Random(36);
+        for (int n = 0; n < 60; n++) {
+            String para = generate(random, 1 + random.nextInt(40000));
+            for (SegmentBoundary boundary : BOUNDARIES) {
+                List<String> expected = new ArrayList<String>();
+                for (SegmentInfo segment : TuPreener.getCoreSegments(para, 
+                        boundary, Locale.US, false, true)) {
+                    expected.add(segment.getSegmentStr());
+                }
+                
+                Collector got = new Collector();
+                StreamingSegmenter segmenter = new StreamingSegmenter(boundary,
+                    Locale.US, false, true, got);
+                assertEquals(expected.size(), segmenter.segment(para));
+                assertEquals(boundary.toString(), expected, got.segments);
+                
+                got.segments.clear();
+                assertEquals(expected.size(), 
+                    segmenter.segment(new StringReader(para)));
+                assertEquals(boundary.toString(), expected, got.segments);
+                
+                // Feed it in pieces (reusing the segmenter)
+                got.segments.clear();
+                int numSegments = 0;
+                for (int pos = 0; pos < para.length(); ) {
+                    int end = Math.min(para.length(), pos + random.nextInt(200));
+                    numSegments += segmenter.append(para, pos, end);
+                    pos = end;
+                }
+                numSegments += segmenter.finish();
+                assertEquals(expected.size(), numSegments);
+                assertEquals(boundary.toString(), expected, got.segments);
+                assertEquals(expected.isEmpty() ? para : null, 
+                    segmenter.getUnsegmentedText());
+            }
+        }
+    }
+
+    /**
+     * Check that a paragraph with no translatable text has no segments, and
+     * that its text is returned by getUnsegmentedText.
+     */
+    @Test
+    public void testUnsegmentedText() {
+        for (SegmentBoundary boundary : BOUNDARIES) {
+            Collector got = new Collector();
+            StreamingSegmenter segmenter = new StreamingSegmenter(boundary,
+                Locale.US, false, true, got);
+            segmenter.append(" - ");
+            segmenter.append("<x id='4'/> ");
+            assertEquals(0, segmenter.finish());
+            assertEquals(" - <x id='4'/> ", segmenter.getUnsegmentedText());
+            
+            segmenter.append("Hello. ");
+            segmenter.append("There.");
+            assertTrue(segmenter.finish() > 0);
+            assertNull(segmenter.getUnsegmentedText());
+        }
+    }
+
+    /** Return a paragraph of (about) the specified length */
+    private static String generate(Random random, int length) {
+        StringBuilder para = new StringBuilder();
+        while (para.length() < length) {
+            para.append(ATOMS[random.nextInt(ATOMS.length)]);
+        }
+        return para.toString();
+    }
+
+    /** Handler that collects the segment strings */
+    private static class Collector implements StreamingSegmenter.SegmentHandler {
+        List<String> segments = new ArrayList<String>();
+        
+        public void handleSegment(SegmentInfo segment, boolean hasSuccessor) {
+            segments.add(segment.getSegmentStr());
+        }
+    }
+}